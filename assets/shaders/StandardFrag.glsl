@@ -43,17 +43,25 @@ uniform int heightMapped;
 uniform int hasLighting;
 uniform int solidColor;
 uniform vec3 color;
+uniform float opacity;
 uniform int num_lights;
 uniform int fields_per_light;
+uniform vec3 max_light_ambient;
+uniform ivec3 cluster_dims;      // tiles across, tiles down, depth slices
+uniform vec4 cluster_viewport;   // viewport x, y, width, height in pixels
+uniform vec3 cluster_depth;      // near and far clip distances, slices per log(distance/near)
 
 layout (std430, binding=0) buffer lightBuffer { float lightArray[]; };
+
+// for each cluster, the offset and count of its lights in the list that follows
+layout (std430, binding=2) buffer clusterBuffer { int clusterData[]; };
 layout (binding = 0) uniform sampler2D samp;
 layout (binding = 1) uniform samplerCube t;
 layout (binding = 2) uniform sampler2D height;
 
 vec3 lightDir, L, N, V, R, ambient, diffuse, specular, thisAmbient, thisDiffuse, thisSpecular;
 float cosTheta, cosPhi, intensity, attenuationFactor, dist;
-int i,f;
+int i,j,f,cluster,firstLight,clusterLights;
 vec4 tcolor;
 
 
@@ -91,10 +99,35 @@ void calcSpotLight()
 	thisSpecular = intensity * light.specular.xyz * material.specular.xyz * pow(max(cosPhi,0.0), material.shininess);
 }
 
+int findCluster()
+{	vec2 tile = (gl_FragCoord.xy - cluster_viewport.xy) / cluster_viewport.zw * vec2(cluster_dims.xy);
+	// the view distance, from the depth buffer value, since height mapping moves vertices after vVertPos
+	float n = cluster_depth.x, fa = cluster_depth.y;
+	float viewDist = n * fa / (fa - gl_FragCoord.z * (fa - n));
+	int slice = int(log(max(viewDist, n) / n) * cluster_depth.z);
+	ivec3 c = clamp(ivec3(ivec2(tile), slice), ivec3(0), cluster_dims - 1);
+	return (c.z * cluster_dims.y + c.y) * cluster_dims.x + c.x;
+}
+
 void main(void)
 {	f = fields_per_light;
-	for (i=0; i<num_lights; i++)
-	{	light.position = vec3(lightArray[i*f+0], lightArray[i*f+1], lightArray[i*f+2]);
+
+	// ambient light reaches everywhere, and is the same as taking the largest over the lights
+	if (num_lights > 0)
+		ambient = (globalAmbient.xyz + max_light_ambient * material.ambient.xyz);
+
+	// only the lights assigned to this pixel's cluster can be within range
+	cluster = findCluster();
+	firstLight = clusterData[cluster*2];
+	clusterLights = clusterData[cluster*2+1];
+
+	for (j=0; j<clusterLights; j++)
+	{	i = clusterData[firstLight+j];
+		light.position = vec3(lightArray[i*f+0], lightArray[i*f+1], lightArray[i*f+2]);
+		dist = distance(varyingVertPos, light.position);
+		light.range = lightArray[i*f+15];
+		if (dist > light.range) continue;
+
 		lightDir = light.position - varyingVertPos;
 
 		// normalize the light, normal, and view vectors:
@@ -121,22 +154,17 @@ void main(void)
 		light.constantAttenuation = lightArray[i*f+12];
 		light.linearAttenuation = lightArray[i*f+13];
 		light.quadraticAttenuation = lightArray[i*f+14];
-		light.range = lightArray[i*f+15];
 		light.direction = vec3(lightArray[i*f+16], lightArray[i*f+17], lightArray[i*f+18]);
 		light.cutoffAngle = lightArray[i*f+19];
 		light.offAxisExponent = lightArray[i*f+20];
 		light.type = lightArray[i*f+21];
 
-		// compute ADS contributions (per pixel):
-		thisAmbient = (globalAmbient + (light.ambient * material.ambient)).xyz;
-		ambient = max(ambient, thisAmbient);
-
+		// compute DS contributions (per pixel):
 		if (light.type == 0.0)
 			calcPositionalLight();
 		else
 			calcSpotLight();
 
-		dist = distance(varyingVertPos, light.position);
 		attenuationFactor = 1.0 / (light.constantAttenuation + light.linearAttenuation*dist + light.quadraticAttenuation*dist*dist);
 
 		diffuse = min(vec3(1,1,1), diffuse + attenuationFactor * thisDiffuse);
@@ -173,4 +201,7 @@ void main(void)
 			fragColor = min((tcolor * vec4((ambient + diffuse),1.0) + vec4(specular,0.0)), vec4(1,1,1,1));
 		}
 	}
+
+	// only used for blending, when the object is transparent
+	fragColor.a *= opacity;
 }
@@ -46,21 +46,31 @@ uniform int solidColor;
 uniform vec3 color;
 uniform int num_lights;
 uniform int fields_per_light;
+uniform int instanced;
 
 layout (std430, binding=0) buffer lightBuffer { float lightArray[]; };
+// when instanced, the model and normal matrices of instance i are at 2*i and 2*i+1
+layout (std430, binding=1) buffer instanceBuffer { mat4 instanceMatrices[]; };
 layout (binding = 0) uniform sampler2D samp;
 layout (binding = 1) uniform samplerCube t;
 layout (binding = 2) uniform sampler2D height;
 
 void main(void)
-{	vVertPos = (v_matrix * m_matrix * vec4(vertPos,1.0)).xyz;
-	varyingVertPos = (m_matrix * vec4(vertPos,1.0)).xyz;
-	varyingNormal = (norm_matrix * vec4(vertNormal,1.0)).xyz;
+{	mat4 m = m_matrix;
+	mat4 n = norm_matrix;
+	if (instanced == 1)
+	{	m = instanceMatrices[2*gl_InstanceID];
+		n = instanceMatrices[2*gl_InstanceID+1];
+	}
+
+	vVertPos = (v_matrix * m * vec4(vertPos,1.0)).xyz;
+	varyingVertPos = (m * vec4(vertPos,1.0)).xyz;
+	varyingNormal = (n * vec4(vertNormal,1.0)).xyz;
 
 	// Most of the time this height offset is 0.
 	// If this is a terrain plane, and has a height map, then this will do the height mapping.
 	vec4 p = vec4(vertPos.x, vertPos.y + (texture(height,texCoord)).r, vertPos.z, 1.0);
 
 	tc = texCoord;
-	gl_Position = p_matrix * v_matrix * m_matrix * p;
+	gl_Position = p_matrix * v_matrix * m * p;
 }
@@ -1,8 +1,8 @@
 package client;
 
 import java.io.IOException;
-import java.util.Iterator;
-import java.util.Vector;
+import java.util.Collection;
+import java.util.HashMap;
 
 import org.joml.Matrix4f;
 import org.joml.Vector3f;
@@ -14,7 +14,7 @@ import tage.VariableFrameRateGame;
 public class BoxManager 
 {
     private MyGame game;
-	private Vector<Box> boxs = new Vector<Box>();
+	private HashMap<Integer, Box> boxs = new HashMap<Integer, Box>();
 
     public BoxManager(VariableFrameRateGame vfrg)
     {
@@ -29,12 +29,12 @@ public class BoxManager
 		Box newBox = new Box(index, s, t, pos, boxStatus);
 		Matrix4f initialScale = (new Matrix4f()).scaling(0.5f);
 		newBox.setLocalScale(initialScale);
-		boxs.add(newBox);
+		boxs.put(index, newBox);
     }
 
-	public Vector<Box> getBoxList()
+	public Collection<Box> getBoxList()
 	{
-		return boxs;
+		return boxs.values();
 	}
 
     public void removeBox(int index)
@@ -43,7 +43,7 @@ public class BoxManager
 		if(boxObj != null)
 		{	
 			game.getEngine().getSceneGraph().removeGameObject(boxObj);
-			boxs.remove(boxObj);
+			boxs.remove(index);
 		}
 		else
 		{	
@@ -53,16 +53,6 @@ public class BoxManager
 
     private Box findBox(int index)
 	{	
-		Box boxObj;
-		Iterator<Box> it = boxs.iterator();
-		while(it.hasNext())
-		{	
-			boxObj = it.next();
-			if(boxObj.getID() == index)
-			{	
-				return boxObj;
-			}
-		}		
-		return null;
+		return boxs.get(index);
 	}
 }
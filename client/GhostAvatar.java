@@ -18,6 +18,15 @@ public class GhostAvatar extends GameObject
 	UUID uuid;
 	private boolean crown;
 	private AnimatedShape animatedShape;
+	private String animationName;
+
+	// states received from the server, drawn slightly in the past (see InterpolationBuffer)
+	private InterpolationBuffer motion = new InterpolationBuffer();
+	private Vector3f receivedPosition = new Vector3f();
+	private Quaternionf receivedRotation = new Quaternionf();
+	private Vector3f drawPosition = new Vector3f();
+	private Quaternionf drawRotation = new Quaternionf();
+	private Matrix4f drawRotationMatrix = new Matrix4f();
 
 	public GhostAvatar(UUID id, AnimatedShape s, TextureImage t, Vector3f p, boolean crownOn) 
 	{	
@@ -25,6 +34,7 @@ public class GhostAvatar extends GameObject
 		animatedShape = s;
 		uuid = id;
 		setPosition(p);
+		receivePosition(p);
 		crown = crownOn;
 	}
 
@@ -35,8 +45,35 @@ public class GhostAvatar extends GameObject
 	public boolean getCrown() { return crown; }
 	public void updateGhostAnimatedShape() { animatedShape.updateAnimation(); }
 
+	// Records a position received from the server; it is shown once updateMotion() catches up.
+	public void receivePosition(Vector3f p)
+	{
+		receivedPosition.set(p);
+		motion.add(InterpolationBuffer.now(), receivedPosition, receivedRotation);
+	}
+
+	// Records a rotation received from the server; it is shown once updateMotion() catches up.
+	public void receiveRotation(Matrix4f r)
+	{
+		r.getNormalizedRotation(receivedRotation);
+		motion.add(InterpolationBuffer.now(), receivedPosition, receivedRotation);
+	}
+
+	// Moves the ghost to where it should be drawn this frame. Updates only arrive when the
+	// ghost changes, so it is only extrapolated past the last one when updates are being lost.
+	public void updateMotion(boolean lossSuspected)
+	{
+		motion.sample(InterpolationBuffer.now(), drawPosition, drawRotation, lossSuspected);
+		setLocalLocation(drawPosition);
+		setLocalRotation(drawRotationMatrix.rotation(drawRotation));
+	}
+
 	public void playAnimation(String aniName)
 	{
+		// replaying the animation already looping would restart it
+		if (aniName.equals(animationName))
+			return;
+		animationName = aniName;
 		animatedShape.playAnimation(aniName, 0.2f, AnimatedShape.EndType.LOOP, 0);
 	}
 }
@@ -1,11 +1,12 @@
 package client;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.UUID;
-import java.util.Vector;
-import java.util.concurrent.ConcurrentHashMap;
 
 import org.joml.*;
 
@@ -15,8 +16,15 @@ import tage.shapes.AnimatedShape;
 public class GhostManager
 {
 	private MyGame game;
-	private Vector<GhostAvatar> ghostAvatars = new Vector<GhostAvatar>();
-	private Map<String, Integer> ghostScoreList = new ConcurrentHashMap<>();
+	private Map<UUID, GhostAvatar> ghostAvatars = new HashMap<UUID, GhostAvatar>();
+	// in joining order, so each ghost keeps its place on the HUD
+	private Map<UUID, Integer> ghostScoreList = new LinkedHashMap<UUID, Integer>();
+
+	// leaderboard, rebuilt only after a score changes
+	private boolean scoresChanged = true;
+	private UUID leaderboardOwner;
+	private String leaderboard = "";
+	private int highestGhostScore = Integer.MIN_VALUE;
 
 	public GhostManager(VariableFrameRateGame vfrg)
 	{	
@@ -31,7 +39,7 @@ public class GhostManager
 		GhostAvatar newAvatar = new GhostAvatar(id, s, t, position, crownOn);
 		Matrix4f initialScale = (new Matrix4f()).scaling(0.25f);
 		newAvatar.setLocalScale(initialScale);
-		ghostAvatars.add(newAvatar);
+		ghostAvatars.put(id, newAvatar);
 		addPlayer(id, score);
 	}
 	
@@ -41,8 +49,9 @@ public class GhostManager
 		if(ghostAvatar != null)
 		{	
 			game.getEngine().getSceneGraph().removeGameObject(ghostAvatar);
-			ghostAvatars.remove(ghostAvatar);
-			ghostScoreList.remove(id.toString());
+			ghostAvatars.remove(id);
+			ghostScoreList.remove(id);
+			scoresChanged = true;
 		}
 		else
 		{	
@@ -53,12 +62,13 @@ public class GhostManager
 	public void addPlayer(UUID clientID, int score)
     {
         System.out.println("=================== ADDING PLAYER: " + clientID.toString());
-        ghostScoreList.put(clientID.toString(), score);
+        ghostScoreList.put(clientID, score);
+		scoresChanged = true;
     }
 
-	public Vector<GhostAvatar> getAllGhost()
+	public Collection<GhostAvatar> getAllGhost()
 	{
-		return ghostAvatars;
+		return ghostAvatars.values();
 	}
 
 	public boolean hasGhosts()
@@ -66,47 +76,31 @@ public class GhostManager
 		return !ghostAvatars.isEmpty();
 	}
 
+	// Appends every other player's score to message. Called every frame for the HUD.
 	public String getGhostScore(UUID clientID, String message)
 	{
-		if (ghostScoreList.isEmpty())
+		if (scoresChanged || !clientID.equals(leaderboardOwner))
 		{
-			return message;
-		}
-		else
-		{
-			int counter = 1;
-			for (Map.Entry<String, Integer> entry : ghostScoreList.entrySet())
-			{
-				String ghostID = entry.getKey();
-				
-				if (!ghostID.equals(clientID.toString()))
-				{
-					int score = entry.getValue();
-					message += "Ghost " + counter + ": " + score + "   ||";
-					counter++;
-				}
-			}
-			return message;
+			rebuildLeaderboard(clientID);
 		}
+		return message + leaderboard;
 	}
 
 	public boolean hasHighestPlayerScore(int score)
 	{
-		for (Map.Entry<String, Integer> entry : ghostScoreList.entrySet())
+		if (scoresChanged)
 		{
-			String ghostID = entry.getKey();
-			int ghostScore = entry.getValue();
-			if (ghostScore > score)
-			{
-				return false;
-			}
-			else
+			rebuildLeaderboard(leaderboardOwner);
+		}
+		if (highestGhostScore > score)
+		{
+			return false;
+		}
+		for (GhostAvatar ghost : ghostAvatars.values())
+		{
+			if (ghost.getCrown() == true)
 			{
-				GhostAvatar ghost = findAvatar(UUID.fromString(ghostID));
-				if (ghost.getCrown() == true)
-				{
-					ghost.setCrown(false);
-				}
+				ghost.setCrown(false);
 			}
 		}
 		return true;
@@ -114,27 +108,41 @@ public class GhostManager
 
 	public int getGhostScore(UUID ghostID)
 	{
-		return ghostScoreList.get(ghostID.toString());
+		return ghostScoreList.get(ghostID);
+	}
+
+	private void rebuildLeaderboard(UUID clientID)
+	{
+		StringBuilder sb = new StringBuilder();
+		int counter = 1;
+		int highest = Integer.MIN_VALUE;
+		for (Map.Entry<UUID, Integer> entry : ghostScoreList.entrySet())
+		{
+			int score = entry.getValue();
+			highest = java.lang.Math.max(highest, score);
+			if (!entry.getKey().equals(clientID))
+			{
+				sb.append("Ghost ").append(counter).append(": ").append(score).append("   ||");
+				counter++;
+			}
+		}
+		leaderboard = sb.toString();
+		leaderboardOwner = clientID;
+		highestGhostScore = highest;
+		scoresChanged = false;
 	}
 
 	private GhostAvatar findAvatar(UUID id)
 	{	
-		GhostAvatar ghostAvatar;
-		Iterator<GhostAvatar> it = ghostAvatars.iterator();
-		while(it.hasNext())
-		{	
-			ghostAvatar = it.next();
-			if(ghostAvatar.getID().compareTo(id) == 0)
-			{	
-				return ghostAvatar;
-			}
-		}		
-		return null;
+		return ghostAvatars.get(id);
 	}
 
 	public void updateGhostScore(UUID clientID, int score)
     {
-        ghostScoreList.replace(clientID.toString(), score);
+        if (ghostScoreList.replace(clientID, score) != null)
+		{
+			scoresChanged = true;
+		}
 		if (hasHighestPlayerScore(score))
 		{
 			game.toggleAttachController();
@@ -146,7 +154,7 @@ public class GhostManager
 		GhostAvatar ghostAvatar = findAvatar(id);
 		if (ghostAvatar != null)
 		{	
-			ghostAvatar.setPosition(position);
+			ghostAvatar.receivePosition(position);
 		}
 		else
 		{	
@@ -170,7 +178,7 @@ public class GhostManager
 	public void updateGhostAnimation()
 	{
 		GhostAvatar ghostAvatar;
-		Iterator<GhostAvatar> it = ghostAvatars.iterator();
+		Iterator<GhostAvatar> it = ghostAvatars.values().iterator();
 		while(it.hasNext())
 		{	
 			ghostAvatar = it.next();
@@ -178,12 +186,25 @@ public class GhostManager
 		}	
 	}
 
+	// Moves every ghost to its interpolated position and rotation; called once per frame.
+	// lossSuspected allows the ghosts to be extrapolated past their last update.
+	public void updateGhostMotion(boolean lossSuspected)
+	{
+		GhostAvatar ghostAvatar;
+		Iterator<GhostAvatar> it = ghostAvatars.values().iterator();
+		while(it.hasNext())
+		{	
+			ghostAvatar = it.next();
+			ghostAvatar.updateMotion(lossSuspected);
+		}	
+	}
+
 	public void updateGhostAvatarRotation(UUID id, Matrix4f rotation)
 	{
 		GhostAvatar ghostAvatar = findAvatar(id);
 		if (ghostAvatar != null)
 		{	
-			ghostAvatar.setLocalRotation(rotation);
+			ghostAvatar.receiveRotation(rotation);
 		}
 		else
 		{	
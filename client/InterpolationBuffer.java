@@ -0,0 +1,142 @@
+package client;
+
+import org.joml.*;
+
+// Timestamped positions and rotations received for a remote entity. The entity is drawn
+// INTERPOLATION_DELAY_MS in the past, blending between the two samples around that time,
+// so updates that arrive unevenly still give smooth movement. Samples only arrive when the
+// entity changes, so running out of them normally means it stopped, and it is held at the
+// last sample. Only when the caller knows updates are being lost is movement extrapolated,
+// for at most MAX_EXTRAPOLATION_MS and then eased back to the last sample.
+
+public class InterpolationBuffer
+{
+	public static final long INTERPOLATION_DELAY_MS = 100;
+	public static final long MAX_EXTRAPOLATION_MS = 100;
+	private static final int CAPACITY = 16;
+
+	private long[] times = new long[CAPACITY];
+	private Vector3f[] positions = new Vector3f[CAPACITY];
+	private Quaternionf[] rotations = new Quaternionf[CAPACITY];
+	private boolean[] held = new boolean[CAPACITY]; // added by add() to hold through a pause, not received
+	private int start = 0, count = 0;
+
+	private Vector3f velocity = new Vector3f();
+
+	public InterpolationBuffer()
+	{
+		for (int i = 0; i < CAPACITY; i++)
+		{
+			positions[i] = new Vector3f();
+			rotations[i] = new Quaternionf();
+		}
+	}
+
+	public static long now() { return System.nanoTime() / 1000000L; }
+
+	public boolean isEmpty() { return count == 0; }
+
+	// Adds a sample received at time. Samples arriving in the same millisecond replace each other.
+	public void add(long time, Vector3f position, Quaternionf rotation)
+	{
+		if (count > 0)
+		{
+			int last = index(count - 1);
+			if (time <= times[last])
+			{
+				positions[last].set(position);
+				rotations[last].set(rotation);
+				return;
+			}
+			// after a pause, hold the old state until just before this sample instead of
+			// blending across the whole pause
+			if (time - times[last] > INTERPOLATION_DELAY_MS)
+				append(time - INTERPOLATION_DELAY_MS / 2, positions[last], rotations[last], true);
+		}
+		append(time, position, rotation, false);
+	}
+
+	// Computes the position and rotation to draw at time now. Past the last sample, the
+	// entity is extrapolated if extrapolate is set, and otherwise held still.
+	public void sample(long now, Vector3f position, Quaternionf rotation, boolean extrapolate)
+	{
+		if (count == 0)
+			return;
+
+		long renderTime = now - INTERPOLATION_DELAY_MS;
+		int first = index(0);
+		int last = index(count - 1);
+
+		if (renderTime <= times[first])
+		{
+			position.set(positions[first]);
+			rotation.set(rotations[first]);
+			return;
+		}
+
+		if (renderTime >= times[last])
+		{
+			position.set(positions[last]);
+			rotation.set(rotations[last]);
+			if (extrapolate)
+				extrapolate(renderTime - times[last], position);
+			return;
+		}
+
+		for (int i = count - 2; i >= 0; i--)
+		{
+			int a = index(i);
+			if (times[a] <= renderTime)
+			{
+				int b = index(i + 1);
+				float t = (float)(renderTime - times[a]) / (float)(times[b] - times[a]);
+				positions[a].lerp(positions[b], t, position);
+				rotations[a].slerp(rotations[b], t, rotation);
+				return;
+			}
+		}
+	}
+
+	// Moves position along the last known velocity, for up to MAX_EXTRAPOLATION_MS and then
+	// back to where it started over the same time. The velocity is taken from the last two
+	// received samples, skipping held ones, whose timestamps are made up and would
+	// overstate it.
+	private void extrapolate(long elapsed, Vector3f position)
+	{
+		long ahead;
+		if (elapsed <= MAX_EXTRAPOLATION_MS)
+			ahead = elapsed;
+		else
+			ahead = java.lang.Math.max(0, 2 * MAX_EXTRAPOLATION_MS - elapsed);
+		if (ahead == 0)
+			return;
+
+		int b = index(count - 1);
+		int a = -1;
+		for (int i = count - 2; i >= 0 && a < 0; i--)
+			if (!held[index(i)])
+				a = index(i);
+		if (a < 0)
+			return;
+
+		positions[b].sub(positions[a], velocity).mul((float)ahead / (float)(times[b] - times[a]));
+		position.add(velocity);
+	}
+
+	private void append(long time, Vector3f position, Quaternionf rotation, boolean isHeld)
+	{
+		if (count == CAPACITY)
+		{
+			start = (start + 1) % CAPACITY;
+			count--;
+		}
+		int i = index(count);
+		times[i] = time;
+		positions[i].set(position);
+		rotations[i].set(rotation);
+		held[i] = isHeld;
+		count++;
+	}
+
+	private int index(int i) { return (start + i) % CAPACITY; }
+}
@@ -37,7 +37,7 @@ public class MyGame extends VariableFrameRateGame
 
 	private static Engine engine;
 	private GameObject avatar, crown, worldTerrain, jukeBoxObject;
-	private ObjShape crownS, terrainS, jukeBoxS, boxS;
+	private ObjShape crownS, jukeBoxS, boxS;
 	private TextureImage avatarTex, ghostTex, hillsTex, grassTex, crownTex, jukeBoxTex, boxTex;
 	private Light light1, spotLight;
 	private InputManager im;
@@ -47,6 +47,7 @@ public class MyGame extends VariableFrameRateGame
 	private AttachController attachNode;
 	private IAudioManager audioMgr;
 	private Sound bgmSound, grassSound, collectSound, hitSound, jumpSound, breakSound;
+	private Vector3f soundLoc = new Vector3f(); // reused for the per-frame sound locations
 
 	private int sereneClouds; //skybox
 
@@ -135,7 +136,6 @@ public class MyGame extends VariableFrameRateGame
 		ghostAnimatedShape.loadAnimation("PUNCHR", "player_punchR.rka");
 
 		npcShape = new ImportedModel("duck.obj");
-		terrainS = new TerrainPlane(1000);
 
 		//Diamond object
 		crownS = new ImportedModel("crown.obj");
@@ -199,7 +199,7 @@ public class MyGame extends VariableFrameRateGame
 		crown.setLocalScale(initialScale);
 
 		// build world terrain object
-		worldTerrain = new GameObject(GameObject.root(), terrainS, grassTex);
+		worldTerrain = new ChunkedTerrain(GameObject.root(), 8, 128, 4, grassTex);
 		initialTranslation = (new Matrix4f()).translation(0f,0f,0f);
 		worldTerrain.setLocalTranslation(initialTranslation);
 		initialScale = (new Matrix4f()).scaling(30.0f, 10.0f, 30.0f);
@@ -294,7 +294,7 @@ public class MyGame extends VariableFrameRateGame
 	public void setEarParameters()
 	{
 		Camera camera = (engine.getRenderSystem()).getViewport("MAIN").getCamera();
-		audioMgr.getEar().setLocation(avatar.getWorldLocation());
+		audioMgr.getEar().setLocation(avatar.getWorldLocationInto(soundLoc));
 		audioMgr.getEar().setOrientation(camera.getN(), new Vector3f(0.0f, 1.0f, 0.0f));
 	}
 
@@ -811,12 +811,13 @@ public class MyGame extends VariableFrameRateGame
 		elapsTime += (currFrameTime - lastFrameTime) / 1000.0;
 
 		// update sound
-		bgmSound.setLocation(jukeBoxObject.getWorldLocation());
-		grassSound.setLocation(avatar.getWorldLocation());
-		hitSound.setLocation(avatar.getWorldLocation());
-		breakSound.setLocation(avatar.getWorldLocation());
-		jumpSound.setLocation(avatar.getWorldLocation());
-		collectSound.setLocation(crown.getWorldLocation());
+		bgmSound.setLocation(jukeBoxObject.getWorldLocationInto(soundLoc));
+		avatar.getWorldLocationInto(soundLoc);
+		grassSound.setLocation(soundLoc);
+		hitSound.setLocation(soundLoc);
+		breakSound.setLocation(soundLoc);
+		jumpSound.setLocation(soundLoc);
+		collectSound.setLocation(crown.getWorldLocationInto(soundLoc));
 		setEarParameters();
 
 		// build and set HUD
@@ -838,6 +839,7 @@ public class MyGame extends VariableFrameRateGame
 
 		if (gm.hasGhosts())
 		{
+			gm.updateGhostMotion(protClient != null && protClient.isSnapshotLossSuspected());
 			gm.updateGhostAnimation();
 		}
 
@@ -918,6 +920,8 @@ public class MyGame extends VariableFrameRateGame
 		if (protClient != null)
 		{
 			protClient.processPackets();
+			// send this frame's moves, rotations and animations as one packet
+			protClient.flushState();
 		}
 	}
 
@@ -1,9 +1,11 @@
 package client;
 
-import java.util.Iterator;
-import java.util.Vector;
+import java.util.ArrayList;
+
+import org.joml.Vector3f;
 
 import net.java.games.input.Event;
+import tage.GameObject;
 import tage.input.action.AbstractInputAction;
 import tage.networking.client.ProtocolClient;
 
@@ -11,6 +13,8 @@ public class PunchAction extends AbstractInputAction
 {
     private MyGame game;
     private ProtocolClient protClient;
+    private ArrayList<GameObject> nearby = new ArrayList<GameObject>();
+    private Vector3f avatarLoc = new Vector3f(), boxLoc = new Vector3f();
 
 
     public PunchAction(MyGame g, ProtocolClient pc)
@@ -24,14 +28,18 @@ public class PunchAction extends AbstractInputAction
     {
         game.playHitSound();
 
-        Vector<Box> boxList = game.getBoxManager().getBoxList();
-        Iterator<Box> it = boxList.iterator();
+        // only the objects whose bounds are within reach need their distance checked
+        game.getAvatar().getWorldLocationInto(avatarLoc);
+        nearby.clear();
+        game.getEngine().getSceneGraph().getObjectsNear(avatarLoc, 1.1f, nearby);
 
-        while(it.hasNext())
+        for (GameObject go : nearby)
         {
-            Box b = it.next();
+            if (!(go instanceof Box))
+                continue;
+            Box b = (Box) go;
 
-            if (game.getAvatar().getWorldLocation().distance(b.getLocalLocation().x(), b.getLocalLocation().y(), b.getLocalLocation().z()) < 1.1f)
+            if (avatarLoc.distance(b.getLocalLocationInto(boxLoc)) < 1.1f)
             {
                 game.getBoxManager().removeBox(b.getID());
                 protClient.sendRemoveBoxObject(b.getID());
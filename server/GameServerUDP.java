@@ -2,12 +2,22 @@ package server;
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 
 import org.joml.Vector3f;
 
+import tage.networking.AvatarState;
+import tage.networking.Packet;
+import tage.networking.PacketCodec;
+import tage.networking.PacketCodecs;
 import tage.networking.server.GameConnectionServer;
 import tage.networking.server.IClientInfo;
+import tage.networking.server.UDPClientInfo;
 
 public class GameServerUDP extends GameConnectionServer<UUID> 
 {
@@ -15,173 +25,235 @@ public class GameServerUDP extends GameConnectionServer<UUID>
 	NPCcontroller npcCtrl;
 	BoxController boxCtrl;
 
+	SnapshotReplicator replicator = new SnapshotReplicator();
+	int snapshotCount = 0;
+
+	// scratch space for sendSnapshots, which only runs on the tick thread
+	private float[] position = new float[3];
+	private List<UUID> nearby = new ArrayList<UUID>();
+	private Set<UUID> nearbySet = new HashSet<UUID>();
+
+	// avatar states are sent every SNAPSHOT_MILLIS, but only every FAR_UPDATE_MILLIS
+	// for avatars further than INTEREST_RADIUS from the receiving client
+	static final long SNAPSHOT_MILLIS = 50;
+	static final float INTEREST_RADIUS = 20.0f;
+	static final long FAR_UPDATE_MILLIS = 500;
+
 	public GameServerUDP(int localPort, NPCcontroller npc, BoxController box) throws IOException 
 	{	
 		super(localPort, ProtocolType.UDP);
 		npcCtrl = npc;
 		boxCtrl = box;
+		setInterestRadius(INTEREST_RADIUS);
 	}
 
 	@Override
 	public void processPacket(Object o, InetAddress senderIP, int senderPort)
 	{
-		String message = (String)o;
-		String[] messageTokens = message.split(",");
+		Packet packet = Packet.from(o);
 		
-		if(messageTokens.length > 0)
-		{	// JOIN -- Case where client just joined the server
-			// Received Message Format: (join,localId)
-			if(messageTokens[0].compareTo("join") == 0)
+		// JOIN -- Case where client just joined the server
+		// Received Message Format: (join,localId) or (join,localId,codec)
+		if(packet.isType("join"))
+		{	
+			try 
 			{	
-				try 
-				{	
-					IClientInfo ci;					
-					ci = getServerSocket().createClientInfo(senderIP, senderPort);
-					UUID clientID = UUID.fromString(messageTokens[1]);
-					addClient(ci, clientID);
-					System.out.println("Join request received from - " + clientID.toString());
-					sendJoinedMessage(clientID, true);
-				} 
-				catch (IOException e) 
-				{	
-					e.printStackTrace();
+				IClientInfo ci;					
+				ci = getServerSocket().createClientInfo(senderIP, senderPort);
+				UUID clientID = packet.getUUID(1);
+				// switch the client to the codec it asked for, if we know it
+				PacketCodec codec = null;
+				if (packet.size() > 1 && ci instanceof UDPClientInfo)
+				{
+					codec = PacketCodecs.forName(packet.getString(2));
+					if (codec != null)
+						((UDPClientInfo)ci).setPacketCodec(codec);
 				}
-			}
-			
-			// BYE -- Case where clients leaves the server
-			// Received Message Format: (bye,localId)
-			if(messageTokens[0].compareTo("bye") == 0)
-			{	
-				UUID clientID = UUID.fromString(messageTokens[1]);
-				int score = Integer.parseInt(messageTokens[2]);
-				System.out.println("Exit request received from - " + clientID.toString() + "; their score was: " + score);
-				sendByeMessages(clientID);
-				removeClient(clientID);
-			}
-			
-			// CREATE -- Case where server receives a create message (to specify avatar location)
-			// Received Message Format: (create,localId,x,y,z)
-			if(messageTokens[0].compareTo("create") == 0)
+				addClient(ci, clientID);
+				replicator.add(clientID);
+				System.out.println("Join request received from - " + clientID.toString());
+				sendJoinedMessage(clientID, true, codec);
+			} 
+			catch (IOException e) 
 			{	
-				UUID clientID = UUID.fromString(messageTokens[1]);
-				String[] pos = {messageTokens[2], messageTokens[3], messageTokens[4]};
-				int score = Integer.parseInt(messageTokens[5]);
-				boolean crownOn = Boolean.parseBoolean(messageTokens[6]);
-				sendCreateMessages(clientID, pos, score, crownOn);
-				sendWantsDetailsMessages(clientID);
-			}
-			
-			// DETAILS-FOR --- Case where server receives a details for message
-			// Received Message Format: (dsfr,remoteId,localId,x,y,z)
-			if(messageTokens[0].compareTo("dsfr") == 0)
-			{	
-				UUID clientID = UUID.fromString(messageTokens[1]);
-				UUID remoteID = UUID.fromString(messageTokens[2]);
-				String[] pos = {messageTokens[3], messageTokens[4], messageTokens[5]};
-				int score = Integer.parseInt(messageTokens[6]);
-				boolean crownOn = Boolean.parseBoolean(messageTokens[7]);
-				sendDetailsForMessage(clientID, remoteID, pos, score, crownOn);
-			}
-			
-			// MOVE --- Case where server receives a move message
-			// Received Message Format: (move,localId,x,y,z)
-			if(messageTokens[0].compareTo("move") == 0)
-			{	
-				UUID clientID = UUID.fromString(messageTokens[1]);
-				String[] pos = {messageTokens[2], messageTokens[3], messageTokens[4]};
-				sendMoveMessages(clientID, pos);
+				e.printStackTrace();
 			}
+		}
+		
+		// BYE -- Case where clients leaves the server
+		// Received Message Format: (bye,localId)
+		if(packet.isType("bye"))
+		{	
+			UUID clientID = packet.getUUID(1);
+			int score = packet.getInt(2);
+			System.out.println("Exit request received from - " + clientID.toString() + "; their score was: " + score);
+			sendByeMessages(clientID);
+			removeClient(clientID);
+			replicator.remove(clientID);
+		}
+		
+		// CREATE -- Case where server receives a create message (to specify avatar location)
+		// Received Message Format: (create,localId,x,y,z)
+		if(packet.isType("create"))
+		{	
+			UUID clientID = packet.getUUID(1);
+			if (!isJoined(clientID, senderIP, senderPort))
+				return;
+			float[] pos = {packet.getFloat(2), packet.getFloat(3), packet.getFloat(4)};
+			int score = packet.getInt(5);
+			boolean crownOn = packet.getBoolean(6);
+			updateClientPosition(clientID, pos[0], pos[1], pos[2]);
+			replicator.setPosition(clientID, pos[0], pos[1], pos[2]);
+			sendCreateMessages(clientID, pos, score, crownOn);
+			sendWantsDetailsMessages(clientID);
+		}
+		
+		// DETAILS-FOR --- Case where server receives a details for message
+		// Received Message Format: (dsfr,remoteId,localId,x,y,z)
+		if(packet.isType("dsfr"))
+		{	
+			UUID clientID = packet.getUUID(1);
+			UUID remoteID = packet.getUUID(2);
+			float[] pos = {packet.getFloat(3), packet.getFloat(4), packet.getFloat(5)};
+			int score = packet.getInt(6);
+			boolean crownOn = packet.getBoolean(7);
+			sendDetailsForMessage(clientID, remoteID, pos, score, crownOn);
+		}
+		
+		// MOVE --- Case where server receives a move message
+		// Received Message Format: (move,localId,x,y,z)
+		// Moves, animations and rotations only update the state table; other clients
+		// receive them in the next snapshot. Like the state messages, they are ignored
+		// unless they come from a client that has joined.
+		if(packet.isType("move"))
+		{	
+			UUID clientID = packet.getUUID(1);
+			if (!isJoined(clientID, senderIP, senderPort))
+				return;
+			float x = packet.getFloat(2), y = packet.getFloat(3), z = packet.getFloat(4);
+			updateClientPosition(clientID, x, y, z);
+			replicator.setPosition(clientID, x, y, z);
+		}
 
-			if (messageTokens[0].compareTo("animate") == 0)
-			{
-				UUID clientID = UUID.fromString(messageTokens[1]);
-				String aniName = messageTokens[2];
-				sendAnimation(clientID, aniName);
-			}
+		if (packet.isType("animate"))
+		{
+			UUID clientID = packet.getUUID(1);
+			if (!isJoined(clientID, senderIP, senderPort))
+				return;
+			replicator.setAnimation(clientID, packet.getString(2));
+		}
 
-			if (messageTokens[0].compareTo("rotate") == 0)
-			{
-				UUID clientID = UUID.fromString(messageTokens[1]);
-				String[] rotatePos = {messageTokens[2], messageTokens[3], messageTokens[4], messageTokens[5]};
-				sendRotateMessage(clientID, rotatePos);
-			}
+		// Received Message Format: (rotate,localId,angle,x,y,z)
+		if (packet.isType("rotate"))
+		{
+			UUID clientID = packet.getUUID(1);
+			if (!isJoined(clientID, senderIP, senderPort))
+				return;
+			replicator.setRotation(clientID, packet.getFloat(2), packet.getFloat(3), packet.getFloat(4), packet.getFloat(5));
+		}
 
-			if (messageTokens[0].compareTo("createPS") == 0)
+		// STATE --- Case where a client reports its avatar and the last snapshot it received
+		// Received Message Format: (state,localId,ackSeq,mask,values...), see AvatarState
+		if (packet.isType("state"))
+		{
+			UUID clientID = packet.getUUID(1);
+			if (!isJoined(clientID, senderIP, senderPort))
+				return;
+			int ackSeq = packet.getInt(2);
+			int mask = packet.getInt(3);
+			if (ackSeq != AvatarState.NO_BASE)
+				replicator.acknowledge(clientID, ackSeq);
+			if (mask != 0)
 			{
-				UUID clientID = UUID.fromString(messageTokens[1]);
-				sendCreatePlayerScore(clientID);
+				AvatarState state = replicator.applyState(clientID, packet, 4, mask);
+				if ((mask & AvatarState.POSITION) != 0)
+					updateClientPosition(clientID, state.getX(), state.getY(), state.getZ());
 			}
+		}
 
-			if (messageTokens[0].compareTo("updatePS") == 0)
-			{
-				UUID clientID = UUID.fromString(messageTokens[1]);
-				int score = Integer.parseInt(messageTokens[2]);
-				sendUpdatePlayerScore(clientID, score);
-			}
+		// SNAPSHOT-ACK --- Case where a client has received a snapshot
+		// Received Message Format: (sack,localId,seq)
+		if (packet.isType("sack"))
+		{
+			UUID clientID = packet.getUUID(1);
+			replicator.acknowledge(clientID, packet.getInt(2));
+		}
 
-			// NPC / AI
+		if (packet.isType("createPS"))
+		{
+			UUID clientID = packet.getUUID(1);
+			sendCreatePlayerScore(clientID);
+		}
 
-			// Case where server receives request for NPCs
-			// Received message format: (needNPC, id)
-			if (messageTokens[0].compareTo("needNPC") == 0)
-			{
-				System.out.println("Server got a needNPC message");
-				UUID clientID = UUID.fromString(messageTokens[1]);
-				sendNPCstart(clientID);
-			}
+		if (packet.isType("updatePS"))
+		{
+			UUID clientID = packet.getUUID(1);
+			int score = packet.getInt(2);
+			sendUpdatePlayerScore(clientID, score);
+		}
 
-			if (messageTokens[0].compareTo("startNPC") == 0)
-			{
-				System.out.print("SERVER RECEIVE MESSAGE FROM CLIENT THAT IT WANTS TO START NPC");
-				UUID npcID = UUID.fromString(messageTokens[1]);
-				sendNPCstart(npcID);
-			}
+		// NPC / AI
 
-			if (messageTokens[0].compareTo("createNPC") == 0)
-			{
-				System.out.print("SERVER RECEIVE MESSAGE FROM CLIENT THAT IT CREATED NPC");
-				UUID npcID = UUID.fromString(messageTokens[1]);
-				String[] pos = {messageTokens[2], messageTokens[3], messageTokens[4]};
-				sendCreateNPCmsg(npcID, pos);
-			}
+		// Case where server receives request for NPCs
+		// Received message format: (needNPC, id)
+		if (packet.isType("needNPC"))
+		{
+			System.out.println("Server got a needNPC message");
+			UUID clientID = packet.getUUID(1);
+			sendNPCstart(clientID);
+		}
 
-			// Case where server receies notice that an avatar is close to the NPC
-			// Received message format: (isnear, id)
-			if (messageTokens[0].compareTo("isAvnr") == 0)
-			{
-				Boolean isNear = Boolean.parseBoolean(messageTokens[1]);
-				String[] playerPos = {messageTokens[2], messageTokens[3], messageTokens[4]};
-				handleAvatarNearTiming(playerPos, isNear);
-			}
+		if (packet.isType("startNPC"))
+		{
+			System.out.print("SERVER RECEIVE MESSAGE FROM CLIENT THAT IT WANTS TO START NPC");
+			UUID npcID = packet.getUUID(1);
+			sendNPCstart(npcID);
+		}
 
-			if (messageTokens[0].compareTo("isGhostnr") == 0)
-			{
-				Boolean isNear = Boolean.parseBoolean(messageTokens[1]);
-				String[] ghostPos = {messageTokens[2], messageTokens[3], messageTokens[4]};
-				handleGhostNearTiming(ghostPos, isNear);
-			}
+		if (packet.isType("createNPC"))
+		{
+			System.out.print("SERVER RECEIVE MESSAGE FROM CLIENT THAT IT CREATED NPC");
+			UUID npcID = packet.getUUID(1);
+			float[] pos = {packet.getFloat(2), packet.getFloat(3), packet.getFloat(4)};
+			sendCreateNPCmsg(npcID, pos);
+		}
 
-			if (messageTokens[0].compareTo("npcinfo") == 0)
-			{
-				System.out.println("SERVER GOT NPCINFOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOO");
-			}
+		// Case where server receies notice that an avatar is close to the NPC
+		// Received message format: (isnear, id)
+		if (packet.isType("isAvnr"))
+		{
+			Boolean isNear = packet.getBoolean(1);
+			float[] playerPos = {packet.getFloat(2), packet.getFloat(3), packet.getFloat(4)};
+			handleAvatarNearTiming(playerPos, isNear);
+		}
 
-			// Box message from client
-			
-			if (messageTokens[0].compareTo("needBox") == 0)
-			{
-				//System.out.println("RECEIVED BOX NEED MESSAGE FROM CLIENT");
-				UUID clientID = UUID.fromString(messageTokens[1]);
-				sendBoxInfo(clientID);
-			}
+		if (packet.isType("isGhostnr"))
+		{
+			Boolean isNear = packet.getBoolean(1);
+			float[] ghostPos = {packet.getFloat(2), packet.getFloat(3), packet.getFloat(4)};
+			handleGhostNearTiming(ghostPos, isNear);
+		}
 
-			if (messageTokens[0].compareTo("rmvbox") == 0)
-			{
-				System.out.println("RECEIVED FROM " + messageTokens[1] + " TO REMOVE BOX: " + messageTokens[2]);
-				UUID clientID = UUID.fromString(messageTokens[1]);
-				int boxID = Integer.parseInt(messageTokens[2]);
-				sendRemoveBox(clientID, boxID);
-			}
+		if (packet.isType("npcinfo"))
+		{
+			System.out.println("SERVER GOT NPCINFOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOOO");
+		}
+
+		// Box message from client
+		
+		if (packet.isType("needBox"))
+		{
+			//System.out.println("RECEIVED BOX NEED MESSAGE FROM CLIENT");
+			UUID clientID = packet.getUUID(1);
+			sendBoxInfo(clientID);
+		}
+
+		if (packet.isType("rmvbox"))
+		{
+			System.out.println("RECEIVED FROM " + packet.getString(1) + " TO REMOVE BOX: " + packet.getString(2));
+			UUID clientID = packet.getUUID(1);
+			int boxID = packet.getInt(2);
+			sendRemoveBox(clientID, boxID);
 		}
 	}
 
@@ -190,15 +262,25 @@ public class GameServerUDP extends GameConnectionServer<UUID>
 	// Message Format: (join,success) or (join,failure)
 	
 	public void sendJoinedMessage(UUID clientID, boolean success)
+	{
+		sendJoinedMessage(clientID, success, null);
+	}
+
+	// As above, also echoing the name of the codec the server agreed to use for this client.
+	// Message Format: (join,success,codec)
+
+	public void sendJoinedMessage(UUID clientID, boolean success, PacketCodec codec)
 	{	
 		try 
 		{	
 			System.out.println("trying to confirm join");
-			String message = new String("join,");
+			Packet message = new Packet("join");
 			if(success)
-				message += "success";
+				message.add("success");
 			else
-				message += "failure";
+				message.add("failure");
+			if(codec != null)
+				message.add(codec.getName());
 			sendPacket(message, clientID);
 		} 
 		catch (IOException e) 
@@ -216,7 +298,7 @@ public class GameServerUDP extends GameConnectionServer<UUID>
 	{	
 		try 
 		{	
-			String message = new String("bye," + clientID.toString());
+			Packet message = new Packet("bye").add(clientID);
 			forwardPacketToAll(message, clientID);
 		} 
 		catch (IOException e) 
@@ -232,15 +314,15 @@ public class GameServerUDP extends GameConnectionServer<UUID>
 	// connected to the server. 
 	// Message Format: (create,remoteId,x,y,z) where x, y, and z represent the position
 
-	public void sendCreateMessages(UUID clientID, String[] position, int score, boolean crownOn)
+	public void sendCreateMessages(UUID clientID, float[] position, int score, boolean crownOn)
 	{	
 		try 
-		{	String message = new String("create," + clientID.toString());
-			message += "," + position[0];
-			message += "," + position[1];
-			message += "," + position[2];
-			message += "," + score;
-			message += "," + crownOn;
+		{	Packet message = new Packet("create").add(clientID);
+			message.add(position[0]);
+			message.add(position[1]);
+			message.add(position[2]);
+			message.add(score);
+			message.add(crownOn);
 			forwardPacketToAll(message, clientID);
 		} 
 		catch (IOException e) 
@@ -255,16 +337,16 @@ public class GameServerUDP extends GameConnectionServer<UUID>
 	// remoteId is used to send this message to the proper client. 
 	// Message Format: (dsfr,remoteId,x,y,z) where x, y, and z represent the position.
 
-	public void sendDetailsForMessage(UUID clientID, UUID remoteId, String[] position, int score, boolean crownOn)
+	public void sendDetailsForMessage(UUID clientID, UUID remoteId, float[] position, int score, boolean crownOn)
 	{	
 		try 
 		{	
-			String message = new String("dsfr," + remoteId.toString());
-			message += "," + position[0];
-			message += "," + position[1];
-			message += "," + position[2];
-			message += "," + score;
-			message += "," + crownOn;
+			Packet message = new Packet("dsfr").add(remoteId);
+			message.add(position[0]);
+			message.add(position[1]);
+			message.add(position[2]);
+			message.add(score);
+			message.add(crownOn);
 			sendPacket(message, clientID);
 		} 
 		catch (IOException e) 
@@ -282,7 +364,7 @@ public class GameServerUDP extends GameConnectionServer<UUID>
 	{	
 		try 
 		{	
-			String message = new String("wsds," + clientID.toString());	
+			Packet message = new Packet("wsds").add(clientID);	
 			forwardPacketToAll(message, clientID);
 		} 
 		catch (IOException e) 
@@ -291,56 +373,55 @@ public class GameServerUDP extends GameConnectionServer<UUID>
 		}
 	}
 	
-	// Informs a client that a remote client�s avatar has changed position. x, y, and z represent 
-	// the new position of the remote avatar. This message is meant to be forwarded to all clients
-	// connected to the server when it receives a MOVE message from the remote client.   
-	// Message Format: (move,remoteId,x,y,z) where x, y, and z represent the position.
+	// Returns true if clientID has joined and is still connected from senderIP and senderPort,
+	// so that a late packet from a client that has left, or one sent under another client's id,
+	// does not bring its avatar back.
 
-	public void sendMoveMessages(UUID clientID, String[] position)
-	{	
-		try 
-		{	
-			String message = new String("move," + clientID.toString());
-			message += "," + position[0];
-			message += "," + position[1];
-			message += "," + position[2];
-			forwardPacketToAll(message, clientID);
-		} 
-		catch (IOException e) 
-		{	
-			e.printStackTrace();
-		}
+	private boolean isJoined(UUID clientID, InetAddress senderIP, int senderPort)
+	{
+		IClientInfo ci = getClients().get(clientID);
+		if (!(ci instanceof UDPClientInfo))
+			return ci != null;
+		InetSocketAddress address = ((UDPClientInfo) ci).getSocketAddress();
+		return address.getPort() == senderPort && address.getAddress().equals(senderIP);
 	}
 
-	public void sendAnimation(UUID clientID, String aniName)
+	// Sends every client the changes to the other avatars since the last snapshot it acknowledged.
+	// Avatars further than INTEREST_RADIUS away are only included every FAR_UPDATE_MILLIS.
+	// Every AvatarState.HEARTBEAT_MILLIS each client is sent a snapshot even if nothing
+	// changed, so it can tell that none were lost.
+	// Called every SNAPSHOT_MILLIS.
+	// Message Format: (snap,seq,baseSeq,[remoteId,mask,values...]...), see AvatarState
+
+	public void sendSnapshots()
 	{
-		try
-		{
-			String message = new String("animate," + clientID.toString());
-			message += "," + aniName;
-			forwardPacketToAll(message, clientID);
-		}
-		catch (IOException e)
+		snapshotCount++;
+		boolean includeFar = snapshotCount % (FAR_UPDATE_MILLIS / SNAPSHOT_MILLIS) == 0;
+		boolean heartbeat = snapshotCount % (AvatarState.HEARTBEAT_MILLIS / SNAPSHOT_MILLIS) == 0;
+
+		for (UUID clientID : getClients().keySet())
 		{
-			e.printStackTrace();
-		}
-	}
+			Set<UUID> near = null;
+			if (getClientPositions().getPosition(clientID, position))
+			{
+				nearby.clear();
+				nearbySet.clear();
+				getClientPositions().query(position[0], position[2], getInterestRadius(), nearby);
+				nearbySet.addAll(nearby);
+				near = nearbySet;
+			}
 
-	public void sendRotateMessage(UUID clientID, String[] rotatePos)
-	{
-		try 
-		{	
-			String message = new String("rotate," + clientID.toString());
-			message += "," + rotatePos[0];
-			message += "," + rotatePos[1];
-			message += "," + rotatePos[2];
-			message += "," + rotatePos[3];
-			//System.out.println("=============================== SERVER MESSAGE: " + message);
-			forwardPacketToAll(message, clientID);
-		} 
-		catch (IOException e) 
-		{	
-			e.printStackTrace();
+			Packet message = replicator.buildSnapshot(clientID, near, includeFar, heartbeat);
+			if (message == null)
+				continue;
+			try
+			{
+				sendPacket(message, clientID);
+			}
+			catch (IOException e)
+			{
+				e.printStackTrace();
+			}
 		}
 	}
 
@@ -348,7 +429,7 @@ public class GameServerUDP extends GameConnectionServer<UUID>
 	{
 		try
 		{
-			String message = new String("createPS," + clientID.toString());
+			Packet message = new Packet("createPS").add(clientID);
 			forwardPacketToAll(message, clientID);
 		}
 		catch (IOException e)
@@ -361,8 +442,8 @@ public class GameServerUDP extends GameConnectionServer<UUID>
 	{
 		try
 		{
-			String message = new String("updatePS," + clientID.toString());
-			message += "," + score;
+			Packet message = new Packet("updatePS").add(clientID);
+			message.add(score);
 			forwardPacketToAll(message, clientID);
 		}
 		catch (IOException e)
@@ -373,28 +454,36 @@ public class GameServerUDP extends GameConnectionServer<UUID>
 
 	// NPC METHODS ===============================
 
-	public void handleAvatarNearTiming(String[] playerPos, Boolean isNear)
+	// These run on the dispatcher threads, so the NPC state they change is
+	// handed to the tick thread, which runs the NPC's tick and think.
+	public void handleAvatarNearTiming(float[] playerPos, Boolean isNear)
     {
-        npcCtrl.setNearFlag(isNear);
-		(npcCtrl.getNPC()).setSeePlayer(isNear);
 		Vector3f player = new Vector3f(
-			Float.parseFloat(playerPos[0]),
-			Float.parseFloat(playerPos[1]),
-			Float.parseFloat(playerPos[2])
+			playerPos[0],
+			playerPos[1],
+			playerPos[2]
 		);
-		(npcCtrl.getNPC()).setTargetLocationAsAv(player);
+		npcCtrl.runOnTick(() ->
+		{
+			npcCtrl.setNearFlag(isNear);
+			(npcCtrl.getNPC()).setSeePlayer(isNear);
+			(npcCtrl.getNPC()).setTargetLocationAsAv(player);
+		});
     }
 
-	public void handleGhostNearTiming(String[] ghostPos, Boolean isNear)
+	public void handleGhostNearTiming(float[] ghostPos, Boolean isNear)
     {
-        npcCtrl.setNearFlag(isNear);
-		(npcCtrl.getNPC()).setSeeGhost(isNear);
 		Vector3f ghost = new Vector3f(
-			Float.parseFloat(ghostPos[0]),
-			Float.parseFloat(ghostPos[1]),
-			Float.parseFloat(ghostPos[2])
+			ghostPos[0],
+			ghostPos[1],
+			ghostPos[2]
 		);
-		(npcCtrl.getNPC()).setTargetLocationAsGhost(ghost);
+		npcCtrl.runOnTick(() ->
+		{
+			npcCtrl.setNearFlag(isNear);
+			(npcCtrl.getNPC()).setSeeGhost(isNear);
+			(npcCtrl.getNPC()).setTargetLocationAsGhost(ghost);
+		});
     }
 
 	// ----------- SENDING NPC MESSAGES -----------------
@@ -402,11 +491,11 @@ public class GameServerUDP extends GameConnectionServer<UUID>
     {
         try 
         {
-            String message = new String("isnr");
-            message += "," + (npcCtrl.getNPC()).getX();
-            message += "," + (npcCtrl.getNPC()).getY();
-            message += "," + (npcCtrl.getNPC()).getZ();
-            message += "," + (npcCtrl.getCriteria());
+            Packet message = new Packet("isnr");
+            message.add((npcCtrl.getNPC()).getX());
+            message.add((npcCtrl.getNPC()).getY());
+            message.add((npcCtrl.getNPC()).getZ());
+            message.add((npcCtrl.getCriteria()));
             sendPacketToAll(message);    
         } 
         catch (IOException e) 
@@ -420,12 +509,12 @@ public class GameServerUDP extends GameConnectionServer<UUID>
     {
         try
         {
-            String message = new String("npcinfo");
-            message += "," + (npcCtrl.getNPC()).getX();
-            message += "," + (npcCtrl.getNPC()).getY();
-            message += "," + (npcCtrl.getNPC()).getZ();
-			message += "," + npcCtrl.getCriteria();
-			message += "," + npcCtrl.getNearFlag();
+            Packet message = new Packet("npcinfo");
+            message.add((npcCtrl.getNPC()).getX());
+            message.add((npcCtrl.getNPC()).getY());
+            message.add((npcCtrl.getNPC()).getZ());
+			message.add(npcCtrl.getCriteria());
+			message.add(npcCtrl.getNearFlag());
             sendPacketToAll(message);
         }
         catch (IOException e) 
@@ -437,7 +526,7 @@ public class GameServerUDP extends GameConnectionServer<UUID>
     {
         try
         {
-            String message = new String("startNPC," + clientID);
+            Packet message = new Packet("startNPC").add(clientID);
             sendPacket(message, clientID);
         }
         catch (IOException e)
@@ -448,15 +537,15 @@ public class GameServerUDP extends GameConnectionServer<UUID>
 
     
     // informs clients of the whereabouts of the NPCs
-    public void sendCreateNPCmsg(UUID clientID, String[] position)
+    public void sendCreateNPCmsg(UUID clientID, float[] position)
     {
         try 
         {
             System.out.println("Server telling clients about an NPC");
-            String message = new String("createNPC," + clientID.toString());
-            message += "," + position[0];
-            message += "," + position[1];
-            message += "," + position[2];
+            Packet message = new Packet("createNPC").add(clientID);
+            message.add(position[0]);
+            message.add(position[1]);
+            message.add(position[2]);
             forwardPacketToAll(message, clientID);   
         } 
         catch (IOException e) 
@@ -470,17 +559,17 @@ public class GameServerUDP extends GameConnectionServer<UUID>
 	{
 		try
 		{
-			String message = new String("boxinfo," + clientID.toString());
-			message += "," + boxCtrl.getBoxAmount();
+			Packet message = new Packet("boxinfo").add(clientID);
+			message.add(boxCtrl.getBoxAmount());
 			for (int i = 0; i < boxCtrl.boxAmount; i++)
 			{
 				
 				Box b = boxCtrl.getBoxLocation(i);
-				message += "," + b.boxID;
-				message += "," + b.getPosition().x();
-				message += "," + b.getPosition().y();
-				message += "," + b.getPosition().z();
-				message += "," + b.getBoxStatus();
+				message.add(b.boxID);
+				message.add(b.getPosition().x());
+				message.add(b.getPosition().y());
+				message.add(b.getPosition().z());
+				message.add(b.getBoxStatus());
 			}
 			sendPacket(message, clientID);
 		}
@@ -494,8 +583,8 @@ public class GameServerUDP extends GameConnectionServer<UUID>
 	{
 		try
 		{
-			String message = new String("rmvbox," + clientID.toString());
-			message += "," + boxID;
+			Packet message = new Packet("rmvbox").add(clientID);
+			message.add(boxID);
 			forwardPacketToAll(message, clientID);
 		}
 		catch (IOException e)
@@ -12,7 +12,9 @@ public class NPCcontroller
     Random rn = new Random();
     BehaviorTree bt = new BehaviorTree(BTCompositeType.SELECTOR);
     boolean nearFlag = false;
-    long thinkStartTime, tickStartTime, lastThinkUpdateTime, lastTickUpdateTime;
+    static final long TICK_MILLIS = 25, THINK_MILLIS = 250;
+    TickScheduler scheduler;
+    TickScheduler.ScheduledTask tickTask, thinkTask;
     GameServerUDP server;
     double criteria = 4.0;
 
@@ -21,16 +23,14 @@ public class NPCcontroller
         npc.updateLocation();
     }
 
-    public void start(GameServerUDP s)
+    public void start(GameServerUDP s, TickScheduler scheduler)
     {
-        thinkStartTime = System.nanoTime();
-        tickStartTime = System.nanoTime();
-        lastThinkUpdateTime = thinkStartTime;
-        lastTickUpdateTime = tickStartTime;
         server = s;
+        this.scheduler = scheduler;
         setupNPCs();
         setupBehaviorTree();
-        npcLoop();
+        tickTask = scheduler.register("npc-tick", TICK_MILLIS, elapsed -> tick());
+        thinkTask = scheduler.register("npc-think", THINK_MILLIS, elapsed -> think(elapsed));
     }
 
     public void setupNPCs()
@@ -39,32 +39,35 @@ public class NPCcontroller
         npc.randomizeLocation(rn.nextInt(5), rn.nextInt(5));
     }
 
-    public void npcLoop()
+    public void tick()
     {
-        while (true)
-        {
-            long currentTime = System.nanoTime();
-            float elapsedThinkMilliSecs = (currentTime - lastThinkUpdateTime) / (1000000.0f);
-            float elapsedTickMilliSecs = (currentTime - lastTickUpdateTime) / (1000000.0f);
-
-            // TICK
-            if (elapsedTickMilliSecs >= 25.0f)
-            {
-                lastTickUpdateTime = currentTime;
-                npc.updateLocation();
-                server.sendNPCinfo();
-            }
-
-            // THINK
-            if (elapsedThinkMilliSecs >= 250.0f)
-            {
-                lastThinkUpdateTime = currentTime;
-                bt.update(elapsedThinkMilliSecs);
-            }
-
-            Thread.yield();
-
-        }
+        npc.updateLocation();
+        server.sendNPCinfo();
+    }
+
+    public void think(float elapsedThinkMilliSecs)
+    {
+        bt.update(elapsedThinkMilliSecs);
+    }
+
+    // Runs a change to the NPC state on the tick thread, so that it does not
+    // race with tick() and think(), which read that state.
+    public void runOnTick(Runnable change)
+    {
+        if (scheduler == null)
+            change.run();
+        else
+            scheduler.execute(change);
+    }
+
+    public TickScheduler.ScheduledTask getTickTask()
+    {
+        return tickTask;
+    }
+
+    public TickScheduler.ScheduledTask getThinkTask()
+    {
+        return thinkTask;
     }
 
     public void setNearFlag(boolean c)
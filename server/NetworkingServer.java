@@ -17,6 +17,9 @@ public class NetworkingServer
 	// Box
 	private BoxController box;
 
+	// runs the periodic NPC updates and snapshots
+	private TickScheduler scheduler;
+
 	public NetworkingServer(int serverPort, String protocol) 
 	{
 		npcCtrl = new NPCcontroller();
@@ -29,6 +32,8 @@ public class NetworkingServer
 			else
 			{	
 				thisUDPServer = new GameServerUDP(serverPort, npcCtrl, box);
+				// keep slow handlers such as sendBoxInfo off the receive thread
+				thisUDPServer.setVirtualThreadDispatch(true);
 			}
 		}
 		catch (IOException e) 
@@ -36,8 +41,15 @@ public class NetworkingServer
 			System.out.println("NPC/AI Server didnt start");
 			e.printStackTrace();
 		}
-		box.start(thisUDPServer);
-		npcCtrl.start(thisUDPServer);
+		// NPCs and boxes are only served over UDP
+		if (thisUDPServer != null)
+		{
+			scheduler = new TickScheduler();
+			box.start(thisUDPServer);
+			npcCtrl.start(thisUDPServer, scheduler);
+			scheduler.register("snapshots", GameServerUDP.SNAPSHOT_MILLIS,
+				elapsed -> thisUDPServer.sendSnapshots());
+		}
 		
 		
 	}
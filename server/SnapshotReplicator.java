@@ -0,0 +1,183 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import tage.networking.AvatarState;
+import tage.networking.Packet;
+
+// The server's copy of every player's avatar state, and the snapshots sent to each client.
+// Clients report their own avatar (state, or the older move, rotate and animate messages);
+// the server sends every client a snapshot of the others at a fixed rate, holding only
+// what changed since the last snapshot that client acknowledged. Each client's snapshots
+// are numbered on their own, so that a gap in the numbers tells the client one was lost.
+
+public class SnapshotReplicator
+{
+	private ConcurrentHashMap<UUID, AvatarState> states = new ConcurrentHashMap<UUID, AvatarState>();
+	private ConcurrentHashMap<UUID, ClientView> views = new ConcurrentHashMap<UUID, ClientView>();
+
+	public void setPosition(UUID clientID, float x, float y, float z)
+	{
+		states.compute(clientID, (id, s) -> (s == null ? AvatarState.INITIAL : s).withPosition(x, y, z));
+	}
+
+	public void setRotation(UUID clientID, float angle, float x, float y, float z)
+	{
+		states.compute(clientID, (id, s) -> (s == null ? AvatarState.INITIAL : s).withRotation(angle, x, y, z));
+	}
+
+	public void setAnimation(UUID clientID, String aniName)
+	{
+		states.compute(clientID, (id, s) -> (s == null ? AvatarState.INITIAL : s).withAnimation(aniName));
+	}
+
+	// Applies the parts of a client's state selected by mask, read from packet starting at index.
+	public AvatarState applyState(UUID clientID, Packet packet, int index, int mask)
+	{
+		return states.compute(clientID, (id, s) -> AvatarState.read(packet, index, mask, s));
+	}
+
+	public AvatarState getState(UUID clientID)
+	{
+		return states.get(clientID);
+	}
+
+	public void acknowledge(UUID clientID, int ackSeq)
+	{
+		ClientView view = views.get(clientID);
+		if (view != null)
+			view.acknowledge(ackSeq);
+	}
+
+	// Starts keeping what has been sent to a client that has joined. Snapshots are only
+	// built for clients added here.
+	public void add(UUID clientID)
+	{
+		views.putIfAbsent(clientID, new ClientView());
+	}
+
+	public void remove(UUID clientID)
+	{
+		states.remove(clientID);
+		views.remove(clientID);
+	}
+
+	// Builds the snapshot for one client, or returns null if nothing changed for it, unless
+	// heartbeat is set, or if the client has not been added or has been removed. Avatars not in nearby are only included when includeFar is set; a
+	// null nearby set means every avatar is near.
+
+	public Packet buildSnapshot(UUID recipient, Set<UUID> nearby, boolean includeFar, boolean heartbeat)
+	{
+		ClientView view = views.get(recipient);
+		if (view == null)
+			return null;
+		int snapSeq = view.getLastSequence() + 1;
+		int baseSeq = view.getAcknowledged();
+		HashMap<UUID, AvatarState> base = view.getSent(baseSeq);
+		if (base == null)
+			baseSeq = AvatarState.NO_BASE;
+
+		// reuse the map of the history slot this snapshot goes in; when that slot
+		// holds the base itself, the base is updated in place
+		HashMap<UUID, AvatarState> sent = view.reuseSlot(snapSeq, base);
+
+		Packet message = new Packet("snap", 3 + states.size() * 10);
+		message.add(snapSeq);
+		message.add(baseSeq);
+		boolean changed = false;
+		for (Map.Entry<UUID, AvatarState> entry : states.entrySet())
+		{
+			UUID id = entry.getKey();
+			if (id.equals(recipient))
+				continue;
+			if (!includeFar && nearby != null && !nearby.contains(id))
+				continue; // left as it was in the base
+
+			AvatarState state = entry.getValue();
+			int mask = state.diff(sent.get(id));
+			if (mask != 0)
+			{
+				message.add(id);
+				message.add(mask);
+				state.write(message, mask);
+				sent.put(id, state);
+				changed = true;
+			}
+		}
+		sent.keySet().retainAll(states.keySet());
+
+		if (!changed && !heartbeat)
+			return null;
+		view.store(snapSeq);
+		return message;
+	}
+
+	// What has been sent to one client in its recent snapshots, and which one it has acknowledged.
+
+	private static class ClientView
+	{
+		private int[] seqs = new int[AvatarState.SNAPSHOT_HISTORY];
+		private ArrayList<HashMap<UUID, AvatarState>> sent = new ArrayList<HashMap<UUID, AvatarState>>();
+		private AtomicInteger acknowledged = new AtomicInteger(AvatarState.NO_BASE);
+		private int lastSeq = 0; // only used by the snapshot thread
+
+		ClientView()
+		{
+			Arrays.fill(seqs, AvatarState.NO_BASE);
+			for (int i = 0; i < AvatarState.SNAPSHOT_HISTORY; i++)
+				sent.add(new HashMap<UUID, AvatarState>());
+		}
+
+		void acknowledge(int ackSeq)
+		{
+			acknowledged.accumulateAndGet(ackSeq, Math::max);
+		}
+
+		int getAcknowledged()
+		{
+			return acknowledged.get();
+		}
+
+		HashMap<UUID, AvatarState> getSent(int snapSeq)
+		{
+			if (snapSeq < 0)
+				return null;
+			int slot = snapSeq % seqs.length;
+			return seqs[slot] == snapSeq ? sent.get(slot) : null;
+		}
+
+		// Returns the map of the slot snapSeq goes in, holding a copy of base (empty if
+		// null). The slot no longer holds a snapshot until store() is called.
+		HashMap<UUID, AvatarState> reuseSlot(int snapSeq, HashMap<UUID, AvatarState> base)
+		{
+			int slot = snapSeq % seqs.length;
+			HashMap<UUID, AvatarState> states = sent.get(slot);
+			if (states != base)
+			{
+				seqs[slot] = AvatarState.NO_BASE;
+				states.clear();
+				if (base != null)
+					states.putAll(base);
+			}
+			return states;
+		}
+
+		int getLastSequence()
+		{
+			return lastSeq;
+		}
+
+		void store(int snapSeq)
+		{
+			seqs[snapSeq % seqs.length] = snapSeq;
+			lastSeq = snapSeq;
+		}
+	}
+}
@@ -0,0 +1,177 @@
+package server;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the server's periodic game logic (NPC ticks, behavior tree thinks, ...)
+ * on a single scheduler thread that sleeps between runs.
+ *
+ * Each task is rescheduled against its ideal start time rather than the time
+ * it actually ran, so small delays do not add up. A task that falls a whole
+ * period or more behind skips the missed runs instead of running them back to
+ * back, and the skip is counted in its metrics.
+ */
+public class TickScheduler
+{
+    /**
+     * A periodic piece of work registered with the scheduler.
+     */
+    public interface Task
+    {
+        /**
+         * @param elapsedMilliSecs time since the task last ran
+         */
+        void run(float elapsedMilliSecs);
+    }
+
+    private final ScheduledExecutorService executor;
+
+    public TickScheduler()
+    {
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                return new Thread(r, "server-tick");
+            }
+        });
+    }
+
+    /**
+     * Runs a task every periodMillis, starting one period from now.
+     *
+     * @return the task's handle, used to read its metrics or cancel it
+     */
+    public ScheduledTask register(String name, long periodMillis, Task task)
+    {
+        ScheduledTask scheduled = new ScheduledTask(name,
+                TimeUnit.MILLISECONDS.toNanos(periodMillis), task);
+        scheduled.start();
+        return scheduled;
+    }
+
+    /**
+     * Runs a piece of work once on the scheduler thread, after any task that
+     * is running, so it never runs at the same time as a registered task.
+     * Work handed in after shutdown is dropped.
+     */
+    public void execute(Runnable work)
+    {
+        try
+        {
+            executor.execute(work);
+        }
+        catch (RejectedExecutionException e)
+        {
+            // shut down, nothing will read the state the work would change
+        }
+    }
+
+    /**
+     * Stops every task. A task that is running finishes first.
+     */
+    public void shutdown()
+    {
+        executor.shutdown();
+    }
+
+    /**
+     * A registered task, along with how well it has kept to its period.
+     */
+    public class ScheduledTask implements Runnable
+    {
+        private final String name;
+        private final long periodNanos;
+        private final Task task;
+        private volatile boolean cancelled;
+        private long nextRunTime, lastRunTime;
+
+        // metrics, written by the scheduler thread only
+        private volatile long runCount, overrunCount, skippedCount;
+        private volatile long maxRunNanos, totalRunNanos;
+
+        private ScheduledTask(String name, long periodNanos, Task task)
+        {
+            this.name = name;
+            this.periodNanos = periodNanos;
+            this.task = task;
+        }
+
+        private void start()
+        {
+            lastRunTime = System.nanoTime();
+            nextRunTime = lastRunTime + periodNanos;
+            executor.schedule(this, periodNanos, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public void run()
+        {
+            if (cancelled)
+                return;
+
+            long startTime = System.nanoTime();
+            try
+            {
+                task.run((startTime - lastRunTime) / 1000000.0f);
+            }
+            catch (RuntimeException e)
+            {
+                System.err.println("Exception generated while running server task " + name + ".");
+                e.printStackTrace();
+            }
+            long endTime = System.nanoTime();
+            lastRunTime = startTime;
+
+            long runNanos = endTime - startTime;
+            runCount++;
+            totalRunNanos += runNanos;
+            if (runNanos > maxRunNanos)
+                maxRunNanos = runNanos;
+            if (runNanos > periodNanos)
+                overrunCount++;
+
+            nextRunTime += periodNanos;
+            if (nextRunTime <= endTime)
+            {
+                // fell at least one whole period behind, skip to the next slot
+                long missed = (endTime - nextRunTime) / periodNanos + 1;
+                skippedCount += missed;
+                nextRunTime += missed * periodNanos;
+            }
+
+            if (!cancelled && !executor.isShutdown())
+                executor.schedule(this, nextRunTime - endTime, TimeUnit.NANOSECONDS);
+        }
+
+        public void cancel() { cancelled = true; }
+
+        public String getName() { return name; }
+        public long getRunCount() { return runCount; }
+        /** @return the number of runs that took longer than the period */
+        public long getOverrunCount() { return overrunCount; }
+        /** @return the number of runs skipped because the task fell behind */
+        public long getSkippedCount() { return skippedCount; }
+        public float getMaxRunMilliSecs() { return maxRunNanos / 1000000.0f; }
+
+        public float getAverageRunMilliSecs()
+        {
+            long runs = runCount;
+            return runs == 0 ? 0.0f : totalRunNanos / (runs * 1000000.0f);
+        }
+
+        @Override
+        public String toString()
+        {
+            return name + ": runs=" + runCount + " overruns=" + overrunCount
+                    + " skipped=" + skippedCount
+                    + " avgMs=" + getAverageRunMilliSecs()
+                    + " maxMs=" + getMaxRunMilliSecs();
+        }
+    }
+}
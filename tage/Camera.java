@@ -142,7 +142,10 @@ public class Camera
 	public void lookAt(Vector3f target) { lookAt(target.x(), target.y(), target.z()); }
 
 	/** orients this Camera so that it faces a specified GameObject */
-	public void lookAt(GameObject go) { lookAt(go.getWorldLocation()); }
+	public void lookAt(GameObject go)
+	{	Matrix4fc t = go.getWorldTranslationView();
+		lookAt(t.m30(), t.m31(), t.m32());
+	}
 
 	/** orients this Camera so that it faces a specified (x,y,z) world location */
 	public void lookAt(float x, float y, float z)
@@ -24,6 +24,13 @@ public class CameraOrbitController
     private float cameraElevation;      // Elevation of camera above target
     private float cameraRadius;         // Distance between camera and target
     private float speedIncrement;
+
+    // reused each frame, rather than allocating new vectors
+    private Vector3f avatarRot = new Vector3f();
+    private Vector3f avatarLoc = new Vector3f();
+    private Vector3f cameraLoc = new Vector3f();
+    private static final Vector3f NEG_Z = new Vector3f(0.0f, 0.0f, -1.0f);
+    private static final Vector3f POS_Y = new Vector3f(0.0f, 1.0f, 0.0f);
     
     public CameraOrbitController(Camera cam, GameObject av, String gpName, Engine e, MyGame g)
     {
@@ -78,8 +85,8 @@ public class CameraOrbitController
     public void updateCameraPosition()
     {
 
-        Vector3f avatarRot = avatar.getWorldForwardVector();
-        double avatarAngle = Math.toDegrees((double)avatarRot.angleSigned(new Vector3f(0.0f, 0.0f, -1.0f), new Vector3f(0.0f, 1.0f, 0.0f)));
+        avatar.getWorldForwardVectorInto(avatarRot);
+        double avatarAngle = Math.toDegrees((double)avatarRot.angleSigned(NEG_Z, POS_Y));
         float totalAz = cameraAzimuth - (float)avatarAngle;
         double theta = Math.toRadians(cameraAzimuth);
         double phi = Math.toRadians(cameraElevation);
@@ -87,8 +94,8 @@ public class CameraOrbitController
         float y = cameraRadius * (float)Math.sin(phi);
         float z = cameraRadius * (float)(Math.cos(phi) * Math.cos(theta));
 
-        Vector3f avatarLoc = new Vector3f(avatar.getWorldLocation());
-        camera.setLocation(new Vector3f(x, y, z).add(avatarLoc));
+        avatar.getWorldLocationInto(avatarLoc);
+        camera.setLocation(cameraLoc.set(x, y, z).add(avatarLoc));
         camera.lookAt(avatarLoc.x, avatarLoc.y + 0.8f, avatarLoc.z);
     }
 
@@ -0,0 +1,121 @@
+package tage;
+import org.joml.*;
+import tage.shapes.*;
+
+/**
+* A height-mapped terrain built from square tiles, each drawn at a resolution that depends on
+* its distance from the camera.  It can be used in place of a GameObject with a TerrainPlane.
+* <p>
+* The terrain is a GameObject with no shape of its own.  Its children are the tiles, which
+* share its transform, so it is positioned and scaled like any other GameObject, and
+* getHeight() works on it as on a TerrainPlane object.  Setting its texture or height map
+* sets those of all of its tiles.  Since each tile is a separate GameObject, the tiles
+* outside the view frustum are culled individually.
+* <p>
+* Each tile has a shape for each level of detail, with resolution halving from one level to the
+* next.  Before drawing each viewport, the renderer chooses every tile's level from that viewport's camera:
+* tiles within one tile width of the camera are drawn at full resolution, tiles within two widths at
+* the next level, within four widths the next, and so on.  The distance can be changed with setDetailDistance().
+* Tile edges are hidden by skirts (see TerrainTile), so tiles of different levels can be adjacent.
+* <p>
+* Every level of every tile stays loaded, so changing a tile's level costs nothing.  The tiles of a
+* level share one index buffer, but each has its own vertices, as their positions and texture coordinates differ.
+* <p>
+* Like other shapes, the tiles must be built before the game loop starts, so a ChunkedTerrain
+* should be created in buildObjects().
+*/
+public class ChunkedTerrain extends GameObject
+{	private static final float SKIRT_DEPTH = 0.1f;
+
+	private int tilesPerSide, levels;
+	private GameObject[] tiles;
+	private TerrainTile[][] tileShapes;   // [tile][level]
+	private int[] tileLevels;
+	private float detailDistance = 0f;    // 0 means one tile width
+
+	private Vector3f boxMin = new Vector3f(), boxMax = new Vector3f();
+
+	/**
+	* builds a terrain of tilesPerSide by tilesPerSide tiles, each with resolution squares along a side at full detail,
+	* and the specified number of levels of detail.  The texture may be null.
+	*/
+	public ChunkedTerrain(GameObject parent, int tilesPerSide, int resolution, int levels, TextureImage texture)
+	{	super(parent);
+		this.tilesPerSide = tilesPerSide;
+		this.levels = java.lang.Math.max(1, levels);
+		tiles = new GameObject[tilesPerSide * tilesPerSide];
+		tileShapes = new TerrainTile[tiles.length][this.levels];
+		tileLevels = new int[tiles.length];
+
+		for (int tz = 0; tz < tilesPerSide; tz++)
+		{	for (int tx = 0; tx < tilesPerSide; tx++)
+			{	int t = tz * tilesPerSide + tx;
+				for (int level = 0; level < this.levels; level++)
+				{	int tileRes = java.lang.Math.max(1, resolution >> level);
+					TerrainTile first = (t == 0) ? null : tileShapes[0][level];
+					tileShapes[t][level] = new TerrainTile(tx, tz, tilesPerSide, tileRes, SKIRT_DEPTH, first);
+				}
+				tiles[t] = new GameObject(this, tileShapes[t][0], texture);
+				tiles[t].setIsTerrain(true);
+			}
+		}
+		super.setTextureImage(texture);
+		Engine.getEngine().getSceneGraph().addChunkedTerrain(this);
+	}
+
+	/** returns the GameObjects for the tiles, for example to change their render states */
+	public GameObject[] getTiles() { return tiles; }
+
+	/** returns the number of tiles along each side of the terrain */
+	public int getTilesPerSide() { return tilesPerSide; }
+
+	/** returns the number of levels of detail */
+	public int getLevels() { return levels; }
+
+	/** sets the distance, in world units, within which tiles are drawn at full resolution.  0 means one tile width. */
+	public void setDetailDistance(float d) { detailDistance = d; }
+
+	/** returns the distance within which tiles are drawn at full resolution, 0 meaning one tile width */
+	public float getDetailDistance() { return detailDistance; }
+
+	/** assigns a TextureImage to this terrain and all of its tiles */
+	public void setTextureImage(TextureImage tex)
+	{	super.setTextureImage(tex);
+		if (tiles == null) return;
+		for (int t = 0; t < tiles.length; t++) tiles[t].setTextureImage(tex);
+	}
+
+	/** assigns a TextureImage height map to this terrain and all of its tiles */
+	public void setHeightMap(TextureImage tex)
+	{	super.setHeightMap(tex);
+		if (tiles == null) return;
+		for (int t = 0; t < tiles.length; t++) tiles[t].setHeightMap(tex);
+	}
+
+	// Chooses each tile's level of detail from its distance to the camera - for engine use only.
+	// Called by RenderSystem (via SceneGraph) before drawing each viewport.
+
+	protected void updateLevelOfDetail(Vector3f cameraLocation)
+	{	for (int t = 0; t < tiles.length; t++)
+		{	GameObject tile = tiles[t];
+			tile.getWorldBounds(boxMin, boxMax);
+			float distance = distanceToBox(cameraLocation, boxMin, boxMax);
+			float near = (detailDistance > 0f) ? detailDistance : (boxMax.x - boxMin.x);
+
+			int level = 0;
+			while (level < levels-1 && distance >= near) { near *= 2.0f; level++; }
+
+			if (level != tileLevels[t])
+			{	tileLevels[t] = level;
+				tile.setShape(tileShapes[t][level]);
+			}
+		}
+	}
+
+	private static float distanceToBox(Vector3f p, Vector3f min, Vector3f max)
+	{	float dx = java.lang.Math.max(0f, java.lang.Math.max(min.x - p.x, p.x - max.x));
+		float dy = java.lang.Math.max(0f, java.lang.Math.max(min.y - p.y, p.y - max.y));
+		float dz = java.lang.Math.max(0f, java.lang.Math.max(min.z - p.z, p.z - max.z));
+		return (float) java.lang.Math.sqrt(dx*dx + dy*dy + dz*dz);
+	}
+}
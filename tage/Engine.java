@@ -23,6 +23,7 @@ public class Engine
 	private LightManager lm;
 	private VariableFrameRateGame vfrg;
 	private InputManager im;
+	private FrameProfiler fp;
 
 	/** The game application should first call this constructor, supplying a pointer back to itself. */
 	public Engine(VariableFrameRateGame v)
@@ -30,10 +31,29 @@ public class Engine
 		VariableFrameRateGame.setEngine(this);
 		eng = this;
 		rs = new RenderSystem(this);
-		sg = new SceneGraph(this);
+		createComponents();
+	}
+
+	/**
+	* Creates an engine that renders offscreen, at the specified size, without a window, for automated
+	* benchmarks and tests.  After game_loop(), frames are rendered by calling renderFrames() in the RenderSystem.
+	* JOGL still needs a display connection to create an OpenGL context (on Linux, an X server such as Xvfb,
+	* which can render with Mesa llvmpipe on machines without a GPU), but nothing is shown on it.
+	*/
+	public Engine(VariableFrameRateGame v, int width, int height)
+	{	vfrg = v;
+		VariableFrameRateGame.setEngine(this);
+		eng = this;
+		rs = new RenderSystem(this, width, height);
+		createComponents();
+	}
+
+	private void createComponents()
+	{	sg = new SceneGraph(this);
 		hm = new HUDmanager(this);
 		lm = new LightManager(this);
 		im = new InputManager();
+		fp = new FrameProfiler();
 		Light.setEngine(this);
 		rs.setUpCanvas();
 		sg.buildSkyBox();
@@ -54,6 +74,9 @@ public class Engine
 	/** returns the InputManager object associated with this Engine */
 	public InputManager getInputManager() { return im; }
 
+	/** returns the FrameProfiler object associated with this Engine */
+	public FrameProfiler getFrameProfiler() { return fp; }
+
 	/** returns a reference to the game application. */
 	public VariableFrameRateGame getGame() { return vfrg; }
 }
\ No newline at end of file
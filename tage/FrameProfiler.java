@@ -0,0 +1,218 @@
+package tage;
+import java.util.*;
+import static com.jogamp.opengl.GL4.*;
+import com.jogamp.opengl.*;
+
+/**
+* Measures how long each stage of a frame takes, on the CPU and on the GPU.
+* <p>
+* The renderer divides each frame into stages (game update, scene update, lights, viewport,
+* skybox, HUD, culling, and objects), and wraps each one in a CPU timer (System.nanoTime) and an OpenGL
+* GL_TIME_ELAPSED query.  A stage that runs more than once in a frame, such as once per viewport,
+* is timed as the sum of its runs.  The GPU results are read two frames later, by which time they
+* are normally available, so that reading them never waits for the GPU.  Results still not
+* available then are skipped.
+* <p>
+* The times of the most recent frames are kept for each stage, and the game application can ask for
+* percentiles of them, such as the median or the 95th percentile, for example to log them, or can
+* have the HUDmanager display a summary.  The profiler is off by default, and when off, it costs nothing.
+* The Engine creates the profiler, and the game application gets it with Engine.getFrameProfiler().
+*/
+public class FrameProfiler
+{	private static final int HISTORY = 240;          // number of frames kept for the percentiles
+	private static final int FRAMES_IN_FLIGHT = 2;   // frames between issuing a GPU query and reading it
+	private static final int SUMMARY_INTERVAL = 30;  // frames between updates of the summary
+
+	private boolean enabled = false;
+	private boolean active = false;   // whether the current frame is being timed
+	private ArrayList<Stage> stages = new ArrayList<Stage>();
+	private HashMap<String, Stage> stagesByName = new HashMap<String, Stage>();
+	private Stage frameStage;
+	private Stage current;
+	private long cpuStart;
+	private long frameStart;
+	private int frameCount;
+
+	// GPU queries for each of the frames in flight, with the stage each one times
+	private int[][] queries = new int[FRAMES_IN_FLIGHT][0];
+	private Stage[][] queryStages = new Stage[FRAMES_IN_FLIGHT][0];
+	private int[] queriesUsed = new int[FRAMES_IN_FLIGHT];
+	private boolean[] slotPending = new boolean[FRAMES_IN_FLIGHT];
+	private int slot;
+	private int[] available = new int[1];
+	private long[] elapsed = new long[1];
+
+	private float[] scratch = new float[HISTORY];
+	private ArrayList<String> summary = new ArrayList<String>();
+
+	protected FrameProfiler()
+	{	frameStage = getStage("frame");
+	}
+
+	/** turns the profiler on or off, starting from the next frame.  Times collected while it was on are kept. */
+	public void setEnabled(boolean e) { enabled = e; }
+
+	/** returns true if the profiler is on */
+	public boolean isEnabled() { return enabled; }
+
+	/** returns the names of the stages timed so far, in the order they first ran.  "frame" is the whole frame. */
+	public List<String> getStageNames()
+	{	ArrayList<String> names = new ArrayList<String>();
+		for (Stage s : stages) names.add(s.name);
+		return names;
+	}
+
+	/**
+	* returns the pth percentile (0 to 100) of the CPU time, in milliseconds, of the named stage
+	* over the recent frames, or 0 if there are no times for the stage.
+	*/
+	public float getCpuPercentile(String stage, float p)
+	{	Stage s = stagesByName.get(stage);
+		if (s == null) return 0f;
+		return percentile(s.cpuTimes, s.cpuCount, p);
+	}
+
+	/**
+	* returns the pth percentile (0 to 100) of the GPU time, in milliseconds, of the named stage
+	* over the recent frames, or 0 if there are no times for the stage.  The "frame" stage has no GPU time.
+	*/
+	public float getGpuPercentile(String stage, float p)
+	{	Stage s = stagesByName.get(stage);
+		if (s == null) return 0f;
+		return percentile(s.gpuTimes, s.gpuCount, p);
+	}
+
+	/**
+	* returns one line of text per stage, with its median and 95th percentile CPU and GPU times.
+	* The lines are rebuilt every 30 frames, rather than every frame.
+	*/
+	public List<String> getSummary() { return summary; }
+
+	// ------------------ TIMING (engine use only) --------------------
+
+	// Starts a frame, reading the GPU times of the frame that used this slot of queries.
+	protected void beginFrame()
+	{	active = enabled;
+		if (!active) return;
+		frameStart = System.nanoTime();
+		slot = (slot + 1) % FRAMES_IN_FLIGHT;
+		if (slotPending[slot]) readQueries(slot);
+		queriesUsed[slot] = 0;
+		for (int i = 0; i < stages.size(); i++) stages.get(i).cpuFrame = 0L;
+	}
+
+	// Starts timing the named stage.  Stages do not nest, so a stage still running is ended.
+	protected void begin(String name)
+	{	if (!active) return;
+		if (current != null) end();
+		GL4 gl = (GL4) GLContext.getCurrentGL();
+		current = getStage(name);
+		int q = nextQuery(gl);
+		queryStages[slot][q] = current;
+		gl.glBeginQuery(GL_TIME_ELAPSED, queries[slot][q]);
+		cpuStart = System.nanoTime();
+	}
+
+	// Ends timing the current stage.
+	protected void end()
+	{	if (current == null) return;
+		GL4 gl = (GL4) GLContext.getCurrentGL();
+		current.cpuFrame += System.nanoTime() - cpuStart;
+		current.ranThisFrame = true;
+		gl.glEndQuery(GL_TIME_ELAPSED);
+		current = null;
+	}
+
+	// Ends the frame, recording the CPU times of the stages that ran in it.
+	protected void endFrame()
+	{	if (!active) return;
+		if (current != null) end();
+		frameStage.cpuFrame = System.nanoTime() - frameStart;
+		frameStage.ranThisFrame = true;
+		for (int i = 0; i < stages.size(); i++)
+		{	Stage s = stages.get(i);
+			if (!s.ranThisFrame) continue;
+			s.cpuTimes[s.cpuNext] = s.cpuFrame / 1.0e6f;
+			s.cpuNext = (s.cpuNext + 1) % HISTORY;
+			s.cpuCount = java.lang.Math.min(s.cpuCount + 1, HISTORY);
+			s.ranThisFrame = false;
+		}
+		slotPending[slot] = queriesUsed[slot] > 0;
+		if (++frameCount % SUMMARY_INTERVAL == 0) buildSummary();
+	}
+
+	// Adds the GPU times of the queries in the slot, per stage, if all of them are available.
+	private void readQueries(int sl)
+	{	GL4 gl = (GL4) GLContext.getCurrentGL();
+		slotPending[sl] = false;
+		for (int i = 0; i < queriesUsed[sl]; i++)
+		{	gl.glGetQueryObjectiv(queries[sl][i], GL_QUERY_RESULT_AVAILABLE, available, 0);
+			if (available[0] == 0) return;
+		}
+		for (int i = 0; i < stages.size(); i++) stages.get(i).gpuFrame = -1L;
+		for (int i = 0; i < queriesUsed[sl]; i++)
+		{	gl.glGetQueryObjectui64v(queries[sl][i], GL_QUERY_RESULT, elapsed, 0);
+			Stage s = queryStages[sl][i];
+			s.gpuFrame = java.lang.Math.max(s.gpuFrame, 0L) + elapsed[0];
+		}
+		for (int i = 0; i < stages.size(); i++)
+		{	Stage s = stages.get(i);
+			if (s.gpuFrame < 0L) continue;
+			s.gpuTimes[s.gpuNext] = s.gpuFrame / 1.0e6f;
+			s.gpuNext = (s.gpuNext + 1) % HISTORY;
+			s.gpuCount = java.lang.Math.min(s.gpuCount + 1, HISTORY);
+		}
+	}
+
+	private int nextQuery(GL4 gl)
+	{	int used = queriesUsed[slot];
+		if (used == queries[slot].length)
+		{	int size = java.lang.Math.max(16, used * 2);
+			int[] q = Arrays.copyOf(queries[slot], size);
+			gl.glGenQueries(size - used, q, used);
+			queries[slot] = q;
+			queryStages[slot] = Arrays.copyOf(queryStages[slot], size);
+		}
+		queriesUsed[slot] = used + 1;
+		return used;
+	}
+
+	private Stage getStage(String name)
+	{	Stage s = stagesByName.get(name);
+		if (s == null)
+		{	s = new Stage(name);
+			stages.add(s);
+			stagesByName.put(name, s);
+		}
+		return s;
+	}
+
+	private float percentile(float[] times, int count, float p)
+	{	if (count == 0) return 0f;
+		System.arraycopy(times, 0, scratch, 0, count);
+		Arrays.sort(scratch, 0, count);
+		int i = java.lang.Math.round(p / 100f * (count - 1));
+		return scratch[java.lang.Math.max(0, java.lang.Math.min(count - 1, i))];
+	}
+
+	private void buildSummary()
+	{	summary.clear();
+		summary.add("stage          cpu 50%/95%      gpu 50%/95% (ms)");
+		for (int i = 0; i < stages.size(); i++)
+		{	Stage s = stages.get(i);
+			summary.add(String.format("%-12s %6.2f %6.2f    %6.2f %6.2f", s.name,
+				percentile(s.cpuTimes, s.cpuCount, 50f), percentile(s.cpuTimes, s.cpuCount, 95f),
+				percentile(s.gpuTimes, s.gpuCount, 50f), percentile(s.gpuTimes, s.gpuCount, 95f)));
+		}
+	}
+
+	private static class Stage
+	{	String name;
+		float[] cpuTimes = new float[HISTORY], gpuTimes = new float[HISTORY];
+		int cpuNext, cpuCount, gpuNext, gpuCount;
+		long cpuFrame, gpuFrame;
+		boolean ranThisFrame;
+
+		Stage(String n) { name = n; }
+	}
+}
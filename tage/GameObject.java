@@ -23,6 +23,7 @@ import tage.physics.PhysicsObject;
 * <li> a link to a corresponding PhysicsObject, if applicable
 * <li> a boolean flag indicating whether this is a terrain object
 * <li> a reference to its height map texture image, if it is a terrain object
+* <li> a sphere bounding it in world space, used by the renderer for view-frustum culling
 * </ul>
 * <p>
 * An application can change an GameObject's location, size, and orientation by
@@ -67,7 +68,7 @@ public class GameObject
 	// engine and should not be called by the game application.
 	// All other GameObjects have the root as an ancestor.
 
-	protected static GameObject createRoot() { root = new GameObject(); return root; }
+	protected static GameObject createRoot() { root = new GameObject(); root.inScene = true; return root; }
 
 	/** returns a reference to the scenegraph root node */
 	public static GameObject root() { return root; }
@@ -85,10 +86,31 @@ public class GameObject
 	private boolean propagateTranslation, propagateRotation, propagateScale;
 	private boolean applyParentRotationToPosition, applyParentScaleToPosition;
 	private Vector3f v = new Vector3f(); // utility vector for JOML calls
+	private Vector4f loc = new Vector4f(); // utility vector for building the world translation
+
+	// world transforms are rebuilt only when needed, after a local transform here or in an ancestor changes
+	private boolean transformDirty = false;
+	private boolean descendantDirty = false;
+
+	// the model matrix the object is drawn with, and the orientation correction it was built from
+	private Matrix4f modelMatrix = new Matrix4f(), modelCorrection = new Matrix4f();
+	private boolean modelDirty = true;
 
 	private PhysicsObject physicsObject;
 	private boolean isTerrain = false;
 
+	// world-space bounding sphere, recomputed when next needed after the object or its shape changes
+	private Vector3f worldBoundsCenter = new Vector3f();
+	private float worldBoundsRadius;
+	private boolean boundsDirty = true;
+	private Vector3f boundsMin = new Vector3f(), boundsMax = new Vector3f();
+	private Vector3f worldBoundsMin = new Vector3f(), worldBoundsMax = new Vector3f();
+
+	// membership in the scenegraph's spatial index, which holds the objects reachable from the root
+	private boolean inScene = false;
+	private boolean indexQueued = false;
+	private SpatialIndex.Node spatialNode;
+
 	private float keyValue;
 
 	//------------------ CONSTRUCTORS -----------------
@@ -163,7 +185,7 @@ public class GameObject
 		Vector4f fwdDirection;
 		oldPosition = this.getWorldLocation();
 		fwdDirection = new Vector4f(0f,0f,1f,1f);
-		fwdDirection.mul(this.getWorldRotation());
+		fwdDirection.mul(this.getWorldRotationView());
 		fwdDirection.mul(elapsTime);
 		newPosition = oldPosition.add(fwdDirection.x(), fwdDirection.y(), fwdDirection.z());
 		this.setLocalLocation(newPosition);
@@ -179,7 +201,7 @@ public class GameObject
 		Vector4f fwdDirection;
 		oldPosition = this.getWorldLocation();
 		fwdDirection = new Vector4f(0f,0f,-1f,1f);
-		fwdDirection.mul(this.getWorldRotation());
+		fwdDirection.mul(this.getWorldRotationView());
 		fwdDirection.mul(elapsTime);
 		newPosition = oldPosition.add(fwdDirection.x(), fwdDirection.y(), fwdDirection.z());
 		this.setLocalLocation(newPosition);
@@ -193,7 +215,7 @@ public class GameObject
 
 		Matrix4f oldRotation, rotAroundAvatarUp, newRotation;
 		Vector4f oldUp;
-		oldRotation = new Matrix4f(this.getWorldRotation());
+		oldRotation = this.getWorldRotation();
 		oldUp = new Vector4f(0f, 1f, 0f, 1f).mul(oldRotation);
 		rotAroundAvatarUp = new Matrix4f().rotation(elapsTime, new Vector3f(oldUp.x(), oldUp.y(), oldUp.z()));
 		newRotation = oldRotation;
@@ -209,7 +231,7 @@ public class GameObject
 
 		Matrix4f oldRotation, rotAroundAvatarUp, newRotation;
 		Vector4f oldUp;
-		oldRotation = new Matrix4f(this.getWorldRotation());
+		oldRotation = this.getWorldRotation();
 		oldUp = new Vector4f(0.0f, 1.0f, 0.0f, 1.0f).mul(oldRotation);
 		rotAroundAvatarUp = new Matrix4f().rotation(-elapsTime, new Vector3f(oldUp.x(), oldUp.y(), oldUp.z()));
 		newRotation = oldRotation;
@@ -225,7 +247,7 @@ public class GameObject
 
 		Matrix4f oldRotation, rotAroundAvatarRight, newRotation;
 		Vector4f oldUp;
-		oldRotation = new Matrix4f(this.getWorldRotation());
+		oldRotation = this.getWorldRotation();
 		oldUp = new Vector4f(-1.0f, 0.0f, 0.0f, 1.0f).mul(oldRotation);
 		rotAroundAvatarRight = new Matrix4f().rotation(elapsTime, new Vector3f(oldUp.x(), oldUp.y(), oldUp.z()));
 		newRotation = oldRotation;
@@ -249,7 +271,7 @@ public class GameObject
 	public ObjShape getShape() { return shape; }
 
 	/** assigns an ObjShape to this GameObject */
-	public void setShape(ObjShape sh) { shape = sh; }
+	public void setShape(ObjShape sh) { shape = sh; boundsChanged(); }
 
 	/** returns the TextureImage associated with this GameObject */
 	public TextureImage getTextureImage() { return texture; }
@@ -261,7 +283,7 @@ public class GameObject
 	public TextureImage getHeightMap() { return heightMap; }
 
 	/** assigns a TextureImage height map to this GameObject - applicable to terrain planes */
-	public void setHeightMap(TextureImage tex) { heightMap = tex; isTerrain = true; }
+	public void setHeightMap(TextureImage tex) { heightMap = tex; isTerrain = true; boundsChanged(); }
 
 	/** returns a reference to the RenderStates associated with this GameObject */
 	public RenderStates getRenderStates() { return renderStates; }
@@ -270,7 +292,7 @@ public class GameObject
 	public boolean isTerrain() { return isTerrain; }
 
 	/** sets this GameObject to be a terrain plane */
-	public void setIsTerrain(boolean t) { isTerrain = t; }
+	public void setIsTerrain(boolean t) { isTerrain = t; boundsChanged(); }
 
 	/** returns a reference to this GameObject's parent GameObject */
 	public GameObject getParent() { return parent; }
@@ -290,14 +312,17 @@ public class GameObject
 	/** returns a boolean that is true if this GameObject has any children nodes */
 	public boolean hasChildren() { return !(children.isEmpty()); }
 
-	protected void addChild(GameObject g) { children.add(g); }
-	protected void removeChild(GameObject g) { children.remove(g); }
+	protected void addChild(GameObject g) { children.add(g); g.transformChanged(); if (inScene) g.setInScene(true); }
+	protected void removeChild(GameObject g) { if (children.remove(g)) g.setInScene(false); }
 	protected Iterator getChildrenIterator() { return children.iterator(); }
 
 	// ------------------ Look At methods ------------------------------
 
 	/** Orients this GameObject so that it faces a specified GameObject */
-	public void lookAt(GameObject go) { lookAt(go.getWorldLocation()); }
+	public void lookAt(GameObject go)
+	{	Matrix4fc t = go.getWorldTranslationView();
+		lookAt(t.m30(), t.m31(), t.m32());
+	}
 
 	/** Orients this GameObject so that it faces a location specified in a Vector3f */
 	public void lookAt(Vector3f target) { lookAt(target.x(), target.y(), target.z()); }
@@ -318,60 +343,91 @@ public class GameObject
 		localRotation.setColumn(0, new Vector4f(right.negate(), 0f));
 		localRotation.setColumn(1, new Vector4f(up, 0f));
 		localRotation.setColumn(2, new Vector4f(fwd, 0f));
-		update();
+		transformChanged();
 	}
 	
 	// ------------ SCENE GRAPH TRAVERSAL for MATRICES -----------------
 
+	// Called whenever a local transform is modified.  It marks this object and its descendents
+	// as needing their world transforms rebuilt, and marks its ancestors as having such descendents,
+	// but does not compute anything.  A dirty object's descendents are always dirty too,
+	// so the marking stops at any object that is already dirty.
+
+	private void transformChanged()
+	{	markTransformDirty();
+		for (GameObject p = parent; p != null && !p.descendantDirty; p = p.parent) p.descendantDirty = true;
+	}
+
+	private void markTransformDirty()
+	{	if (transformDirty) return;
+		transformDirty = true;
+		boundsChanged();
+		Iterator<GameObject> i = children.iterator();
+		while (i.hasNext()) (i.next()).markTransformDirty();
+	}
+
 	// This function does scenegraph traversal for game object matrix transforms.
-	// It is called automatically by the engine whenever any object transform is modified,
+	// It is called automatically by the engine once per frame, before rendering,
 	// and should NOT be called directly by the game application.
-	// It works by concatenating local transforms to parent world transforms.
-	// It may also apply parent rotation and scale to this objects translation, if a
-	// hierarchical object is desired.  Recursively calls update() on children node
-	// for each transform that has propagation enabled, if children are present.
+	// It rebuilds the world transforms of the dirty objects top-down, skipping
+	// any subtree in which nothing has changed since the previous frame.  The children
+	// of an object just rebuilt are dirty too, so the pass always continues into them.
 
 	protected void update()
-	{	if (this != root)
-		{	if (propagateTranslation)
-			{	Vector4f loc = (new Vector4f(0,0,0,1)).mul(localTranslation);
-				if (applyParentRotationToPosition) loc.mul(parent.getWorldRotation());
-				if (applyParentScaleToPosition)	loc.mul(parent.getWorldScale());
-				loc.mul(parent.getWorldTranslation());
-				worldTranslation.translation(loc.x(), loc.y(), loc.z());
-			}
-			else
-			{	worldTranslation = new Matrix4f(localTranslation);
-			}
-			if (propagateRotation)
-			{	worldRotation = new Matrix4f(parent.getWorldRotation());
-				worldRotation.mul(localRotation);
-			}
-			else
-			{	worldRotation = new Matrix4f(localRotation);
-			}
-			if (propagateScale)
-			{	worldScale = new Matrix4f(parent.getWorldScale());
-				worldScale.mul(localScale);
-			}
-			else
-			{	worldScale = new Matrix4f(localScale);
-			}
-		}
+	{	boolean resolved = transformDirty;
+		if (resolved) resolveTransforms();
+		if (!descendantDirty && !resolved) return;
+		descendantDirty = false;
 		Iterator<GameObject> i = children.iterator();
-		while (i.hasNext()) (i.next()).update();
+		while (i.hasNext())
+		{	GameObject child = i.next();
+			if (child.transformDirty || child.descendantDirty) child.update();
+		}
+	}
+
+	// Rebuilds this object's world transforms, first rebuilding its parent's if they are also dirty.
+	// It works by concatenating local transforms to parent world transforms.
+	// It may also apply parent rotation and scale to this objects translation, if a
+	// hierarchical object is desired.  It is also called when a world transform is read
+	// between frames, so that the game application always sees up-to-date values.
+
+	private void resolveTransforms()
+	{	transformDirty = false;
+		modelDirty = true;
+		if (parent == null)
+		{	worldTranslation.set(localTranslation);
+			worldRotation.set(localRotation);
+			worldScale.set(localScale);
+			return;
+		}
+		if (parent.transformDirty) parent.resolveTransforms();
+
+		if (propagateTranslation)
+		{	loc.set(0,0,0,1).mul(localTranslation);
+			if (applyParentRotationToPosition) loc.mul(parent.worldRotation);
+			if (applyParentScaleToPosition)	loc.mul(parent.worldScale);
+			loc.mul(parent.worldTranslation);
+			worldTranslation.translation(loc.x(), loc.y(), loc.z());
+		}
+		else
+		{	worldTranslation.set(localTranslation);
+		}
+		if (propagateRotation) worldRotation.set(parent.worldRotation).mul(localRotation);
+		else worldRotation.set(localRotation);
+		if (propagateScale) worldScale.set(parent.worldScale).mul(localScale);
+		else worldScale.set(localScale);
 	}
 
 	// ---------------- ACCESSORS FOR MATRICES ---------------------
 
 	/** copies a specified Matrix4f into this GameObject's local translation matrix */
-	public void setLocalTranslation(Matrix4f m) { localTranslation = new Matrix4f(m); update(); }
+	public void setLocalTranslation(Matrix4f m) { localTranslation.set(m); transformChanged(); }
 
 	/** copies a specified Matrix4f into this GameObject's local rotation matrix */
-	public void setLocalRotation(Matrix4f l) { localRotation = new Matrix4f(l); update(); }
+	public void setLocalRotation(Matrix4f l) { localRotation.set(l); transformChanged(); }
 
 	/** copies a specified Matrix4f into this GameObject's local scale matrix */
-	public void setLocalScale(Matrix4f s) { localScale = new Matrix4f(s); update(); }
+	public void setLocalScale(Matrix4f s) { localScale.set(s); transformChanged(); }
 
 	/** returns a copy of this GameObject's local translation matrix */
 	public Matrix4f getLocalTranslation() { return new Matrix4f(localTranslation); }
@@ -383,40 +439,121 @@ public class GameObject
 	public Matrix4f getLocalScale() { return new Matrix4f(localScale); }
 
 	/** returns a copy of this GameObject's world translation matrix */
-	public Matrix4f getWorldTranslation() { return new Matrix4f(worldTranslation); }
+	public Matrix4f getWorldTranslation() { return new Matrix4f(getWorldTranslationView()); }
 
 	/** returns a copy of this GameObject's world rotation matrix */
-	public Matrix4f getWorldRotation() { return new Matrix4f(worldRotation); }
+	public Matrix4f getWorldRotation() { return new Matrix4f(getWorldRotationView()); }
 
 	/** returns a copy of this GameObject's world scale matrix */
-	public Matrix4f getWorldScale() { return new Matrix4f(worldScale); }
+	public Matrix4f getWorldScale() { return new Matrix4f(getWorldScaleView()); }
 
 	/** returns a forward-facing Vector3f based on the local rotation matrix */
-	public Vector3f getLocalForwardVector() { return new Vector3f(localRotation.getColumn(2, v)); }
+	public Vector3f getLocalForwardVector() { return getLocalForwardVectorInto(new Vector3f()); }
 
 	/** returns a upward-facing Vector3f based on the local rotation matrix */
-	public Vector3f getLocalUpVector() { return new Vector3f(localRotation.getColumn(1, v)); }
+	public Vector3f getLocalUpVector() { return getLocalUpVectorInto(new Vector3f()); }
 
 	/** returns a right-facing Vector3f based on the local rotation matrix */
-	public Vector3f getLocalRightVector() { return (new Vector3f(localRotation.getColumn(0, v))).negate(); }
+	public Vector3f getLocalRightVector() { return getLocalRightVectorInto(new Vector3f()); }
 
 	/** returns a forward-facing Vector3f based on the world rotation matrix */
-	public Vector3f getWorldForwardVector() { return new Vector3f(worldRotation.getColumn(2, v)); }
+	public Vector3f getWorldForwardVector() { return getWorldForwardVectorInto(new Vector3f()); }
 
 	/** returns a upward-facing Vector3f based on the world rotation matrix */
-	public Vector3f getWorldUpVector() { return new Vector3f(worldRotation.getColumn(1, v)); }
+	public Vector3f getWorldUpVector() { return getWorldUpVectorInto(new Vector3f()); }
 
 	/** returns a right-facing Vector3f based on the world rotation matrix */
-	public Vector3f getWorldRightVector() { return (new Vector3f(worldRotation.getColumn(0, v))).negate(); }
+	public Vector3f getWorldRightVector() { return getWorldRightVectorInto(new Vector3f()); }
 
 	/** returns the location of this object relative to its parent node */
-	public Vector3f getLocalLocation() { return new Vector3f(localTranslation.getTranslation(v)); }
+	public Vector3f getLocalLocation() { return getLocalLocationInto(new Vector3f()); }
 
 	/** returns the location of this object in world space */
-	public Vector3f getWorldLocation() { return new Vector3f(worldTranslation.getTranslation(v)); }
+	public Vector3f getWorldLocation() { return getWorldLocationInto(new Vector3f()); }
+
+	// The functions below return the same values as those above without allocating anything,
+	// so they are the ones to use in code that runs every frame.  An ...Into() function copies
+	// the value into dest and returns dest.  A ...View() function returns the matrix itself,
+	// which must not be modified, and which changes when the object is next moved.
+
+	/** copies this GameObject's local translation matrix into dest */
+	public Matrix4f getLocalTranslationInto(Matrix4f dest) { return dest.set(localTranslation); }
+
+	/** copies this GameObject's local rotation matrix into dest */
+	public Matrix4f getLocalRotationInto(Matrix4f dest) { return dest.set(localRotation); }
+
+	/** copies this GameObject's local scale matrix into dest */
+	public Matrix4f getLocalScaleInto(Matrix4f dest) { return dest.set(localScale); }
+
+	/** copies this GameObject's world translation matrix into dest */
+	public Matrix4f getWorldTranslationInto(Matrix4f dest) { return dest.set(getWorldTranslationView()); }
+
+	/** copies this GameObject's world rotation matrix into dest */
+	public Matrix4f getWorldRotationInto(Matrix4f dest) { return dest.set(getWorldRotationView()); }
+
+	/** copies this GameObject's world scale matrix into dest */
+	public Matrix4f getWorldScaleInto(Matrix4f dest) { return dest.set(getWorldScaleView()); }
+
+	/** returns a read-only view of this GameObject's local translation matrix */
+	public Matrix4fc getLocalTranslationView() { return localTranslation; }
+
+	/** returns a read-only view of this GameObject's local rotation matrix */
+	public Matrix4fc getLocalRotationView() { return localRotation; }
+
+	/** returns a read-only view of this GameObject's local scale matrix */
+	public Matrix4fc getLocalScaleView() { return localScale; }
+
+	/** returns a read-only view of this GameObject's world translation matrix */
+	public Matrix4fc getWorldTranslationView() { if (transformDirty) resolveTransforms(); return worldTranslation; }
+
+	/** returns a read-only view of this GameObject's world rotation matrix */
+	public Matrix4fc getWorldRotationView() { if (transformDirty) resolveTransforms(); return worldRotation; }
+
+	/** returns a read-only view of this GameObject's world scale matrix */
+	public Matrix4fc getWorldScaleView() { if (transformDirty) resolveTransforms(); return worldScale; }
+
+	/**
+	* returns a read-only view of the model matrix that this GameObject is drawn with:
+	* its world translation, world rotation, model orientation correction, and world scale, in that order.
+	* It is rebuilt only after the object moves or its orientation correction changes.
+	*/
+	public Matrix4fc getWorldModelMatrix()
+	{	if (transformDirty) resolveTransforms();
+		Matrix4fc correction = renderStates.getModelOrientationCorrectionView();
+		if (modelDirty || !modelCorrection.equals(correction))
+		{	modelCorrection.set(correction);
+			modelMatrix.set(worldTranslation).mul(worldRotation).mul(correction).mul(worldScale);
+			modelDirty = false;
+		}
+		return modelMatrix;
+	}
+
+	/** copies the forward-facing vector of the local rotation matrix into dest */
+	public Vector3f getLocalForwardVectorInto(Vector3f dest) { return localRotation.getColumn(2, dest); }
+
+	/** copies the upward-facing vector of the local rotation matrix into dest */
+	public Vector3f getLocalUpVectorInto(Vector3f dest) { return localRotation.getColumn(1, dest); }
+
+	/** copies the right-facing vector of the local rotation matrix into dest */
+	public Vector3f getLocalRightVectorInto(Vector3f dest) { return localRotation.getColumn(0, dest).negate(); }
+
+	/** copies the forward-facing vector of the world rotation matrix into dest */
+	public Vector3f getWorldForwardVectorInto(Vector3f dest) { return getWorldRotationView().getColumn(2, dest); }
+
+	/** copies the upward-facing vector of the world rotation matrix into dest */
+	public Vector3f getWorldUpVectorInto(Vector3f dest) { return getWorldRotationView().getColumn(1, dest); }
+
+	/** copies the right-facing vector of the world rotation matrix into dest */
+	public Vector3f getWorldRightVectorInto(Vector3f dest) { return getWorldRotationView().getColumn(0, dest).negate(); }
+
+	/** copies the location of this object relative to its parent node into dest */
+	public Vector3f getLocalLocationInto(Vector3f dest) { return localTranslation.getTranslation(dest); }
+
+	/** copies the location of this object in world space into dest */
+	public Vector3f getWorldLocationInto(Vector3f dest) { return getWorldTranslationView().getTranslation(dest); }
 
 	/** sets the location of this object relative to its parent node */
-	public void setLocalLocation(Vector3f location) { localTranslation.setTranslation(location); update(); }
+	public void setLocalLocation(Vector3f location) { localTranslation.setTranslation(location); transformChanged(); }
 
 	// ------------------- accessors for hierarchical systems and hierarchical objects
 
@@ -464,11 +601,110 @@ public class GameObject
 
 	// -------------- accessor for height of terrain map at specified position ------------
 
-	/** gets the height at (x,z) if this is a terrain plane -- returns 0 if not terrain. */
+	/**
+	* gets the height at (x,z) if this is a terrain plane -- returns 0 if not terrain.
+	* The height is looked up in the height map's HeightField, so it doesn't need OpenGL.
+	*/
 	public float getHeight(float x, float z)
 	{	x = (x / localScale.m00() + 1.0f) / 2.0f;
 		z = 1.0f - (z / localScale.m00() + 1.0f) / 2.0f;
-		return localScale.m11() * Engine.getEngine().getRenderSystem().getHeightAt(heightMap.getTexture(), x, z);
+		return localScale.m11() * heightMap.getHeightField().sample(x, z);
+	}
+
+	/** copies the surface normal of the terrain plane at (x,z) into dest, in the plane's own orientation */
+	public Vector3f getTerrainNormal(float x, float z, Vector3f dest)
+	{	float u = (x / localScale.m00() + 1.0f) / 2.0f;
+		float w = 1.0f - (z / localScale.m00() + 1.0f) / 2.0f;
+		float size = 2.0f * localScale.m00();
+		heightMap.getHeightField().getNormal(u, w, size, size, localScale.m11(), dest);
+		dest.z = -dest.z;  // v runs opposite to z
+		return dest;
+	}
+
+	// ------------------ bounding volume for view-frustum culling ------------------
+
+	/** returns true if this object's bounding sphere is at least partly inside the frustum - for engine use. */
+	public boolean isInFrustum(FrustumIntersection frustum)
+	{	if (boundsDirty) updateWorldBounds();
+		if (worldBoundsRadius < 0f) return true;
+		return frustum.testSphere(worldBoundsCenter, worldBoundsRadius);
+	}
+
+	/** returns the center of the sphere bounding this object in world space */
+	public Vector3f getWorldBoundsCenter()
+	{	if (boundsDirty) updateWorldBounds();
+		return new Vector3f(worldBoundsCenter);
+	}
+
+	/** returns the radius of the sphere bounding this object in world space, or -1 if it has no shape */
+	public float getWorldBoundsRadius()
+	{	if (boundsDirty) updateWorldBounds();
+		return worldBoundsRadius;
+	}
+
+	/** copies the corners of the axis-aligned box bounding this object in world space into min and max */
+	public void getWorldBounds(Vector3f min, Vector3f max)
+	{	if (boundsDirty) updateWorldBounds();
+		min.set(worldBoundsMin);
+		max.set(worldBoundsMax);
+	}
+
+	// Marks the bounds as changed, and asks the scenegraph to move this object in its spatial index.
+	private void boundsChanged()
+	{	boundsDirty = true;
+		if (inScene && !indexQueued)
+		{	indexQueued = true;
+			Engine.getEngine().getSceneGraph().queueIndexUpdate(this);
+		}
+	}
+
+	// Called when this object, and so its descendents, become reachable from the root or stop being so.
+	private void setInScene(boolean b)
+	{	if (inScene == b) return;
+		inScene = b;
+		if (!indexQueued)
+		{	indexQueued = true;
+			Engine.getEngine().getSceneGraph().queueIndexUpdate(this);
+		}
+		Iterator<GameObject> i = children.iterator();
+		while (i.hasNext()) (i.next()).setInScene(b);
+	}
+
+	// Inserts, moves, or removes this object in the spatial index - for engine use only.
+	// Objects without a shape, or no longer in the scenegraph, are not kept in the index.
+
+	protected void updateIndex(SpatialIndex index)
+	{	indexQueued = false;
+		if (!inScene || shape == null)
+		{	if (spatialNode != null) { index.remove(spatialNode); spatialNode = null; }
+			return;
+		}
+		if (boundsDirty) updateWorldBounds();
+		if (spatialNode == null) spatialNode = index.insert(this, worldBoundsMin, worldBoundsMax);
+		else index.move(spatialNode, worldBoundsMin, worldBoundsMax);
+	}
+
+	// Bounds the shape's local bounding box with a box and a sphere, placed by the same model matrix the renderer uses.
+	private void updateWorldBounds()
+	{	boundsDirty = false;
+		if (shape == null) { worldBoundsRadius = -1f; return; }
+
+		shape.getLocalBounds(boundsMin, boundsMax);
+		if (isTerrain) boundsMax.y += 1.0f;  // the height map raises vertices by up to 1
+		if (shape instanceof AnimatedShape)
+		{	// poses can reach outside the bind pose
+			boundsMax.sub(boundsMin, v).mul(0.25f);
+			boundsMin.sub(v);
+			boundsMax.add(v);
+		}
+		Matrix4fc model = getWorldModelMatrix();
+		model.transformAab(boundsMin, boundsMax, worldBoundsMin, worldBoundsMax);
+
+		float localRadius = boundsMin.distance(boundsMax) / 2.0f;
+		boundsMin.add(boundsMax).mul(0.5f);
+		model.transformPosition(boundsMin, worldBoundsCenter);
+		model.getScale(boundsMax);
+		worldBoundsRadius = localRadius * java.lang.Math.max(boundsMax.x, java.lang.Math.max(boundsMax.y, boundsMax.z));
 	}
 
 	// --------------- private class for default height map ----------------
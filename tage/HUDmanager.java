@@ -7,6 +7,7 @@ import org.joml.*;
 
 /**
 * Manages up to two HUD strings, implemented as GLUT strings.
+* It can also display the summary of the FrameProfiler, one line per stage, when the profiler is on.
 * This class is instantiated automatically by the engine.
 * Note that this class utilizes deprectated OpenGL functionality.
 * <p>
@@ -29,7 +30,7 @@ import org.joml.*;
 */
 
 public class HUDmanager
-{	private GLCanvas myCanvas;
+{	private GLAutoDrawable myCanvas;
 	private GLUT glut = new GLUT();
 	private Engine engine;
 
@@ -38,6 +39,11 @@ public class HUDmanager
 	private int HUD1font = GLUT.BITMAP_TIMES_ROMAN_24;
 	private int HUD2font = GLUT.BITMAP_TIMES_ROMAN_24;
 	private int HUD1x, HUD1y, HUD2x, HUD2y;
+	private boolean showProfiler = false;
+	private float[] profilerColor = new float[3];
+	private int profilerX, profilerY;
+	private int profilerFont = GLUT.BITMAP_8_BY_13;
+	private int profilerLineHeight = 15;
 	private int hudColorProgram;
 
 	// The constructor is called by the engine, and should not be called by the game application.
@@ -51,7 +57,7 @@ public class HUDmanager
 		HUD2color = new float[3];
 	}
 	
-	protected void setGLcanvas(GLCanvas g) { myCanvas = g; }
+	protected void setGLcanvas(GLAutoDrawable g) { myCanvas = g; }
 
 	protected void drawHUDs(int hcp)
 	{	//GL4 gl = (GL4) GLContext.getCurrentGL();
@@ -63,6 +69,14 @@ public class HUDmanager
 		gl4bc.glWindowPos2d (HUD2x, HUD2y);
 		prepHUDcolor(HUD2color, hcp);
 		glut.glutBitmapString (HUD2font, HUD2string);
+		if (showProfiler && engine.getFrameProfiler().isEnabled())
+		{	java.util.List<String> lines = engine.getFrameProfiler().getSummary();
+			for (int i = 0; i < lines.size(); i++)
+			{	gl4bc.glWindowPos2d(profilerX, profilerY - i*profilerLineHeight);
+				prepHUDcolor(profilerColor, hcp);
+				glut.glutBitmapString(profilerFont, lines.get(i));
+			}
+		}
 	}
 
 	/** sets HUD #1 to the specified text string, color, and location */
@@ -81,6 +95,17 @@ public class HUDmanager
 		HUD2y = y;
 	}
 
+	/**
+	* shows or hides the FrameProfiler summary, in the specified color, with its first line at the specified location.
+	* The profiler must also be turned on, with setEnabled() in the FrameProfiler.
+	*/
+	public void setProfilerHUD(boolean show, Vector3f color, int x, int y)
+	{	showProfiler = show;
+		profilerColor[0]=color.x(); profilerColor[1]=color.y(); profilerColor[2]=color.z();
+		profilerX = x;
+		profilerY = y;
+	}
+
 	/** sets HUD #1 font - available fonts are listed above. */
 	public void setHUD1font(int font) { HUD1font = font; }
 
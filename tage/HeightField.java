@@ -0,0 +1,111 @@
+package tage;
+import java.io.*;
+import java.awt.image.*;
+import javax.imageio.ImageIO;
+import org.joml.*;
+
+/**
+* A height map image decoded into a grid of floats, so that heights can be looked up on the CPU.
+* <br>
+* Heights are read from the red channel and are in the range 0 to 1, as in the shaders.
+* They are looked up by texture coordinate, in the same orientation the renderer uses for the
+* height map texture, and are interpolated bilinearly between the four nearest pixels.
+* <p>
+* A HeightField doesn't need OpenGL, so it can be used from any thread, or on a server.
+* The one for a height map TextureImage is built the first time it is asked for,
+* by calling getHeightField() on the TextureImage.
+*/
+public class HeightField
+{	private int width, depth;
+	private float[] heights;   // row-major, row 0 is at texture coordinate v = 0
+
+	/**
+	* builds a HeightField from the pixels of an image.
+	* bottomUp should be true if texture coordinate v = 0 is at the bottom row of the image.
+	*/
+	public HeightField(BufferedImage img, boolean bottomUp)
+	{	width = img.getWidth();
+		depth = img.getHeight();
+		heights = new float[width * depth];
+
+		// read the stored values, as OpenGL does, rather than colors converted by the color model,
+		// except for palette images, whose stored values are indices
+		Raster raster = img.getRaster();
+		boolean indexed = img.getColorModel() instanceof IndexColorModel;
+		float maxValue = (1 << raster.getSampleModel().getSampleSize(0)) - 1;
+		for (int j = 0; j < depth; j++)
+		{	int y = bottomUp ? depth-1-j : j;
+			for (int i = 0; i < width; i++)
+			{	if (indexed) heights[j*width + i] = ((img.getRGB(i, y) >> 16) & 0xff) / 255.0f;
+				else heights[j*width + i] = raster.getSample(i, y, 0) / maxValue;
+			}
+		}
+	}
+
+	/**
+	* reads an image file (GIF, JPG, PNG, or BMP) and builds a HeightField from it,
+	* in the orientation that Utils.loadTexture() gives the same file.  JOGL decodes
+	* PNG and JPG files itself, bottom row first, and other formats top row first.
+	*/
+	public static HeightField load(String fileName)
+	{	String name = fileName.toLowerCase();
+		boolean bottomUp = name.endsWith(".png") || name.endsWith(".jpg") || name.endsWith(".jpeg");
+		try
+		{	BufferedImage img = ImageIO.read(new File(fileName));
+			if (img == null) throw new IOException("unrecognized image format");
+			return new HeightField(img, bottomUp);
+		}
+		catch (IOException e)
+		{	System.err.println("Error reading '" + fileName + "'");
+			throw new RuntimeException(e);
+		}
+	}
+
+	/** returns the number of samples across the height field, in the u direction */
+	public int getWidth() { return width; }
+
+	/** returns the number of samples down the height field, in the v direction */
+	public int getDepth() { return depth; }
+
+	/** returns the raw samples, row by row from v = 0, for building physics height fields and the like */
+	public float[] getSamples() { return heights; }
+
+	/** returns the height, from 0 to 1, at texture coordinate (u,v).  Coordinates outside 0 to 1 are clamped. */
+	public float sample(float u, float v)
+	{	float x = clamp(u * width - 0.5f, width);
+		float y = clamp(v * depth - 0.5f, depth);
+		int x0 = (int) x, y0 = (int) y;
+		int x1 = java.lang.Math.min(x0 + 1, width - 1);
+		int y1 = java.lang.Math.min(y0 + 1, depth - 1);
+		float fx = x - x0, fy = y - y0;
+
+		float h00 = heights[y0*width + x0], h10 = heights[y0*width + x1];
+		float h01 = heights[y1*width + x0], h11 = heights[y1*width + x1];
+		float top = h00 + (h10 - h00) * fx;
+		float bottom = h01 + (h11 - h01) * fx;
+		return top + (bottom - top) * fy;
+	}
+
+	/** looks up count heights at once: out[i] is the height at (u[i],v[i]) */
+	public void sample(float[] u, float[] v, float[] out, int count)
+	{	for (int i = 0; i < count; i++) out[i] = sample(u[i], v[i]);
+	}
+
+	/**
+	* computes the surface normal at texture coordinate (u,v), for a height field stretched over
+	* sizeU by sizeV world units with heights multiplied by heightScale, and copies it into dest.
+	* The normal is in the height field's own space, with y up and u and v along x and z.
+	*/
+	public Vector3f getNormal(float u, float v, float sizeU, float sizeV, float heightScale, Vector3f dest)
+	{	float du = 1.0f / width, dv = 1.0f / depth;
+		float dhdu = (sample(u + du, v) - sample(u - du, v)) * heightScale / (2.0f * du * sizeU);
+		float dhdv = (sample(u, v + dv) - sample(u, v - dv)) * heightScale / (2.0f * dv * sizeV);
+		return dest.set(-dhdu, 1.0f, -dhdv).normalize();
+	}
+
+	private static float clamp(float x, int size)
+	{	if (x < 0f) return 0f;
+		if (x > size - 1) return size - 1;
+		return x;
+	}
+}
@@ -13,6 +13,8 @@ import org.joml.*;
 * <li> 5. set the desired direction, cutoffAngle, and offAxisExponent if this is a spotlight
 * <li> 6. add the light to the game using the addLight() function in SceneGraph
 * </ul>
+* Lights can be added at any time, and removed with the removeLight() function in SceneGraph.
+* A light can also be turned off and on, without removing it, using setEnabled().
 * <p>
 * TAGE supports ADS lighting for an unlimited number of positional and spot lights.
 * Global ambient light is also maintained as a static class entity (default RGB=(.3,.3,.3).
@@ -52,7 +54,8 @@ public class Light
 	}
 
 	private LightType lightType = LightType.POSITIONAL;
-	private int index;
+	private int index = -1;    // -1 when not in the game
+	private boolean enabled = true;
 	private float[] location = { 0.0f, 2.0f, 0.0f };
 	private float[] ambient = { 0.3f, 0.3f, 0.3f, 1.0f };
 	private float[] diffuse = { 0.8f, 0.8f, 0.8f, 1.0f };
@@ -100,7 +103,7 @@ public class Light
 		location[1] = l.y();
 		location[2] = l.z();
 		LightManager lm = engine.getLightManager();
-		if (lm.getLightArray() != null) lm.updateLightLocation(index, location[0], location[1], location[2]);
+		if (lm.isLoaded(this)) lm.updateLightLocation(index, location[0], location[1], location[2]);
 	}
 
 	/** sets the ambient RGB characteristic for this light */
@@ -110,7 +113,7 @@ public class Light
 		ambient[2] = b;
 		ambient[3] = 1.0f;
 		LightManager lm = engine.getLightManager();
-		if (lm.getLightArray() != null) lm.updateLightAmbient(index, ambient[0], ambient[1], ambient[2]);
+		if (lm.isLoaded(this)) lm.updateLightAmbient(index, ambient[0], ambient[1], ambient[2]);
 	}
 
 	/** sets the diffuse RGB characteristic for this light */
@@ -120,7 +123,7 @@ public class Light
 		diffuse[2] = b;
 		diffuse[3] = 1.0f;
 		LightManager lm = engine.getLightManager();
-		if (lm .getLightArray()!= null) lm.updateLightDiffuse(index, diffuse[0], diffuse[1], diffuse[2]);
+		if (lm.isLoaded(this)) lm.updateLightDiffuse(index, diffuse[0], diffuse[1], diffuse[2]);
 	}
 
 	/** sets the specular RGB characteristic for this light */
@@ -130,35 +133,35 @@ public class Light
 		specular[2] = b;
 		specular[3] = 1.0f;
 		LightManager lm = engine.getLightManager();
-		if (lm.getLightArray() != null) lm.updateLightSpecular(index, specular[0], specular[1], specular[2]);
+		if (lm.isLoaded(this)) lm.updateLightSpecular(index, specular[0], specular[1], specular[2]);
 	}
 
 	/** sets a constant attenuation factor for this light */
 	public void setConstantAttenuation(float ca)
 	{	constantAttenuation = ca;
 		LightManager lm = engine.getLightManager();
-		if (lm.getLightArray() != null) lm.updateConstantAttenuation(index, constantAttenuation);
+		if (lm.isLoaded(this)) lm.updateConstantAttenuation(index, constantAttenuation);
 	}
 
 	/** sets a linear attenuation factor for this light */
 	public void setLinearAttenuation(float la)
 	{	linearAttenuation = la;
 		LightManager lm = engine.getLightManager();
-		if (lm.getLightArray() != null) lm.updateLinearAttenuation(index, linearAttenuation);
+		if (lm.isLoaded(this)) lm.updateLinearAttenuation(index, linearAttenuation);
 	}
 
 	/** sets a quadratic attenuation factor for this light */
 	public void setQuadraticAttenuation(float qa)
 	{	quadraticAttenuation = qa;
 		LightManager lm = engine.getLightManager();
-		if (lm.getLightArray() != null) lm.updateQuadraticAttenuation(index, quadraticAttenuation);
+		if (lm.isLoaded(this)) lm.updateQuadraticAttenuation(index, quadraticAttenuation);
 	}
 
-	/** Not yet implemented. */
+	/** sets the distance beyond which this light has no effect, which also limits the pixels it is computed for */
 	public void setRange(float r)
 	{	range = r;
 		LightManager lm = engine.getLightManager();
-		if (lm.getLightArray() != null) lm.updateRange(index, range);
+		if (lm.isLoaded(this)) lm.updateRange(index, range);
 	}
 
 	/** sets the direction for this light - applicable if this is a spotlight */
@@ -167,21 +170,21 @@ public class Light
 		direction[1] = d.y();
 		direction[2] = d.z();
 		LightManager lm = engine.getLightManager();
-		if (lm.getLightArray() != null) lm.updateDirection(index, d.x(), d.y(), d.z());
+		if (lm.isLoaded(this)) lm.updateDirection(index, d.x(), d.y(), d.z());
 	}
 
 	/** sets the cutoff angle for this light - applicable if this is a spotlight */
 	public void setCutoffAngle(float coa)
 	{	cutoffAngle = coa;
 		LightManager lm = engine.getLightManager();
-		if (lm.getLightArray() != null) lm.updateCutoffAngle(index, cutoffAngle);
+		if (lm.isLoaded(this)) lm.updateCutoffAngle(index, cutoffAngle);
 	}
 
 	/** sets the off axis exponent for this light - applicable if this is a spotlight */
 	public void setOffAxisExponent(float oae)
 	{	offAxisExponent = oae;
 		LightManager lm = engine.getLightManager();
-		if (lm.getLightArray() != null) lm.updateOffAxisExponent(index, offAxisExponent);
+		if (lm.isLoaded(this)) lm.updateOffAxisExponent(index, offAxisExponent);
 	}
 
 	/** sets this light's LightType to either POSITIONAL or SPOTLIGHT */
@@ -190,9 +193,19 @@ public class Light
 		lightType = t;
 		if (lightType == LightType.POSITIONAL) type = 0.0f; else type = 1.0f;
 		LightManager lm = engine.getLightManager();
-		if (lm.getLightArray() != null) lm.updateType(index, type);
+		if (lm.isLoaded(this)) lm.updateType(index, type);
 	}
 
+	/** turns this light on or off.  A light that is off keeps its settings, but lights nothing. */
+	public void setEnabled(boolean e)
+	{	enabled = e;
+		LightManager lm = engine.getLightManager();
+		if (lm.isLoaded(this)) lm.updateEnabled(index, enabled ? 1.0f : 0.0f);
+	}
+
+	/** returns true if this light is on, which is the default */
+	public boolean isEnabled() { return enabled; }
+
 	/** returns this light's LightType (returns POSITIONAL or SPOTLIGHT */
 	public LightType getLightType() { return lightType; }
 
@@ -221,7 +234,7 @@ public class Light
 	/** gets this light's quadratic attenuation factor, if applicable */
 	public float getQuadraticAttenuation() { return quadraticAttenuation; }
 
-	/** gets this light's range (not yet implemented) */
+	/** gets this light's range, beyond which it has no effect */
 	public float getRange() { return range; }
 
 	/** gets this light's direction - applicable for a spotlight */
@@ -0,0 +1,208 @@
+package tage;
+import java.nio.*;
+import java.util.*;
+import org.joml.*;
+import static com.jogamp.opengl.GL4.*;
+import com.jogamp.opengl.*;
+import com.jogamp.common.nio.Buffers;
+
+/**
+* Assigns lights to clusters of the view frustum, so that each pixel is only lit by
+* the lights that can reach it, rather than by every light in the game.
+* <p>
+* The frustum of a viewport is divided into a grid of clusters: tiles across the screen,
+* and slices in depth that grow exponentially from the near plane to the far plane.
+* A light reaches only as far as its range, so the clusters it reaches are found by
+* projecting the box around its range onto the screen.  The lights of each cluster are listed
+* in an SSBO, which the fragment shader reads from the cluster containing its pixel.
+* Lights whose range is larger than the view are simply listed in every cluster.
+* <p>
+* Each viewport has its own clusters and SSBO.  The clusters are built on the CPU, and only rebuilt
+* when the viewport's view or projection, or any light, has changed since they were last built.
+* The SSBO is allocated with room to spare, and is reallocated only when the light lists outgrow it.
+* Used by the RenderSystem, should not be used directly by the game application.
+*/
+public class LightClusters
+{	private static final int TILES_X = 16, TILES_Y = 9, SLICES = 16;
+	private static final int NUM_CLUSTERS = TILES_X * TILES_Y * SLICES;
+
+	private HashMap<Viewport, ViewClusters> views = new HashMap<Viewport, ViewClusters>();
+	private ViewClusters current;
+
+	// for each cluster, its offset into the light list and its number of lights, followed by the light list
+	private int[] clusterData = new int[2 * NUM_CLUSTERS];
+	private IntBuffer clusterBuf;
+	private int[] counts = new int[NUM_CLUSTERS];
+	private int[] lightRanges = new int[0];   // x0,x1,y0,y1,z0,z1 for each light, or x0 = -1 if not visible
+
+	private float near, far, depthScale;
+	private Vector4f center = new Vector4f(), corner = new Vector4f();
+
+	protected LightClusters() { }
+
+	/** returns the number of tiles across, tiles down, and slices, as used by the shader */
+	public int getTilesX() { return TILES_X; }
+	public int getTilesY() { return TILES_Y; }
+	public int getSlices() { return SLICES; }
+
+	/** returns the view distance of the near plane that the slices start from */
+	public float getNear() { return current.near; }
+
+	/** returns the view distance of the far plane that the slices end at */
+	public float getFar() { return current.far; }
+
+	/** returns the number of slices per unit of log(view distance / near), for finding a pixel's slice */
+	public float getDepthScale() { return current.depthScale; }
+
+	/** returns the largest ambient RGB of any light, which lights every pixel regardless of range */
+	public float[] getMaxAmbient() { return current.maxAmbient; }
+
+	// Assigns the lights to the clusters of the viewport with the given view and projection matrices,
+	// and binds the viewport's cluster SSBO at the specified binding.  If neither the matrices nor the
+	// lights have changed since the viewport's clusters were last built, they are reused as they are.
+
+	protected void build(LightManager lm, Viewport vp, Matrix4f vMat, Matrix4f pMat, float nearClip, float farClip, int binding)
+	{	GL4 gl = (GL4) GLContext.getCurrentGL();
+		current = views.get(vp);
+		if (current == null)
+		{	current = new ViewClusters();
+			gl.glGenBuffers(1, current.ssbo, 0);
+			views.put(vp, current);
+		}
+		else if (current.isBuilt(lm, vMat, pMat, nearClip, farClip))
+		{	gl.glBindBufferBase(GL_SHADER_STORAGE_BUFFER, binding, current.ssbo[0]);
+			return;
+		}
+
+		near = nearClip;
+		far = farClip;
+		depthScale = SLICES / (float) java.lang.Math.log(farClip / nearClip);
+
+		int numLights = lm.getNumSlots();
+		float[] lights = lm.getLightArray();
+		int f = lm.getFieldsPerLight();
+		if (lightRanges.length < numLights * 6) lightRanges = new int[numLights * 6];
+		Arrays.fill(counts, 0);
+		float[] maxAmbient = current.maxAmbient;
+		maxAmbient[0] = maxAmbient[1] = maxAmbient[2] = 0f;
+
+		// first pass: find the clusters each light reaches, and count the lights in each cluster
+		int total = 0;
+		for (int i = 0; i < numLights; i++)
+		{	if (lights[i*f + 22] == 0.0f) { lightRanges[i*6] = -1; continue; }   // disabled, or a free slot
+			for (int c = 0; c < 3; c++) maxAmbient[c] = java.lang.Math.max(maxAmbient[c], lights[i*f + 3 + c]);
+			if (!findClusters(lights, i*f, vMat, pMat, farClip, lightRanges, i*6)) continue;
+			for (int z = lightRanges[i*6+4]; z <= lightRanges[i*6+5]; z++)
+				for (int y = lightRanges[i*6+2]; y <= lightRanges[i*6+3]; y++)
+					for (int x = lightRanges[i*6]; x <= lightRanges[i*6+1]; x++)
+					{	counts[(z*TILES_Y + y)*TILES_X + x]++;
+						total++;
+					}
+		}
+
+		// second pass: lay out the lists and fill them
+		int size = 2 * NUM_CLUSTERS + total;
+		if (clusterData.length < size) clusterData = new int[size + size/2];
+		int offset = 2 * NUM_CLUSTERS;
+		for (int c = 0; c < NUM_CLUSTERS; c++)
+		{	clusterData[2*c] = offset;
+			clusterData[2*c+1] = 0;
+			offset += counts[c];
+		}
+		for (int i = 0; i < numLights; i++)
+		{	if (lightRanges[i*6] < 0) continue;
+			for (int z = lightRanges[i*6+4]; z <= lightRanges[i*6+5]; z++)
+				for (int y = lightRanges[i*6+2]; y <= lightRanges[i*6+3]; y++)
+					for (int x = lightRanges[i*6]; x <= lightRanges[i*6+1]; x++)
+					{	int c = (z*TILES_Y + y)*TILES_X + x;
+						clusterData[clusterData[2*c] + clusterData[2*c+1]++] = i;
+					}
+		}
+
+		if (clusterBuf == null || clusterBuf.capacity() < size) clusterBuf = Buffers.newDirectIntBuffer(clusterData.length);
+		clusterBuf.clear();
+		clusterBuf.put(clusterData, 0, size);
+		clusterBuf.flip();
+		gl.glBindBuffer(GL_SHADER_STORAGE_BUFFER, current.ssbo[0]);
+		if (current.capacity < size)
+		{	current.capacity = size + size/2;
+			gl.glBufferData(GL_SHADER_STORAGE_BUFFER, current.capacity*4, null, GL_DYNAMIC_DRAW);
+		}
+		gl.glBufferSubData(GL_SHADER_STORAGE_BUFFER, 0, size*4, clusterBuf);
+		gl.glBindBufferBase(GL_SHADER_STORAGE_BUFFER, binding, current.ssbo[0]);
+		current.record(lm, vMat, pMat, near, far, depthScale);
+	}
+
+	// Finds the range of tiles and slices reached by the light whose fields start at lights[base],
+	// storing them in out at index o.  Returns false, with out[o] = -1, if the light reaches no cluster.
+
+	private boolean findClusters(float[] lights, int base, Matrix4f vMat, Matrix4f pMat, float farClip, int[] out, int o)
+	{	float range = lights[base + 15];
+		vMat.transform(center.set(lights[base], lights[base+1], lights[base+2], 1f));
+		float nearest = -center.z - range;
+		float farthest = -center.z + range;
+		if (range <= 0f || farthest < near || nearest > farClip) { out[o] = -1; return false; }
+
+		out[o+4] = slice(java.lang.Math.max(nearest, near));
+		out[o+5] = slice(java.lang.Math.min(farthest, farClip));
+
+		if (nearest <= near)
+		{	// the light reaches the camera, so it may reach anywhere on the screen
+			out[o] = 0; out[o+1] = TILES_X-1;
+			out[o+2] = 0; out[o+3] = TILES_Y-1;
+			return true;
+		}
+
+		// project the corners of the box around the light's range, all of which are in front of the camera
+		float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+		for (int k = 0; k < 8; k++)
+		{	corner.set(center.x + (((k&1) == 0) ? -range : range),
+				center.y + (((k&2) == 0) ? -range : range),
+				((k&4) == 0) ? -nearest : -farthest, 1f);
+			pMat.transform(corner);
+			float x = corner.x / corner.w, y = corner.y / corner.w;
+			minX = java.lang.Math.min(minX, x); maxX = java.lang.Math.max(maxX, x);
+			minY = java.lang.Math.min(minY, y); maxY = java.lang.Math.max(maxY, y);
+		}
+		if (maxX < -1f || minX > 1f || maxY < -1f || minY > 1f) { out[o] = -1; return false; }
+		out[o] = tile(minX, TILES_X);   out[o+1] = tile(maxX, TILES_X);
+		out[o+2] = tile(minY, TILES_Y); out[o+3] = tile(maxY, TILES_Y);
+		return true;
+	}
+
+	private int slice(float depth)
+	{	int s = (int) (java.lang.Math.log(depth / near) * depthScale);
+		return java.lang.Math.max(0, java.lang.Math.min(SLICES-1, s));
+	}
+
+	private static int tile(float ndc, int tiles)
+	{	int t = (int) java.lang.Math.floor((ndc * 0.5f + 0.5f) * tiles);
+		return java.lang.Math.max(0, java.lang.Math.min(tiles-1, t));
+	}
+
+	// The clusters of one viewport: its SSBO, with its capacity in ints, and what they were built from.
+	private static class ViewClusters
+	{	int[] ssbo = new int[1];
+		int capacity = 0;
+		boolean built = false;
+		long lightVersion;
+		Matrix4f vMat = new Matrix4f(), pMat = new Matrix4f();
+		float near, far, depthScale;
+		float[] maxAmbient = new float[3];
+
+		boolean isBuilt(LightManager lm, Matrix4f v, Matrix4f p, float nearClip, float farClip)
+		{	return built && lightVersion == lm.getVersion() && near == nearClip && far == farClip
+				&& vMat.equals(v) && pMat.equals(p);
+		}
+
+		void record(LightManager lm, Matrix4f v, Matrix4f p, float n, float f, float scale)
+		{	built = true;
+			lightVersion = lm.getVersion();
+			vMat.set(v);
+			pMat.set(p);
+			near = n;
+			far = f;
+			depthScale = scale;
+		}
+	}
+}
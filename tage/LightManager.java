@@ -17,8 +17,13 @@ import com.jogamp.common.nio.Buffers;
 * and then finally to an SSBO.
 * <p>
 * This class manages all four of those storages.
-* Each time a light is modified, the FloatBuffer needs to be updated.
-* At each frame, the FloatBuffer is reloaded into the SSBO.
+* Each time a light is modified, the FloatBuffer needs to be updated, and the light is marked as changed.
+* At each frame, only the range of lights that changed since the previous frame is reloaded into the SSBO.
+* <p>
+* Lights can be added and removed at any time, including while the game is running.  Each light
+* occupies a slot in the storages, and the slot of a removed light is reused by the next light added.
+* When every slot is in use, the storages double in size, and the SSBO is reloaded in full.
+* A light that is disabled keeps its slot, but is skipped by the renderer.
 * <p>
 * Although a few accessors have been made public, there shouldn't be any reason for a game
 * application to interact with the LightManager.  A game application should instatiate and
@@ -29,40 +34,91 @@ public class LightManager
 {	private GLCanvas myCanvas;
 	private Engine engine;
 
-	private ArrayList<Light> lights = new ArrayList<Light>();
+	private static final int INITIAL_CAPACITY = 8;
+
+	private ArrayList<Light> lights = new ArrayList<Light>();   // indexed by slot, null if the slot is free
+	private ArrayList<Integer> freeSlots = new ArrayList<Integer>();
+	private int numLights = 0;
+	private int capacity = 0;         // number of lights the storages have room for
+	private boolean resized = false;  // whether the SSBO must be reloaded in full
 	private float[] lightArray;
 	private FloatBuffer lightBuf;
 	private int[] lightSSBO = new int[1];
 
-	private int fieldsPerLight = 22;
+	private int fieldsPerLight = 23;
+
+	// the range of lights modified since the SSBO was last updated, empty if dirtyFirst > dirtyLast
+	private int dirtyFirst = Integer.MAX_VALUE, dirtyLast = -1;
+
+	// counts the modifications of any light, so that users of the light data can tell when it has changed
+	private long version = 0;
 
 	protected LightManager(Engine e)
 	{	engine = e;
 	}
 
 	protected void addLight(Light light)
-	{	lights.add(light);
-		light.setIndex(lights.size()-1);
+	{	if (light.getIndex() >= 0) return;
+		int slot;
+		if (freeSlots.isEmpty())
+		{	slot = lights.size();
+			lights.add(light);
+		}
+		else
+		{	slot = freeSlots.remove(freeSlots.size()-1);
+			lights.set(slot, light);
+		}
+		light.setIndex(slot);
+		numLights++;
+		if (lightArray != null)
+		{	ensureCapacity(lights.size());
+			writeLight(slot);
+		}
+	}
+
+	protected void removeLight(Light light)
+	{	int slot = light.getIndex();
+		if (slot < 0 || lights.get(slot) != light) return;
+		lights.set(slot, null);
+		freeSlots.add(slot);
+		light.setIndex(-1);
+		numLights--;
+		if (lightArray != null) writeLight(slot);
 	}
 
-	/** returns a reference to the ith Light - not likely to be useful in the game application. */
+	/** returns a reference to the Light in slot i, or null if the slot is free - not likely to be useful in the game application. */
 	public Light getLight(int i) { return lights.get(i); }
 
 	/** returns the number of lights currently in the game */
-	public int getNumLights() { return lights.size(); }
+	public int getNumLights() { return numLights; }
+
+	/** Used by the renderer - returns the number of slots in use or freed, the range of slots that may hold lights. */
+	public int getNumSlots() { return lights.size(); }
+
+	/** Used by the renderer - returns true if the Light is in the game and its values are held in the storages. */
+	public boolean isLoaded(Light light) { return lightArray != null && light.getIndex() >= 0; }
 
 	/** Used by the renderer - not likely to be useful in the game application. */
 	public int getFieldsPerLight() { return fieldsPerLight; }
 
 	protected FloatBuffer getLightBuffer() { return lightBuf; }
 	protected float[] getLightArray() { return lightArray; }
+	protected long getVersion() { return version; }
 
 	/** for engine use only, returns a reference to the SSBO containing the data for all of the lights  */
 	public int getLightSSBO() { return lightSSBO[0]; }
 
-	// These functions update the light information in both the FloatArray and the FloatBuffer
+	// These functions update the light information in both the FloatArray and the FloatBuffer,
+	// and mark the light as needing to be reloaded into the SSBO.
+	private void markDirty(int which)
+	{	version++;
+		dirtyFirst = Math.min(dirtyFirst, which);
+		dirtyLast = Math.max(dirtyLast, which);
+	}
+
 	protected void updateLightLocation(int which, float x, float y, float z)
-	{	lightArray[which * fieldsPerLight + 0] = x;
+	{	markDirty(which);
+		lightArray[which * fieldsPerLight + 0] = x;
 		lightArray[which * fieldsPerLight + 1] = y;
 		lightArray[which * fieldsPerLight + 2] = z;
 		lightBuf.put(which * fieldsPerLight + 0, x);
@@ -70,7 +126,8 @@ public class LightManager
 		lightBuf.put(which * fieldsPerLight + 2, z);
 	}
 	protected void updateLightAmbient(int which, float r, float g, float b)
-	{	lightArray[which * fieldsPerLight + 3] = r;
+	{	markDirty(which);
+		lightArray[which * fieldsPerLight + 3] = r;
 		lightArray[which * fieldsPerLight + 4] = g;
 		lightArray[which * fieldsPerLight + 5] = b;
 		lightBuf.put(which * fieldsPerLight + 3, r);
@@ -78,7 +135,8 @@ public class LightManager
 		lightBuf.put(which * fieldsPerLight + 5, b);
 	}
 	protected void updateLightDiffuse(int which, float r, float g, float b)
-	{	lightArray[which * fieldsPerLight + 6] = r;
+	{	markDirty(which);
+		lightArray[which * fieldsPerLight + 6] = r;
 		lightArray[which * fieldsPerLight + 7] = g;
 		lightArray[which * fieldsPerLight + 8] = b;
 		lightBuf.put(which * fieldsPerLight + 6, r);
@@ -86,7 +144,8 @@ public class LightManager
 		lightBuf.put(which * fieldsPerLight + 8, b);
 	}
 	protected void updateLightSpecular(int which, float r, float g, float b)
-	{	lightArray[which * fieldsPerLight + 9] = r;
+	{	markDirty(which);
+		lightArray[which * fieldsPerLight + 9] = r;
 		lightArray[which * fieldsPerLight + 10] = g;
 		lightArray[which * fieldsPerLight + 11] = b;
 		lightBuf.put(which * fieldsPerLight + 9, r);
@@ -94,23 +153,28 @@ public class LightManager
 		lightBuf.put(which * fieldsPerLight + 11, b);
 	}
 	protected void updateConstantAttenuation(int which, float ca)
-	{	lightArray[which * fieldsPerLight + 12] = ca;
+	{	markDirty(which);
+		lightArray[which * fieldsPerLight + 12] = ca;
 		lightBuf.put(which * fieldsPerLight + 12, ca);
 	}
 	protected void updateLinearAttenuation(int which, float la)
-	{	lightArray[which * fieldsPerLight + 13] = la;
+	{	markDirty(which);
+		lightArray[which * fieldsPerLight + 13] = la;
 		lightBuf.put(which * fieldsPerLight + 13, la);
 	}
 	protected void updateQuadraticAttenuation(int which, float qa)
-	{	lightArray[which * fieldsPerLight + 14] = qa;
+	{	markDirty(which);
+		lightArray[which * fieldsPerLight + 14] = qa;
 		lightBuf.put(which * fieldsPerLight + 14, qa);
 	}
 	protected void updateRange(int which, float r)
-	{	lightArray[which * fieldsPerLight + 15] = r;
+	{	markDirty(which);
+		lightArray[which * fieldsPerLight + 15] = r;
 		lightBuf.put(which * fieldsPerLight + 15, r);
 	}
 	protected void updateDirection(int which, float x, float y, float z)
-	{	lightArray[which * fieldsPerLight + 16] = x;
+	{	markDirty(which);
+		lightArray[which * fieldsPerLight + 16] = x;
 		lightArray[which * fieldsPerLight + 17] = y;
 		lightArray[which * fieldsPerLight + 18] = z;
 		lightBuf.put(which * fieldsPerLight + 16, x);
@@ -118,62 +182,119 @@ public class LightManager
 		lightBuf.put(which * fieldsPerLight + 18, z);
 	}
 	protected void updateCutoffAngle(int which, float coa)
-	{	lightArray[which * fieldsPerLight + 19] = coa;
+	{	markDirty(which);
+		lightArray[which * fieldsPerLight + 19] = coa;
 		lightBuf.put(which * fieldsPerLight + 19, coa);
 	}
 	protected void updateOffAxisExponent(int which, float oae)
-	{	lightArray[which * fieldsPerLight + 20] = oae;
+	{	markDirty(which);
+		lightArray[which * fieldsPerLight + 20] = oae;
 		lightBuf.put(which * fieldsPerLight + 20, oae);
 	}
 	protected void updateType(int which, float t)
-	{	lightArray[which * fieldsPerLight + 21] = t;
+	{	markDirty(which);
+		lightArray[which * fieldsPerLight + 21] = t;
 		lightBuf.put(which * fieldsPerLight + 21, t);
 	}
+	protected void updateEnabled(int which, float e)
+	{	markDirty(which);
+		lightArray[which * fieldsPerLight + 22] = e;
+		lightBuf.put(which * fieldsPerLight + 22, e);
+	}
+
+	// Reloads the lights that changed since the last call into the SSBO, leaving the rest in place.
+	// If the storages have grown, the whole SSBO is reloaded instead.
 	protected void updateSSBO()
 	{	GL4 gl = (GL4) GLContext.getCurrentGL();
+		if (resized)
+		{	gl.glBindBuffer(GL_SHADER_STORAGE_BUFFER, lightSSBO[0]);
+			gl.glBufferData(GL_SHADER_STORAGE_BUFFER, lightBuf.limit()*4, lightBuf, GL_DYNAMIC_DRAW);
+			resized = false;
+			dirtyFirst = Integer.MAX_VALUE;
+			dirtyLast = -1;
+			return;
+		}
+		if (dirtyFirst > dirtyLast) return;
+		int start = dirtyFirst * fieldsPerLight;
+		int count = (dirtyLast - dirtyFirst + 1) * fieldsPerLight;
+		lightBuf.position(start);
 		gl.glBindBuffer(GL_SHADER_STORAGE_BUFFER, lightSSBO[0]);
-		gl.glBufferData(GL_SHADER_STORAGE_BUFFER, lightBuf.limit()*4, lightBuf, GL_STATIC_DRAW);
+		gl.glBufferSubData(GL_SHADER_STORAGE_BUFFER, start*4, count*4, lightBuf);
+		lightBuf.rewind();
+		dirtyFirst = Integer.MAX_VALUE;
+		dirtyLast = -1;
 	}
 
-	// This function is called once, from init() in the renderer.
-	// It loads information from the Light array into the FloatArray,
-	// then from the FloatArray into the FloatBuffer, and finally into the SSBO.
+	// Doubles the size of the FloatArray and FloatBuffer until they hold n lights.
+	// The SSBO is reallocated at the next updateSSBO().
 
-	protected void loadLightsSSBOinitial()
-	{	GL4 gl = (GL4) GLContext.getCurrentGL();
+	private void ensureCapacity(int n)
+	{	if (n <= capacity) return;
+		while (capacity < n) capacity *= 2;
+		lightArray = Arrays.copyOf(lightArray, capacity*fieldsPerLight);
+		lightBuf = Buffers.newDirectFloatBuffer(lightArray);
+		resized = true;
+	}
+
+	// Copies the values of the Light in the specified slot into the FloatArray and FloatBuffer,
+	// or zeros if the slot is free, which also marks it as disabled.
 
-		int numLights = getNumLights();
-		lightArray = new float[numLights*fieldsPerLight];
-		for (int i=0; i < numLights; i++)
-		{	lightArray[i*fieldsPerLight + 0] = (getLight(i).getLocation())[0];
-			lightArray[i*fieldsPerLight + 1] = (getLight(i).getLocation())[1];
-			lightArray[i*fieldsPerLight + 2] = (getLight(i).getLocation())[2];
-			lightArray[i*fieldsPerLight + 3] = (getLight(i).getAmbient())[0];
-			lightArray[i*fieldsPerLight + 4] = (getLight(i).getAmbient())[1];
-			lightArray[i*fieldsPerLight + 5] = (getLight(i).getAmbient())[2];
-			lightArray[i*fieldsPerLight + 6] = (getLight(i).getDiffuse())[0];
-			lightArray[i*fieldsPerLight + 7] = (getLight(i).getDiffuse())[1];
-			lightArray[i*fieldsPerLight + 8] = (getLight(i).getDiffuse())[2];
-			lightArray[i*fieldsPerLight + 9] = (getLight(i).getSpecular())[0];
-			lightArray[i*fieldsPerLight + 10] = (getLight(i).getSpecular())[1];
-			lightArray[i*fieldsPerLight + 11] = (getLight(i).getSpecular())[2];
-			lightArray[i*fieldsPerLight + 12] = (getLight(i).getConstantAttenuation());
-			lightArray[i*fieldsPerLight + 13] = (getLight(i).getLinearAttenuation());
-			lightArray[i*fieldsPerLight + 14] = (getLight(i).getQuadraticAttenuation());
-			lightArray[i*fieldsPerLight + 15] = (getLight(i).getRange());
-			lightArray[i*fieldsPerLight + 16] = (getLight(i).getDirection())[0];
-			lightArray[i*fieldsPerLight + 17] = (getLight(i).getDirection())[1];
-			lightArray[i*fieldsPerLight + 18] = (getLight(i).getDirection())[2];
-			lightArray[i*fieldsPerLight + 19] = (getLight(i).getCutoffAngle());
-			lightArray[i*fieldsPerLight + 20] = (getLight(i).getOffAxisExponent());
+	private void writeLight(int slot)
+	{	int base = slot * fieldsPerLight;
+		Light light = lights.get(slot);
+		if (light == null)
+			Arrays.fill(lightArray, base, base + fieldsPerLight, 0.0f);
+		else
+		{	lightArray[base + 0] = (light.getLocation())[0];
+			lightArray[base + 1] = (light.getLocation())[1];
+			lightArray[base + 2] = (light.getLocation())[2];
+			lightArray[base + 3] = (light.getAmbient())[0];
+			lightArray[base + 4] = (light.getAmbient())[1];
+			lightArray[base + 5] = (light.getAmbient())[2];
+			lightArray[base + 6] = (light.getDiffuse())[0];
+			lightArray[base + 7] = (light.getDiffuse())[1];
+			lightArray[base + 8] = (light.getDiffuse())[2];
+			lightArray[base + 9] = (light.getSpecular())[0];
+			lightArray[base + 10] = (light.getSpecular())[1];
+			lightArray[base + 11] = (light.getSpecular())[2];
+			lightArray[base + 12] = (light.getConstantAttenuation());
+			lightArray[base + 13] = (light.getLinearAttenuation());
+			lightArray[base + 14] = (light.getQuadraticAttenuation());
+			lightArray[base + 15] = (light.getRange());
+			lightArray[base + 16] = (light.getDirection())[0];
+			lightArray[base + 17] = (light.getDirection())[1];
+			lightArray[base + 18] = (light.getDirection())[2];
+			lightArray[base + 19] = (light.getCutoffAngle());
+			lightArray[base + 20] = (light.getOffAxisExponent());
 			float type;
-			LightType lightType = getLight(i).getLightType();
+			LightType lightType = light.getLightType();
 			if (lightType == LightType.POSITIONAL) type = 0.0f; else type = 1.0f;
-			lightArray[i*fieldsPerLight + 21] = type;
+			lightArray[base + 21] = type;
+			lightArray[base + 22] = light.isEnabled() ? 1.0f : 0.0f;
 		}
+		lightBuf.position(base);
+		lightBuf.put(lightArray, base, fieldsPerLight);
+		lightBuf.rewind();
+		markDirty(slot);
+	}
+
+	// This function is called once, from init() in the renderer.
+	// It allocates the FloatArray, FloatBuffer, and SSBO with room for the lights added so far
+	// (and more), then loads each Light into the FloatArray and FloatBuffer, and finally into the SSBO.
+
+	protected void loadLightsSSBOinitial()
+	{	GL4 gl = (GL4) GLContext.getCurrentGL();
+
+		capacity = INITIAL_CAPACITY;
+		while (capacity < lights.size()) capacity *= 2;
+		lightArray = new float[capacity*fieldsPerLight];
+		lightBuf = Buffers.newDirectFloatBuffer(lightArray);
+		for (int i=0; i < lights.size(); i++) writeLight(i);
+
 		gl.glGenBuffers(1, lightSSBO, 0);
 		gl.glBindBuffer(GL_SHADER_STORAGE_BUFFER, lightSSBO[0]);
-		lightBuf = Buffers.newDirectFloatBuffer(lightArray);
-		gl.glBufferData(GL_SHADER_STORAGE_BUFFER, lightBuf.limit()*4, lightBuf, GL_STATIC_DRAW);
+		gl.glBufferData(GL_SHADER_STORAGE_BUFFER, lightBuf.limit()*4, lightBuf, GL_DYNAMIC_DRAW);
+		dirtyFirst = Integer.MAX_VALUE;
+		dirtyLast = -1;
 	}
-}
\ No newline at end of file
+}
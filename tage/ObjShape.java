@@ -9,10 +9,12 @@ import tage.shapes.*;
 * Specifically, it includes the following:
 * <ul>
 * <li> vertices, texture coordinates, and normals as float arrays
-* <li> integer references to the OpenGL VBOs for vertices, texture coordinates, and normals
+* <li> optionally, an array of indices into those arrays, for shapes drawn with glDrawElements
+* <li> integer references to the shape's OpenGL VAO, its interleaved VBO, and its index buffer
 * <li> a boolean indicating whether the vertices are oriented in the standard CCW configuration
 * <li> a boolean indicating whether this is an animated model
 * <li> a primitive type, usually 3=triangle (1=point, 2=line, 3=triangle)
+* <li> an axis-aligned box bounding the vertices, used for view-frustum culling
 * <li> material ambient, diffuse, specular, and shininess properties as float arrays
 * </ul>
 * <p>
@@ -27,12 +29,15 @@ public abstract class ObjShape
 {
 	private int numVertices;
 	private float[] vertices, texCoords, normals, boneWeights, boneIndices;
-	private int vertexBuffer, texCoordBuffer, normalBuffer, boneWeightBuffer, boneIndicesBuffer;
+	private int[] indices;
+	private int vao, vertexBuffer, indexBuffer;
 	private boolean hasWindingOrderCCW;
 	private boolean isAnimated = false;
 	private int primitiveType = 3; // 1=point, 2=line, 3=triangle(default)
 	private float[] matAmb, matDif, matSpe;
 	private float matShi;
+	private Vector3f boundsMin = new Vector3f(), boundsMax = new Vector3f(), tempV = new Vector3f();
+	private boolean boundsValid = false;
 
 	/** Instantiates an ObjShape and automatically adds it to the render system's list of shapes. */
 	public ObjShape()
@@ -55,7 +60,8 @@ public abstract class ObjShape
 	// Data is provided in an array of floats.
 
 	protected void setVertices(float[] v)
-	{	vertices = new float[v.length];
+	{	boundsValid = false;
+		vertices = new float[v.length];
 		for (int i=0; i<v.length; i++) { vertices[i] = v[i]; }
 	}
 
@@ -63,7 +69,8 @@ public abstract class ObjShape
 	// Data is provided in an array of Vector3f.
 
 	protected void setVertices(Vector3f[] v)
-	{	vertices = new float[v.length*3];
+	{	boundsValid = false;
+		vertices = new float[v.length*3];
 		for (int i=0; i<numVertices; i++)
 		{	vertices[i*3]   = (float) v[i].x();
 			vertices[i*3+1] = (float) v[i].y();
@@ -136,12 +143,30 @@ public abstract class ObjShape
 
 	// -------------SETTERS FOR INDEXED MODELS -----------------
 
+	// Sets the indices of an indexed model, which is then drawn with glDrawElements.
+	// The vertices, texture coordinates, and normals are set with the non-indexed setters,
+	// one per unique vertex, with the number of vertices set to the number of unique vertices.
+
+	protected void setIndices(int[] i)
+	{	indices = new int[i.length];
+		for (int j=0; j<i.length; j++) { indices[j] = i[j]; }
+	}
+
+	// Uses the same index array as another indexed shape with the same topology, instead of a copy.
+	// The renderer then loads the indices into one element buffer shared by both shapes.
+
+	protected void shareIndices(ObjShape s) { indices = s.indices; }
+
+	// The setters below instead expand indexed data into non-indexed data,
+	// with the number of vertices set to the number of indices.
+
 	// Loads vertex data for indexed models.
 	// Data is provided in an array of Vector3f.
 	// Data is then converted and stored as non-indexed.
 
 	protected void setVerticesIndexed(int indices[], Vector3f[] v)
-	{	vertices = new float[indices.length*3];
+	{	boundsValid = false;
+		vertices = new float[indices.length*3];
 		for (int i=0; i<numVertices; i++)
 		{	vertices[i*3]   = (float) (v[indices[i]]).x;
 			vertices[i*3+1] = (float) (v[indices[i]]).y;
@@ -201,28 +226,31 @@ public abstract class ObjShape
 
 	protected void setAnimated(boolean b) { isAnimated = b; }
 
+	protected void setVAO(int v) { vao = v; }
 	protected void setVertexBuffer(int b) { vertexBuffer = b; }
-	protected void setTexCoordBuffer(int b) { texCoordBuffer = b; }
-	protected void setNormalBuffer(int b) { normalBuffer = b; }
-	protected void setBoneWeightBuffer(int b) { boneWeightBuffer = b; }
-	protected void setBoneIndicesBuffer(int b) { boneIndicesBuffer = b; }
+	protected void setIndexBuffer(int b) { indexBuffer = b; }
 
-	/** engine use only. */
+	/** engine use only - the VAO holding this shape's vertex attributes and index buffer. */
+	public int getVAO() { return vao; }
+	/** engine use only - the VBO holding this shape's interleaved vertex attributes. */
 	public int getVertexBuffer() { return vertexBuffer; }
-	/** engine use only. */
-	public int getTexCoordBuffer() { return texCoordBuffer; }
-	/** engine use only. */
-	public int getNormalBuffer() { return normalBuffer; }
-	/** engine use only. */
-	public int getBoneWeightBuffer() { return boneWeightBuffer; }
-	/** engine use only. */
-	public int getBoneIndicesBuffer() { return boneIndicesBuffer; }
+	/** engine use only - the element buffer holding this shape's indices, or 0 if it is not indexed. */
+	public int getIndexBuffer() { return indexBuffer; }
 
 	// These are available for general use (and are also used by the engine)
 
 	/** returns the number of vertices in this ObjShape */
 	public int getNumVertices() { return numVertices; }
 
+	/** returns true if this ObjShape is drawn with indices */
+	public boolean isIndexed() { return indices != null; }
+
+	/** returns the number of indices in this ObjShape, or 0 if it is not indexed */
+	public int getIndexCount() { return (indices == null) ? 0 : indices.length; }
+
+	/** returns a reference to the int array containing the indices of this ObjShape, or null if it is not indexed */
+	public int[] getIndexArray() { return indices; }
+
 	/** returns a reference to the float array containing all of the vertices of this ObjShape */
 	public float[] getVertices() { return vertices; }
 
@@ -257,4 +285,28 @@ public abstract class ObjShape
 	public int getPrimitiveType() { return primitiveType; }
 
 	protected boolean isAnimated() { return isAnimated; }
+
+	/**
+	* copies the minimum and maximum corners of the axis-aligned box bounding this ObjShape's
+	* vertices (in its own, local, coordinates) into min and max.
+	*/
+	public void getLocalBounds(Vector3f min, Vector3f max)
+	{	if (!boundsValid) computeBounds();
+		min.set(boundsMin);
+		max.set(boundsMax);
+	}
+
+	private void computeBounds()
+	{	boundsMin.set(0f);
+		boundsMax.set(0f);
+		if (vertices != null && vertices.length >= 3)
+		{	boundsMin.set(vertices[0], vertices[1], vertices[2]);
+			boundsMax.set(boundsMin);
+			for (int i=3; i+2<vertices.length; i+=3)
+			{	boundsMin.min(tempV.set(vertices[i], vertices[i+1], vertices[i+2]));
+				boundsMax.max(tempV);
+			}
+		}
+		boundsValid = true;
+	}
 }
\ No newline at end of file
@@ -1,21 +1,47 @@
 package tage;
 import java.util.*;
+import org.joml.*;
+import tage.shapes.*;
 
 /**
 * Builds a render queue by traversing the GameObjects as specified in the scenegraph tree.
 * After building the queue as a Vector, it makes available an iterator for the queue.
+* It can also turn the queue into draw packets sorted for drawing in three passes:
+* <ul>
+* <li> opaque objects, grouped by the OpenGL state they need (program, shape, texture, and render states)
+*      within coarse bands of distance from the camera, nearest band first, so that nearer objects
+*      fill the depth buffer early and hide the pixels of farther ones before they are shaded
+* <li> lines
+* <li> transparent objects, farthest first, so that each is blended over what is behind it
+* </ul>
+* The renderer only changes OpenGL state when it differs from the previous packet.
 * It is used by the engine before rendering each frame,
 * and none of the functions should be called directly by the game application.
-* <p>
-* Eventually, the plan is to support transparency, such that transparent objects are
-* moved to the end of the queue.  But this is not yet implemented.  As of now, all methods are protected.
+* As of now, all methods are protected.
 * @author Scott Gordon
 */
 
 public class RenderQueue
 {
+	// kinds of draw packet, in the order they are drawn within each distance band of the opaque pass
+	protected static final int STANDARD = 0;
+	protected static final int ANIMATED = 1;
+	protected static final int LINE = 2;
+
+	// the passes, in the order they are drawn
+	protected static final int OPAQUE_PASS = 0;
+	protected static final int LINE_PASS = 1;
+	protected static final int TRANSPARENT_PASS = 2;
+
+	// each distance band reaches 4 times farther than the previous one, starting from the near clip plane
+	private static final float INV_LOG_BAND = 1.0f / (float) java.lang.Math.log(4.0);
+
 	private Vector<GameObject> queue;
 	private GameObject root;
+	private ArrayList<DrawPacket> packetPool = new ArrayList<DrawPacket>();
+	private ArrayList<DrawPacket> sorted = new ArrayList<DrawPacket>();
+	private int packetsUsed;
+	private Vector3f boxMin = new Vector3f(), boxMax = new Vector3f();
 
 	protected RenderQueue(GameObject r)
 	{	queue = new Vector<GameObject>();
@@ -33,6 +59,15 @@ public class RenderQueue
 		return queue;
 	}
 
+	// A visible queue includes the game objects in the spatial index whose bounding boxes
+	// are in the view frustum, so that the objects outside it are skipped in whole groups.
+
+	protected Vector<GameObject> createVisibleQueue(SpatialIndex index, FrustumIntersection frustum)
+	{	queue.clear();
+		index.queryFrustum(frustum, queue);
+		return queue;
+	}
+
 	protected void addToQueue(GameObject g) { queue.add(g); }
 
 	// Recursive traversal of the game objects
@@ -46,4 +81,132 @@ public class RenderQueue
 	}
 
 	protected Iterator getIterator() { return queue.iterator(); }
+
+	// Returns a draw packet for each object in the queue (built by createStandardQueue or createVisibleQueue)
+	// that has rendering enabled and whose bounds are in the view frustum, sorted into the passes.
+	// Objects that render hidden faces get a second packet with the opposite winding order.
+	// Each object's distance from the camera, used for sorting, is computed once from the center of
+	// its bounds and the view matrix, and kept in its packets.
+	// The packets are reused from frame to frame.
+
+	protected ArrayList<DrawPacket> createSortedQueue(FrustumIntersection frustum, Matrix4f vMat, float nearClip,
+		ShaderProgram standard, ShaderProgram animated, ShaderProgram line, int defaultTexture)
+	{	packetsUsed = 0;
+		sorted.clear();
+
+		for (int i = 0; i < queue.size(); i++)
+		{	GameObject go = queue.get(i);
+			RenderStates rs = go.getRenderStates();
+			if (!rs.renderingEnabled()) continue;
+			if (!go.isInFrustum(frustum)) continue;
+			ObjShape shape = go.getShape();
+
+			go.getWorldBounds(boxMin, boxMax);
+			boxMin.add(boxMax).mul(0.5f);
+			float depth = -(vMat.m02()*boxMin.x + vMat.m12()*boxMin.y + vMat.m22()*boxMin.z + vMat.m32());
+			int band = (int) (java.lang.Math.log(java.lang.Math.max(depth, nearClip) / nearClip) * INV_LOG_BAND);
+
+			if (shape.getPrimitiveType() < 3)
+			{	addPacket(go, LINE, line, 0, 0, 0, true, false, depth, band);
+			}
+			else if (shape instanceof AnimatedShape)
+			{	addPacket(go, ANIMATED, animated, go.getTextureImage().getTexture(), 0, rs.getTiling(), true, rs.isWireframe(), depth, band);
+			}
+			else
+			{	int texture = (go.getTextureImage() != null) ? go.getTextureImage().getTexture() : defaultTexture;
+				int heightMap = go.getHeightMap().getTexture();
+				boolean ccw = shape.isWindingOrderCCW();
+				addPacket(go, STANDARD, standard, texture, heightMap, rs.getTiling(), ccw, rs.isWireframe(), depth, band);
+				if (rs.willRenderHiddenFaces())
+					addPacket(go, STANDARD, standard, texture, heightMap, rs.getTiling(), !ccw, rs.isWireframe(), depth, band)
+						.hiddenFaces = true;
+			}
+		}
+		Collections.sort(sorted);
+		return sorted;
+	}
+
+	private DrawPacket addPacket(GameObject go, int kind, ShaderProgram program, int texture, int heightMap,
+		int tiling, boolean ccw, boolean wireframe, float depth, int band)
+	{	if (packetsUsed == packetPool.size()) packetPool.add(new DrawPacket());
+		DrawPacket p = packetPool.get(packetsUsed++);
+		p.go = go;
+		p.kind = kind;
+		p.program = program;
+		p.shape = go.getShape();
+		p.texture = texture;
+		p.heightMap = heightMap;
+		p.tiling = tiling;
+		p.ccw = ccw;
+		p.wireframe = wireframe;
+		p.depth = depth;
+		p.band = band;
+		p.hiddenFaces = false;
+
+		RenderStates rs = go.getRenderStates();
+		p.pass = (kind == LINE) ? LINE_PASS : (rs.isTransparent() ? TRANSPARENT_PASS : OPAQUE_PASS);
+		p.flags = 0;
+		if (go.getTextureImage() != null) p.flags |= 1;
+		if (rs.isEnvironmentMapped()) p.flags |= 2;
+		if (rs.hasLighting()) p.flags |= 4;
+		if (rs.hasSolidColor()) p.flags |= 8;
+		if (go.isTerrain()) p.flags |= 16;
+		p.color = rs.getColor();
+		sorted.add(p);
+		return p;
+	}
+
+	/** One object to draw, along with the OpenGL state it is drawn with - for engine use only. */
+	protected static class DrawPacket implements Comparable<DrawPacket>
+	{	GameObject go;
+		int kind;
+		ShaderProgram program;
+		ObjShape shape;
+		int texture, heightMap, tiling;
+		boolean ccw, wireframe;
+		int flags;  // the per-object shader flags: texture, environment mapped, lighting, solid color, terrain
+		Vector3f color;
+		int pass;
+		float depth;          // distance from the camera, along its view direction
+		int band;             // coarse distance band, for drawing opaque objects roughly front to back
+		boolean hiddenFaces;  // the packet with the opposite winding order, for an object that renders hidden faces
+
+		// true if the two packets differ only in their model matrices, so can be drawn as instances of one draw call.
+		// Transparent objects are drawn one at a time, in order of distance.
+		boolean canInstanceWith(DrawPacket o)
+		{	return kind == STANDARD && pass == OPAQUE_PASS && o.pass == OPAQUE_PASS && compareState(o) == 0;
+		}
+
+		// Opaque packets are sorted by distance band, kind, state, and then distance within the band.
+		// Transparent packets are sorted by distance, farthest first, with an object's hidden faces before its front faces.
+		public int compareTo(DrawPacket o)
+		{	if (pass != o.pass) return Integer.compare(pass, o.pass);
+			if (pass == TRANSPARENT_PASS)
+			{	if (depth != o.depth) return Float.compare(o.depth, depth);
+				if (hiddenFaces != o.hiddenFaces) return hiddenFaces ? -1 : 1;
+				return compareState(o);
+			}
+			if (band != o.band) return Integer.compare(band, o.band);
+			if (kind != o.kind) return Integer.compare(kind, o.kind);
+			int c = compareState(o);
+			if (c != 0) return c;
+			return Float.compare(depth, o.depth);
+		}
+
+		private int compareState(DrawPacket o)
+		{	if (kind != o.kind) return Integer.compare(kind, o.kind);
+			if (program != o.program) return Integer.compare(program.getID(), o.program.getID());
+			if (shape != o.shape) return Integer.compare(shape.getVAO(), o.shape.getVAO());
+			if (texture != o.texture) return Integer.compare(texture, o.texture);
+			if (tiling != o.tiling) return Integer.compare(tiling, o.tiling);
+			if (heightMap != o.heightMap) return Integer.compare(heightMap, o.heightMap);
+			if (ccw != o.ccw) return Boolean.compare(ccw, o.ccw);
+			if (wireframe != o.wireframe) return Boolean.compare(wireframe, o.wireframe);
+			if (flags != o.flags) return Integer.compare(flags, o.flags);
+			if ((flags & 8) == 0) return 0;  // the color is only used for solid colors
+			if (color.x != o.color.x) return Float.compare(color.x, o.color.x);
+			if (color.y != o.color.y) return Float.compare(color.y, o.color.y);
+			return Float.compare(color.z, o.color.z);
+		}
+	}
 }
\ No newline at end of file
@@ -8,7 +8,7 @@ import org.joml.*;
 * <li> enable rendering this object (or not)
 * <li> render this object with or without lighting
 * <li> render this object with or without depth testing
-* <li> render this object with transparency (not yet implemented)
+* <li> render this object with transparency, blended by its opacity and texture alpha
 * <li> utilize OpenGL texture tiling - options are:  0=none, 1=repeat, 2=mirroredRepeat, 3=clampToEdge
 * <li> set primitive -- 1=point, 2=line, 3=triangle (default)
 * <li> render this object with a solid, specified color
@@ -25,6 +25,7 @@ public class RenderStates
 	private boolean hasLighting = true;
 	private boolean hasDepthTesting = true;
 	private boolean isTransparent = false;
+	private float opacity = 1.0f;
 	private int tiling = 0; // 0=none, 1=repeat, 2=mirroredRepeat, 3=clampToEdge
 	private int primitive = 3;  // 1=point, 2=line, 3=triangle
 	private boolean solidColor = false;
@@ -48,9 +49,15 @@ public class RenderStates
 	/** sets whether or not this object participates in depth testing */
 	public void hasDepthTesting(boolean h) { hasDepthTesting = h; }
 
-	/** sets whether or not this object is transparent (not yet implemented) */
+	/**
+	* sets whether or not this object is transparent.  Transparent objects are drawn after all of the
+	* others, from farthest to nearest, blended with what is behind them, and do not hide objects drawn later.
+	*/
 	public void isTransparent(boolean i) { isTransparent = i; }
 
+	/** sets the opacity of a transparent object, from 0 (invisible) to 1, which is multiplied by its texture alpha */
+	public void setOpacity(float o) { opacity = o; }
+
 	/** sets whether or not this object is environment mapped (simulates chrome) */
 	public void isEnvironmentMapped(boolean i) { isEnvironmentMapped = i; }
 
@@ -84,9 +91,12 @@ public class RenderStates
 	/** returns a boolean that is true if depth testing is enabled for this object - mostly for skyboxes */
 	public boolean hasDepthTesting() { return hasDepthTesting; }
 
-	/** returns a boolean that is true if this object is transparent (not yet implemented) */
+	/** returns a boolean that is true if this object is transparent */
 	public boolean isTransparent() { return isTransparent; }
 
+	/** returns the opacity used when this object is transparent */
+	public float getOpacity() { return opacity; }
+
 	/** returns a boolean that is true if this object is environment mapped (simulated chrome) */	
 	public boolean isEnvironmentMapped() { return isEnvironmentMapped; }
 
@@ -110,4 +120,7 @@ public class RenderStates
 
 	/** returns a copy of the matrix that contains the model orientation correction, if one has been specified */
 	public Matrix4f getModelOrientationCorrection() { return new Matrix4f(modelOrientationCorrection); }
+
+	/** returns a read-only view of the model orientation correction matrix, without copying it */
+	public Matrix4fc getModelOrientationCorrectionView() { return modelOrientationCorrection; }
 }
\ No newline at end of file
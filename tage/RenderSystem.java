@@ -4,6 +4,7 @@ import javax.swing.*;
 import java.lang.Math;
 import java.util.*;
 import java.awt.*;
+import java.io.File;
 import static com.jogamp.opengl.GL4.*;
 import com.jogamp.opengl.*;
 import com.jogamp.opengl.util.*;
@@ -22,15 +23,21 @@ import tage.objectRenderers.*;
 * <li> setTitle() to set the title in the bar at the top of the render window
 * <li> addViewport() if setting up multiple viewports
 * <li> getViewport() mainly to get that viewport's camera
+* <li> renderFrames() to render and time frames when headless
 * </ul>
 * <p>
 * This class includes the init() and display() methods used by the JOGL animator.
+* When the Engine is created headless, there is no window or animator: the frames are drawn into an
+* offscreen framebuffer, one call to display() per frame, by renderFrames().
 * @author Scott Gordon
 */
 public class RenderSystem extends JFrame implements GLEventListener
 {	private GLCanvas myCanvas;
+	private GLAutoDrawable drawable;  // myCanvas, or the offscreen drawable when headless
 	private Engine engine;
 	private RenderQueue rq;
+	private ArrayList<GameObject> instances = new ArrayList<GameObject>();
+	private static final int MIN_INSTANCES = 2;  // smallest group drawn with an instanced draw call
 	private RenderObjectStandard objectRendererStandard;
 	private RenderObjectSkyBox objectRendererSkyBox;
 	private RenderObjectLine objectRendererLine;
@@ -40,17 +47,21 @@ public class RenderSystem extends JFrame implements GLEventListener
 	private float nearClip = 0.1f;
 	private float farClip = 1000.0f;
 
-	private int renderingProgram, hudColorProgram, skyboxProgram, lineProgram;
-	private int heightProgram, skelProgram;
+	private ShaderProgram renderingProgram, hudColorProgram, skyboxProgram, lineProgram;
+	private ShaderProgram skelProgram;
 	private int[] vao = new int[1];
-	private int[] vbo = new int[3];
+	private int[] vbo = new int[1];
 
 	private int defaultSkyBox;
 	
 	// allocate variables for display() function
 	private Matrix4f pMat = new Matrix4f();  // perspective matrix
 	private Matrix4f vMat = new Matrix4f();  // view matrix
-	private int xLoc, zLoc;
+	private Matrix4f pvMat = new Matrix4f();  // projection * view, for frustum culling
+	private FrustumIntersection frustum = new FrustumIntersection();
+	private LightClusters lightClusters;
+	private int[] viewportRect = new int[4];  // x, y, width, height of the current viewport in pixels
+	private FloatBuffer vals = Buffers.newDirectFloatBuffer(16);
 	private float aspect;
 	private int defaultTexture;
 	private String defaultTitle = "default title", title;
@@ -62,12 +73,16 @@ public class RenderSystem extends JFrame implements GLEventListener
 
 	private int canvasWidth, canvasHeight;
 	private boolean isInFullScreenMode = false;
+
+	private boolean headless = false;
+	private int headlessWidth, headlessHeight;
+	private GLReadBufferUtil frameReader;
+	private String framePrefix;
+	private int frameNumber;
+	private long frameEnd;
 	GraphicsEnvironment ge;
 	GraphicsDevice gd;
 
-	private int buffer[] = new int[1];
-	private float res[] = new float[1];
-
 	protected RenderSystem(Engine e)
 	{	engine = e;
 
@@ -81,12 +96,32 @@ public class RenderSystem extends JFrame implements GLEventListener
 		if (dsd.isFullScreenModeSelected()) tryFullScreenMode(gd, dm);
 	}
 
+	// Creates a render system that draws into an offscreen buffer of the specified size,
+	// without showing the display settings dialog or the window.
+	protected RenderSystem(Engine e, int width, int height)
+	{	engine = e;
+		headless = true;
+		headlessWidth = width;
+		headlessHeight = height;
+	}
+
 	protected void setUpCanvas()
-	{	myCanvas = new GLCanvas();
-		myCanvas.addGLEventListener(this);
-		this.getContentPane().add(myCanvas, BorderLayout.CENTER);
-		this.setVisible(true);
-		(engine.getHUDmanager()).setGLcanvas(myCanvas);
+	{	if (headless)
+		{	GLProfile profile = GLProfile.getDefault();
+			GLCapabilities caps = new GLCapabilities(profile);
+			caps.setOnscreen(false);
+			caps.setFBO(true);
+			drawable = GLDrawableFactory.getFactory(profile).createOffscreenAutoDrawable(null, caps, null,
+				headlessWidth, headlessHeight);
+		}
+		else
+		{	myCanvas = new GLCanvas();
+			this.getContentPane().add(myCanvas, BorderLayout.CENTER);
+			this.setVisible(true);
+			drawable = myCanvas;
+		}
+		drawable.addGLEventListener(this);
+		(engine.getHUDmanager()).setGLcanvas(drawable);
 	}
 
 	/** The game application can use this to set the window dimensions if in windowed mode. */
@@ -97,9 +132,18 @@ public class RenderSystem extends JFrame implements GLEventListener
 		if (!isInFullScreenMode) setSize(screenSizeX, screenSizeY);
 	}
 
-	/** gets a reference to the current OpenGL canvas used by the engine */
+	/** gets a reference to the current OpenGL canvas used by the engine, or null if headless */
 	public GLCanvas getGLCanvas() { return myCanvas; }
 
+	/** returns true if the engine renders offscreen, without a window */
+	public boolean isHeadless() { return headless; }
+
+	/** returns the width, in pixels, of the area rendered into: the canvas, or the offscreen buffer if headless */
+	public int getCanvasWidth() { return headless ? headlessWidth : myCanvas.getWidth(); }
+
+	/** returns the height, in pixels, of the area rendered into: the canvas, or the offscreen buffer if headless */
+	public int getCanvasHeight() { return headless ? headlessHeight : myCanvas.getHeight(); }
+
 	/** sets the title at the top of the window if in windowed mode */
 	public void setTitle(String t) { title = t; }
 
@@ -167,10 +211,32 @@ public class RenderSystem extends JFrame implements GLEventListener
 
 	protected void startGameLoop()
 	{	setTitle(title);
+		if (headless) return;  // frames are rendered by renderFrames() instead
 		Animator animator = new Animator(myCanvas);
 		animator.start();
 	}
 
+	/**
+	* Renders the specified number of frames, one after another, in headless mode, and returns the
+	* time each one took in nanoseconds, including the time for the GPU to finish it.  The game's
+	* update() is called for each frame as usual, so it can script the scene.  If framePrefix is not null,
+	* each frame is also read back and saved as a PNG file, named framePrefix followed by the frame
+	* number, such as "frame00000.png".  Saving a frame is not included in its time.
+	* It should be called after game_loop().
+	*/
+	public long[] renderFrames(int count, String framePrefix)
+	{	if (!headless) throw new IllegalStateException("renderFrames() requires a headless Engine");
+		this.framePrefix = framePrefix;
+		long[] times = new long[count];
+		for (int i = 0; i < count; i++)
+		{	long start = System.nanoTime();
+			drawable.display();
+			times[i] = frameEnd - start;
+		}
+		this.framePrefix = null;
+		return times;
+	}
+
 	/**
 	* Displays the current frame - for Engine use only.
 	* This method is called automatically by the JOGL Animator, once per frame.
@@ -179,57 +245,194 @@ public class RenderSystem extends JFrame implements GLEventListener
 	*/
 	public void display(GLAutoDrawable drawable)
 	{	GL4 gl = (GL4) GLContext.getCurrentGL();
+		FrameProfiler profiler = engine.getFrameProfiler();
+		profiler.beginFrame();
 		gl.glClear(GL_COLOR_BUFFER_BIT);
 		gl.glClear(GL_DEPTH_BUFFER_BIT);
 
+		profiler.begin("game update");
 		(engine.getGame()).update();
+		profiler.begin("scene update");
 		(engine.getSceneGraph()).applyNodeControllers();
+		(engine.getSceneGraph()).updateAllObjectTransforms();
+		SpatialIndex spatialIndex = (engine.getSceneGraph()).getSpatialIndex();
 
+		profiler.begin("lights");
 		engine.getLightManager().updateSSBO();
 
-		canvasWidth = myCanvas.getWidth();
-		canvasHeight = myCanvas.getHeight();
+		canvasWidth = getCanvasWidth();
+		canvasHeight = getCanvasHeight();
 
 		for (Viewport vp : viewportList.values())
 		{	vMat = vp.getCamera().getViewMatrix();
 
-			aspect = ((float)myCanvas.getWidth() * vp.getRelativeWidth()) / ((float) myCanvas.getHeight() * vp.getRelativeHeight());
+			aspect = ((float)getCanvasWidth() * vp.getRelativeWidth()) / ((float) getCanvasHeight() * vp.getRelativeHeight());
 			pMat.setPerspective((float) Math.toRadians(fov), aspect, nearClip, farClip);
 
+			profiler.begin("viewport");
 			constructViewport(vp);
 
+			profiler.begin("lights");
+			setViewportUniforms(vp);
+
+			profiler.begin("skybox");
 			if ((engine.getSceneGraph()).isSkyboxEnabled())
 			{	objectRendererSkyBox.render((engine.getSceneGraph()).getSkyBoxObject(), skyboxProgram, pMat, vMat);
 			}
 
-			(engine.getHUDmanager()).drawHUDs(hudColorProgram);
-
-			rq = new RenderQueue((engine.getSceneGraph()).getRoot());
-			Vector<GameObject> q = rq.createStandardQueue();
-
-			for (int i = 0; i < q.size(); i++)
-			{	GameObject go = q.get(i);
-				if ((go.getRenderStates()).renderingEnabled())
-				{	if ((go.getShape()).getPrimitiveType() < 3)
-					{	objectRendererLine.render(go, lineProgram, pMat, vMat);
-					}
-					else if (go.getShape() instanceof AnimatedShape)
-					{	objectRendererAnimation.render(go, skelProgram, pMat, vMat);
-					}
-					else
-					{	objectRendererStandard.render(go, renderingProgram, pMat, vMat);
-						// if hidden faces are rendered, render a second time with opposite winding order
-						if ((go.getRenderStates()).willRenderHiddenFaces()) 
-						{	(go.getShape()).toggleWindingOrder();
-							objectRendererStandard.render(go, renderingProgram, pMat, vMat);
-							(go.getShape()).toggleWindingOrder();
-						}
-					}
-				}
+			profiler.begin("HUD");
+			(engine.getHUDmanager()).drawHUDs(hudColorProgram.getID());
+
+			profiler.begin("culling");
+			frustum.set(pMat.mul(vMat, pvMat));
+			(engine.getSceneGraph()).updateTerrainDetail(vp.getCamera().getLocation());
+			rq.createVisibleQueue(spatialIndex, frustum);
+			ArrayList<RenderQueue.DrawPacket> packets = rq.createSortedQueue(frustum, vMat, nearClip, renderingProgram, skelProgram, lineProgram, defaultTexture);
+
+			profiler.begin("objects");
+			submit(packets);
+		}
+		profiler.endFrame();
+		if (headless) finishHeadlessFrame(gl);
+	}
+
+	// Waits for the GPU to finish the frame, so that it can be timed, then saves it if requested.
+	private void finishHeadlessFrame(GL4 gl)
+	{	gl.glFinish();
+		frameEnd = System.nanoTime();
+		if (framePrefix == null) return;
+		if (frameReader == null) frameReader = new GLReadBufferUtil(false, false);
+		if (frameReader.readPixels(gl, false))
+			frameReader.write(new File(framePrefix + String.format("%05d", frameNumber) + ".png"));
+		frameNumber++;
+	}
+
+	// Draws the sorted packets, changing the program, shape, textures, and render states
+	// only when they differ from those of the previous packet.  The transparent packets,
+	// which come last, are blended and do not write to the depth buffer.
+
+	private void submit(ArrayList<RenderQueue.DrawPacket> packets)
+	{	GL4 gl = (GL4) GLContext.getCurrentGL();
+		int lastKind = -1;
+		ShaderProgram lastProgram = null;
+		ObjShape lastShape = null;
+		int lastTexture = -1, lastTiling = -1, lastHeightMap = -1;
+		int lastFrontFace = -1, lastPolygonMode = -1;
+		boolean blending = false;
+
+		gl.glEnable(GL_DEPTH_TEST);
+		gl.glDepthFunc(GL_LEQUAL);
+		gl.glActiveTexture(GL_TEXTURE1);
+		gl.glBindTexture(GL_TEXTURE_CUBE_MAP, (engine.getSceneGraph()).getActiveSkyBoxTexture());
+
+		for (int i = 0; i < packets.size(); i++)
+		{	RenderQueue.DrawPacket p = packets.get(i);
+
+			if (p.kind == RenderQueue.LINE)
+			{	objectRendererLine.render(p.go, lineProgram, pMat, vMat);
+				lastKind = -1;  // the line renderer changes the program and VAO
+				lastProgram = null;
+				lastShape = null;
+				continue;
+			}
+
+			if (p.pass == RenderQueue.TRANSPARENT_PASS && !blending)
+			{	gl.glEnable(GL_BLEND);
+				gl.glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
+				gl.glDepthMask(false);
+				blending = true;
+			}
+
+			if (p.kind != lastKind || p.program != lastProgram)
+			{	if (p.kind == RenderQueue.ANIMATED) objectRendererAnimation.useProgram(p.program);
+				else objectRendererStandard.useProgram(p.program);
+				lastKind = p.kind;
+				lastProgram = p.program;
+			}
+			if (p.shape != lastShape)
+			{	if (p.kind == RenderQueue.ANIMATED) objectRendererAnimation.bindShape(p.shape);
+				else objectRendererStandard.bindShape(p.shape);
+				lastShape = p.shape;
+			}
+			if (p.texture != lastTexture || p.tiling != lastTiling)
+			{	objectRendererStandard.bindTexture(p.texture, p.tiling);
+				lastTexture = p.texture;
+				lastTiling = p.tiling;
+			}
+			if (p.kind == RenderQueue.STANDARD && p.heightMap != lastHeightMap)
+			{	objectRendererStandard.bindHeightMap(p.heightMap);
+				lastHeightMap = p.heightMap;
+			}
+
+			int frontFace = p.ccw ? GL_CCW : GL_CW;
+			if (frontFace != lastFrontFace)
+			{	gl.glFrontFace(frontFace);
+				lastFrontFace = frontFace;
+			}
+			int polygonMode = p.wireframe ? GL_LINE : GL_FILL;
+			if (polygonMode != lastPolygonMode)
+			{	gl.glPolygonMode(GL_FRONT_AND_BACK, polygonMode);
+				lastPolygonMode = polygonMode;
 			}
+
+			if (p.kind == RenderQueue.ANIMATED)
+			{	objectRendererAnimation.draw(p.go, vMat);
+				continue;
+			}
+
+			// packets that differ only in their model matrices are drawn as instances of one draw call
+			int end = i + 1;
+			while (end < packets.size() && packets.get(end).canInstanceWith(p)) end++;
+			if (end - i >= MIN_INSTANCES)
+			{	instances.clear();
+				for (int j = i; j < end; j++) instances.add(packets.get(j).go);
+				objectRendererStandard.drawInstanced(instances);
+				i = end - 1;
+			}
+			else
+			{	objectRendererStandard.draw(p.go);
+			}
+		}
+
+		if (blending)
+		{	gl.glDepthMask(true);
+			gl.glDisable(GL_BLEND);
 		}
 	}
 
+	// Sets the uniforms that are the same for every object in a viewport, so that the
+	// object renderers only need to set the per-object ones.  Also assigns the lights to the
+	// viewport's clusters, so that each pixel is only lit by the lights within range of it.
+	private void setViewportUniforms(Viewport vp)
+	{	GL4 gl = (GL4) GLContext.getCurrentGL();
+		LightManager lm = engine.getLightManager();
+
+		gl.glBindBufferBase(GL_SHADER_STORAGE_BUFFER, 0, lm.getLightSSBO());
+		lightClusters.build(lm, vp, vMat, pMat, nearClip, farClip, 2);
+
+		setViewUniforms(renderingProgram, lm);
+		setViewUniforms(skelProgram, lm);
+		setViewUniforms(lineProgram, lm);
+		setViewUniforms(skyboxProgram, lm);
+	}
+
+	private void setViewUniforms(ShaderProgram sp, LightManager lm)
+	{	GL4 gl = (GL4) GLContext.getCurrentGL();
+		int program = sp.getID();
+		gl.glProgramUniformMatrix4fv(program, sp.getUniformLocation("v_matrix"), 1, false, vMat.get(vals));
+		gl.glProgramUniformMatrix4fv(program, sp.getUniformLocation("p_matrix"), 1, false, pMat.get(vals));
+		gl.glProgramUniform1i(program, sp.getUniformLocation("num_lights"), lm.getNumLights());
+		gl.glProgramUniform1i(program, sp.getUniformLocation("fields_per_light"), lm.getFieldsPerLight());
+		gl.glProgramUniform4fv(program, sp.getUniformLocation("globalAmbient"), 1, Light.getGlobalAmbient(), 0);
+		gl.glProgramUniform3fv(program, sp.getUniformLocation("max_light_ambient"), 1, lightClusters.getMaxAmbient(), 0);
+		gl.glProgramUniform3i(program, sp.getUniformLocation("cluster_dims"),
+			lightClusters.getTilesX(), lightClusters.getTilesY(), lightClusters.getSlices());
+		gl.glProgramUniform4f(program, sp.getUniformLocation("cluster_viewport"),
+			viewportRect[0], viewportRect[1], viewportRect[2], viewportRect[3]);
+		gl.glProgramUniform3f(program, sp.getUniformLocation("cluster_depth"),
+			lightClusters.getNear(), lightClusters.getFar(), lightClusters.getDepthScale());
+	}
+
 	private void constructViewport(Viewport vp)
 	{	GL4 gl = (GL4) GLContext.getCurrentGL();
 
@@ -259,17 +462,18 @@ public class RenderSystem extends JFrame implements GLEventListener
 			gl.glClear(GL_COLOR_BUFFER_BIT);
 			gl.glDisable(GL_SCISSOR_TEST);
 
-			gl.glViewport((int)(vp.getRelativeLeft()*canvasWidth)+borderWidth,
-				(int)(vp.getRelativeBottom()*canvasHeight)+borderWidth,
-				(int)(vp.getRelativeWidth()*canvasWidth)-borderWidth*2,
-				(int)(vp.getRelativeHeight()*canvasHeight)-borderWidth*2);
+			viewportRect[0] = (int)(vp.getRelativeLeft()*canvasWidth)+borderWidth;
+			viewportRect[1] = (int)(vp.getRelativeBottom()*canvasHeight)+borderWidth;
+			viewportRect[2] = (int)(vp.getRelativeWidth()*canvasWidth)-borderWidth*2;
+			viewportRect[3] = (int)(vp.getRelativeHeight()*canvasHeight)-borderWidth*2;
 		}
 		else
-		{	gl.glViewport((int)(vp.getRelativeLeft()*canvasWidth),
-				(int)(vp.getRelativeBottom()*canvasHeight),
-				(int)(vp.getRelativeWidth()*canvasWidth),
-				(int)(vp.getRelativeHeight()*canvasHeight));
+		{	viewportRect[0] = (int)(vp.getRelativeLeft()*canvasWidth);
+			viewportRect[1] = (int)(vp.getRelativeBottom()*canvasHeight);
+			viewportRect[2] = (int)(vp.getRelativeWidth()*canvasWidth);
+			viewportRect[3] = (int)(vp.getRelativeHeight()*canvasHeight);
 		}
+		gl.glViewport(viewportRect[0], viewportRect[1], viewportRect[2], viewportRect[3]);
 	}
 
 	/**
@@ -280,27 +484,29 @@ public class RenderSystem extends JFrame implements GLEventListener
 	public void init(GLAutoDrawable drawable)
 	{	GL4 gl = (GL4) GLContext.getCurrentGL();
 	
-		renderingProgram = Utils.createShaderProgram("assets/shaders/StandardVert.glsl",
-			"assets/shaders/StandardFrag.glsl");
+		renderingProgram = new ShaderProgram(Utils.createShaderProgram("assets/shaders/StandardVert.glsl",
+			"assets/shaders/StandardFrag.glsl"));
+
+		hudColorProgram = new ShaderProgram(Utils.createShaderProgram("assets/shaders/HUDcolorVert.glsl",
+			"assets/shaders/HUDcolorFrag.glsl"));
 
-		hudColorProgram = Utils.createShaderProgram("assets/shaders/HUDcolorVert.glsl",
-			"assets/shaders/HUDcolorFrag.glsl");
+		skyboxProgram = new ShaderProgram(Utils.createShaderProgram("assets/shaders/skyboxVert.glsl",
+			"assets/shaders/skyboxFrag.glsl"));
 
-		skyboxProgram = Utils.createShaderProgram("assets/shaders/skyboxVert.glsl",
-			"assets/shaders/skyboxFrag.glsl");
+		lineProgram = new ShaderProgram(Utils.createShaderProgram("assets/shaders/LineVert.glsl",
+			"assets/shaders/LineFrag.glsl"));
 
-		lineProgram = Utils.createShaderProgram("assets/shaders/LineVert.glsl",
-			"assets/shaders/LineFrag.glsl");
+		skelProgram = new ShaderProgram(Utils.createShaderProgram("assets/shaders/skeletalVert.glsl",
+			"assets/shaders/StandardFrag.glsl"));
 
-		skelProgram = Utils.createShaderProgram("assets/shaders/skeletalVert.glsl",
-			"assets/shaders/StandardFrag.glsl");
+		rq = new RenderQueue((engine.getSceneGraph()).getRoot());
 
 		objectRendererStandard = new RenderObjectStandard(engine);
 		objectRendererSkyBox = new RenderObjectSkyBox(engine);
 		objectRendererLine = new RenderObjectLine(engine);
 		objectRendererAnimation = new RenderObjectAnimation(engine);
 
-		aspect = (float) myCanvas.getWidth() / (float) myCanvas.getHeight();
+		aspect = (float) getCanvasWidth() / (float) getCanvasHeight();
 		pMat.setPerspective((float) Math.toRadians(fov), aspect, nearClip, farClip);
 
 		System.out.println("loading skyboxes");
@@ -313,14 +519,8 @@ public class RenderSystem extends JFrame implements GLEventListener
 		loadTexturesIntoOpenGL();
 		(engine.getGame()).loadSkyBoxes();
 
-		// prepare buffer for extracting height from height map
-		heightProgram = Utils.createShaderProgram("assets/shaders/heightCompute.glsl");
-		gl.glGenBuffers(1, buffer, 0);
-		gl.glBindBuffer(GL_SHADER_STORAGE_BUFFER, buffer[0]);
-		FloatBuffer resBuf = Buffers.newDirectFloatBuffer(res.length);
-		gl.glBufferData(GL_SHADER_STORAGE_BUFFER, resBuf.limit()*4, null, GL_STATIC_READ);
-
 		(engine.getLightManager()).loadLightsSSBOinitial();
+		lightClusters = new LightClusters();
 	}
 
 	protected int getDefaultSkyBox() { return defaultSkyBox; }
@@ -332,55 +532,84 @@ public class RenderSystem extends JFrame implements GLEventListener
 
 	protected void addShape(ObjShape s) { shapes.add(s); }
 
-	// loads the vertices, tex coords, and normals into three VBOs.
+	// Gives each shape its own VAO, holding one VBO with its vertices, tex coords, and normals
+	// interleaved (plus bone indices and weights for animated shapes), and an element buffer if the
+	// shape is indexed.  Shapes that share an index array (see ObjShape.shareIndices) share the
+	// element buffer too.  Drawing a shape then only requires binding its VAO.
 	private void loadVBOs()
 	{	GL4 gl = (GL4) GLContext.getCurrentGL();
+		IdentityHashMap<int[], Integer> indexBuffers = new IdentityHashMap<int[], Integer>();
 
+		// default VAO, bound when no shape is, for programs that use no vertex attributes
 		gl.glGenVertexArrays(vao.length, vao, 0);
 		gl.glBindVertexArray(vao[0]);
 
+		int[] shapeVAO = new int[1];
 		for (ObjShape shape:shapes)
-		{	gl.glGenBuffers(3, vbo, 0);
-
-			gl.glBindBuffer(GL_ARRAY_BUFFER, vbo[0]);
-			FloatBuffer vertBuf = Buffers.newDirectFloatBuffer(shape.getVertices());
-			gl.glBufferData(GL_ARRAY_BUFFER, vertBuf.limit()*4, vertBuf, GL_STATIC_DRAW);
-
-			gl.glBindBuffer(GL_ARRAY_BUFFER, vbo[1]);
-			FloatBuffer texBuf = Buffers.newDirectFloatBuffer(shape.getTexCoords());
-			gl.glBufferData(GL_ARRAY_BUFFER, texBuf.limit()*4, texBuf, GL_STATIC_DRAW);
+		{	boolean animated = (shape instanceof AnimatedShape);
+			int stride = animated ? 14 : 8;
+			int numVertices = shape.getNumVertices();
+
+			float[] data = new float[numVertices * stride];
+			for (int i = 0; i < numVertices; i++)
+			{	int d = i * stride;
+				copyAttribute(shape.getVertices(), i, 3, data, d);
+				copyAttribute(shape.getTexCoords(), i, 2, data, d+3);
+				copyAttribute(shape.getNormals(), i, 3, data, d+5);
+				if (animated)
+				{	copyAttribute(shape.getBoneIndices(), i, 3, data, d+8);
+					copyAttribute(shape.getBoneWeights(), i, 3, data, d+11);
+				}
+			}
 
-			gl.glBindBuffer(GL_ARRAY_BUFFER, vbo[2]);
-			FloatBuffer norBuf = Buffers.newDirectFloatBuffer(shape.getNormals());
-			gl.glBufferData(GL_ARRAY_BUFFER, norBuf.limit()*4, norBuf, GL_STATIC_DRAW);
+			gl.glGenVertexArrays(1, shapeVAO, 0);
+			gl.glBindVertexArray(shapeVAO[0]);
+			shape.setVAO(shapeVAO[0]);
 
+			gl.glGenBuffers(1, vbo, 0);
+			gl.glBindBuffer(GL_ARRAY_BUFFER, vbo[0]);
+			FloatBuffer dataBuf = Buffers.newDirectFloatBuffer(data);
+			gl.glBufferData(GL_ARRAY_BUFFER, dataBuf.limit()*4, dataBuf, GL_STATIC_DRAW);
 			shape.setVertexBuffer(vbo[0]);
-			shape.setTexCoordBuffer(vbo[1]);
-			shape.setNormalBuffer(vbo[2]);
-
-			if (shape instanceof AnimatedShape)
-			{	gl.glGenBuffers(2, vbo, 0);
-
-				gl.glBindBuffer(GL_ARRAY_BUFFER, vbo[0]);
-				FloatBuffer boneBuf = Buffers.newDirectFloatBuffer(shape.getBoneWeights());
-				gl.glBufferData(GL_ARRAY_BUFFER, boneBuf.limit()*4, boneBuf, GL_STATIC_DRAW);
 
-				gl.glBindBuffer(GL_ARRAY_BUFFER, vbo[1]);
-				FloatBuffer binBuf = Buffers.newDirectFloatBuffer(shape.getBoneIndices());
-				gl.glBufferData(GL_ARRAY_BUFFER, binBuf.limit()*4, binBuf, GL_STATIC_DRAW);
+			gl.glVertexAttribPointer(0, 3, GL_FLOAT, false, stride*4, 0);
+			gl.glEnableVertexAttribArray(0);
+			gl.glVertexAttribPointer(1, 2, GL_FLOAT, false, stride*4, 3*4);
+			gl.glEnableVertexAttribArray(1);
+			gl.glVertexAttribPointer(2, 3, GL_FLOAT, false, stride*4, 5*4);
+			gl.glEnableVertexAttribArray(2);
+			if (animated)
+			{	gl.glVertexAttribPointer(3, 3, GL_FLOAT, false, stride*4, 8*4);
+				gl.glEnableVertexAttribArray(3);
+				gl.glVertexAttribPointer(4, 3, GL_FLOAT, false, stride*4, 11*4);
+				gl.glEnableVertexAttribArray(4);
+			}
 
-				shape.setBoneWeightBuffer(vbo[0]);
-				shape.setBoneIndicesBuffer(vbo[1]);
+			if (shape.isIndexed())
+			{	Integer shared = indexBuffers.get(shape.getIndexArray());
+				if (shared != null)
+				{	gl.glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, shared);
+					shape.setIndexBuffer(shared);
+					continue;
+				}
+				gl.glGenBuffers(1, vbo, 0);
+				gl.glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, vbo[0]);
+				IntBuffer indexBuf = Buffers.newDirectIntBuffer(shape.getIndexArray());
+				gl.glBufferData(GL_ELEMENT_ARRAY_BUFFER, indexBuf.limit()*4, indexBuf, GL_STATIC_DRAW);
+				shape.setIndexBuffer(vbo[0]);
+				indexBuffers.put(shape.getIndexArray(), vbo[0]);
 			}
 		}
 
-		// load skybox into vbo
-		gl.glGenBuffers(1, vbo, 0);
-		GameObject go = (engine.getSceneGraph()).getSkyBoxObject();
-		gl.glBindBuffer(GL_ARRAY_BUFFER, vbo[0]);
-		FloatBuffer vertBuf = Buffers.newDirectFloatBuffer(go.getShape().getVertices());
-		gl.glBufferData(GL_ARRAY_BUFFER, vertBuf.limit()*4, vertBuf, GL_STATIC_DRAW);
-		go.getShape().setVertexBuffer(vbo[0]);
+		gl.glBindVertexArray(vao[0]);
+	}
+
+	// copies the size floats of vertex i's attribute, or zeros if the shape does not have them
+	private void copyAttribute(float[] src, int i, int size, float[] dst, int offset)
+	{	for (int j = 0; j < size; j++)
+		{	int k = i*size + j;
+			dst[offset+j] = (src != null && k < src.length) ? src[k] : 0f;
+		}
 	}
 
 	// ------------------ TEXTURE SECTION ---------------------
@@ -397,38 +626,13 @@ public class RenderSystem extends JFrame implements GLEventListener
 		engine.getSceneGraph().setActiveSkyBoxTexture(defaultSkyBox);
 	}
 
-	/** get height map height at the specified texture coordinate (x,z). */
-	public float getHeightAt(int texture, float x, float z)
-	{	GL4 gl = (GL4) GLContext.getCurrentGL();
-		gl.glUseProgram(heightProgram);
-		gl.glBindBufferBase(GL_SHADER_STORAGE_BUFFER, 0, buffer[0]);
-
-		xLoc = gl.glGetUniformLocation(heightProgram, "x");
-		zLoc = gl.glGetUniformLocation(heightProgram, "z");
-		gl.glUniform1f(xLoc, x);
-		gl.glUniform1f(zLoc, z);
-
-		gl.glActiveTexture(GL_TEXTURE0);
-		gl.glBindTexture(GL_TEXTURE_2D, texture);
-
-		gl.glDispatchCompute(1, 1, 1);
-		gl.glFinish();
-
-		gl.glBindBuffer(GL_SHADER_STORAGE_BUFFER, buffer[0]);
-		FloatBuffer resBuf = Buffers.newDirectFloatBuffer(res.length);
-		gl.glGetBufferSubData(GL_SHADER_STORAGE_BUFFER, 0, resBuf.limit()*4, resBuf);
-		
-		float res = resBuf.get();
-		return res;
-	}
-
 	// ---------------------------------------------------------
 	/** for engine use, called by JOGL. */
 	public void dispose(GLAutoDrawable drawable) {}
 
 	/** for engine use, called by JOGL. */
 	public void reshape(GLAutoDrawable drawable, int x, int y, int width, int height)
-	{	aspect = (float) myCanvas.getWidth() / (float) myCanvas.getHeight();
+	{	aspect = (float) getCanvasWidth() / (float) getCanvasHeight();
 		pMat.setPerspective((float) Math.toRadians(fov), aspect, nearClip, farClip);
 	}
 }
\ No newline at end of file
@@ -13,13 +13,20 @@ import org.joml.*;
 * The functions here that are useful for the game application are:
 * <ul>
 * <li> addLight()
+* <li> removeLight()
 * <li> addNodeController()
 * <li> getRoot()
 * <li> loadCubeMap()
 * <li> removeGameObject()
 * <li> getNumGameObjects()
+* <li> getObjectsNear()
+* <li> pickObject()
 * </ul>
 * <p>
+* The GameObjects reachable from the root that have a shape are kept in a SpatialIndex, which is
+* updated as the objects move.  The renderer uses it for view-frustum culling, and the game application
+* can use getObjectsNear() and pickObject() instead of checking the distance to every object.
+* <p>
 * It is important to understand that adding a game object doesn't require calling addGameObject().
 * That function is called by the engine.  All that is necessary is to use one of the GameObject constructors.
 * They will call addGameObject().  Similarly it isn't necessary to call buildSkyBox(), that happens automatically.
@@ -47,6 +54,10 @@ public class SceneGraph
 	private boolean skyboxEnabled = false;
 	private int activeSkyBoxTexture;
 
+	private SpatialIndex spatialIndex = new SpatialIndex();
+	private ArrayList<GameObject> indexQueue = new ArrayList<GameObject>();
+	private ArrayList<ChunkedTerrain> terrains = new ArrayList<ChunkedTerrain>();
+
 	protected SceneGraph(Engine e)
 	{	engine = e;
 		root = GameObject.createRoot();
@@ -57,6 +68,9 @@ public class SceneGraph
 	/** adds the specified Light object to the LightManager for rendering. */
 	public void addLight(Light light) { (engine.getLightManager()).addLight(light); }
 
+	/** removes the specified Light object from the LightManager, so that it is no longer rendered. */
+	public void removeLight(Light light) { (engine.getLightManager()).removeLight(light); }
+
 	// -------------- NODE CONTROLLER SECTION -------------------
 
 	/** adds the specified node controller for use in the game. */
@@ -97,6 +111,55 @@ public class SceneGraph
 
 	protected void addGameObject(GameObject g) { gameObjects.add(g); }
 
+	// -------------- TERRAIN SECTION ---------------------
+
+	// ChunkedTerrains add themselves here, so that their levels of detail follow the camera - for engine use only.
+	protected void addChunkedTerrain(ChunkedTerrain t) { terrains.add(t); }
+
+	// Chooses the level of detail of every chunked terrain tile for a camera.
+	// Called by RenderSystem before drawing each viewport.
+
+	protected void updateTerrainDetail(Vector3f cameraLocation)
+	{	for (int i = 0; i < terrains.size(); i++) terrains.get(i).updateLevelOfDetail(cameraLocation);
+	}
+
+	// -------------- SPATIAL INDEX SECTION ---------------------
+
+	// Objects whose bounds or membership changed since the index was last updated - for engine use only.
+	protected void queueIndexUpdate(GameObject go) { indexQueue.add(go); }
+
+	// Moves the queued objects in the spatial index.  Called by RenderSystem once per frame,
+	// and by the queries below so that they see objects moved earlier in the same frame.
+
+	protected void updateSpatialIndex()
+	{	for (int i = 0; i < indexQueue.size(); i++) indexQueue.get(i).updateIndex(spatialIndex);
+		indexQueue.clear();
+	}
+
+	/** returns the spatial index of the GameObjects in the scenegraph, brought up to date */
+	public SpatialIndex getSpatialIndex()
+	{	updateSpatialIndex();
+		return spatialIndex;
+	}
+
+	/**
+	* adds to results the GameObjects whose bounding boxes are within the given distance of a point.
+	* The boxes are approximate, so the game application should check the exact distance if it matters.
+	*/
+	public void getObjectsNear(Vector3f center, float radius, List<GameObject> results)
+	{	updateSpatialIndex();
+		spatialIndex.querySphere(center.x(), center.y(), center.z(), radius, results);
+	}
+
+	/**
+	* returns the GameObject whose bounding box is hit first by a ray from origin along direction,
+	* or null if none is hit within maxDistance.  The direction should be normalized for maxDistance to be in world units.
+	*/
+	public GameObject pickObject(Vector3f origin, Vector3f direction, float maxDistance)
+	{	updateSpatialIndex();
+		return spatialIndex.raycast(origin, direction, maxDistance);
+	}
+
 	//------------- SKYBOX SECTION ---------------------
 
 	/** loads a set of six skybox images into an OpenGL cubemap so that it can be used in an OpenGL skybox. */
@@ -0,0 +1,68 @@
+package tage;
+import java.util.*;
+import static com.jogamp.opengl.GL4.*;
+import com.jogamp.opengl.*;
+
+/**
+* A linked shader program together with the locations of all of its active uniforms.
+* The locations are looked up once, when the program is created in RenderSystem.init(),
+* so that the object renderers never need to call glGetUniformLocation while drawing.
+* <p>
+* For a uniform array, both the plain name (e.g., "skin_matrices") and the name of each element
+* (e.g., "skin_matrices[3]") are recorded.  The location of the plain name is that of element 0,
+* so the whole array can be loaded with a single glUniform call.
+* <p>
+* Used by the engine, should not be used directly by the game application.
+*/
+public class ShaderProgram
+{	private int program;
+	private HashMap<String, Integer> locations = new HashMap<String, Integer>();
+
+	/** for engine use only - wraps a linked program and resolves its uniform locations. */
+	public ShaderProgram(int program)
+	{	GL4 gl = (GL4) GLContext.getCurrentGL();
+		this.program = program;
+
+		int[] count = new int[1];
+		int[] maxLength = new int[1];
+		gl.glGetProgramiv(program, GL_ACTIVE_UNIFORMS, count, 0);
+		gl.glGetProgramiv(program, GL_ACTIVE_UNIFORM_MAX_LENGTH, maxLength, 0);
+
+		byte[] nameBytes = new byte[Math.max(1, maxLength[0])];
+		int[] length = new int[1];
+		int[] size = new int[1];
+		int[] type = new int[1];
+		for (int i = 0; i < count[0]; i++)
+		{	gl.glGetActiveUniform(program, i, nameBytes.length, length, 0, size, 0, type, 0, nameBytes, 0);
+			String name = new String(nameBytes, 0, length[0]);
+			int loc = gl.glGetUniformLocation(program, name);
+			if (loc < 0) continue;  // uniforms in blocks have no location
+			locations.put(name, loc);
+
+			if (name.endsWith("[0]"))
+			{	String base = name.substring(0, name.length()-3);
+				locations.put(base, loc);
+				for (int j = 1; j < size[0]; j++)
+				{	String element = base + "[" + j + "]";
+					locations.put(element, gl.glGetUniformLocation(program, element));
+				}
+			}
+		}
+	}
+
+	/** returns the OpenGL id of the program. */
+	public int getID() { return program; }
+
+	/** returns the location of the named uniform, or -1 if the program has no such active uniform. */
+	public int getUniformLocation(String name)
+	{	Integer loc = locations.get(name);
+		if (loc == null) return -1;
+		return loc;
+	}
+
+	/** makes this the current program. */
+	public void use()
+	{	GL4 gl = (GL4) GLContext.getCurrentGL();
+		gl.glUseProgram(program);
+	}
+}
@@ -0,0 +1,271 @@
+package tage;
+import java.util.*;
+import org.joml.*;
+
+/**
+* A bounding volume hierarchy over the GameObjects in the scenegraph, used to find quickly
+* the objects that are in a view frustum, near a point, or hit by a ray.
+* <p>
+* It is a dynamic tree of axis-aligned boxes.  Each leaf holds one GameObject, with a box that is
+* slightly larger than the object's world bounds, so that an object that moves a little does not
+* need to be moved in the tree.  When an object does move outside its box, it is removed and
+* reinserted next to the objects it is now closest to, and the tree is rebalanced on the way up.
+* <p>
+* The SceneGraph keeps the index up to date as objects are added, removed, and moved, so the
+* game application will usually use the query methods in SceneGraph instead of this class directly.
+* The tree is not thread-safe, and should only be used from the game loop.
+*/
+public class SpatialIndex
+{	// how far, in world units, a leaf box extends beyond the bounds of its object
+	private static final float MARGIN = 0.5f;
+
+	private Node root;
+	private int size;
+
+	// stack reused by the queries, to avoid recursion and allocation
+	private ArrayList<Node> stack = new ArrayList<Node>();
+	private Vector2f hit = new Vector2f();
+
+	/** returns the number of GameObjects in the index */
+	public int size() { return size; }
+
+	// ------------------ UPDATES (engine use only) --------------------
+
+	protected Node insert(GameObject go, Vector3f min, Vector3f max)
+	{	Node leaf = new Node();
+		leaf.go = go;
+		leaf.setFat(min, max);
+		insertLeaf(leaf);
+		size++;
+		return leaf;
+	}
+
+	protected void remove(Node leaf)
+	{	removeLeaf(leaf);
+		size--;
+	}
+
+	// Moves a leaf to new bounds.  Nothing changes if the bounds are still inside the leaf's box.
+	protected void move(Node leaf, Vector3f min, Vector3f max)
+	{	if (leaf.contains(min, max)) return;
+		removeLeaf(leaf);
+		leaf.setFat(min, max);
+		insertLeaf(leaf);
+	}
+
+	// ------------------ QUERIES --------------------
+
+	/** adds to out the GameObjects whose boxes are at least partly inside the frustum */
+	public void queryFrustum(FrustumIntersection frustum, List<GameObject> out)
+	{	if (root == null) return;
+		stack.clear();
+		stack.add(root);
+		while (!stack.isEmpty())
+		{	Node n = stack.remove(stack.size()-1);
+			int result = frustum.intersectAab(n.minX, n.minY, n.minZ, n.maxX, n.maxY, n.maxZ);
+			if (result == FrustumIntersection.INSIDE)
+				addLeaves(n, out);
+			else if (result == FrustumIntersection.INTERSECT)
+			{	if (n.isLeaf()) out.add(n.go);
+				else { stack.add(n.left); stack.add(n.right); }
+			}
+		}
+	}
+
+	/** adds to out the GameObjects whose boxes are within radius of the point (x,y,z) */
+	public void querySphere(float x, float y, float z, float radius, List<GameObject> out)
+	{	if (root == null) return;
+		float radiusSq = radius * radius;
+		stack.clear();
+		stack.add(root);
+		while (!stack.isEmpty())
+		{	Node n = stack.remove(stack.size()-1);
+			if (n.distanceSq(x, y, z) > radiusSq) continue;
+			if (n.isLeaf()) out.add(n.go);
+			else { stack.add(n.left); stack.add(n.right); }
+		}
+	}
+
+	/**
+	* returns the GameObject whose box is hit nearest to the origin by a ray, within maxDistance,
+	* or null if there is none.  The length of the direction sets the units of maxDistance.
+	*/
+	public GameObject raycast(Vector3f origin, Vector3f direction, float maxDistance)
+	{	if (root == null) return null;
+		GameObject nearest = null;
+		float nearestT = maxDistance;
+		stack.clear();
+		stack.add(root);
+		while (!stack.isEmpty())
+		{	Node n = stack.remove(stack.size()-1);
+			if (!Intersectionf.intersectRayAab(origin.x, origin.y, origin.z,
+				direction.x, direction.y, direction.z,
+				n.minX, n.minY, n.minZ, n.maxX, n.maxY, n.maxZ, hit)) continue;
+			float t = java.lang.Math.max(hit.x, 0f);
+			if (t > nearestT) continue;
+			if (n.isLeaf()) { nearest = n.go; nearestT = t; }
+			else { stack.add(n.left); stack.add(n.right); }
+		}
+		return nearest;
+	}
+
+	private void addLeaves(Node n, List<GameObject> out)
+	{	if (n.isLeaf()) { out.add(n.go); return; }
+		addLeaves(n.left, out);
+		addLeaves(n.right, out);
+	}
+
+	// ------------------ TREE MAINTENANCE --------------------
+
+	private void insertLeaf(Node leaf)
+	{	if (root == null)
+		{	root = leaf;
+			leaf.parent = null;
+			return;
+		}
+
+		// walk down to the sibling whose box grows least by adding the leaf
+		Node sibling = root;
+		while (!sibling.isLeaf())
+		{	float area = sibling.area();
+			float combined = Node.unionArea(sibling, leaf);
+			float cost = 2.0f * combined;
+			float inheritance = 2.0f * (combined - area);
+			float costLeft = descendCost(sibling.left, leaf) + inheritance;
+			float costRight = descendCost(sibling.right, leaf) + inheritance;
+			if (cost < costLeft && cost < costRight) break;
+			sibling = (costLeft < costRight) ? sibling.left : sibling.right;
+		}
+
+		Node oldParent = sibling.parent;
+		Node newParent = new Node();
+		newParent.parent = oldParent;
+		newParent.left = sibling;
+		newParent.right = leaf;
+		sibling.parent = newParent;
+		leaf.parent = newParent;
+		if (oldParent == null) root = newParent;
+		else if (oldParent.left == sibling) oldParent.left = newParent;
+		else oldParent.right = newParent;
+
+		refitUpFrom(newParent);
+	}
+
+	private float descendCost(Node child, Node leaf)
+	{	float combined = Node.unionArea(child, leaf);
+		if (child.isLeaf()) return combined;
+		return combined - child.area();
+	}
+
+	private void removeLeaf(Node leaf)
+	{	if (leaf == root)
+		{	root = null;
+			return;
+		}
+		Node parent = leaf.parent;
+		Node grandParent = parent.parent;
+		Node sibling = (parent.left == leaf) ? parent.right : parent.left;
+		sibling.parent = grandParent;
+		if (grandParent == null)
+			root = sibling;
+		else
+		{	if (grandParent.left == parent) grandParent.left = sibling;
+			else grandParent.right = sibling;
+			refitUpFrom(grandParent);
+		}
+		leaf.parent = null;
+	}
+
+	private void refitUpFrom(Node n)
+	{	while (n != null)
+		{	n = balance(n);
+			n.height = 1 + java.lang.Math.max(n.left.height, n.right.height);
+			n.setUnion(n.left, n.right);
+			n = n.parent;
+		}
+	}
+
+	// Rotates the subtree at a if one side is more than one level taller than the other.
+	// Returns the node now at a's position.
+	private Node balance(Node a)
+	{	if (a.isLeaf() || a.height < 2) return a;
+		Node b = a.left, c = a.right;
+		int diff = c.height - b.height;
+		if (diff > 1) return rotate(a, c, b);
+		if (diff < -1) return rotate(a, b, c);
+		return a;
+	}
+
+	// Raises up, the taller child of a, into a's place.  other is a's other child.
+	private Node rotate(Node a, Node up, Node other)
+	{	Node f = up.left, g = up.right;
+
+		up.left = a;
+		up.parent = a.parent;
+		a.parent = up;
+		if (up.parent == null) root = up;
+		else if (up.parent.left == a) up.parent.left = up;
+		else up.parent.right = up;
+
+		// a keeps other and the shorter of up's children, up keeps the taller
+		Node keep = (f.height > g.height) ? f : g;
+		Node give = (keep == f) ? g : f;
+		up.right = keep;
+		if (a.left == up) a.left = give; else a.right = give;
+		give.parent = a;
+
+		a.setUnion(a.left, a.right);
+		a.height = 1 + java.lang.Math.max(a.left.height, a.right.height);
+		up.setUnion(up.left, up.right);
+		up.height = 1 + java.lang.Math.max(up.left.height, up.right.height);
+		return up;
+	}
+
+	// ------------------ NODES --------------------
+
+	/** a node of the tree - for engine use only. */
+	protected static class Node
+	{	float minX, minY, minZ, maxX, maxY, maxZ;
+		Node parent, left, right;
+		int height;
+		GameObject go;
+
+		boolean isLeaf() { return left == null; }
+
+		void setFat(Vector3f min, Vector3f max)
+		{	minX = min.x - MARGIN; minY = min.y - MARGIN; minZ = min.z - MARGIN;
+			maxX = max.x + MARGIN; maxY = max.y + MARGIN; maxZ = max.z + MARGIN;
+		}
+
+		void setUnion(Node a, Node b)
+		{	minX = java.lang.Math.min(a.minX, b.minX); maxX = java.lang.Math.max(a.maxX, b.maxX);
+			minY = java.lang.Math.min(a.minY, b.minY); maxY = java.lang.Math.max(a.maxY, b.maxY);
+			minZ = java.lang.Math.min(a.minZ, b.minZ); maxZ = java.lang.Math.max(a.maxZ, b.maxZ);
+		}
+
+		boolean contains(Vector3f min, Vector3f max)
+		{	return min.x >= minX && min.y >= minY && min.z >= minZ
+				&& max.x <= maxX && max.y <= maxY && max.z <= maxZ;
+		}
+
+		float area()
+		{	float dx = maxX-minX, dy = maxY-minY, dz = maxZ-minZ;
+			return 2.0f * (dx*dy + dy*dz + dz*dx);
+		}
+
+		static float unionArea(Node a, Node b)
+		{	float dx = java.lang.Math.max(a.maxX, b.maxX) - java.lang.Math.min(a.minX, b.minX);
+			float dy = java.lang.Math.max(a.maxY, b.maxY) - java.lang.Math.min(a.minY, b.minY);
+			float dz = java.lang.Math.max(a.maxZ, b.maxZ) - java.lang.Math.min(a.minZ, b.minZ);
+			return 2.0f * (dx*dy + dy*dz + dz*dx);
+		}
+
+		// squared distance from (x,y,z) to the box, 0 if inside
+		float distanceSq(float x, float y, float z)
+		{	float dx = java.lang.Math.max(0f, java.lang.Math.max(minX - x, x - maxX));
+			float dy = java.lang.Math.max(0f, java.lang.Math.max(minY - y, y - maxY));
+			float dz = java.lang.Math.max(0f, java.lang.Math.max(minZ - z, z - maxZ));
+			return dx*dx + dy*dy + dz*dz;
+		}
+	}
+}
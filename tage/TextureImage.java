@@ -10,6 +10,7 @@ import tage.shapes.*;
 * <ul>
 * <li> a String containing the associated texture file pathname
 * <li> an integer reference to the associated OpenGL texture object
+* <li> for a height map, the image decoded into a HeightField, built the first time it is needed
 * </ul>
 * <p>
 * Each GameObject typically is associated with one TextureImage.
@@ -22,6 +23,7 @@ public class TextureImage
 {
 	private String textureFile;
 	private int texture;
+	private HeightField heightField;
 
 	public TextureImage()
 	{	
@@ -41,4 +43,10 @@ public class TextureImage
 	public String getTextureFile() { return textureFile; }
 	/** for engine use */
 	public int getTexture() { return texture; }
+
+	/** returns the image as a HeightField, for looking up heights on the CPU.  The file is decoded on the first call. */
+	public synchronized HeightField getHeightField()
+	{	if (heightField == null) heightField = HeightField.load(textureFile);
+		return heightField;
+	}
 }
\ No newline at end of file
@@ -82,10 +82,12 @@ public abstract class VariableFrameRateGame implements KeyListener, MouseListene
 	{	System.out.println("starting game loop");
 
 		RenderSystem rs = getEngine().getRenderSystem();
-		rs.getGLCanvas().addKeyListener(getEngine().getGame());
-		rs.getGLCanvas().addMouseListener(getEngine().getGame());
-		rs.getGLCanvas().addMouseMotionListener(getEngine().getGame());
-		rs.getGLCanvas().addMouseWheelListener(getEngine().getGame());
+		if (!rs.isHeadless())
+		{	rs.getGLCanvas().addKeyListener(getEngine().getGame());
+			rs.getGLCanvas().addMouseListener(getEngine().getGame());
+			rs.getGLCanvas().addMouseMotionListener(getEngine().getGame());
+			rs.getGLCanvas().addMouseWheelListener(getEngine().getGame());
+		}
 
 		(eng.getSceneGraph()).updateAllObjectTransforms();
 		(eng.getRenderSystem()).startGameLoop();
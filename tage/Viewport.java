@@ -1,7 +1,6 @@
 package tage;
 
 import com.jogamp.opengl.awt.GLCanvas;
-import java.awt.Point;
 
 /**
 * One viewport covering a portion of the GLCanvas, and an associated camera.
@@ -58,9 +57,8 @@ public class Viewport
 	public float getActualLeft()
 	{	RenderSystem rs = engine.getRenderSystem();
 		GLCanvas canvas = rs.getGLCanvas();
-		Point loc = canvas.getLocationOnScreen();
-		float left = (float) loc.getX();
-		float width = canvas.getWidth();
+		float left = (canvas == null) ? 0f : (float) canvas.getLocationOnScreen().getX();
+		float width = rs.getCanvasWidth();
 		return left + width * relativeLeft;
 	}
 
@@ -68,24 +66,20 @@ public class Viewport
 	public float getActualBottom()
 	{	RenderSystem rs = engine.getRenderSystem();
 		GLCanvas canvas = rs.getGLCanvas();
-		Point loc = canvas.getLocationOnScreen();
-		float top = (float) loc.getY();
-		float height = canvas.getHeight();
+		float top = (canvas == null) ? 0f : (float) canvas.getLocationOnScreen().getY();
 		return top + getActualHeight();
 	}
 
 	/** returns the actual width of this viewport, in pixels */
 	public float getActualWidth()
 	{	RenderSystem rs = engine.getRenderSystem();
-		GLCanvas canvas = rs.getGLCanvas();
-		return canvas.getWidth() * relativeWidth;
+		return rs.getCanvasWidth() * relativeWidth;
 	}
 
 	/** returns the actual height of this viewport, in pixels */
 	public float getActualHeight()
 	{	RenderSystem rs = engine.getRenderSystem();
-		GLCanvas canvas = rs.getGLCanvas();
-		return canvas.getHeight() * relativeHeight;
+		return rs.getCanvasHeight() * relativeHeight;
 	}
 
 	/** returns a boolean that is true if a border has been specified for this viewport */
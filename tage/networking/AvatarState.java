@@ -0,0 +1,209 @@
+package tage.networking;
+
+/**
+ * The replicated state of one avatar: its position, its rotation as an angle
+ * and axis, and the name of the animation it is playing. AvatarStates are
+ * immutable, so a server can keep the ones it has sent in several snapshots
+ * without copying them.
+ *
+ * A snapshot ({@code "snap"}) packet holds the avatars whose state differs
+ * from the snapshot the receiver last acknowledged: {@code snap,seq,baseSeq}
+ * followed, for each avatar, by its id, a mask of the parts that changed, and
+ * the values of those parts in the order position (x,y,z), rotation
+ * (angle,x,y,z), animation. A baseSeq of {@link #NO_BASE} means the snapshot
+ * is not a delta, and the receiver should start from no avatars.
+ *
+ * Snapshot sequence numbers count the snapshots sent to one receiver, so a
+ * gap in them means a snapshot was lost. A receiver is sent a snapshot at
+ * least every {@link #HEARTBEAT_MILLIS}, even one that changes nothing, so
+ * that a quiet stream can be told apart from a broken one.
+ */
+public final class AvatarState {
+	/** Mask bit for the position. */
+	public static final int POSITION = 1;
+	/** Mask bit for the rotation. */
+	public static final int ROTATION = 2;
+	/** Mask bit for the animation name. */
+	public static final int ANIMATION = 4;
+	/** Mask with every part set. */
+	public static final int ALL = POSITION | ROTATION | ANIMATION;
+
+	/** baseSeq of a snapshot that is not a delta. */
+	public static final int NO_BASE = -1;
+
+	/**
+	 * Number of recent snapshots kept by both ends, so a delta can be based on
+	 * any of them.
+	 */
+	public static final int SNAPSHOT_HISTORY = 32;
+
+	/** Longest time between two snapshots sent to the same receiver. */
+	public static final long HEARTBEAT_MILLIS = 1000;
+
+	/** An avatar at the origin, with no rotation or animation. */
+	public static final AvatarState INITIAL = new AvatarState(0, 0, 0, 0, 0,
+			1, 0, null);
+
+	private final float x, y, z;
+	private final float angle, axisX, axisY, axisZ;
+	private final String animation;
+
+	public AvatarState(float x, float y, float z, float angle, float axisX,
+			float axisY, float axisZ, String animation) {
+		this.x = x;
+		this.y = y;
+		this.z = z;
+		this.angle = angle;
+		this.axisX = axisX;
+		this.axisY = axisY;
+		this.axisZ = axisZ;
+		this.animation = animation;
+	}
+
+	public float getX() {
+		return x;
+	}
+
+	public float getY() {
+		return y;
+	}
+
+	public float getZ() {
+		return z;
+	}
+
+	public float getAngle() {
+		return angle;
+	}
+
+	public float getAxisX() {
+		return axisX;
+	}
+
+	public float getAxisY() {
+		return axisY;
+	}
+
+	public float getAxisZ() {
+		return axisZ;
+	}
+
+	/**
+	 *
+	 * @return the animation name, or null if none has been set
+	 */
+	public String getAnimation() {
+		return animation;
+	}
+
+	public AvatarState withPosition(float x, float y, float z) {
+		return new AvatarState(x, y, z, angle, axisX, axisY, axisZ, animation);
+	}
+
+	public AvatarState withRotation(float angle, float axisX, float axisY,
+			float axisZ) {
+		return new AvatarState(x, y, z, angle, axisX, axisY, axisZ, animation);
+	}
+
+	public AvatarState withAnimation(String animation) {
+		return new AvatarState(x, y, z, angle, axisX, axisY, axisZ, animation);
+	}
+
+	/**
+	 * Finds the parts of this state that differ from another.
+	 *
+	 * @param base
+	 *            the state to compare to, or null to get every part
+	 * @return a mask of the parts that differ
+	 */
+	public int diff(AvatarState base) {
+		if (base == null) {
+			return animation == null ? POSITION | ROTATION : ALL;
+		}
+		if (base == this) {
+			return 0;
+		}
+
+		int mask = 0;
+		if (x != base.x || y != base.y || z != base.z) {
+			mask |= POSITION;
+		}
+		if (angle != base.angle || axisX != base.axisX
+				|| axisY != base.axisY || axisZ != base.axisZ) {
+			mask |= ROTATION;
+		}
+		if (animation != null && !animation.equals(base.animation)) {
+			mask |= ANIMATION;
+		}
+		return mask;
+	}
+
+	/**
+	 * Adds the parts of this state selected by the mask to a packet.
+	 *
+	 * @param packet
+	 * @param mask
+	 */
+	public void write(Packet packet, int mask) {
+		if ((mask & POSITION) != 0) {
+			packet.add(x).add(y).add(z);
+		}
+		if ((mask & ROTATION) != 0) {
+			packet.add(angle).add(axisX).add(axisY).add(axisZ);
+		}
+		if ((mask & ANIMATION) != 0) {
+			packet.add(animation);
+		}
+	}
+
+	/**
+	 * Reads the parts selected by the mask from a packet, taking the other
+	 * parts from a base state.
+	 *
+	 * @param packet
+	 * @param index
+	 *            index of the first value
+	 * @param mask
+	 * @param base
+	 *            state the packet is a delta of, or null
+	 * @return the state read
+	 */
+	public static AvatarState read(Packet packet, int index, int mask,
+			AvatarState base) {
+		AvatarState state = base != null ? base : INITIAL;
+		if ((mask & POSITION) != 0) {
+			state = state.withPosition(packet.getFloat(index),
+					packet.getFloat(index + 1), packet.getFloat(index + 2));
+			index += 3;
+		}
+		if ((mask & ROTATION) != 0) {
+			state = state.withRotation(packet.getFloat(index),
+					packet.getFloat(index + 1), packet.getFloat(index + 2),
+					packet.getFloat(index + 3));
+			index += 4;
+		}
+		if ((mask & ANIMATION) != 0) {
+			state = state.withAnimation(packet.getString(index));
+		}
+		return state;
+	}
+
+	/**
+	 *
+	 * @param mask
+	 * @return the number of packet fields the parts selected by the mask take
+	 */
+	public static int fieldCount(int mask) {
+		int count = 0;
+		if ((mask & POSITION) != 0) {
+			count += 3;
+		}
+		if ((mask & ROTATION) != 0) {
+			count += 4;
+		}
+		if ((mask & ANIMATION) != 0) {
+			count += 1;
+		}
+		return count;
+	}
+}
@@ -0,0 +1,320 @@
+package tage.networking;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.UUID;
+
+/**
+ * A compact binary packet format for {@link Packet} messages.
+ *
+ * Layout, in network byte order:
+ *
+ * <pre>
+ * byte    MAGIC
+ * byte    message type id from {@link #TYPES}, or 0 followed by a byte
+ *         length and the UTF-8 type name for a type not in the table
+ * short   number of fields
+ * fields  each a FIELD_ kind byte followed by its payload:
+ *           UUID 16 bytes, int 4, float 4, double 8, boolean 1,
+ *           String as an unsigned short length and UTF-8 bytes
+ * </pre>
+ *
+ * Strings handed to this codec are parsed with {@link Packet#parse(String)}
+ * first, so they are still readable by the receiver, though without the size
+ * savings of a typed Packet. Decoding always returns a Packet.
+ *
+ * Fields too large for the layout, such as a string longer than 65535 UTF-8
+ * bytes, make {@link #encode} throw a ProtocolException rather than being
+ * truncated.
+ */
+public class BinaryPacketCodec implements PacketCodec {
+	public static final String NAME = "binary";
+
+	/**
+	 * First byte of every packet written by this codec. Chosen to differ from
+	 * the first byte of a Java serialization stream (0xAC).
+	 */
+	public static final byte MAGIC = (byte) 0xB1;
+
+	/**
+	 * Message types sent as a single id byte, the index in this table plus
+	 * one. Ids are part of the wire format, so new types must be appended.
+	 */
+	public static final String[] TYPES = { "join", "bye", "create", "dsfr",
+			"wsds", "move", "animate", "rotate", "state", "sack", "snap",
+			"createPS", "updatePS", "needNPC", "startNPC", "createNPC",
+			"isnr", "isAvnr", "isGhostnr", "npcinfo", "needBox", "boxinfo",
+			"rmvbox" };
+
+	private static final byte UNLISTED_TYPE = 0;
+	private static final int MAX_TYPE_LENGTH = 0xFF;
+	private static final int MAX_STRING_LENGTH = 0xFFFF;
+	private static final int MAX_FIELDS = 0xFFFF;
+
+	private final ThreadLocal<char[]> scratch = ThreadLocal
+			.withInitial(() -> new char[64]);
+
+	private static final HashMap<String, Byte> typeIds = new HashMap<String, Byte>();
+
+	static {
+		for (int i = 0; i < TYPES.length; i++) {
+			typeIds.put(TYPES[i], (byte) (i + 1));
+		}
+	}
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public void encode(Serializable object, ByteBuffer dest) throws IOException {
+		Packet packet;
+		if (object instanceof Packet) {
+			packet = (Packet) object;
+		} else if (object instanceof String) {
+			packet = Packet.parse((String) object);
+		} else {
+			throw new IOException("BinaryPacketCodec cannot encode "
+					+ object.getClass().getName());
+		}
+
+		if (packet.size() > MAX_FIELDS) {
+			throw new ProtocolException("Packet '" + packet.getType()
+					+ "' has " + packet.size() + " fields, more than "
+					+ MAX_FIELDS + ".");
+		}
+
+		dest.put(MAGIC);
+		Byte typeId = typeIds.get(packet.getType());
+		if (typeId != null) {
+			dest.put(typeId.byteValue());
+		} else {
+			dest.put(UNLISTED_TYPE);
+			writeString(packet.getType(), MAX_TYPE_LENGTH, dest);
+		}
+		dest.putShort((short) packet.size());
+
+		for (int i = 1; i <= packet.size(); i++) {
+			byte kind = packet.getKind(i);
+			dest.put(kind);
+			switch (kind) {
+			case Packet.FIELD_UUID:
+				UUID id = packet.getUUID(i);
+				dest.putLong(id.getMostSignificantBits());
+				dest.putLong(id.getLeastSignificantBits());
+				break;
+			case Packet.FIELD_INT:
+			case Packet.FIELD_FLOAT:
+				dest.putInt((int) packet.getBits(i));
+				break;
+			case Packet.FIELD_DOUBLE:
+				dest.putLong(packet.getBits(i));
+				break;
+			case Packet.FIELD_BOOLEAN:
+				dest.put((byte) packet.getBits(i));
+				break;
+			case Packet.FIELD_STRING:
+				writeString(packet.getString(i), MAX_STRING_LENGTH, dest);
+				break;
+			default:
+				throw new IOException("Unknown field kind " + kind);
+			}
+		}
+	}
+
+	@Override
+	public Object decode(ByteBuffer src) throws IOException {
+		if (src.get() != MAGIC) {
+			throw new StreamCorruptedException("Not a binary packet.");
+		}
+
+		String type;
+		int typeId = src.get() & 0xFF;
+		if (typeId == UNLISTED_TYPE) {
+			type = readString(src, src.get() & 0xFF);
+		} else if (typeId <= TYPES.length) {
+			type = TYPES[typeId - 1];
+		} else {
+			throw new StreamCorruptedException("Unknown message type id "
+					+ typeId + ".");
+		}
+		int size = src.getShort() & 0xFFFF;
+		// every field takes at least its kind byte, so a larger count is
+		// corrupt; checked before the count sizes any allocation
+		if (size > src.remaining()) {
+			throw new StreamCorruptedException("Packet '" + type + "' claims "
+					+ size + " fields but only " + src.remaining()
+					+ " bytes remain.");
+		}
+		Packet packet = new Packet(type, size);
+
+		for (int i = 0; i < size; i++) {
+			byte kind = src.get();
+			switch (kind) {
+			case Packet.FIELD_UUID:
+				packet.add(new UUID(src.getLong(), src.getLong()));
+				break;
+			case Packet.FIELD_INT:
+				packet.add(src.getInt());
+				break;
+			case Packet.FIELD_FLOAT:
+				packet.add(src.getFloat());
+				break;
+			case Packet.FIELD_DOUBLE:
+				packet.add(src.getDouble());
+				break;
+			case Packet.FIELD_BOOLEAN:
+				packet.add(src.get() != 0);
+				break;
+			case Packet.FIELD_STRING:
+				packet.add(readString(src, src.getShort() & 0xFFFF));
+				break;
+			default:
+				throw new StreamCorruptedException("Unknown field kind "
+						+ kind + " in packet '" + type + "'.");
+			}
+		}
+
+		return packet;
+	}
+
+	/**
+	 * Writes a string as its UTF-8 length, a byte if maxLength fits in one
+	 * and a short otherwise, followed by its UTF-8 bytes. The bytes are
+	 * written straight into the buffer.
+	 *
+	 * @param str
+	 *            string to write
+	 * @param maxLength
+	 *            most UTF-8 bytes allowed
+	 * @param dest
+	 *            buffer to write into
+	 * @throws ProtocolException
+	 *             if the string is longer than maxLength bytes
+	 */
+	private static void writeString(String str, int maxLength, ByteBuffer dest)
+			throws ProtocolException {
+		int length = utf8Length(str);
+		if (length > maxLength) {
+			throw new ProtocolException("String of " + length
+					+ " bytes is longer than the " + maxLength
+					+ " bytes allowed.");
+		}
+		if (maxLength <= 0xFF) {
+			dest.put((byte) length);
+		} else {
+			dest.putShort((short) length);
+		}
+
+		for (int i = 0; i < str.length(); i++) {
+			char c = str.charAt(i);
+			if (c < 0x80) {
+				dest.put((byte) c);
+			} else if (c < 0x800) {
+				dest.put((byte) (0xC0 | (c >> 6)));
+				dest.put((byte) (0x80 | (c & 0x3F)));
+			} else if (Character.isHighSurrogate(c) && i + 1 < str.length()
+					&& Character.isLowSurrogate(str.charAt(i + 1))) {
+				int cp = Character.toCodePoint(c, str.charAt(++i));
+				dest.put((byte) (0xF0 | (cp >> 18)));
+				dest.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+				dest.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+				dest.put((byte) (0x80 | (cp & 0x3F)));
+			} else if (Character.isSurrogate(c)) {
+				// unpaired surrogate, written as '?' like String.getBytes
+				dest.put((byte) '?');
+			} else {
+				dest.put((byte) (0xE0 | (c >> 12)));
+				dest.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+				dest.put((byte) (0x80 | (c & 0x3F)));
+			}
+		}
+	}
+
+	private static int utf8Length(String str) {
+		int length = 0;
+		for (int i = 0; i < str.length(); i++) {
+			char c = str.charAt(i);
+			if (c < 0x80) {
+				length += 1;
+			} else if (c < 0x800) {
+				length += 2;
+			} else if (Character.isHighSurrogate(c) && i + 1 < str.length()
+					&& Character.isLowSurrogate(str.charAt(i + 1))) {
+				length += 4;
+				i++;
+			} else if (Character.isSurrogate(c)) {
+				length += 1;
+			} else {
+				length += 3;
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * Reads a UTF-8 string of the given length straight from the buffer,
+	 * through a per thread scratch array, so only the String itself is
+	 * allocated. Malformed bytes are read as U+FFFD, as String does.
+	 */
+	private String readString(ByteBuffer src, int length)
+			throws StreamCorruptedException {
+		if (length > src.remaining()) {
+			throw new StreamCorruptedException("String of " + length
+					+ " bytes runs past the end of the packet.");
+		}
+		char[] chars = scratch.get();
+		if (chars.length < length) {
+			chars = new char[Math.max(length, chars.length * 2)];
+			scratch.set(chars);
+		}
+
+		int n = 0;
+		int end = src.position() + length;
+		while (src.position() < end) {
+			int b = src.get() & 0xFF;
+			if (b < 0x80) {
+				chars[n++] = (char) b;
+				continue;
+			}
+
+			int extra, cp;
+			if (b >= 0xF0 && b < 0xF8) {
+				extra = 3;
+				cp = b & 0x07;
+			} else if (b >= 0xE0) {
+				extra = b < 0xF0 ? 2 : -1;
+				cp = b & 0x0F;
+			} else if (b >= 0xC0) {
+				extra = 1;
+				cp = b & 0x1F;
+			} else {
+				extra = -1;
+				cp = 0;
+			}
+			for (int k = 0; k < extra; k++) {
+				if (src.position() == end
+						|| (src.get(src.position()) & 0xC0) != 0x80) {
+					extra = -1;
+					break;
+				}
+				cp = (cp << 6) | (src.get() & 0x3F);
+			}
+
+			if (extra < 0 || cp > Character.MAX_CODE_POINT) {
+				chars[n++] = '\uFFFD';
+			} else if (cp >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+				chars[n++] = Character.highSurrogate(cp);
+				chars[n++] = Character.lowSurrogate(cp);
+			} else {
+				chars[n++] = (char) cp;
+			}
+		}
+		return new String(chars, 0, n);
+	}
+}
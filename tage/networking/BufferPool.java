@@ -0,0 +1,71 @@
+package tage.networking;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * A thread safe pool of equally sized {@link ByteBuffer}s.
+ *
+ * Buffers are allocated on demand the first time the pool runs dry and are
+ * kept once released, so a socket that borrows a buffer for every packet stops
+ * allocating once the pool has warmed up. At most {@code maxPooled} buffers
+ * are retained; extra buffers released while the pool is full are left to the
+ * garbage collector.
+ */
+public class BufferPool {
+	private final int bufferSize;
+	private final boolean direct;
+	private final ArrayBlockingQueue<ByteBuffer> freeBuffers;
+
+	/**
+	 * Creates an empty pool.
+	 *
+	 * @param bufferSize
+	 *            capacity of each buffer in bytes
+	 * @param maxPooled
+	 *            most buffers kept for reuse
+	 * @param direct
+	 *            true to allocate direct buffers
+	 */
+	public BufferPool(int bufferSize, int maxPooled, boolean direct) {
+		this.bufferSize = bufferSize;
+		this.direct = direct;
+		freeBuffers = new ArrayBlockingQueue<ByteBuffer>(maxPooled);
+	}
+
+	/**
+	 * Takes a cleared buffer from the pool, allocating one if none is free.
+	 * The buffer should be handed back with {@link #release(ByteBuffer)} once
+	 * it is no longer used.
+	 *
+	 * @return a cleared buffer
+	 */
+	public ByteBuffer acquire() {
+		ByteBuffer buffer = freeBuffers.poll();
+		if (buffer == null) {
+			buffer = direct ? ByteBuffer.allocateDirect(bufferSize)
+					: ByteBuffer.allocate(bufferSize);
+		}
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Returns a buffer taken from {@link #acquire()} to the pool.
+	 *
+	 * @param buffer
+	 */
+	public void release(ByteBuffer buffer) {
+		if (buffer.capacity() == bufferSize) {
+			freeBuffers.offer(buffer);
+		}
+	}
+
+	/**
+	 *
+	 * @return capacity of the buffers in this pool
+	 */
+	public int getBufferSize() {
+		return bufferSize;
+	}
+}
@@ -0,0 +1,62 @@
+package tage.networking;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An InputStream that reads straight from a {@link ByteBuffer}, including a
+ * direct one, so that stream based decoders do not need to copy the buffer
+ * into a byte array first. The source buffer can be changed between uses.
+ *
+ * The stream can also be told to return one extra byte before the contents of
+ * the next source, which lets a reused ObjectInputStream be sent a reset
+ * marker between packets.
+ */
+class ByteBufferInputStream extends InputStream {
+	private ByteBuffer source;
+	private int prefix = -1;
+
+	/**
+	 *
+	 * @param source
+	 *            buffer to read from, from its position to its limit
+	 * @param prefix
+	 *            byte to return before the buffer contents, or -1 for none
+	 */
+	void setSource(ByteBuffer source, int prefix) {
+		this.source = source;
+		this.prefix = prefix;
+	}
+
+	@Override
+	public int read() {
+		if (prefix >= 0) {
+			int b = prefix;
+			prefix = -1;
+			return b;
+		}
+		return source.hasRemaining() ? source.get() & 0xFF : -1;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) {
+		if (len == 0) {
+			return 0;
+		}
+		if (prefix >= 0) {
+			b[off] = (byte) read();
+			return 1;
+		}
+		if (!source.hasRemaining()) {
+			return -1;
+		}
+		len = Math.min(len, source.remaining());
+		source.get(b, off, len);
+		return len;
+	}
+
+	@Override
+	public int available() {
+		return (prefix >= 0 ? 1 : 0) + source.remaining();
+	}
+}
@@ -0,0 +1,35 @@
+package tage.networking;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An OutputStream that writes straight into a {@link ByteBuffer}, so that
+ * stream based encoders do not need an intermediate byte array. The target
+ * buffer can be changed between uses.
+ *
+ * Writing past the limit of the buffer throws a BufferOverflowException, the
+ * same as writing to the buffer directly.
+ */
+class ByteBufferOutputStream extends OutputStream {
+	private ByteBuffer target;
+
+	/**
+	 *
+	 * @param target
+	 *            buffer to write into, from its position
+	 */
+	void setTarget(ByteBuffer target) {
+		this.target = target;
+	}
+
+	@Override
+	public void write(int b) {
+		target.put((byte) b);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) {
+		target.put(b, off, len);
+	}
+}
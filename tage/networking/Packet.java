@@ -0,0 +1,321 @@
+package tage.networking;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * A typed game message consisting of a message type followed by a list of
+ * fields. A Packet is the structured equivalent of the comma-separated
+ * message strings used by the game protocols, such as
+ * {@code "move,<id>,x,y,z"}.
+ *
+ * Field indices match the token positions of the equivalent comma-separated
+ * message, so index 0 is the message type and the first field is index 1.
+ *
+ * Fields are stored with their primitive type so that a {@link PacketCodec}
+ * can write them in a compact binary form. A Packet parsed from a legacy
+ * message string stores every field as a string; the typed getters convert
+ * such fields on demand, so game code can read a Packet the same way
+ * regardless of which codec it arrived through.
+ *
+ * @see PacketCodec
+ */
+public class Packet implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	public static final byte FIELD_UUID = 1;
+	public static final byte FIELD_INT = 2;
+	public static final byte FIELD_FLOAT = 3;
+	public static final byte FIELD_DOUBLE = 4;
+	public static final byte FIELD_BOOLEAN = 5;
+	public static final byte FIELD_STRING = 6;
+
+	private static final int INITIAL_CAPACITY = 8;
+
+	private String type;
+	private byte[] kinds; // the FIELD_ kind of each field
+	private long[] bits; // raw bits of primitive fields
+	private Object[] refs; // UUID and String fields
+	private int size;
+
+	/**
+	 * Creates an empty Packet with the specified message type.
+	 *
+	 * @param type
+	 *            the message type, such as "move"
+	 */
+	public Packet(String type) {
+		this(type, INITIAL_CAPACITY);
+	}
+
+	/**
+	 * Creates an empty Packet with room for the specified number of fields.
+	 *
+	 * @param type
+	 *            the message type
+	 * @param capacity
+	 *            initial number of fields
+	 */
+	public Packet(String type, int capacity) {
+		this.type = type;
+		capacity = Math.max(capacity, 1);
+		kinds = new byte[capacity];
+		bits = new long[capacity];
+		refs = new Object[capacity];
+	}
+
+	/**
+	 * Parses a legacy comma-separated message into a Packet. Every field is
+	 * stored as a string and converted when read through a typed getter.
+	 *
+	 * @param message
+	 *            the comma-separated message
+	 * @return the parsed Packet
+	 */
+	public static Packet parse(String message) {
+		String[] tokens = message.split(",");
+		Packet packet = new Packet(tokens[0], tokens.length - 1);
+		for (int i = 1; i < tokens.length; i++) {
+			packet.add(tokens[i]);
+		}
+		return packet;
+	}
+
+	/**
+	 * Converts an object received from a socket into a Packet. Objects which
+	 * are already a Packet are returned as is, and strings are parsed with
+	 * {@link #parse(String)}.
+	 *
+	 * @param object
+	 *            the received object
+	 * @return the object as a Packet
+	 */
+	public static Packet from(Object object) {
+		if (object instanceof Packet) {
+			return (Packet) object;
+		}
+		if (object instanceof String) {
+			return parse((String) object);
+		}
+		throw new IllegalArgumentException("Cannot convert "
+				+ (object == null ? "null" : object.getClass().getName())
+				+ " to a Packet.");
+	}
+
+	public Packet add(UUID value) {
+		int slot = nextSlot(FIELD_UUID);
+		refs[slot] = value;
+		return this;
+	}
+
+	public Packet add(int value) {
+		bits[nextSlot(FIELD_INT)] = value;
+		return this;
+	}
+
+	public Packet add(float value) {
+		bits[nextSlot(FIELD_FLOAT)] = Float.floatToRawIntBits(value);
+		return this;
+	}
+
+	public Packet add(double value) {
+		bits[nextSlot(FIELD_DOUBLE)] = Double.doubleToRawLongBits(value);
+		return this;
+	}
+
+	public Packet add(boolean value) {
+		bits[nextSlot(FIELD_BOOLEAN)] = value ? 1 : 0;
+		return this;
+	}
+
+	public Packet add(String value) {
+		int slot = nextSlot(FIELD_STRING);
+		refs[slot] = value;
+		return this;
+	}
+
+	/**
+	 *
+	 * @return the message type of this packet
+	 */
+	public String getType() {
+		return type;
+	}
+
+	/**
+	 * Tests whether this packet has the specified message type.
+	 *
+	 * @param type
+	 * @return true if the message types are equal
+	 */
+	public boolean isType(String type) {
+		return this.type.equals(type);
+	}
+
+	/**
+	 *
+	 * @return the number of fields, not counting the message type
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 *
+	 * @param index
+	 *            field index, starting at 1
+	 * @return the FIELD_ kind of the field
+	 */
+	public byte getKind(int index) {
+		return kinds[slot(index)];
+	}
+
+	public UUID getUUID(int index) {
+		int slot = slot(index);
+		switch (kinds[slot]) {
+		case FIELD_UUID:
+			return (UUID) refs[slot];
+		case FIELD_STRING:
+			return UUID.fromString((String) refs[slot]);
+		default:
+			throw mismatch(index, "UUID");
+		}
+	}
+
+	public int getInt(int index) {
+		int slot = slot(index);
+		switch (kinds[slot]) {
+		case FIELD_INT:
+			return (int) bits[slot];
+		case FIELD_FLOAT:
+			return (int) Float.intBitsToFloat((int) bits[slot]);
+		case FIELD_DOUBLE:
+			return (int) Double.longBitsToDouble(bits[slot]);
+		case FIELD_STRING:
+			return Integer.parseInt((String) refs[slot]);
+		default:
+			throw mismatch(index, "int");
+		}
+	}
+
+	public float getFloat(int index) {
+		int slot = slot(index);
+		switch (kinds[slot]) {
+		case FIELD_FLOAT:
+			return Float.intBitsToFloat((int) bits[slot]);
+		case FIELD_INT:
+			return (int) bits[slot];
+		case FIELD_DOUBLE:
+			return (float) Double.longBitsToDouble(bits[slot]);
+		case FIELD_STRING:
+			return Float.parseFloat((String) refs[slot]);
+		default:
+			throw mismatch(index, "float");
+		}
+	}
+
+	public double getDouble(int index) {
+		int slot = slot(index);
+		switch (kinds[slot]) {
+		case FIELD_DOUBLE:
+			return Double.longBitsToDouble(bits[slot]);
+		case FIELD_FLOAT:
+			return Float.intBitsToFloat((int) bits[slot]);
+		case FIELD_INT:
+			return (int) bits[slot];
+		case FIELD_STRING:
+			return Double.parseDouble((String) refs[slot]);
+		default:
+			throw mismatch(index, "double");
+		}
+	}
+
+	public boolean getBoolean(int index) {
+		int slot = slot(index);
+		switch (kinds[slot]) {
+		case FIELD_BOOLEAN:
+			return bits[slot] != 0;
+		case FIELD_STRING:
+			return Boolean.parseBoolean((String) refs[slot]);
+		default:
+			throw mismatch(index, "boolean");
+		}
+	}
+
+	/**
+	 * Returns the field in the same text form the legacy comma-separated
+	 * protocol would have used for it.
+	 *
+	 * @param index
+	 *            field index, starting at 1
+	 * @return the field as a string
+	 */
+	public String getString(int index) {
+		int slot = slot(index);
+		switch (kinds[slot]) {
+		case FIELD_UUID:
+		case FIELD_STRING:
+			return refs[slot].toString();
+		case FIELD_INT:
+			return Integer.toString((int) bits[slot]);
+		case FIELD_FLOAT:
+			return Float.toString(Float.intBitsToFloat((int) bits[slot]));
+		case FIELD_DOUBLE:
+			return Double.toString(Double.longBitsToDouble(bits[slot]));
+		case FIELD_BOOLEAN:
+			return Boolean.toString(bits[slot] != 0);
+		default:
+			throw mismatch(index, "String");
+		}
+	}
+
+	/**
+	 * Raw bits of a primitive field, used by codecs to write the field
+	 * without converting it.
+	 *
+	 * @param index
+	 *            field index, starting at 1
+	 * @return the raw bits of the field
+	 */
+	public long getBits(int index) {
+		return bits[slot(index)];
+	}
+
+	/**
+	 * Converts this packet to the legacy comma-separated message form.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(type);
+		for (int i = 1; i <= size; i++) {
+			sb.append(',').append(getString(i));
+		}
+		return sb.toString();
+	}
+
+	private int nextSlot(byte kind) {
+		if (size == kinds.length) {
+			int capacity = size * 2;
+			kinds = Arrays.copyOf(kinds, capacity);
+			bits = Arrays.copyOf(bits, capacity);
+			refs = Arrays.copyOf(refs, capacity);
+		}
+		kinds[size] = kind;
+		return size++;
+	}
+
+	private int slot(int index) {
+		if (index < 1 || index > size) {
+			throw new IndexOutOfBoundsException("Field " + index
+					+ " out of range for packet '" + type + "' with " + size
+					+ " fields.");
+		}
+		return index - 1;
+	}
+
+	private IllegalArgumentException mismatch(int index, String wanted) {
+		return new IllegalArgumentException("Field " + index + " of packet '"
+				+ type + "' cannot be read as " + wanted + ".");
+	}
+}
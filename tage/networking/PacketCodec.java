@@ -0,0 +1,48 @@
+package tage.networking;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+
+/**
+ * Defines how objects are converted to and from the bytes of a network packet.
+ *
+ * The first byte written by a codec identifies it, which allows a receiver to
+ * decode packets from peers using different codecs through
+ * {@link PacketCodecs#decode(ByteBuffer)}.
+ *
+ * @see PacketCodecs
+ */
+public interface PacketCodec {
+	/**
+	 * Gets the name used to request this codec during the join handshake.
+	 *
+	 * @return the name of the codec
+	 */
+	public String getName();
+
+	/**
+	 * Writes the object into the buffer, starting at the buffer's position.
+	 *
+	 * @param object
+	 *            object to encode
+	 * @param dest
+	 *            buffer to write into
+	 * @throws IOException
+	 * @throws java.nio.BufferOverflowException
+	 *             if the encoded object does not fit in the buffer
+	 */
+	public void encode(Serializable object, ByteBuffer dest) throws IOException;
+
+	/**
+	 * Reads one object from the remaining bytes of the buffer.
+	 *
+	 * @param src
+	 *            buffer to read from
+	 * @return the decoded object
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	public Object decode(ByteBuffer src) throws IOException,
+			ClassNotFoundException;
+}
@@ -0,0 +1,69 @@
+package tage.networking;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The packet codecs known to TAGE, and helpers to pick the right one for a
+ * received packet.
+ *
+ * Peers start out using {@link #SERIALIZED}. A client may ask for another
+ * codec by name in its join message; if the server knows the codec it
+ * switches that client over and echoes the name back in its join reply.
+ * Because every codec marks its packets with a distinct first byte, packets
+ * in flight during the switch are still decoded correctly.
+ *
+ * @see PacketCodec
+ */
+public final class PacketCodecs {
+	public static final PacketCodec SERIALIZED = new SerializedPacketCodec();
+	public static final PacketCodec BINARY = new BinaryPacketCodec();
+
+	private PacketCodecs() {
+	}
+
+	/**
+	 * Looks up a codec by the name it uses in the join handshake.
+	 *
+	 * @param name
+	 * @return the codec, or null if no codec has that name
+	 */
+	public static PacketCodec forName(String name) {
+		if (SERIALIZED.getName().equals(name)) {
+			return SERIALIZED;
+		}
+		if (BINARY.getName().equals(name)) {
+			return BINARY;
+		}
+		return null;
+	}
+
+	/**
+	 * Picks the codec which wrote a packet from the packet's first byte.
+	 *
+	 * @param header
+	 *            first byte of the packet
+	 * @return the codec to decode the packet with
+	 */
+	public static PacketCodec forHeader(byte header) {
+		if (header == BinaryPacketCodec.MAGIC) {
+			return BINARY;
+		}
+		return SERIALIZED;
+	}
+
+	/**
+	 * Decodes the remaining bytes of the buffer with whichever codec wrote
+	 * them.
+	 *
+	 * @param src
+	 *            buffer holding one packet
+	 * @return the decoded object
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	public static Object decode(ByteBuffer src) throws IOException,
+			ClassNotFoundException {
+		return forHeader(src.get(src.position())).decode(src);
+	}
+}
@@ -0,0 +1,82 @@
+package tage.networking;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.ProtocolException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Length-prefixed framing for packets sent over a stream such as TCP.
+ *
+ * Each frame is a 4 byte length in network byte order followed by that many
+ * bytes written by a {@link PacketCodec}.
+ */
+public final class PacketFraming {
+	/** Size of the length prefix in bytes. */
+	public static final int HEADER_SIZE = 4;
+
+	/** Largest frame payload accepted, to guard against corrupt lengths. */
+	public static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+
+	/** Initial size of buffers used to build frames. */
+	public static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+
+	private PacketFraming() {
+	}
+
+	/**
+	 * Encodes an object as a single frame. The buffer is grown, by allocating
+	 * a larger one, if the object does not fit.
+	 *
+	 * @param object
+	 *            object to encode
+	 * @param codec
+	 *            codec used for the frame payload
+	 * @param buffer
+	 *            buffer to encode into, may be null
+	 * @return the buffer holding the frame, flipped and ready to be written.
+	 *         This is a new buffer if the one passed in was too small.
+	 * @throws IOException
+	 */
+	public static ByteBuffer encode(Serializable object, PacketCodec codec,
+			ByteBuffer buffer) throws IOException {
+		if (buffer == null) {
+			buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+		}
+
+		while (true) {
+			buffer.clear();
+			buffer.position(HEADER_SIZE);
+			try {
+				codec.encode(object, buffer);
+				break;
+			} catch (BufferOverflowException e) {
+				if (buffer.capacity() >= MAX_FRAME_SIZE + HEADER_SIZE) {
+					throw new ProtocolException("Packet larger than "
+							+ MAX_FRAME_SIZE + " bytes.");
+				}
+				buffer = ByteBuffer.allocate(Math.min(buffer.capacity() * 2,
+						MAX_FRAME_SIZE + HEADER_SIZE));
+			}
+		}
+
+		buffer.putInt(0, buffer.position() - HEADER_SIZE);
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Checks a frame length read from a stream.
+	 *
+	 * @param length
+	 *            payload length from a frame header
+	 * @throws ProtocolException
+	 *             if the length is negative or too large
+	 */
+	public static void checkLength(int length) throws ProtocolException {
+		if (length < 0 || length > MAX_FRAME_SIZE) {
+			throw new ProtocolException("Invalid frame length " + length);
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package tage.networking;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamConstants;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+
+/**
+ * The original TAGE packet format, which writes each object with Java
+ * serialization.
+ *
+ * A {@link Packet} is written as its comma-separated string form so that peers
+ * which only understand string messages can still read it. Decoding therefore
+ * returns the string, not a Packet.
+ *
+ * Each thread keeps one ObjectOutputStream that writes straight into the
+ * destination buffer. The stream is reset after every packet, so each packet
+ * carries its own class descriptors and can be read on its own, and the
+ * stream header is written again at the start of every packet.
+ *
+ * Decoding likewise reads straight from the source buffer, direct or not,
+ * with one ObjectInputStream per thread. Before each packet after the first,
+ * the stream header is skipped and the stream is handed a reset marker, so it
+ * forgets the objects of the previous packet just as a new stream would.
+ */
+public class SerializedPacketCodec implements PacketCodec {
+	public static final String NAME = "serialized";
+
+	/** The header ObjectOutputStream writes at the start of a stream. */
+	private static final byte[] STREAM_HEADER = { (byte) 0xAC, (byte) 0xED,
+			0x00, 0x05 };
+
+	private final ThreadLocal<Encoder> encoders = new ThreadLocal<Encoder>();
+	private final ThreadLocal<Decoder> decoders = new ThreadLocal<Decoder>();
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public void encode(Serializable object, ByteBuffer dest) throws IOException {
+		if (object instanceof Packet) {
+			object = object.toString();
+		}
+
+		Encoder encoder = encoders.get();
+		if (encoder == null) {
+			// the new stream writes its header into dest
+			encoder = new Encoder(dest);
+		} else {
+			encoder.sink.setTarget(dest);
+			dest.put(STREAM_HEADER);
+		}
+
+		// a failed write can leave the stream midway through an object, so
+		// it is only kept for the next packet once this one is complete
+		encoders.set(null);
+		encoder.objOutputStream.writeObject(object);
+		encoder.objOutputStream.reset();
+		encoder.objOutputStream.flush();
+		encoder.sink.setTarget(null);
+		encoders.set(encoder);
+	}
+
+	@Override
+	public Object decode(ByteBuffer src) throws IOException,
+			ClassNotFoundException {
+		Decoder decoder = decoders.get();
+		if (decoder == null) {
+			// the new stream reads the header from src
+			decoder = new Decoder(src);
+		} else {
+			for (int i = 0; i < STREAM_HEADER.length; i++) {
+				if (src.get() != STREAM_HEADER[i]) {
+					throw new StreamCorruptedException(
+							"Invalid serialization stream header.");
+				}
+			}
+			decoder.source.setSource(src, ObjectStreamConstants.TC_RESET);
+		}
+
+		// as with encoding, a failed read leaves the stream in an unknown state
+		decoders.set(null);
+		Object object = decoder.objInputStream.readObject();
+		decoder.source.setSource(null, -1);
+		decoders.set(decoder);
+		src.position(src.limit());
+		return object;
+	}
+
+	private static class Encoder {
+		final ByteBufferOutputStream sink = new ByteBufferOutputStream();
+		final ObjectOutputStream objOutputStream;
+
+		Encoder(ByteBuffer dest) throws IOException {
+			sink.setTarget(dest);
+			objOutputStream = new ObjectOutputStream(sink);
+		}
+	}
+
+	private static class Decoder {
+		final ByteBufferInputStream source = new ByteBufferInputStream();
+		final ObjectInputStream objInputStream;
+
+		Decoder(ByteBuffer src) throws IOException {
+			source.setSource(src, -1);
+			objInputStream = new ObjectInputStream(source);
+		}
+	}
+}
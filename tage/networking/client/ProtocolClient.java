@@ -2,12 +2,17 @@ package tage.networking.client;
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.UUID;
-import java.util.Vector;
 
 import org.joml.*;
 
+import tage.networking.AvatarState;
+import tage.networking.Packet;
+import tage.networking.PacketCodec;
+import tage.networking.PacketCodecs;
+
 import client.BoxManager;
 import client.GhostAvatar;
 import client.GhostManager;
@@ -25,6 +30,17 @@ public class ProtocolClient extends GameConnectionClient
 	private BoxManager boxManager;
 	private UUID id;
 	private GhostNPC ghostNPC;
+	private SnapshotReceiver snapshots = new SnapshotReceiver();
+
+	// outgoing avatar state, coalesced and sent by flushState()
+	public static final int DEFAULT_SEND_RATE = 20;
+	public static final long FULL_STATE_MILLIS = 1000;
+	private AvatarState stagedState;
+	private AvatarState sentState;
+	private AxisAngle4f stagedRotation = new AxisAngle4f();
+	private int pendingAck = AvatarState.NO_BASE;
+	private long sendIntervalMillis = 1000L / DEFAULT_SEND_RATE;
+	private long lastStateSendTime, lastFullStateTime;
 	
 	/**
 	 * Initialization of the ProtocolClient in which takes in the IP address of client, port number, type of protocol (usually UDP)
@@ -58,251 +74,306 @@ public class ProtocolClient extends GameConnectionClient
 	@Override
 	protected void processPacket(Object message)
 	{	
-		String strMessage = (String)message;
-		System.out.println("message received -->" + strMessage);
-		String[] messageTokens = strMessage.split(",");
+		Packet packet = Packet.from(message);
 		
 		// Game specific protocol to handle the message
-		if(messageTokens.length > 0)
-		{
-			// Handle JOIN message
-			// Format: (join,success) or (join,failure)
-			if(messageTokens[0].compareTo("join") == 0)
-			{	if(messageTokens[1].compareTo("success") == 0)
-				{	
-					System.out.println("join success confirmed");
-					game.setIsConnected(true);
-					sendCreatePlayerScore();
-					sendCreateMessage(game.getGhostDefaultPosition(), game.getPlayerScore(), game.isCrownAttach());
-				}
-				if(messageTokens[1].compareTo("failure") == 0)
-				{	
-					System.out.println("join failure confirmed");
-					game.setIsConnected(false);
-			}	}
-			
-			// Handle BYE message
-			// Format: (bye,remoteId)
-			if(messageTokens[0].compareTo("bye") == 0)
+		// Handle JOIN message
+		// Format: (join,success), (join,success,codec) or (join,failure)
+		if(packet.isType("join"))
+		{	if(packet.getString(1).equals("success"))
 			{	
-				// remove ghost avatar with id = remoteId
-				// Parse out the id into a UUID
-				UUID ghostID = UUID.fromString(messageTokens[1]);
-				ghostManager.removeGhostAvatar(ghostID);
+				System.out.println("join success confirmed");
+				// the server echoes the codec it agreed to, if any
+				if(packet.size() > 1 && getClientSocket() instanceof UDPClientSocket)
+				{
+					PacketCodec codec = PacketCodecs.forName(packet.getString(2));
+					if(codec != null)
+						((UDPClientSocket)getClientSocket()).setPacketCodec(codec);
+				}
+				game.setIsConnected(true);
+				sendCreatePlayerScore();
+				sendCreateMessage(game.getGhostDefaultPosition(), game.getPlayerScore(), game.isCrownAttach());
 			}
-			
-			// Handle CREATE message
-			// Format: (create,remoteId,x,y,z)
-			// AND
-			// Handle DETAILS_FOR message
-			// Format: (dsfr,remoteId,x,y,z)
-			if (messageTokens[0].compareTo("create") == 0 || (messageTokens[0].compareTo("dsfr") == 0))
+			if(packet.getString(1).equals("failure"))
 			{	
-				// create a new ghost avatar
-				// Parse out the id into a UUID
-				UUID ghostID = UUID.fromString(messageTokens[1]);
-				
-				// Parse out the position into a Vector3f
-				Vector3f ghostPosition = new Vector3f(
-					Float.parseFloat(messageTokens[2]),
-					Float.parseFloat(messageTokens[3]),
-					Float.parseFloat(messageTokens[4])
-				);
+				System.out.println("join failure confirmed");
+				game.setIsConnected(false);
+		}	}
+		
+		// Handle BYE message
+		// Format: (bye,remoteId)
+		if(packet.isType("bye"))
+		{	
+			// remove ghost avatar with id = remoteId
+			// Parse out the id into a UUID
+			UUID ghostID = packet.getUUID(1);
+			ghostManager.removeGhostAvatar(ghostID);
+		}
+		
+		// Handle CREATE message
+		// Format: (create,remoteId,x,y,z)
+		// AND
+		// Handle DETAILS_FOR message
+		// Format: (dsfr,remoteId,x,y,z)
+		if (packet.isType("create") || (packet.isType("dsfr")))
+		{	
+			// create a new ghost avatar
+			// Parse out the id into a UUID
+			UUID ghostID = packet.getUUID(1);
+			
+			// Parse out the position into a Vector3f
+			Vector3f ghostPosition = new Vector3f(
+				packet.getFloat(2),
+				packet.getFloat(3),
+				packet.getFloat(4)
+			);
 
-				int score = Integer.parseInt(messageTokens[5]);
+			int score = packet.getInt(5);
 
-				boolean crownOn = Boolean.parseBoolean(messageTokens[6]);
+			boolean crownOn = packet.getBoolean(6);
 
-				try
-				{	
-					ghostManager.createGhostAvatar(ghostID, ghostPosition, score, crownOn);
-				}	
-				catch (IOException e)
-				{	
-					System.out.println("error creating ghost avatar");
-				}
+			try
+			{	
+				ghostManager.createGhostAvatar(ghostID, ghostPosition, score, crownOn);
+			}	
+			catch (IOException e)
+			{	
+				System.out.println("error creating ghost avatar");
 			}
+		}
+		
+		// Handle WANTS_DETAILS message
+		// Format: (wsds,remoteId)
+		if (packet.isType("wsds"))
+		{
+			// Send the local client's avatar's information
+			// Parse out the id into a UUID
+			UUID ghostID = packet.getUUID(1);
+			sendDetailsForMessage(ghostID, game.getPlayerPosition(), game.getPlayerScore(), game.isCrownAttach());
+		}
+		
+		// Handle MOVE message
+		// Format: (move,remoteId,x,y,z)
+		if (packet.isType("move"))
+		{
+			// move a ghost avatar
+			// Parse out the id into a UUID
+			UUID ghostID = packet.getUUID(1);
 			
-			// Handle WANTS_DETAILS message
-			// Format: (wsds,remoteId)
-			if (messageTokens[0].compareTo("wsds") == 0)
-			{
-				// Send the local client's avatar's information
-				// Parse out the id into a UUID
-				UUID ghostID = UUID.fromString(messageTokens[1]);
-				sendDetailsForMessage(ghostID, game.getPlayerPosition(), game.getPlayerScore(), game.isCrownAttach());
-			}
+			// Parse out the position into a Vector3f
+			Vector3f ghostPosition = new Vector3f(
+				packet.getFloat(2),
+				packet.getFloat(3),
+				packet.getFloat(4));
 			
-			// Handle MOVE message
-			// Format: (move,remoteId,x,y,z)
-			if (messageTokens[0].compareTo("move") == 0)
-			{
-				// move a ghost avatar
-				// Parse out the id into a UUID
-				UUID ghostID = UUID.fromString(messageTokens[1]);
-				
-				// Parse out the position into a Vector3f
-				Vector3f ghostPosition = new Vector3f(
-					Float.parseFloat(messageTokens[2]),
-					Float.parseFloat(messageTokens[3]),
-					Float.parseFloat(messageTokens[4]));
-				
-				ghostManager.updateGhostAvatar(ghostID, ghostPosition);
-			}
+			ghostManager.updateGhostAvatar(ghostID, ghostPosition);
+		}
 
-			if (messageTokens[0].compareTo("animate") == 0)
-			{
-				UUID ghostID = UUID.fromString(messageTokens[1]);
-				String aniName = messageTokens[2];
+		if (packet.isType("animate"))
+		{
+			UUID ghostID = packet.getUUID(1);
+			String aniName = packet.getString(2);
 
-				ghostManager.changeGhostAnimation(ghostID, aniName);
-			}
+			ghostManager.changeGhostAnimation(ghostID, aniName);
+		}
 
-			if (messageTokens[0].compareTo("rotate") == 0)
-			{
-				UUID ghostID = UUID.fromString(messageTokens[1]);
+		if (packet.isType("rotate"))
+		{
+			UUID ghostID = packet.getUUID(1);
 
-				//System.out.println("==================================== IN PACKET: " + messageTokens[2] + ", " + messageTokens[3] + ", " + messageTokens[4] + ", " 
-				//+ messageTokens[5]);
-				AxisAngle4f ghostRotMat = new AxisAngle4f(
-							Float.parseFloat(messageTokens[2]), Float.parseFloat(messageTokens[3]), 
-							Float.parseFloat(messageTokens[4]), Float.parseFloat(messageTokens[5])
-				);
+			//System.out.println("==================================== IN PACKET: " + packet.getString(2) + ", " + packet.getString(3) + ", " + packet.getString(4) + ", " 
+			//+ packet.getString(5));
+			AxisAngle4f ghostRotMat = new AxisAngle4f(
+						packet.getFloat(2), packet.getFloat(3), 
+						packet.getFloat(4), packet.getFloat(5)
+			);
 
-				Matrix4f ghostRotation = new Matrix4f();
-				ghostRotation.rotation(ghostRotMat);
+			Matrix4f ghostRotation = new Matrix4f();
+			ghostRotation.rotation(ghostRotMat);
 
-				ghostManager.updateGhostAvatarRotation(ghostID, ghostRotation);
-			}
+			ghostManager.updateGhostAvatarRotation(ghostID, ghostRotation);
+		}
 
-			if (messageTokens[0].compareTo("createPS") == 0)
+		// Handle SNAPSHOT message
+		// Format: (snap,seq,baseSeq,[remoteId,mask,values...]...), see AvatarState
+		if (packet.isType("snap"))
+		{
+			int seq = snapshots.receive(packet, this::applyGhostState);
+			if (seq != AvatarState.NO_BASE)
+				sendSnapshotAck(seq);
+		}
+
+		if (packet.isType("createPS"))
+		{
+			UUID ghostID = packet.getUUID(1);
+			ghostManager.addPlayer(ghostID, 0);
+		}
+
+		if (packet.isType("updatePS"))
+		{
+			UUID ghostID = packet.getUUID(1);
+			int score = packet.getInt(2);
+			ghostManager.updateGhostScore(ghostID, score);
+		}
+
+		// HANDLING GHOST NPC ============================================
+		if (packet.isType("createNPC"))
+		{
+			// creating a new ghost npc
+			UUID npcID = packet.getUUID(1);
+			// Parse out the position
+			Vector3f NPCPosition = new Vector3f(
+				packet.getFloat(2),
+				packet.getFloat(3),
+				packet.getFloat(4));
+			try
 			{
-				UUID ghostID = UUID.fromString(messageTokens[1]);
-				ghostManager.addPlayer(ghostID, 0);
+				createGhostNPC(NPCPosition);
+			}
+			catch (IOException e) {
+				System.out.println("CREATING GHOST NPC GONE WRONGGGGGGGGGGGGGGGGGGGGG");
+				e.printStackTrace();
 			}
+			sendNPCCreateMessage(npcID, ghostNPC.getLocalLocation());
+		}
+
+		if (packet.isType("npcinfo"))
+		{
 
-			if (messageTokens[0].compareTo("updatePS") == 0)
+			Vector3f ghostNPCPosition = new Vector3f(
+				packet.getFloat(1),
+				packet.getFloat(2),
+				packet.getFloat(3)
+			);
+
+			updateGhostNPC(ghostNPCPosition, 1.0f);
+
+			if (game.getAvatar().getWorldLocation().distance(ghostNPCPosition.x(), ghostNPCPosition.y(), ghostNPCPosition.z()) < packet.getFloat(4))
 			{
-				UUID ghostID = UUID.fromString(messageTokens[1]);
-				int score = Integer.parseInt(messageTokens[2]);
-				ghostManager.updateGhostScore(ghostID, score);
+				System.out.println("AVATAR IS NEAR NPCCCCCC");
+				ghostNPC.setSize(true);
+				sendNPCisAvNear(game.getAvatar().getWorldLocation(), true);
 			}
-
-			// HANDLING GHOST NPC ============================================
-			if (messageTokens[0].compareTo("createNPC") == 0)
+			else
 			{
-				// creating a new ghost npc
-				UUID npcID = UUID.fromString(messageTokens[1]);
-				// Parse out the position
-				Vector3f NPCPosition = new Vector3f(
-					Float.parseFloat(messageTokens[2]),
-					Float.parseFloat(messageTokens[3]),
-					Float.parseFloat(messageTokens[4]));
-				try
-				{
-					createGhostNPC(NPCPosition);
-				}
-				catch (IOException e) {
-					System.out.println("CREATING GHOST NPC GONE WRONGGGGGGGGGGGGGGGGGGGGG");
-					e.printStackTrace();
-				}
-				sendNPCCreateMessage(npcID, ghostNPC.getLocalLocation());
+				sendNPCisAvNear(game.getAvatar().getWorldLocation(), false);
 			}
-
-			if (messageTokens[0].compareTo("npcinfo") == 0)
+		
+			if (game.getAvatar().getWorldLocation().distance(ghostNPCPosition.x(), ghostNPCPosition.y(), ghostNPCPosition.z()) < 0.75f)
 			{
+				game.setIsAlive(false);
+				sendNPCisAvNear(new Vector3f(0.0f, 0.0f, 0.0f), false);
+			}
 
-				Vector3f ghostNPCPosition = new Vector3f(
-					Float.parseFloat(messageTokens[1]),
-					Float.parseFloat(messageTokens[2]),
-					Float.parseFloat(messageTokens[3])
-				);
-
-				updateGhostNPC(ghostNPCPosition, 1.0f);
-
-				if (game.getAvatar().getWorldLocation().distance(ghostNPCPosition.x(), ghostNPCPosition.y(), ghostNPCPosition.z()) < Float.parseFloat(messageTokens[4]))
+			Collection<GhostAvatar> ghostList = ghostManager.getAllGhost();
+			Iterator<GhostAvatar> it = ghostList.iterator();
+			GhostAvatar ghostAvatar;
+			while(it.hasNext())
+			{
+				ghostAvatar = it.next();
+				if (ghostAvatar.getPosition().distance(ghostNPCPosition.x(), ghostNPCPosition.y(), ghostNPCPosition.z()) < packet.getFloat(4))
 				{
-					System.out.println("AVATAR IS NEAR NPCCCCCC");
+					System.out.println("GHOST IS NEAR NPCCCCCCCCCCCCC");
 					ghostNPC.setSize(true);
-					sendNPCisAvNear(game.getAvatar().getWorldLocation(), true);
+					sendNPCisGhostNear(ghostAvatar.getPosition(), true);
 				}
 				else
 				{
-					sendNPCisAvNear(game.getAvatar().getWorldLocation(), false);
-				}
-			
-				if (game.getAvatar().getWorldLocation().distance(ghostNPCPosition.x(), ghostNPCPosition.y(), ghostNPCPosition.z()) < 0.75f)
-				{
-					game.setIsAlive(false);
-					sendNPCisAvNear(new Vector3f(0.0f, 0.0f, 0.0f), false);
+					sendNPCisGhostNear(ghostAvatar.getPosition(), false);
 				}
 
-				Vector<GhostAvatar> ghostList = ghostManager.getAllGhost();
-				Iterator<GhostAvatar> it = ghostList.iterator();
-				GhostAvatar ghostAvatar;
-				while(it.hasNext())
+				if (ghostAvatar.getPosition().distance(ghostNPCPosition.x(), ghostNPCPosition.y(), ghostNPCPosition.z()) < 0.75f)
 				{
-					ghostAvatar = it.next();
-					if (ghostAvatar.getPosition().distance(ghostNPCPosition.x(), ghostNPCPosition.y(), ghostNPCPosition.z()) < Float.parseFloat(messageTokens[4]))
-					{
-						System.out.println("GHOST IS NEAR NPCCCCCCCCCCCCC");
-						ghostNPC.setSize(true);
-						sendNPCisGhostNear(ghostAvatar.getPosition(), true);
-					}
-					else
-					{
-						sendNPCisGhostNear(ghostAvatar.getPosition(), false);
-					}
-
-					if (ghostAvatar.getPosition().distance(ghostNPCPosition.x(), ghostNPCPosition.y(), ghostNPCPosition.z()) < 0.75f)
-					{
-						sendNPCisGhostNear(new Vector3f(0.0f, 0.0f, 0.0f), false);
-					}
-
+					sendNPCisGhostNear(new Vector3f(0.0f, 0.0f, 0.0f), false);
 				}
-				//System.out.println("Successful updated ghost info ---------------------------");
+
 			}
+			//System.out.println("Successful updated ghost info ---------------------------");
+		}
 
-			if (messageTokens[0].compareTo("isnr") == 0)
-			{
-				System.out.println("=================================== PROTOCOL IS NEAR: " + messageTokens[1] + ", " + messageTokens[2] + ", " + messageTokens[3]);
+		if (packet.isType("isnr"))
+		{
+			System.out.println("=================================== PROTOCOL IS NEAR: " + packet.getString(1) + ", " + packet.getString(2) + ", " + packet.getString(3));
 
-			}
+		}
 
-			// Box message from server
+		// Box message from server
 
-			if (messageTokens[0].compareTo("boxinfo") == 0)
-			{
-				UUID clientID = UUID.fromString(messageTokens[1]);
+		if (packet.isType("boxinfo"))
+		{
+			UUID clientID = packet.getUUID(1);
 
-				int i = 3;
+			int i = 3;
 
-				while (i < Integer.parseInt(messageTokens[2])*5)
-				{
-					int boxID = Integer.parseInt(messageTokens[i]);
-					Vector3f boxLocation = new Vector3f(
-					Float.parseFloat(messageTokens[i+1]), 
-					Float.parseFloat(messageTokens[i+2]), 
-					Float.parseFloat(messageTokens[i+3])
-					);
+			while (i < packet.getInt(2)*5)
+			{
+				int boxID = packet.getInt(i);
+				Vector3f boxLocation = new Vector3f(
+				packet.getFloat(i+1), 
+				packet.getFloat(i+2), 
+				packet.getFloat(i+3)
+				);
 
-					Boolean boxStatus = Boolean.parseBoolean(messageTokens[i+4]);
+				Boolean boxStatus = packet.getBoolean(i+4);
 
-					createBoxObject(boxID, boxLocation, boxStatus);
+				createBoxObject(boxID, boxLocation, boxStatus);
 
-					i+=5;
-				}
+				i+=5;
 			}
+		}
 
-			if (messageTokens[0].compareTo("rmvbox") == 0)
-			{
-				UUID clientID = UUID.fromString(messageTokens[1]);
-				int boxID = Integer.parseInt(messageTokens[2]);
-				boxManager.removeBox(boxID);
-			}
+		if (packet.isType("rmvbox"))
+		{
+			UUID clientID = packet.getUUID(1);
+			int boxID = packet.getInt(2);
+			boxManager.removeBox(boxID);
 		}
 	}
 	
+	/**
+	 * Applies the parts of a ghost avatar's state that a snapshot changed
+	 * @param ghostID
+	 * @param state
+	 * @param mask the AvatarState parts that changed
+	 */
+	private void applyGhostState(UUID ghostID, AvatarState state, int mask)
+	{
+		if ((mask & AvatarState.POSITION) != 0)
+		{
+			ghostManager.updateGhostAvatar(ghostID, new Vector3f(state.getX(), state.getY(), state.getZ()));
+		}
+		if ((mask & AvatarState.ROTATION) != 0)
+		{
+			AxisAngle4f ghostRotMat = new AxisAngle4f(state.getAngle(), state.getAxisX(), state.getAxisY(), state.getAxisZ());
+			ghostManager.updateGhostAvatarRotation(ghostID, new Matrix4f().rotation(ghostRotMat));
+		}
+		if ((mask & AvatarState.ANIMATION) != 0)
+		{
+			ghostManager.changeGhostAnimation(ghostID, state.getAnimation());
+		}
+	}
+
+	/**
+	 * Tells whether snapshots from the server appear to be getting lost, in
+	 * which case ghost avatars may be extrapolated past their last update.
+	 * @return true if snapshots are being lost
+	 */
+	public boolean isSnapshotLossSuspected()
+	{
+		return snapshots.isLossSuspected();
+	}
+
+	/**
+	 * Stages an acknowledgement of the last snapshot received, so the next 
+	 * one only holds what changed since then. It is sent with the next state 
+	 * update (see {@link #flushState()}).
+	 * @param seq
+	 */
+	public void sendSnapshotAck(int seq)
+	{
+		pendingAck = seq;
+	}
+
 	/**
 	 * The initial message from the game client requesting to join the 
 	 * server. localId is a unique identifier for the client. Recommend 
@@ -313,7 +384,11 @@ public class ProtocolClient extends GameConnectionClient
 	{	
 		try 
 		{	
-			sendPacket(new String("join," + id.toString()));
+			Packet message = new Packet("join").add(id);
+			// offer the compact codec; servers that don't know it just ignore the extra field
+			if (getClientSocket() instanceof UDPClientSocket)
+				message.add(PacketCodecs.BINARY.getName());
+			sendPacket(message);
 		} 
 		catch (IOException e) 
 		{	
@@ -330,8 +405,8 @@ public class ProtocolClient extends GameConnectionClient
 	{	
 		try 
 		{
-			String message = new String("bye," + id.toString());
-			message += "," + score;
+			Packet message = new Packet("bye").add(id);
+			message.add(score);
 			sendPacket(message);
 		} 
 		catch (IOException e) 
@@ -353,12 +428,12 @@ public class ProtocolClient extends GameConnectionClient
 	{	
 		try 
 		{	
-			String message = new String("create," + id.toString());
-			message += "," + position.x();
-			message += "," + position.y();
-			message += "," + position.z();
-			message += "," + score;
-			message += "," + crownOn;
+			Packet message = new Packet("create").add(id);
+			message.add(position.x());
+			message.add(position.y());
+			message.add(position.z());
+			message.add(score);
+			message.add(crownOn);
 			sendPacket(message);
 		} 
 		catch (IOException e) 
@@ -383,12 +458,12 @@ public class ProtocolClient extends GameConnectionClient
 	{	
 		try 
 		{	
-			String message = new String("dsfr," + remoteId.toString() + "," + id.toString());
-			message += "," + position.x();
-			message += "," + position.y();
-			message += "," + position.z();
-			message += "," + score;
-			message += "," + crownOn;
+			Packet message = new Packet("dsfr").add(remoteId).add(id);
+			message.add(position.x());
+			message.add(position.y());
+			message.add(position.z());
+			message.add(score);
+			message.add(crownOn);
 			sendPacket(message);
 		} 
 		catch (IOException e) 
@@ -398,69 +473,96 @@ public class ProtocolClient extends GameConnectionClient
 	}
 	
 	/**
-	 * Informs the server that the local avatar has changed position.  
-	 * Message Format: (move,localId,x,y,z) where x, y, and z represent the position.
+	 * Stages the local avatar's position, to be sent with the next state 
+	 * update (see {@link #flushState()}).
 	 * @param position
 	 */
 	public void sendMoveMessage(Vector3f position)
 	{	
-		try 
-		{	
-			String message = new String("move," + id.toString());
-			message += "," + position.x();
-			message += "," + position.y();
-			message += "," + position.z();
-			
-			sendPacket(message);
-		} 
-		catch (IOException e) 
-		{	
-			e.printStackTrace();
-		}	
+		stagedState = getStagedState().withPosition(position.x(), position.y(), position.z());
 	}
 
 	/**
-	 * Sends the client current animation name to other clients on server
+	 * Stages the client's current animation name, to be sent with the next 
+	 * state update (see {@link #flushState()}).
 	 * @param aniName
 	 */
 	public void sendAnimation(String aniName)
 	{
-		try
-		{
-			String message = new String("animate," + id.toString());
-			message += "," + aniName;
-			sendPacket(message);
-		}
-		catch (IOException e)
-		{
-			e.printStackTrace();
-		}
+		stagedState = getStagedState().withAnimation(aniName);
 	}
 	
 	/**
-	 * Informs of the clients on server of this client rotation
+	 * Stages this client's rotation, to be sent with the next state update
+	 * (see {@link #flushState()}).
 	 * @param rotation
 	 */
 	public void sendRotateMessage(Matrix4f rotation)
 	{
+		rotation.getRotation(stagedRotation);
+		stagedState = getStagedState().withRotation(stagedRotation.angle, stagedRotation.x, stagedRotation.y, stagedRotation.z);
+	}
 
-		AxisAngle4f rotMatrix = new AxisAngle4f();
-		rotation.getRotation(rotMatrix);
+	private AvatarState getStagedState()
+	{
+		return stagedState != null ? stagedState : AvatarState.INITIAL;
+	}
+
+	/**
+	 * Sends the staged avatar state and snapshot acknowledgement as a single 
+	 * packet, at most once per send interval. Only the parts of the state 
+	 * that changed since the last update are sent, except that the whole 
+	 * state is resent every FULL_STATE_MILLIS in case an update was lost. 
+	 * Should be called once per frame.
+	 * Message Format: (state,localId,ackSeq,mask,values...) where mask and 
+	 * values are as in AvatarState and ackSeq is NO_BASE if no new snapshot 
+	 * was received.
+	 */
+	public void flushState()
+	{
+		long now = System.currentTimeMillis();
+		if (now - lastStateSendTime < sendIntervalMillis)
+			return;
+
+		int mask = 0;
+		if (stagedState != null)
+		{
+			if (now - lastFullStateTime >= FULL_STATE_MILLIS)
+				mask = stagedState.diff(null);
+			else
+				mask = stagedState.diff(sentState);
+		}
+		if (mask == 0 && pendingAck == AvatarState.NO_BASE)
+			return;
 
 		try 
 		{	
-			String message = new String("rotate," + id.toString());
-			message += "," + rotMatrix.angle;
-			message += "," + rotMatrix.x;
-			message += "," + rotMatrix.y;
-			message += "," + rotMatrix.z;
-			
+			Packet message = new Packet("state").add(id);
+			message.add(pendingAck);
+			message.add(mask);
+			if (mask != 0)
+				stagedState.write(message, mask);
 			sendPacket(message);
 		} 
 		catch (IOException e) 
 		{	
 			e.printStackTrace();
-		}	
+		}
+
+		lastStateSendTime = now;
+		if (mask != 0 && mask == stagedState.diff(null))
+			lastFullStateTime = now;
+		sentState = stagedState;
+		pendingAck = AvatarState.NO_BASE;
+	}
+
+	/**
+	 * Sets how many state updates per second {@link #flushState()} sends at most.
+	 * @param updatesPerSecond
+	 */
+	public void setSendRate(int updatesPerSecond)
+	{
+		sendIntervalMillis = 1000L / java.lang.Math.max(1, updatesPerSecond);
 	}
 
 	/**
@@ -470,7 +572,7 @@ public class ProtocolClient extends GameConnectionClient
 	{
 		try
 		{
-			String message = new String("createPS," + id.toString());
+			Packet message = new Packet("createPS").add(id);
 			sendPacket(message);
 		}
 		catch(IOException e)
@@ -487,8 +589,8 @@ public class ProtocolClient extends GameConnectionClient
 	{
 		try
 		{
-			String message = new String("updatePS," + id.toString());
-			message += "," + score;
+			Packet message = new Packet("updatePS").add(id);
+			message.add(score);
 			sendPacket(message);
 		}
 		catch (IOException e)
@@ -552,10 +654,10 @@ public class ProtocolClient extends GameConnectionClient
 	{	
 		try 
 		{	
-			String message = new String("createNPC," + npcID.toString());
-			message += "," + position.x();
-			message += "," + position.y();
-			message += "," + position.z();
+			Packet message = new Packet("createNPC").add(npcID);
+			message.add(position.x());
+			message.add(position.y());
+			message.add(position.z());
 			sendPacket(message);
 		} 
 		catch (IOException e) 
@@ -572,10 +674,10 @@ public class ProtocolClient extends GameConnectionClient
 	{
 		try 
 		{	
-			String message = new String("npcinfo");
-			message += "," + position.x();
-			message += "," + position.y();
-			message += "," + position.z();
+			Packet message = new Packet("npcinfo");
+			message.add(position.x());
+			message.add(position.y());
+			message.add(position.z());
 			sendPacket(message);
 		} 
 		catch (IOException e) 
@@ -593,10 +695,10 @@ public class ProtocolClient extends GameConnectionClient
 	{
 		try
 		{
-			String message = new String("isAvnr," + isNear);
-			message += "," + playerPos.x();
-			message += "," + playerPos.y();
-			message += "," + playerPos.z();
+			Packet message = new Packet("isAvnr").add(isNear);
+			message.add(playerPos.x());
+			message.add(playerPos.y());
+			message.add(playerPos.z());
 			sendPacket(message);
 		}
 		catch (IOException e)
@@ -614,10 +716,10 @@ public class ProtocolClient extends GameConnectionClient
 	{
 		try
 		{
-			String message = new String("isGhostnr," + isNear);
-			message += "," + ghostPos.x();
-			message += "," + ghostPos.y();
-			message += "," + ghostPos.z();
+			Packet message = new Packet("isGhostnr").add(isNear);
+			message.add(ghostPos.x());
+			message.add(ghostPos.y());
+			message.add(ghostPos.z());
 			sendPacket(message);
 		}
 		catch (IOException e)
@@ -651,7 +753,7 @@ public class ProtocolClient extends GameConnectionClient
 	{
 		try
 		{
-			String message = new String("needBox," + id.toString());
+			Packet message = new Packet("needBox").add(id);
 			sendPacket(message);
 		}
 		catch (IOException e)
@@ -668,8 +770,8 @@ public class ProtocolClient extends GameConnectionClient
 	{
 		try
 		{
-			String message = new String("rmvbox," + id.toString());
-			message += "," + boxID;
+			Packet message = new Packet("rmvbox").add(id);
+			message.add(boxID);
 
 			sendPacket(message);
 		} 
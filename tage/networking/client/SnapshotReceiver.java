@@ -0,0 +1,156 @@
+package tage.networking.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.UUID;
+
+import tage.networking.AvatarState;
+import tage.networking.Packet;
+
+/**
+ * Rebuilds the avatar states sent in snapshot packets (see
+ * {@link AvatarState}). Each snapshot is a delta of an earlier one, so the
+ * most recent {@link AvatarState#SNAPSHOT_HISTORY} snapshots are kept to be
+ * used as bases.
+ *
+ * Snapshots that arrive out of order are dropped, as a newer one already
+ * holds everything they would change.
+ *
+ * The map of each history slot is reused for the snapshots stored in it.
+ *
+ * The receiver also tells whether snapshots are being lost (see
+ * {@link #isLossSuspected()}), as updates only arrive when something changes
+ * and so their absence alone does not mean anything was lost.
+ */
+public class SnapshotReceiver {
+	/**
+	 * Told about each avatar whose state a snapshot changed.
+	 */
+	public interface Listener {
+		/**
+		 * @param id
+		 *            the avatar's id
+		 * @param state
+		 *            the avatar's new state
+		 * @param mask
+		 *            the AvatarState parts that changed
+		 */
+		void avatarChanged(UUID id, AvatarState state, int mask);
+	}
+
+	private final int[] seqs;
+	private final ArrayList<HashMap<UUID, AvatarState>> snapshots;
+	private int latestSeq = AvatarState.NO_BASE;
+	private long lastReceiveTime, lastLossTime; // milliseconds, from now()
+	private boolean received, lost;
+
+	/** How long a detected loss is remembered, in milliseconds. */
+	public static final long LOSS_MEMORY_MILLIS = AvatarState.HEARTBEAT_MILLIS;
+
+	public SnapshotReceiver() {
+		seqs = new int[AvatarState.SNAPSHOT_HISTORY];
+		snapshots = new ArrayList<HashMap<UUID, AvatarState>>(
+				AvatarState.SNAPSHOT_HISTORY);
+		for (int i = 0; i < AvatarState.SNAPSHOT_HISTORY; i++) {
+			snapshots.add(new HashMap<UUID, AvatarState>());
+		}
+		Arrays.fill(seqs, AvatarState.NO_BASE);
+	}
+
+	/**
+	 * Applies a snapshot packet, telling the listener about every avatar it
+	 * changes.
+	 *
+	 * @param packet
+	 *            a snap packet
+	 * @param listener
+	 * @return the snapshot's sequence number, which should be acknowledged to
+	 *         the server, or NO_BASE if the snapshot was dropped
+	 */
+	public int receive(Packet packet, Listener listener) {
+		int seq = packet.getInt(1);
+		int baseSeq = packet.getInt(2);
+		long now = now();
+		if (received && seq > latestSeq + 1) {
+			markLoss(now); // the snapshots in between were lost
+		}
+		received = true;
+		lastReceiveTime = now;
+		if (seq <= latestSeq) {
+			return AvatarState.NO_BASE;
+		}
+
+		HashMap<UUID, AvatarState> base = null;
+		if (baseSeq != AvatarState.NO_BASE) {
+			base = getSnapshot(baseSeq);
+			if (base == null) {
+				// the server sends a full snapshot once the base expires
+				markLoss(now);
+				return AvatarState.NO_BASE;
+			}
+		}
+
+		// the base may be in the slot being replaced, then it is updated in
+		// place
+		int slot = seq % seqs.length;
+		HashMap<UUID, AvatarState> snapshot = snapshots.get(slot);
+		seqs[slot] = AvatarState.NO_BASE;
+		if (snapshot != base) {
+			snapshot.clear();
+			if (base != null) {
+				snapshot.putAll(base);
+			}
+		}
+
+		int index = 3;
+		while (index <= packet.size()) {
+			UUID id = packet.getUUID(index);
+			int mask = packet.getInt(index + 1);
+			AvatarState state = AvatarState.read(packet, index + 2, mask,
+					snapshot.get(id));
+			snapshot.put(id, state);
+			listener.avatarChanged(id, state, mask);
+			index += 2 + AvatarState.fieldCount(mask);
+		}
+
+		seqs[slot] = seq;
+		latestSeq = seq;
+		return seq;
+	}
+
+	/**
+	 * Tells whether snapshots appear to be getting lost: a gap in their
+	 * sequence numbers was seen in the last {@link #LOSS_MEMORY_MILLIS}, or the
+	 * heartbeat snapshot is overdue by half its period. A receiver that has
+	 * heard nothing since the last change of an avatar can otherwise assume
+	 * the avatar has stopped.
+	 *
+	 * @return true if snapshots are being lost
+	 */
+	public boolean isLossSuspected() {
+		long now = now();
+		if (lost && now - lastLossTime < LOSS_MEMORY_MILLIS) {
+			return true;
+		}
+		return received
+				&& now - lastReceiveTime > AvatarState.HEARTBEAT_MILLIS * 3 / 2;
+	}
+
+	private void markLoss(long now) {
+		lost = true;
+		lastLossTime = now;
+	}
+
+	private static long now() {
+		return System.nanoTime() / 1000000L;
+	}
+
+	private HashMap<UUID, AvatarState> getSnapshot(int seq) {
+		if (seq < 0) {
+			return null;
+		}
+		int slot = seq % seqs.length;
+		return seqs[slot] == seq ? snapshots.get(slot) : null;
+	}
+}
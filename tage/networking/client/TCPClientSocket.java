@@ -1,19 +1,24 @@
 package tage.networking.client;
 
+import java.io.DataInputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+
+import tage.networking.PacketCodecs;
+import tage.networking.PacketFraming;
 
 /**
  * A client socket for sending and receiving packets using the TCP protocol.
  * This socket is able to send and receive {@link Serializable} objects from
  * client side of a game.
  * 
- * The underlying {@link Socket} is used in this implementation.
+ * The underlying {@link Socket} is used in this implementation. Packets are
+ * sent and received as length-prefixed frames (see {@link PacketFraming})
+ * encoded with {@link PacketCodecs#SERIALIZED}.
  * 
  * @author Kyle Matz
  * 
@@ -23,10 +28,9 @@ import java.net.Socket;
  * @see Socket
  */
 public class TCPClientSocket extends Socket implements IClientSocket {
-	private ObjectOutputStream objOutputStream; // output stream used to send
-												// objects
-	private ObjectInputStream objInputStream; // input stream used to receive
-												// objects
+	private ByteBuffer sendBuffer; // reused to build outgoing frames
+	private DataInputStream dataInputStream; // stream used to read frames
+	private byte[] recvData = new byte[PacketFraming.INITIAL_BUFFER_SIZE]; // reused for incoming frames
 
 	/**
 	 * Constructor to create an unconnected client socket. The socket should be
@@ -130,39 +134,30 @@ public class TCPClientSocket extends Socket implements IClientSocket {
 	}
 
 	@Override
-	public void send(Serializable object) throws IOException {
-		objOutputStream = new ObjectOutputStream(this.getOutputStream());
-		objOutputStream.writeObject(object);
+	public synchronized void send(Serializable object) throws IOException {
+		sendBuffer = PacketFraming.encode(object, PacketCodecs.SERIALIZED,
+				sendBuffer);
+		getOutputStream().write(sendBuffer.array(), 0, sendBuffer.limit());
 	}
 
 	@Override
 	public Object receive() throws IOException, ClassNotFoundException {
-		objInputStream = new ObjectInputStream(this.getInputStream());
-		return objInputStream.readObject();
+		if (dataInputStream == null) {
+			dataInputStream = new DataInputStream(getInputStream());
+		}
+
+		int length = dataInputStream.readInt();
+		PacketFraming.checkLength(length);
+		if (recvData.length < length) {
+			recvData = new byte[length];
+		}
+		dataInputStream.readFully(recvData, 0, length);
+
+		return PacketCodecs.decode(ByteBuffer.wrap(recvData, 0, length));
 	}
 
 	@Override
 	public void shutdown() throws IOException {
-		if (objOutputStream != null)
-			objOutputStream.close();
-		if (objInputStream != null)
-			objInputStream.close();
 		this.close();
 	}
-
-	protected ObjectOutputStream getObjOutputStream() {
-		return objOutputStream;
-	}
-
-	protected void setObjOutputStream(ObjectOutputStream objOutputStream) {
-		this.objOutputStream = objOutputStream;
-	}
-
-	protected ObjectInputStream getObjInputStream() {
-		return objInputStream;
-	}
-
-	protected void setObjInputStream(ObjectInputStream objInputStream) {
-		this.objInputStream = objInputStream;
-	}
 }
@@ -1,15 +1,18 @@
 package tage.networking.client;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.ProtocolException;
 import java.net.SocketException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+import tage.networking.PacketCodec;
+import tage.networking.PacketCodecs;
+import tage.networking.server.UDPServerSocket;
 
 /**
  * A client socket for sending and receiving packets using the UDP protocol.
@@ -17,6 +20,8 @@ import java.net.SocketException;
  * client side of a game.
  * 
  * The underlying {@link DatagramSocket} is used in this implementation.
+ * Packets are sent with the current {@link PacketCodec} and received packets
+ * are decoded with whichever codec wrote them.
  * 
  * @author Kyle Matz
  * 
@@ -28,10 +33,11 @@ import java.net.SocketException;
 public class UDPClientSocket extends DatagramSocket implements IClientSocket {
 	private InetAddress remoteAddr; // remote address to send packets to
 	private int remotePort; // remote port to send packets to
-	private ObjectOutputStream objOutputStream; // stream to send objects
-	private ByteArrayOutputStream byteOutputStream; // byte stream to send data
-	private ObjectInputStream objInputStream; // stream to receive objects
-	private ByteArrayInputStream byteInputStream; // byte stream to receive data
+	private volatile PacketCodec codec = PacketCodecs.SERIALIZED; // codec used to send packets
+	private ByteBuffer sendBuffer; // reused for every outgoing packet
+	private DatagramPacket sendPacket; // reused for every outgoing packet
+	private byte[] recvData; // reused for every incoming packet
+	private DatagramPacket recvPacket; // reused for every incoming packet
 	private boolean connected = false; // true if this socket is fully initialized
 
 	/**
@@ -131,7 +137,9 @@ public class UDPClientSocket extends DatagramSocket implements IClientSocket {
 		this.remotePort = remotePort;
 		this.remoteAddr = remoteAddr;
 		setConnected(true);
-		byteOutputStream = new ByteArrayOutputStream();
+		sendBuffer = ByteBuffer.allocate(UDPServerSocket.MAX_PACKET_SIZE);
+		sendPacket = new DatagramPacket(sendBuffer.array(), 0, remoteAddr,
+				remotePort);
 	}
 
 	/**
@@ -170,19 +178,22 @@ public class UDPClientSocket extends DatagramSocket implements IClientSocket {
 	 * 
 	 * Will throw an exception if {@link #isConnected()} is false.
 	 * 
+	 * @throws ProtocolException
+	 *             if the encoded object does not fit in a datagram
 	 */
 	@Override
-	public void send(Serializable object) throws IOException {
+	public synchronized void send(Serializable object) throws IOException {
 		if (connected) {
-			objOutputStream = new ObjectOutputStream(byteOutputStream);
-			objOutputStream.writeObject(object);
-
-			byte[] data = byteOutputStream.toByteArray();
-			byteOutputStream.reset();
-
-			DatagramPacket sendPacket = new DatagramPacket(data, data.length,
-					remoteAddr, remotePort);
-
+			sendBuffer.clear();
+			try {
+				codec.encode(object, sendBuffer);
+			} catch (BufferOverflowException e) {
+				throw new ProtocolException("Packet larger than "
+						+ UDPServerSocket.MAX_PACKET_SIZE
+						+ " bytes cannot be sent over UDP.");
+			}
+
+			sendPacket.setLength(sendBuffer.position());
 			send(sendPacket);
 		} else {
 			throw new SocketException(
@@ -190,72 +201,59 @@ public class UDPClientSocket extends DatagramSocket implements IClientSocket {
 		}
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * The receive buffer is reused between calls, so this should only be
+	 * called from a single thread.
+	 * 
+	 */
 	@Override
 	public Object receive() throws IOException, ClassNotFoundException {
-		// array to hold the packet's data
-		byte[] data = new byte[this.getReceiveBufferSize()];
-		// constructs a packet for received data
-		DatagramPacket recvPacket = new DatagramPacket(data, data.length);
+		if (recvPacket == null) {
+			// array to hold the packet's data
+			recvData = new byte[UDPServerSocket.MAX_PACKET_SIZE];
+			// constructs a packet for received data
+			recvPacket = new DatagramPacket(recvData, recvData.length);
+		}
+		recvPacket.setData(recvData);
 
 		// Receives a packet, assigning it to the recvPacket
 		receive(recvPacket);
 
-		byteInputStream = new ByteArrayInputStream(recvPacket.getData());
-		objInputStream = new ObjectInputStream(byteInputStream);
-
-		return objInputStream.readObject();
+		return PacketCodecs.decode(ByteBuffer.wrap(recvPacket.getData(), 0,
+				recvPacket.getLength()));
 	}
 
 	@Override
 	public void shutdown() throws IOException {
-		if (objOutputStream != null)
-			objOutputStream.close();
-		if (byteOutputStream != null)
-			byteOutputStream.close();
-		if (objInputStream != null)
-			objInputStream.close();
-		if (byteInputStream != null)
-			byteInputStream.close();
 		this.close();
 	}
 
-	protected InetAddress getRemoteAddr() {
-		return remoteAddr;
-	}
-
-	protected int getRemotePort() {
-		return remotePort;
-	}
-
-	protected ObjectOutputStream getObjOutputStream() {
-		return objOutputStream;
-	}
-
-	protected void setObjOutputStream(ObjectOutputStream objOutputStream) {
-		this.objOutputStream = objOutputStream;
-	}
-
-	protected ByteArrayOutputStream getByteOutputStream() {
-		return byteOutputStream;
-	}
-
-	protected void setByteOutputStream(ByteArrayOutputStream byteOutputStream) {
-		this.byteOutputStream = byteOutputStream;
-	}
-
-	protected ObjectInputStream getObjInputStream() {
-		return objInputStream;
+	/**
+	 * Getter method for the codec used to send packets.
+	 * 
+	 * @return the current codec
+	 */
+	public PacketCodec getPacketCodec() {
+		return codec;
 	}
 
-	protected void setObjInputStream(ObjectInputStream objInputStream) {
-		this.objInputStream = objInputStream;
+	/**
+	 * Sets the codec used to send packets. This should only be changed to a
+	 * codec the server has agreed to.
+	 * 
+	 * @param codec
+	 */
+	public void setPacketCodec(PacketCodec codec) {
+		this.codec = codec;
 	}
 
-	protected ByteArrayInputStream getByteInputStream() {
-		return byteInputStream;
+	protected InetAddress getRemoteAddr() {
+		return remoteAddr;
 	}
 
-	protected void setByteInputStream(ByteArrayInputStream byteInputStream) {
-		this.byteInputStream = byteInputStream;
+	protected int getRemotePort() {
+		return remotePort;
 	}
 }
@@ -3,9 +3,9 @@ package tage.networking.server;
 import java.io.IOException;
 import java.io.Serializable;
 import java.net.InetAddress;
-import java.util.ArrayList;
+import java.net.InetSocketAddress;
 import java.util.Collection;
-import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -19,6 +19,16 @@ import java.util.concurrent.ConcurrentHashMap;
  * 
  * Utilizes an underlying {@link IServerSocket} to send and receive packets.
  * 
+ * By default packets are processed on the socket's receive thread. Calling
+ * {@link #setVirtualThreadDispatch(boolean)} moves processing onto virtual
+ * threads, keeping the packets of each client in order.
+ * 
+ * The server can also keep the last known position of each client (see
+ * {@link #updateClientPosition(Object, float, float, float)}) in a
+ * {@link SpatialGrid}, which the game can query with
+ * {@link #getClientPositions()} to send each client only what is within its
+ * interest radius.
+ * 
  * @author Kyle Matz
  * 
  * Modified from the SAGE Networking package for the RAGE game engine by Juan E. Ruiz.
@@ -30,6 +40,12 @@ import java.util.concurrent.ConcurrentHashMap;
 public class GameConnectionServer<K> extends AbstractGameConnectionServer<K> {
 	private IServerSocket serverSocket;
 	private ConcurrentHashMap<K, IClientInfo> clients; // hashmap to hold all of the clients
+	private volatile PacketDispatcher dispatcher; // null when packets are processed inline
+	private SpatialGrid<K> positions; // last known position of each client
+	private volatile float interestRadius = Float.POSITIVE_INFINITY;
+
+	/** Cell size of the grid holding client positions, in world units. */
+	public static final float POSITION_GRID_CELL_SIZE = 32.0f;
 
 	/**
 	 * Creates a GameConnectionServer bound to the local port specified and uses
@@ -107,11 +123,132 @@ public class GameConnectionServer<K> extends AbstractGameConnectionServer<K> {
 	@Override
 	public void shutdown() throws IOException {
 		serverSocket.shutdown();
+		setVirtualThreadDispatch(false);
+	}
+
+	/**
+	 * Sets whether received packets are processed on virtual threads instead
+	 * of the socket's receive thread, so that a slow handler does not hold up
+	 * packets from other clients. Packets from the same client are still
+	 * processed one at a time and in the order they arrived, but packets from
+	 * different clients may be processed concurrently, so
+	 * {@link #processPacket(Object, InetAddress, int)} must be thread safe.
+	 * 
+	 * Virtual threads require Java 21; on older versions a pool of daemon
+	 * threads is used instead.
+	 * 
+	 * @param enabled
+	 */
+	public synchronized void setVirtualThreadDispatch(boolean enabled) {
+		if (enabled && dispatcher == null) {
+			dispatcher = new PacketDispatcher(this,
+					PacketDispatcher.newVirtualThreadExecutor());
+		} else if (!enabled && dispatcher != null) {
+			// packets already queued are still processed
+			dispatcher.getExecutor().shutdown();
+			dispatcher = null;
+		}
+	}
+
+	/**
+	 * 
+	 * @return true if packets are processed on virtual threads
+	 */
+	public boolean isVirtualThreadDispatch() {
+		return dispatcher != null;
+	}
+
+	/**
+	 * Passes a received packet to
+	 * {@link #processPacket(Object, InetAddress, int)}, either directly or
+	 * through the virtual thread dispatcher. Called by the server socket.
+	 * 
+	 * @param object
+	 * @param sender
+	 *            the sender's address and port
+	 */
+	void dispatchPacket(Object object, InetSocketAddress sender) {
+		PacketDispatcher d = dispatcher;
+		if (d != null) {
+			d.dispatch(object, sender);
+		} else {
+			processPacket(object, sender.getAddress(), sender.getPort());
+		}
+	}
+
+	/**
+	 * Passes the first packet of a connection to
+	 * {@link #acceptClient(IClientInfo, Object)}, either directly or through
+	 * the virtual thread dispatcher. Called by the server socket.
+	 * 
+	 * @param clientInfo
+	 * @param firstPacket
+	 * @param sender
+	 *            the sender's address and port
+	 */
+	void dispatchAccept(IClientInfo clientInfo, Object firstPacket,
+			InetSocketAddress sender) {
+		PacketDispatcher d = dispatcher;
+		if (d != null) {
+			d.dispatchAccept(clientInfo, firstPacket, sender);
+		} else {
+			acceptClient(clientInfo, firstPacket);
+		}
+	}
+
+	/**
+	 * Removes the client whose connection has closed, with
+	 * {@link #removeClient(Object)}, either directly or through the virtual
+	 * thread dispatcher after the packets it already sent. Called by the
+	 * server socket.
+	 * 
+	 * @param clientInfo
+	 * @param sender
+	 *            the sender's address and port
+	 */
+	void dispatchDisconnect(IClientInfo clientInfo, InetSocketAddress sender) {
+		PacketDispatcher d = dispatcher;
+		if (d != null) {
+			d.dispatchDisconnect(clientInfo, sender);
+		} else {
+			clientDisconnected(clientInfo, sender);
+		}
+	}
+
+	/**
+	 * Removes the client with the given connection, if it was added to the
+	 * client list, and releases anything held for its sender.
+	 * 
+	 * @param clientInfo
+	 * @param sender
+	 */
+	void clientDisconnected(IClientInfo clientInfo, InetSocketAddress sender) {
+		for (Map.Entry<K, IClientInfo> entry : clients.entrySet()) {
+			if (entry.getValue() == clientInfo) {
+				removeClient(entry.getKey());
+				break;
+			}
+		}
+		senderDisconnected(sender);
+	}
+
+	/**
+	 * Releases anything held for a sender that has disconnected. Called by the
+	 * server socket.
+	 * 
+	 * @param sender
+	 */
+	void senderDisconnected(InetSocketAddress sender) {
+		PacketDispatcher d = dispatcher;
+		if (d != null) {
+			d.removeSender(sender);
+		}
 	}
 
 	@Override
 	protected void initializeServer() {
 		clients = new ConcurrentHashMap<K, IClientInfo>();
+		positions = new SpatialGrid<K>(POSITION_GRID_CELL_SIZE);
 	}
 
 	/**
@@ -136,16 +273,44 @@ public class GameConnectionServer<K> extends AbstractGameConnectionServer<K> {
 	@Override
 	protected void forwardPacketToAll(Serializable object, K originalClientUID)
 			throws IOException {
-		Collection<IClientInfo> clientVals = clients.values();
-		List<IClientInfo> list = new ArrayList<IClientInfo>(clientVals);
-		IClientInfo originalClientInfo = clients.get(originalClientUID);
-		list.remove(originalClientInfo);
-
-		for (IClientInfo ci : list) {
-			ci.sendPacket(object);
+		for (Map.Entry<K, IClientInfo> entry : clients.entrySet()) {
+			if (!entry.getKey().equals(originalClientUID)) {
+				entry.getValue().sendPacket(object);
+			}
 		}
 	}
 
+	/**
+	 * Records the position of a client, used to decide which clients are near
+	 * it.
+	 * 
+	 * @param clientUID
+	 * @param x
+	 * @param y
+	 * @param z
+	 */
+	protected void updateClientPosition(K clientUID, float x, float y, float z) {
+		positions.update(clientUID, x, y, z);
+	}
+
+	/**
+	 * Sets the distance within which the game treats other clients as near a
+	 * client. Infinite by default.
+	 * 
+	 * @param radius
+	 */
+	public void setInterestRadius(float radius) {
+		interestRadius = radius;
+	}
+
+	/**
+	 * 
+	 * @return the distance within which other clients are near a client
+	 */
+	public float getInterestRadius() {
+		return interestRadius;
+	}
+
 	@Override
 	protected void sendPacket(Serializable object, K clientUID)
 			throws IOException {
@@ -172,7 +337,11 @@ public class GameConnectionServer<K> extends AbstractGameConnectionServer<K> {
 
 	@Override
 	protected void removeClient(K clientUID) {
-		clients.remove(clientUID);
+		IClientInfo clientInfo = clients.remove(clientUID);
+		positions.remove(clientUID);
+		if (clientInfo instanceof UDPClientInfo) {
+			senderDisconnected(((UDPClientInfo) clientInfo).getSocketAddress());
+		}
 	}
 
 	/**
@@ -190,4 +359,12 @@ public class GameConnectionServer<K> extends AbstractGameConnectionServer<K> {
 	protected IServerSocket getServerSocket() {
 		return serverSocket;
 	}
+
+	/**
+	 * 
+	 * @return the last known positions of the clients
+	 */
+	protected SpatialGrid<K> getClientPositions() {
+		return positions;
+	}
 }
@@ -0,0 +1,323 @@
+package tage.networking.server;
+
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Hands received packets to a {@link GameConnectionServer} on the threads of
+ * an {@link ExecutorService} instead of the socket's receive thread.
+ *
+ * Packets from the same sender are processed one at a time and in the order
+ * they arrived; packets from different senders may be processed concurrently.
+ * The receive thread therefore never waits on game logic, and a slow handler
+ * only delays the client that triggered it.
+ *
+ * The queue of a sender that has sent nothing for {@link #IDLE_MILLIS} is
+ * dropped, so senders that go away without saying so are not kept forever.
+ * If the executor has been shut down, packets are processed on the thread
+ * that received them, as they would be without a dispatcher.
+ */
+class PacketDispatcher {
+	/** Time after which the queue of a quiet sender is dropped. */
+	static final long IDLE_MILLIS = 30000;
+
+	private static final long IDLE_NANOS = IDLE_MILLIS * 1000000L;
+
+	private final GameConnectionServer<?> server;
+	private final ExecutorService executor;
+	private final ConcurrentHashMap<InetSocketAddress, SenderQueue> queues;
+	private volatile long lastSweep = System.nanoTime();
+
+	PacketDispatcher(GameConnectionServer<?> server, ExecutorService executor) {
+		this.server = server;
+		this.executor = executor;
+		queues = new ConcurrentHashMap<InetSocketAddress, SenderQueue>();
+	}
+
+	/**
+	 * Creates an executor that runs each task on its own virtual thread when
+	 * the running JVM supports them (Java 21 and later), and otherwise on a
+	 * cached pool of daemon threads.
+	 *
+	 * @return a new executor
+	 */
+	static ExecutorService newVirtualThreadExecutor() {
+		try {
+			Method factory = Executors.class
+					.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newCachedThreadPool(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "packet-dispatch");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+	}
+
+	ExecutorService getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Queues a packet for {@link GameConnectionServer#processPacket}.
+	 *
+	 * @param object
+	 *            the received packet
+	 * @param sender
+	 *            the sender's address and port
+	 */
+	void dispatch(Object object, InetSocketAddress sender) {
+		enqueue(sender, object);
+	}
+
+	/**
+	 * Queues the first packet of a connection for
+	 * {@link GameConnectionServer#acceptClient}. Later packets from the same
+	 * sender are not processed until it returns.
+	 *
+	 * @param clientInfo
+	 * @param object
+	 *            the first packet received
+	 * @param sender
+	 *            the sender's address and port
+	 */
+	void dispatchAccept(IClientInfo clientInfo, Object object,
+			InetSocketAddress sender) {
+		enqueue(sender, new PendingAccept(clientInfo, object));
+	}
+
+	/**
+	 * Queues the removal of a client whose connection has closed, so that it
+	 * happens after the packets the client sent before closing.
+	 *
+	 * @param clientInfo
+	 * @param sender
+	 *            the sender's address and port
+	 */
+	void dispatchDisconnect(IClientInfo clientInfo, InetSocketAddress sender) {
+		enqueue(sender, new PendingDisconnect(clientInfo));
+	}
+
+	/**
+	 * Forgets the queue of a sender that has disconnected. This is usually
+	 * called while the queue's task is processing the sender's last packet, so
+	 * a queue still being processed is only retired here, and its task removes
+	 * it once it has drained.
+	 *
+	 * @param sender
+	 */
+	void removeSender(InetSocketAddress sender) {
+		SenderQueue queue = queues.get(sender);
+		if (queue != null && queue.retire()) {
+			queues.remove(sender, queue);
+		}
+	}
+
+	private void enqueue(InetSocketAddress sender, Object packet) {
+		long now = System.nanoTime();
+		if (now - lastSweep > IDLE_NANOS) {
+			lastSweep = now;
+			removeIdle(now);
+		}
+
+		while (true) {
+			SenderQueue queue = queueFor(sender);
+			if (queue.add(packet, now)) {
+				return;
+			}
+			// retired and drained but not yet removed from the map
+			queues.remove(sender, queue);
+		}
+	}
+
+	/**
+	 * Drops the queues of senders that have sent nothing for IDLE_MILLIS and
+	 * have nothing waiting.
+	 *
+	 * @param now
+	 *            current System.nanoTime()
+	 */
+	private void removeIdle(long now) {
+		for (SenderQueue queue : queues.values()) {
+			if (queue.retireIfIdle(now)) {
+				queues.remove(queue.sender, queue);
+			}
+		}
+	}
+
+	private SenderQueue queueFor(InetSocketAddress sender) {
+		SenderQueue queue = queues.get(sender);
+		if (queue == null) {
+			SenderQueue created = new SenderQueue(sender);
+			queue = queues.putIfAbsent(sender, created);
+			if (queue == null) {
+				queue = created;
+			}
+		}
+		return queue;
+	}
+
+	/**
+	 * The first packet of a TCP connection, which goes to acceptClient.
+	 */
+	private static class PendingAccept {
+		final IClientInfo clientInfo;
+		final Object packet;
+
+		PendingAccept(IClientInfo clientInfo, Object packet) {
+			this.clientInfo = clientInfo;
+			this.packet = packet;
+		}
+	}
+
+	/**
+	 * The end of a TCP connection, which removes the client.
+	 */
+	private static class PendingDisconnect {
+		final IClientInfo clientInfo;
+
+		PendingDisconnect(IClientInfo clientInfo) {
+			this.clientInfo = clientInfo;
+		}
+	}
+
+	/**
+	 * The packets waiting from one sender. At most one task per queue is
+	 * submitted to the executor at a time, which keeps the sender's packets
+	 * in order.
+	 *
+	 * A retired queue keeps accepting packets only while its task is running,
+	 * and once it has drained it accepts no more, so a sender never has two
+	 * queues running at once.
+	 */
+	private class SenderQueue implements Runnable {
+		private final InetSocketAddress sender;
+		private final ConcurrentLinkedQueue<Object> packets;
+		private final AtomicBoolean scheduled;
+		private long lastActive; // guarded by this
+		private boolean retired; // guarded by this
+
+		SenderQueue(InetSocketAddress sender) {
+			this.sender = sender;
+			packets = new ConcurrentLinkedQueue<Object>();
+			scheduled = new AtomicBoolean();
+			lastActive = System.nanoTime();
+		}
+
+		/**
+		 * Adds a packet and makes sure a task will process it.
+		 *
+		 * @param packet
+		 * @param now
+		 *            current System.nanoTime()
+		 * @return false if the queue has been retired and drained
+		 */
+		boolean add(Object packet, long now) {
+			boolean schedule;
+			synchronized (this) {
+				if (isDrained()) {
+					return false;
+				}
+				packets.add(packet);
+				lastActive = now;
+				// claimed under the lock, so that a queue holding a packet
+				// is never seen as drained
+				schedule = scheduled.compareAndSet(false, true);
+			}
+
+			if (schedule) {
+				try {
+					executor.execute(this);
+				} catch (RejectedExecutionException e) {
+					// the dispatcher is shutting down; no task of this queue
+					// is running, so processing here keeps the order
+					run();
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Retires the queue if it is empty, not being processed and has been
+		 * idle for IDLE_MILLIS.
+		 *
+		 * @param now
+		 *            current System.nanoTime()
+		 * @return true if the queue was retired
+		 */
+		synchronized boolean retireIfIdle(long now) {
+			if (scheduled.get() || !packets.isEmpty()
+					|| now - lastActive < IDLE_NANOS) {
+				return false;
+			}
+			retired = true;
+			return true;
+		}
+
+		/**
+		 * Retires the queue, whether or not it is idle.
+		 *
+		 * @return true if the queue has drained, false if its task will
+		 *         remove it once it has
+		 */
+		synchronized boolean retire() {
+			retired = true;
+			return isDrained();
+		}
+
+		private synchronized boolean isDrained() {
+			return retired && !scheduled.get() && packets.isEmpty();
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				Object packet;
+				while ((packet = packets.poll()) != null) {
+					try {
+						process(packet);
+					} catch (RuntimeException e) {
+						System.err
+								.println("Exception generated while processing packet from "
+										+ sender + ".");
+						e.printStackTrace();
+					}
+				}
+
+				scheduled.set(false);
+				// a packet may have arrived after the last poll but before
+				// the flag was cleared; keep going if nobody else took it
+				if (packets.isEmpty() || !scheduled.compareAndSet(false, true)) {
+					if (isDrained()) {
+						queues.remove(sender, this);
+					}
+					return;
+				}
+			}
+		}
+
+		private void process(Object packet) {
+			if (packet instanceof PendingAccept) {
+				PendingAccept accept = (PendingAccept) packet;
+				server.acceptClient(accept.clientInfo, accept.packet);
+			} else if (packet instanceof PendingDisconnect) {
+				server.clientDisconnected(
+						((PendingDisconnect) packet).clientInfo, sender);
+			} else {
+				server.processPacket(packet, sender.getAddress(),
+						sender.getPort());
+			}
+		}
+	}
+}
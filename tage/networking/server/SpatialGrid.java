@@ -0,0 +1,189 @@
+package tage.networking.server;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The last known position of each client, bucketed into square cells on the
+ * ground (X-Z) plane so that the clients near a point can be found without
+ * looking at every client.
+ *
+ * All methods are synchronized, as positions are updated from whichever
+ * thread processes a client's packets.
+ *
+ * @param <K>
+ *            the key type used to identify each client (such as UUID)
+ */
+public class SpatialGrid<K> {
+	private final float cellSize;
+	private final HashMap<Long, ArrayList<Entry<K>>> cells;
+	private final HashMap<K, Entry<K>> entries;
+
+	/**
+	 * Creates an empty grid.
+	 *
+	 * @param cellSize
+	 *            width of each cell in world units. Queries work with any
+	 *            radius, but are cheapest when the radius is close to this.
+	 */
+	public SpatialGrid(float cellSize) {
+		if (cellSize <= 0) {
+			throw new IllegalArgumentException("Cell size must be positive.");
+		}
+		this.cellSize = cellSize;
+		cells = new HashMap<Long, ArrayList<Entry<K>>>();
+		entries = new HashMap<K, Entry<K>>();
+	}
+
+	/**
+	 * Records the position of a client, moving it to another cell if needed.
+	 *
+	 * @param key
+	 * @param x
+	 * @param y
+	 * @param z
+	 */
+	public synchronized void update(K key, float x, float y, float z) {
+		long cell = cellOf(x, z);
+		Entry<K> entry = entries.get(key);
+		if (entry == null) {
+			entry = new Entry<K>(key);
+			entries.put(key, entry);
+			cellList(cell).add(entry);
+		} else if (entry.cell != cell) {
+			removeFromCell(entry);
+			cellList(cell).add(entry);
+		}
+		entry.cell = cell;
+		entry.x = x;
+		entry.y = y;
+		entry.z = z;
+	}
+
+	/**
+	 * Forgets the position of a client.
+	 *
+	 * @param key
+	 */
+	public synchronized void remove(K key) {
+		Entry<K> entry = entries.remove(key);
+		if (entry != null) {
+			removeFromCell(entry);
+		}
+	}
+
+	/**
+	 * Copies the last known position of a client.
+	 *
+	 * @param key
+	 * @param out
+	 *            array of at least 3 floats to receive x, y and z
+	 * @return false if the client's position is not known
+	 */
+	public synchronized boolean getPosition(K key, float[] out) {
+		Entry<K> entry = entries.get(key);
+		if (entry == null) {
+			return false;
+		}
+		out[0] = entry.x;
+		out[1] = entry.y;
+		out[2] = entry.z;
+		return true;
+	}
+
+	/**
+	 * Finds the clients within a distance of a point, measured on the X-Z
+	 * plane.
+	 *
+	 * @param x
+	 * @param z
+	 * @param radius
+	 * @param out
+	 *            list the keys of the clients found are added to
+	 */
+	public synchronized void query(float x, float z, float radius, List<K> out) {
+		float radiusSq = radius * radius;
+		long minX = cellIndex(x - radius), maxX = cellIndex(x + radius);
+		long minZ = cellIndex(z - radius), maxZ = cellIndex(z + radius);
+
+		// a large radius covers more cells than there are clients
+		if ((double) (maxX - minX + 1) * (maxZ - minZ + 1) > entries.size()) {
+			for (Entry<K> entry : entries.values()) {
+				addIfWithin(entry, x, z, radiusSq, out);
+			}
+			return;
+		}
+
+		for (long cx = minX; cx <= maxX; cx++) {
+			for (long cz = minZ; cz <= maxZ; cz++) {
+				ArrayList<Entry<K>> list = cells.get(key(cx, cz));
+				if (list == null) {
+					continue;
+				}
+				for (int i = 0; i < list.size(); i++) {
+					addIfWithin(list.get(i), x, z, radiusSq, out);
+				}
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @return the number of clients with a known position
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	private static <K> void addIfWithin(Entry<K> entry, float x, float z,
+			float radiusSq, List<K> out) {
+		float dx = entry.x - x;
+		float dz = entry.z - z;
+		if (dx * dx + dz * dz <= radiusSq) {
+			out.add(entry.key);
+		}
+	}
+
+	private ArrayList<Entry<K>> cellList(long cell) {
+		ArrayList<Entry<K>> list = cells.get(cell);
+		if (list == null) {
+			list = new ArrayList<Entry<K>>(4);
+			cells.put(cell, list);
+		}
+		return list;
+	}
+
+	private void removeFromCell(Entry<K> entry) {
+		ArrayList<Entry<K>> list = cells.get(entry.cell);
+		list.remove(entry);
+		if (list.isEmpty()) {
+			cells.remove(entry.cell);
+		}
+	}
+
+	private long cellIndex(float coord) {
+		// clamped so that indices fit the 32 bits each gets in a cell key
+		double index = Math.floor(coord / cellSize);
+		return (long) Math.max(Integer.MIN_VALUE,
+				Math.min(Integer.MAX_VALUE, index));
+	}
+
+	private long cellOf(float x, float z) {
+		return key(cellIndex(x), cellIndex(z));
+	}
+
+	private static long key(long cx, long cz) {
+		return (cx << 32) ^ (cz & 0xFFFFFFFFL);
+	}
+
+	private static class Entry<K> {
+		final K key;
+		long cell;
+		float x, y, z;
+
+		Entry(K key) {
+			this.key = key;
+		}
+	}
+}
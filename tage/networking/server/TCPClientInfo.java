@@ -2,12 +2,30 @@ package tage.networking.server;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
 
-import tage.networking.client.TCPClientSocket;
+import tage.networking.BufferPool;
+import tage.networking.PacketCodecs;
+import tage.networking.PacketFraming;
 
 /**
  * Implementation of {@link IClientInfo} used for TCP protocol. Stores the
- * client's {@link TCPClientSocket} connected to the client.
+ * connection to the client and the frames waiting to be written to it.
+ * 
+ * Packets are queued by {@link #sendPacket(Serializable)} and written by the
+ * {@link TCPServerSocket} selector thread when the connection is writable, so
+ * a slow client never blocks the thread sending to it. Frames are encoded into
+ * buffers borrowed from the server socket's {@link BufferPool} and handed back
+ * once written.
+ * 
+ * At most {@link #MAX_QUEUED_BYTES} may wait to be written. A client that
+ * falls further behind is disconnected, since dropping frames from a reliable
+ * stream would leave it out of step with the server.
  * 
  * @author Kyle Matz
  * 
@@ -16,33 +34,151 @@ import tage.networking.client.TCPClientSocket;
  * 
  */
 public class TCPClientInfo implements IClientInfo {
-	private TCPClientSocket socket; // socket connected to the client
+	/** Most bytes of frames that may wait to be written to one client. */
+	public static final int MAX_QUEUED_BYTES = 1024 * 1024;
+
+	private TCPServerSocket serverSocket; // the server socket owning the connection
+	private SocketChannel channel; // connection to the client
+	private SelectionKey key; // registration of the channel with the selector
+	private InetSocketAddress remoteAddr; // client's address and port
+	private ArrayDeque<ByteBuffer> writeQueue; // frames waiting to be written
+	private int queuedBytes; // bytes left to write in writeQueue
+	private ByteBuffer readBuffer; // partially received frames
+	private boolean accepted; // true once the first packet has been handled
 
 	/**
-	 * Creates a TCPClientInfo with the given param.
+	 * Creates a TCPClientInfo for a connection accepted by the server socket.
 	 * 
-	 * @param socket
+	 * @param serverSocket
+	 * @param channel
+	 * @param key
+	 * @throws IOException
 	 */
-	public TCPClientInfo(TCPClientSocket socket) {
-		this.socket = socket;
+	TCPClientInfo(TCPServerSocket serverSocket, SocketChannel channel,
+			SelectionKey key) throws IOException {
+		this.serverSocket = serverSocket;
+		this.channel = channel;
+		this.key = key;
+		remoteAddr = (InetSocketAddress) channel.getRemoteAddress();
+		writeQueue = new ArrayDeque<ByteBuffer>();
+		readBuffer = ByteBuffer.allocate(PacketFraming.INITIAL_BUFFER_SIZE);
 	}
 
 	/**
 	 * 
-	 * @return the socket connected to the client
+	 * @return the client's address and port
 	 */
-	public TCPClientSocket getsocket() {
-		return socket;
+	public InetSocketAddress getRemoteAddress() {
+		return remoteAddr;
 	}
 
 	/**
 	 * {@inheritDoc}
 	 * 
-	 * uses the socket stored by this structure to send the specified object to
-	 * the client.
+	 * The object is framed and queued; the selector thread writes it once the
+	 * connection is writable.
+	 * 
+	 * @throws IOException
+	 *             if the connection is closed, or was closed because its
+	 *             write queue is full
 	 */
 	@Override
 	public void sendPacket(Serializable object) throws IOException {
-		socket.send(object);
+		if (!channel.isOpen()) {
+			throw new IOException("Connection to " + remoteAddr + " is closed.");
+		}
+
+		BufferPool pool = serverSocket.getFrameBuffers();
+		ByteBuffer buffer = pool.acquire();
+		ByteBuffer frame;
+		try {
+			// a frame too large for the buffer comes back in a new one
+			frame = PacketFraming.encode(object, PacketCodecs.SERIALIZED,
+					buffer);
+		} catch (IOException | RuntimeException e) {
+			pool.release(buffer);
+			throw e;
+		}
+
+		boolean full;
+		synchronized (writeQueue) {
+			full = queuedBytes + frame.remaining() > MAX_QUEUED_BYTES;
+			if (!full) {
+				writeQueue.add(frame);
+				queuedBytes += frame.remaining();
+				try {
+					key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+				} catch (CancelledKeyException e) {
+					throw new IOException("Connection to " + remoteAddr
+							+ " is closed.");
+				}
+			}
+		}
+		if (full) {
+			pool.release(frame);
+			serverSocket.closeClient(this);
+			throw new IOException("Write queue of " + remoteAddr
+					+ " is full, connection closed.");
+		}
+		serverSocket.wakeup();
+	}
+
+	/**
+	 * Writes as many queued frames as the connection accepts without
+	 * blocking. Called from the selector thread.
+	 * 
+	 * @throws IOException
+	 */
+	void writeQueued() throws IOException {
+		synchronized (writeQueue) {
+			ByteBuffer frame;
+			while ((frame = writeQueue.peek()) != null) {
+				queuedBytes -= channel.write(frame);
+				if (frame.hasRemaining()) {
+					return; // socket buffer is full, wait for OP_WRITE
+				}
+				writeQueue.poll();
+				serverSocket.getFrameBuffers().release(frame);
+			}
+			key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+		}
+	}
+
+	/**
+	 * Hands the frames still waiting to be written back to the pool. Called
+	 * once the connection is closed.
+	 */
+	void releaseQueued() {
+		synchronized (writeQueue) {
+			ByteBuffer frame;
+			while ((frame = writeQueue.poll()) != null) {
+				serverSocket.getFrameBuffers().release(frame);
+			}
+			queuedBytes = 0;
+		}
+	}
+
+	/**
+	 * 
+	 * @return the buffer holding partially received frames
+	 */
+	ByteBuffer getReadBuffer() {
+		return readBuffer;
+	}
+
+	void setReadBuffer(ByteBuffer readBuffer) {
+		this.readBuffer = readBuffer;
+	}
+
+	SocketChannel getChannel() {
+		return channel;
+	}
+
+	boolean isAccepted() {
+		return accepted;
+	}
+
+	void setAccepted(boolean accepted) {
+		this.accepted = accepted;
 	}
 }
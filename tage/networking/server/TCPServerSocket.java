@@ -1,19 +1,43 @@
 package tage.networking.server;
 
-import tage.networking.client.TCPClientSocket;
-
-import java.io.EOFException;
 import java.io.IOException;
 import java.io.Serializable;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+import tage.networking.BufferPool;
+import tage.networking.PacketCodecs;
+import tage.networking.PacketFraming;
 
 /**
  * A TCP implementation of a {@link IServerSocket}. This socket is able to send
  * and receive {@link Serializable} objects from server side of a game.
  * 
- * An underlying {@link ServerSocket} is used in this implementation.
+ * A single thread services every client through a {@link Selector} over a
+ * non-blocking {@link ServerSocketChannel}. Packets are sent as length-prefixed
+ * frames (see {@link PacketFraming}); outgoing frames are queued per client in
+ * its {@link TCPClientInfo} and written when the connection is writable.
+ * Frames are built in buffers from a {@link BufferPool} shared by all clients.
+ * 
+ * The first packet received on a connection is passed to
+ * {@link GameConnectionServer#acceptClient(IClientInfo, Object)}, and every
+ * later packet to
+ * {@link GameConnectionServer#processPacket(Object, InetAddress, int)}. When
+ * a connection closes, the client is removed from the game server with
+ * {@link GameConnectionServer#removeClient(Object)}.
  * 
  * @author Kyle Matz
  * 
@@ -21,9 +45,16 @@ import java.net.Socket;
  * Ported to TAGE by Scott Gordon.
  * 
  */
-public class TCPServerSocket extends ServerSocket implements IServerSocket {
+public class TCPServerSocket implements IServerSocket {
+	private static final int POOLED_BUFFERS = 64;
+
 	private GameConnectionServer server;
 	private volatile boolean running;
+	private ServerSocketChannel serverChannel;
+	private ServerSocket socket; // the channel's socket, used for socket options
+	private Selector selector;
+	private ConcurrentHashMap<InetSocketAddress, TCPClientInfo> connections;
+	private BufferPool frameBuffers;
 
 	/**
 	 * Creates a TCPServerSocket bound to the local port. The server passed in
@@ -40,15 +71,24 @@ public class TCPServerSocket extends ServerSocket implements IServerSocket {
 	 */
 	public TCPServerSocket(int localPort, GameConnectionServer server)
 			throws IOException {
-		super(localPort);
+		serverChannel = ServerSocketChannel.open();
+		socket = serverChannel.socket();
+		socket.bind(new InetSocketAddress(localPort));
+		serverChannel.configureBlocking(false);
+
+		selector = Selector.open();
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
 
 		this.server = server;
+		connections = new ConcurrentHashMap<InetSocketAddress, TCPClientInfo>();
+		frameBuffers = new BufferPool(PacketFraming.INITIAL_BUFFER_SIZE,
+				POOLED_BUFFERS, true);
 		running = true;
 
 		Thread thread = new Thread() {
 			@Override
 			public void run() {
-				acceptClientsLoop();
+				selectLoop();
 			}
 		};
 		thread.start();
@@ -58,20 +98,52 @@ public class TCPServerSocket extends ServerSocket implements IServerSocket {
 	 * The server loop to be ran on a different Thread.
 	 * 
 	 */
-	private void acceptClientsLoop() {
+	private void selectLoop() {
 		while (running) {
 			try {
-				TCPClientSocket socket = (TCPClientSocket) this.accept();
-				TCPClientInfo clientinfo = new TCPClientInfo(socket);
-				server.acceptClient(clientinfo, socket.receive());
-
-				Thread thread = new ClientHandlerThread(socket);
-				thread.start();
-			} catch (IOException | ClassNotFoundException e) {
-				if (this.isClosed()) {
-					break;
-				}
+				selector.select();
+				handleSelectedKeys();
+			} catch (ClosedSelectorException e) {
+				break; // the socket was shut down
+			} catch (IOException e) {
+				System.err
+						.println("Exception generated while waiting for client activity.");
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private void handleSelectedKeys() {
+		Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+		while (it.hasNext()) {
+			SelectionKey key = it.next();
+			it.remove();
 
+			try {
+				if (key.isAcceptable()) {
+					acceptClient();
+				} else {
+					TCPClientInfo client = (TCPClientInfo) key.attachment();
+					try {
+						if (key.isReadable()) {
+							readClient(client);
+						}
+						if (key.isValid() && key.isWritable()) {
+							client.writeQueued();
+						}
+					} catch (IOException | CancelledKeyException
+							| BufferUnderflowException e) {
+						closeClient(client);
+					} catch (RuntimeException e) {
+						// a bad packet ends only the client that sent it
+						System.err
+								.println("Exception generated while processing packet from "
+										+ client.getRemoteAddress() + ".");
+						e.printStackTrace();
+						closeClient(client);
+					}
+				}
+			} catch (IOException e) {
 				System.err
 						.println("Exception generated while trying to accept new client.\n");
 				e.printStackTrace();
@@ -79,33 +151,145 @@ public class TCPServerSocket extends ServerSocket implements IServerSocket {
 		}
 	}
 
+	private void acceptClient() throws IOException {
+		SocketChannel channel = serverChannel.accept();
+		if (channel == null) {
+			return;
+		}
+
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+		TCPClientInfo client = new TCPClientInfo(this, channel, key);
+		key.attach(client);
+		connections.put(client.getRemoteAddress(), client);
+	}
+
 	/**
-	 * Overrides accept to use the {@link #implAccept(Socket)} instead which is
-	 * used to create a TCPClientSocket.
+	 * Reads what the client has sent and dispatches every complete frame.
+	 * 
+	 * @param client
+	 * @throws IOException
+	 *             if the connection was closed or sent a corrupt frame
 	 */
-	@Override
-	public Socket accept() throws IOException {
-		Socket socket = new TCPClientSocket();
-		implAccept(socket);
-		return socket;
+	private void readClient(TCPClientInfo client) throws IOException {
+		ByteBuffer buffer = client.getReadBuffer();
+		if (client.getChannel().read(buffer) < 0) {
+			throw new IOException("Connection closed by client.");
+		}
+
+		buffer.flip();
+		while (buffer.remaining() >= PacketFraming.HEADER_SIZE) {
+			int length = buffer.getInt(buffer.position());
+			PacketFraming.checkLength(length);
+
+			int frameSize = PacketFraming.HEADER_SIZE + length;
+			if (buffer.remaining() < frameSize) {
+				if (buffer.capacity() < frameSize) {
+					// grow so the whole frame fits
+					ByteBuffer larger = ByteBuffer.allocate(Math.max(frameSize,
+							buffer.capacity() * 2));
+					larger.put(buffer);
+					larger.flip();
+					buffer = larger;
+					client.setReadBuffer(buffer);
+				}
+				break;
+			}
+
+			int frameEnd = buffer.position() + frameSize;
+			int limit = buffer.limit();
+			buffer.position(buffer.position() + PacketFraming.HEADER_SIZE);
+			buffer.limit(frameEnd);
+			Object object;
+			try {
+				object = PacketCodecs.decode(buffer);
+			} catch (ClassNotFoundException e) {
+				throw new IOException(e);
+			}
+			buffer.limit(limit);
+			buffer.position(frameEnd);
+
+			dispatch(client, object);
+		}
+		buffer.compact();
+	}
+
+	private void dispatch(TCPClientInfo client, Object object) {
+		if (!client.isAccepted()) {
+			client.setAccepted(true);
+			server.dispatchAccept(client, object, client.getRemoteAddress());
+		} else {
+			server.dispatchPacket(object, client.getRemoteAddress());
+		}
+	}
+
+	/**
+	 * Closes the connection to a client and tells the game server it has
+	 * gone. Safe to call from any thread, and more than once.
+	 * 
+	 * @param client
+	 */
+	void closeClient(TCPClientInfo client) {
+		if (!connections.remove(client.getRemoteAddress(), client)) {
+			return; // already closed
+		}
+		try {
+			client.getChannel().close();
+		} catch (IOException e) {
+			System.err
+					.println("Exception generated while trying to shutdown a connection with a client.");
+			e.printStackTrace();
+		}
+		client.releaseQueued();
+		server.dispatchDisconnect(client, client.getRemoteAddress());
+	}
+
+	/**
+	 * 
+	 * @return the pool frames for clients are built in
+	 */
+	BufferPool getFrameBuffers() {
+		return frameBuffers;
 	}
 
+	/**
+	 * Wakes the selector thread so that it notices newly queued frames.
+	 */
+	void wakeup() {
+		selector.wakeup();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * The packet is sent over the existing connection from that address and
+	 * port.
+	 */
 	@Override
 	public void sendPacket(InetAddress addr, int port, Serializable object)
 			throws IOException {
-		TCPClientSocket socket;
-
-		socket = new TCPClientSocket(addr, port);
-		socket.send(object);
-		socket.shutdown();
+		createClientInfo(addr, port).sendPacket(object);
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * Returns the information of the connected client at that address and
+	 * port.
+	 * 
+	 * @throws SocketException
+	 *             if no client is connected from that address and port
+	 */
 	@Override
 	public IClientInfo createClientInfo(InetAddress clientAddr, int clientPort)
 			throws IOException {
-		TCPClientSocket clientSocket = new TCPClientSocket(clientAddr,
-				clientPort, this.getInetAddress(), this.getLocalPort());
-		TCPClientInfo clientInfo = new TCPClientInfo(clientSocket);
+		TCPClientInfo clientInfo = connections.get(new InetSocketAddress(
+				clientAddr, clientPort));
+		if (clientInfo == null) {
+			throw new SocketException("No client connected from "
+					+ clientAddr + ":" + clientPort);
+		}
 
 		return clientInfo;
 	}
@@ -113,50 +297,76 @@ public class TCPServerSocket extends ServerSocket implements IServerSocket {
 	@Override
 	public void shutdown() throws IOException {
 		running = false;
+		for (TCPClientInfo client : connections.values()) {
+			closeClient(client);
+		}
 		close();
 	}
 
-	/**
-	 * Thread to handle each client. Each thread should be responsible for a
-	 * single client.
-	 * 
-	 * @author Kyle
-	 * 
-	 */
-	private class ClientHandlerThread extends Thread {
-		private TCPClientSocket socket;
+	@Override
+	public void bind(SocketAddress bindPoint) throws IOException {
+		socket.bind(bindPoint);
+	}
 
-		public ClientHandlerThread(TCPClientSocket socket) {
-			this.socket = socket;
-		}
+	@Override
+	public void close() throws IOException {
+		serverChannel.close();
+		selector.close();
+	}
 
-		@Override
-		public void run() {
-			Object object;
-			while (running) {
-				try {
-					object = socket.receive();
-					server.processPacket(object, socket.getInetAddress(),
-							socket.getPort());
-				} catch (IOException | ClassNotFoundException e) {
-					if (e instanceof EOFException) {
-						break;
-					}
+	@Override
+	public InetAddress getInetAddress() {
+		return socket.getInetAddress();
+	}
 
-					System.err
-							.println("Exception generated while trying to recieve packet from client.");
-					e.printStackTrace();
-				}
-			}
+	@Override
+	public int getLocalPort() {
+		return socket.getLocalPort();
+	}
 
-			try {
-				socket.shutdown();
-			} catch (IOException e) {
-				System.err
-						.println("Exception generated while trying to shutdown a connection with a client.");
-				e.printStackTrace();
-			}
-		}
+	@Override
+	public SocketAddress getLocalSocketAddress() {
+		return socket.getLocalSocketAddress();
+	}
+
+	@Override
+	public int getReceiveBufferSize() throws SocketException {
+		return socket.getReceiveBufferSize();
+	}
+
+	@Override
+	public boolean getReuseAddress() throws SocketException {
+		return socket.getReuseAddress();
+	}
+
+	@Override
+	public int getSoTimeout() throws IOException {
+		return socket.getSoTimeout();
+	}
+
+	@Override
+	public boolean isBound() {
+		return socket.isBound();
+	}
+
+	@Override
+	public boolean isClosed() {
+		return !serverChannel.isOpen();
+	}
+
+	@Override
+	public void setReceiveBufferSize(int size) throws SocketException {
+		socket.setReceiveBufferSize(size);
+	}
+
+	@Override
+	public void setReuseAddress(boolean on) throws SocketException {
+		socket.setReuseAddress(on);
+	}
+
+	@Override
+	public void setSoTimeout(int timeout) throws SocketException {
+		socket.setSoTimeout(timeout);
 	}
 
 	protected GameConnectionServer getServer() {
@@ -3,6 +3,10 @@ package tage.networking.server;
 import java.io.IOException;
 import java.io.Serializable;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import tage.networking.PacketCodec;
+import tage.networking.PacketCodecs;
 
 /**
  * Implementation of {@link IClientInfo} used for UDP protocol. Stores the
@@ -17,7 +21,9 @@ import java.net.InetAddress;
 public class UDPClientInfo implements IClientInfo {
 	private InetAddress addr; // client's address
 	private int port; // port client is listening on
+	private InetSocketAddress socketAddr; // address and port, kept to avoid creating one per send
 	private UDPServerSocket serverSocket; // the current server socket
+	private volatile PacketCodec codec = PacketCodecs.SERIALIZED; // codec the client agreed to
 
 	/**
 	 * Creates a UDPClientInfo using the params provided.
@@ -34,6 +40,7 @@ public class UDPClientInfo implements IClientInfo {
 		addr = address;
 		this.port = port;
 		this.serverSocket = serverSocket;
+		socketAddr = new InetSocketAddress(address, port);
 	}
 
 	/**
@@ -52,6 +59,14 @@ public class UDPClientInfo implements IClientInfo {
 		return port;
 	}
 
+	/**
+	 * 
+	 * @return the client's address and port
+	 */
+	public InetSocketAddress getSocketAddress() {
+		return socketAddr;
+	}
+
 	/**
 	 * 
 	 * @return the current server socket
@@ -60,13 +75,32 @@ public class UDPClientInfo implements IClientInfo {
 		return serverSocket;
 	}
 
+	/**
+	 * 
+	 * @return the codec used for packets sent to this client
+	 */
+	public PacketCodec getPacketCodec() {
+		return codec;
+	}
+
+	/**
+	 * Sets the codec used for packets sent to this client. This should only be
+	 * changed to a codec the client asked for.
+	 * 
+	 * @param codec
+	 */
+	public void setPacketCodec(PacketCodec codec) {
+		this.codec = codec;
+	}
+
 	/**
 	 * {@inheritDoc}
 	 * 
-	 * Uses the current server socket to send the object.
+	 * Uses the current server socket to send the object, encoded with the
+	 * client's codec.
 	 */
 	@Override
 	public void sendPacket(Serializable object) throws IOException {
-		serverSocket.sendPacket(addr, port, object);
+		serverSocket.sendPacket(socketAddr, object, codec);
 	}
 }
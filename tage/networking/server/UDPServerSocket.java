@@ -1,21 +1,42 @@
 package tage.networking.server;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
-import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.SocketAddress;
 import java.net.SocketException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+
+import tage.networking.BufferPool;
+import tage.networking.PacketCodec;
+import tage.networking.PacketCodecs;
 
 /**
  * A UDP implementation of a {@link IServerSocket}. This socket is able to send
  * and receive {@link Serializable} objects from server side of a game.
  * 
- * An underlying {@link DatagramSocket} is used in this implementation.
+ * An underlying {@link DatagramChannel} is used in this implementation.
+ * Packets are encoded with the {@link PacketCodec} of the receiving client and
+ * received packets are decoded with whichever codec wrote them.
+ * 
+ * The receive loop reuses a single buffer, and each send borrows a buffer from
+ * a {@link BufferPool}, so once warmed up the socket does not allocate buffers
+ * per packet. Received packets are decoded straight from the direct receive
+ * buffer. Sending is safe from several threads at once.
+ * 
+ * The channel is non-blocking and the receive loop waits on a
+ * {@link Selector}, so {@link #setSoTimeout(int)} bounds each wait. A datagram
+ * that does not fit in the operating system's send buffer is dropped, just as
+ * the network may drop it.
  * 
  * @author Kyle Matz
  * 
@@ -23,11 +44,19 @@ import java.net.SocketException;
  * Ported to TAGE by Scott Gordon.
  * 
  */
-public class UDPServerSocket extends DatagramSocket implements IServerSocket {
+public class UDPServerSocket implements IServerSocket {
+	/** Largest payload a single UDP datagram can carry. */
+	public static final int MAX_PACKET_SIZE = 65507;
+
+	private static final int POOLED_BUFFERS = 16;
+
 	private GameConnectionServer server;
 	private volatile boolean running;
-	private ObjectOutputStream objOutputStream;
-	private ByteArrayOutputStream byteOutputStream;
+	private DatagramChannel channel;
+	private DatagramSocket socket; // the channel's socket, used for socket options
+	private Selector selector;
+	private volatile int soTimeout;
+	private BufferPool sendBuffers;
 
 	/**
 	 * Creates a UDPServerSocket bound to the local port. The server passed in
@@ -40,33 +69,67 @@ public class UDPServerSocket extends DatagramSocket implements IServerSocket {
 	 *            local port to bind socket to
 	 * @param server
 	 *            server to process packets
-	 * @throws SocketException
+	 * @throws IOException
 	 */
 	public UDPServerSocket(int localPort, GameConnectionServer server)
-			throws SocketException {
-		super(localPort);
+			throws IOException {
+		channel = DatagramChannel.open();
+		socket = channel.socket();
+		socket.bind(new InetSocketAddress(localPort));
+		channel.configureBlocking(false);
+
+		selector = Selector.open();
+		channel.register(selector, SelectionKey.OP_READ);
 
 		this.server = server;
-		byteOutputStream = new ByteArrayOutputStream();
+		sendBuffers = new BufferPool(MAX_PACKET_SIZE, POOLED_BUFFERS, true);
 		running = true;
 
 		Thread thread = new ServerLoop();
 		thread.start();
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * The object is encoded with {@link PacketCodecs#SERIALIZED}.
+	 */
 	@Override
 	public void sendPacket(InetAddress addr, int port, Serializable object)
 			throws IOException {
-		objOutputStream = new ObjectOutputStream(byteOutputStream);
-		objOutputStream.writeObject(object);
-
-		byte[] data = byteOutputStream.toByteArray();
-		byteOutputStream.reset();
-
-		DatagramPacket sendPacket = new DatagramPacket(data, data.length, addr,
-				port);
+		sendPacket(new InetSocketAddress(addr, port), object,
+				PacketCodecs.SERIALIZED);
+	}
 
-		send(sendPacket);
+	/**
+	 * Sends a {@link Serializable} object to the specified socket address,
+	 * encoded with the specified codec.
+	 * 
+	 * @param target
+	 *            address and port to send object to
+	 * @param object
+	 *            object to send
+	 * @param codec
+	 *            codec the receiver has agreed to
+	 * @throws ProtocolException
+	 *             if the encoded object does not fit in a datagram
+	 * @throws IOException
+	 */
+	public void sendPacket(SocketAddress target, Serializable object,
+			PacketCodec codec) throws IOException {
+		ByteBuffer buffer = sendBuffers.acquire();
+		try {
+			try {
+				codec.encode(object, buffer);
+			} catch (BufferOverflowException e) {
+				throw new ProtocolException("Packet larger than "
+						+ MAX_PACKET_SIZE + " bytes cannot be sent over UDP.");
+			}
+			buffer.flip();
+			channel.send(buffer, target);
+		} finally {
+			sendBuffers.release(buffer);
+		}
 	}
 
 	@Override
@@ -75,7 +138,7 @@ public class UDPServerSocket extends DatagramSocket implements IServerSocket {
 	}
 
 	@Override
-	public void shutdown() {
+	public void shutdown() throws IOException {
 		running = false;
 		close();
 	}
@@ -87,31 +150,36 @@ public class UDPServerSocket extends DatagramSocket implements IServerSocket {
 	 * 
 	 */
 	private class ServerLoop extends Thread {
-		private ObjectInputStream objInputStream;
-		private ByteArrayInputStream byteInputStream;
-
 		@Override
 		public void run() {
-			byte[] data;
-			DatagramPacket recvPacket;
+			// holds one datagram at a time; decoding copies anything it keeps
+			ByteBuffer recvBuffer = ByteBuffer.allocateDirect(MAX_PACKET_SIZE);
+			InetSocketAddress sender;
 			while (running) {
 				try {
-					// array to hold the packet's data
-					data = new byte[getReceiveBufferSize()];
-					// constructs a packet for received data
-					recvPacket = new DatagramPacket(data, data.length);
-
-					// Receives a packet, assigning it to the recvPacket
-					receive(recvPacket);
-
-					byteInputStream = new ByteArrayInputStream(
-							recvPacket.getData());
-					objInputStream = new ObjectInputStream(byteInputStream);
-
-					server.processPacket(objInputStream.readObject(),
-							recvPacket.getAddress(), recvPacket.getPort());
-				} catch (IOException | ClassNotFoundException e) {
-					if (isClosed()) {
+					if (selector.select(soTimeout) == 0) {
+						continue;
+					}
+					selector.selectedKeys().clear();
+
+					while (true) {
+						recvBuffer.clear();
+						// Receives a packet, returning the address it came from
+						sender = (InetSocketAddress) channel.receive(recvBuffer);
+						if (sender == null) {
+							break;
+						}
+						recvBuffer.flip();
+
+						Object object = PacketCodecs.decode(recvBuffer);
+
+						server.dispatchPacket(object, sender);
+					}
+				} catch (ClosedSelectorException e) {
+					break; // the socket was shut down
+				} catch (IOException | ClassNotFoundException
+						| BufferUnderflowException e) {
+					if (!channel.isOpen()) {
 						break;
 					}
 
@@ -123,26 +191,91 @@ public class UDPServerSocket extends DatagramSocket implements IServerSocket {
 		}
 	}
 
-	protected ObjectOutputStream getObjOutputStream() {
-		return objOutputStream;
+	@Override
+	public void bind(SocketAddress bindPoint) throws IOException {
+		socket.bind(bindPoint);
 	}
 
-	protected void setObjOutputStream(ObjectOutputStream objOutputStream) {
-		this.objOutputStream = objOutputStream;
+	@Override
+	public void close() throws IOException {
+		selector.close();
+		channel.close();
 	}
 
-	protected ByteArrayOutputStream getByteOutputStream() {
-		return byteOutputStream;
+	@Override
+	public InetAddress getInetAddress() {
+		return socket.getInetAddress();
 	}
 
-	protected void setByteOutputStream(ByteArrayOutputStream byteOutputStream) {
-		this.byteOutputStream = byteOutputStream;
+	@Override
+	public int getLocalPort() {
+		return socket.getLocalPort();
+	}
+
+	@Override
+	public SocketAddress getLocalSocketAddress() {
+		return socket.getLocalSocketAddress();
+	}
+
+	@Override
+	public int getReceiveBufferSize() throws SocketException {
+		return socket.getReceiveBufferSize();
+	}
+
+	@Override
+	public boolean getReuseAddress() throws SocketException {
+		return socket.getReuseAddress();
+	}
+
+	@Override
+	public int getSoTimeout() throws IOException {
+		return soTimeout;
+	}
+
+	@Override
+	public boolean isBound() {
+		return socket.isBound();
+	}
+
+	@Override
+	public boolean isClosed() {
+		return !channel.isOpen();
+	}
+
+	@Override
+	public void setReceiveBufferSize(int size) throws SocketException {
+		socket.setReceiveBufferSize(size);
+	}
+
+	@Override
+	public void setReuseAddress(boolean on) throws SocketException {
+		socket.setReuseAddress(on);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * Sets the longest time, in milliseconds, the receive loop waits for a
+	 * packet before checking whether the socket is still running. Zero, the
+	 * default, waits until a packet arrives or the socket is closed.
+	 */
+	@Override
+	public void setSoTimeout(int timeout) throws SocketException {
+		if (timeout < 0) {
+			throw new IllegalArgumentException("timeout can't be negative");
+		}
+		soTimeout = timeout;
+		selector.wakeup();
 	}
 
 	protected GameConnectionServer getServer() {
 		return server;
 	}
 
+	protected DatagramChannel getChannel() {
+		return channel;
+	}
+
 	protected boolean isRunning() {
 		return running;
 	}
@@ -11,7 +11,7 @@ public class RotationController extends NodeController
 {
 	private Vector3f rotationAxis = new Vector3f(0.0f, 1.0f, 0.0f);
 	private float rotationSpeed = 1.0f;
-	private Matrix4f curRotation, rotMatrix, newRotation;
+	private Matrix4f curRotation = new Matrix4f(), rotMatrix, newRotation;
 	private Engine engine;
 
 	/** Creates a rotation controller with vertical axis, and speed=1.0. */
@@ -34,7 +34,7 @@ public class RotationController extends NodeController
 	*/
 	public void apply(GameObject go)
 	{	float elapsedTime = super.getElapsedTime();
-		curRotation = go.getLocalRotation();
+		go.getLocalRotationInto(curRotation);
 		float rotAmt = elapsedTime * rotationSpeed;
 		rotMatrix.rotation(rotAmt, rotationAxis);
 		newRotation = curRotation.mul(rotMatrix);
@@ -20,18 +20,22 @@ import tage.shapes.*;
 */
 
 public class RenderObjectAnimation
-{	private GLCanvas myCanvas;
+{	private static final int MAX_BONES = 128;  // size of the skin matrix arrays in the skeletal shader
+
+	private GLCanvas myCanvas;
 	private Engine engine;
 
 	// allocate variables for display() function
 	private FloatBuffer vals = Buffers.newDirectFloatBuffer(16);
-	private FloatBuffer valsIT = Buffers.newDirectFloatBuffer(9);
+	private FloatBuffer skinVals = Buffers.newDirectFloatBuffer(MAX_BONES * 16);
+	private FloatBuffer skinValsIT = Buffers.newDirectFloatBuffer(MAX_BONES * 9);
 	private Matrix4f pMat = new Matrix4f();  // perspective matrix
 	private Matrix4f vMat = new Matrix4f();  // view matrix
 	private Matrix4f mMat = new Matrix4f();  // model matrix
 	private Matrix4f invTrMat = new Matrix4f(); // inverse-transpose
-	private int mLoc, vLoc, pLoc, nLoc, eLoc, tLoc, lLoc, fLoc, sLoc, cLoc;
-	private int globalAmbLoc,mambLoc,mdiffLoc,mspecLoc,mshiLoc;
+	private ShaderProgram currentProgram;
+	private int mLoc, nLoc, eLoc, tLoc, sLoc, cLoc, opLoc;
+	private int mambLoc,mdiffLoc,mspecLoc,mshiLoc;
 	private int skinMatLoc, skinMatITLoc;
 	private int hasSolidColor, hasTex, thisTexture, defaultTexture, tiling, tilingOption;
 	private int isEnvMapped, activeSkyBoxTexture;
@@ -41,8 +45,63 @@ public class RenderObjectAnimation
 	{	engine = e;
 	}
 
-	/** for engine use only. */
-	public void render(GameObject go, int renderingProgram, Matrix4f pMat, Matrix4f vMat)
+	/** for engine use only - draws a single object, setting all of the state it needs. */
+	public void render(GameObject go, ShaderProgram program, Matrix4f pMat, Matrix4f vMat)
+	{	GL4 gl = (GL4) GLContext.getCurrentGL();
+
+		useProgram(program);
+		bindShape(go.getShape());
+		bindTexture(go.getTextureImage().getTexture(), (go.getRenderStates()).getTiling());
+
+		activeSkyBoxTexture = (engine.getSceneGraph()).getActiveSkyBoxTexture();
+		gl.glActiveTexture(GL_TEXTURE1);
+		gl.glBindTexture(GL_TEXTURE_CUBE_MAP, activeSkyBoxTexture);
+
+		if ((go.getRenderStates()).isWireframe())
+			gl.glPolygonMode(GL_FRONT_AND_BACK, GL_LINE);
+		else
+			gl.glPolygonMode(GL_FRONT_AND_BACK, GL_FILL);
+
+		gl.glFrontFace(GL_CCW);
+		gl.glEnable(GL_DEPTH_TEST);
+		gl.glDepthFunc(GL_LEQUAL);
+
+		draw(go, vMat);
+	}
+	
+	/** for engine use only - makes the program current. */
+	public void useProgram(ShaderProgram program)
+	{	GL4 gl = (GL4) GLContext.getCurrentGL();
+		if (program != currentProgram) loadUniformLocations(program);
+		gl.glUseProgram(program.getID());
+	}
+
+	/** for engine use only - binds the shape's VAO, which holds its vertex attributes, including the bone attributes. */
+	public void bindShape(ObjShape shape)
+	{	GL4 gl = (GL4) GLContext.getCurrentGL();
+		gl.glBindVertexArray(shape.getVAO());
+	}
+
+	/** for engine use only - binds the texture to unit 0 and applies the tiling (0 leaves it as is). */
+	public void bindTexture(int texture, int tiling)
+	{	GL4 gl = (GL4) GLContext.getCurrentGL();
+
+		gl.glActiveTexture(GL_TEXTURE0);
+		gl.glBindTexture(GL_TEXTURE_2D, texture);
+		if (tiling != 0)
+		{	if (tiling == 1) { tilingOption = GL_REPEAT; }
+			else if (tiling == 2) { tilingOption = GL_MIRRORED_REPEAT; }
+			else if (tiling == 3) { tilingOption = GL_CLAMP_TO_EDGE; }
+			gl.glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, tilingOption);
+			gl.glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, tilingOption);
+		}
+	}
+
+	/**
+	* for engine use only - sets the object's own uniforms, including its pose, and draws it.
+	* The program, shape, textures, and render states must already have been set.
+	*/
+	public void draw(GameObject go, Matrix4f vMat)
 	{	GL4 gl = (GL4) GLContext.getCurrentGL();
 
 		// ----------- prepare animation transform matrices
@@ -50,35 +109,11 @@ public class RenderObjectAnimation
 		tage.rml.Matrix3[] skinMatsIT = ((AnimatedShape)go.getShape()).getPoseSkinMatricesIT();
 		int boneCount = ((AnimatedShape)go.getShape()).getBoneCount();
 
-		gl.glUseProgram(renderingProgram);
-
-		mLoc = gl.glGetUniformLocation(renderingProgram, "m_matrix");
-		vLoc = gl.glGetUniformLocation(renderingProgram, "v_matrix");
-		pLoc = gl.glGetUniformLocation(renderingProgram, "p_matrix");
-		nLoc = gl.glGetUniformLocation(renderingProgram, "norm_matrix");
-		tLoc = gl.glGetUniformLocation(renderingProgram, "has_texture");
-		eLoc = gl.glGetUniformLocation(renderingProgram, "envMapped");
-		sLoc = gl.glGetUniformLocation(renderingProgram, "solidColor");
-		cLoc = gl.glGetUniformLocation(renderingProgram, "color");
-		lLoc = gl.glGetUniformLocation(renderingProgram, "num_lights");
-		fLoc = gl.glGetUniformLocation(renderingProgram, "fields_per_light");
-		globalAmbLoc = gl.glGetUniformLocation(renderingProgram, "globalAmbient");
-		mambLoc = gl.glGetUniformLocation(renderingProgram, "material.ambient");
-		mdiffLoc = gl.glGetUniformLocation(renderingProgram, "material.diffuse");
-		mspecLoc = gl.glGetUniformLocation(renderingProgram, "material.specular");
-		mshiLoc = gl.glGetUniformLocation(renderingProgram, "material.shininess");
-
-		mMat.identity();
-		mMat.mul(go.getWorldTranslation());
-		mMat.mul(go.getWorldRotation());
-		mMat.mul(go.getRenderStates().getModelOrientationCorrection());
-		mMat.mul(go.getWorldScale());
+		mMat.set(go.getWorldModelMatrix());
 
 		hasTex = 1;
 		hasSolidColor = 0;
 		
-		gl.glBindBufferBase(GL_SHADER_STORAGE_BUFFER, 0, (engine.getLightManager()).getLightSSBO());
-
 		invTrMat.identity();
 		invTrMat.mul(vMat);
 		invTrMat.mul(mMat);
@@ -86,15 +121,11 @@ public class RenderObjectAnimation
 		invTrMat.transpose(invTrMat);
 
 		gl.glUniformMatrix4fv(mLoc, 1, false, mMat.get(vals));
-		gl.glUniformMatrix4fv(vLoc, 1, false, vMat.get(vals));
-		gl.glUniformMatrix4fv(pLoc, 1, false, pMat.get(vals));
 		gl.glUniformMatrix4fv(nLoc, 1, false, invTrMat.get(vals));
 		gl.glUniform1i(tLoc, hasTex);
 		gl.glUniform1i(sLoc, hasSolidColor);
 		gl.glUniform3fv(cLoc, 1, ((go.getRenderStates()).getColor()).get(vals));
-		gl.glUniform1i(lLoc, (engine.getLightManager()).getNumLights());
-		gl.glUniform1i(fLoc, (engine.getLightManager()).getFieldsPerLight());
-		gl.glUniform4fv(globalAmbLoc, 1, Light.getGlobalAmbient(), 0);
+		gl.glUniform1f(opLoc, (go.getRenderStates()).getOpacity());
 		gl.glUniform4fv(mambLoc, 1, go.getShape().getMatAmb(), 0);
 		gl.glUniform4fv(mdiffLoc, 1, go.getShape().getMatDif(), 0);
 		gl.glUniform4fv(mspecLoc, 1, go.getShape().getMatSpe(), 0);
@@ -103,72 +134,37 @@ public class RenderObjectAnimation
 		if ((go.getRenderStates()).isEnvironmentMapped()) isEnvMapped=1; else isEnvMapped=0;
 		gl.glUniform1i(eLoc, isEnvMapped);
 		
+		// all of the bones are sent in one call per array, starting at element 0
+		boneCount = java.lang.Math.min(boneCount, MAX_BONES);
+		skinVals.clear();
+		skinValsIT.clear();
 		for (int i=0; i<boneCount; i++)
-		{	skinMatLoc = gl.glGetUniformLocation(renderingProgram, "skin_matrices["+i+"]");
-			skinMatITLoc = gl.glGetUniformLocation(renderingProgram, "skin_matrices_IT["+i+"]");
-			gl.glUniformMatrix4fv(skinMatLoc, 1, false, directFloatBuffer(skinMats[i].toFloatArray()));
-			gl.glUniformMatrix3fv(skinMatITLoc, 1, false, directFloatBuffer(skinMatsIT[i].toFloatArray()));
-		}
-
-		gl.glBindBuffer(GL_ARRAY_BUFFER, go.getShape().getVertexBuffer());
-		gl.glVertexAttribPointer(0, 3, GL_FLOAT, false, 0, 0);
-		gl.glEnableVertexAttribArray(0);
-	
-		gl.glBindBuffer(GL_ARRAY_BUFFER, go.getShape().getTexCoordBuffer());
-		gl.glVertexAttribPointer(1, 2, GL_FLOAT, false, 0, 0);
-		gl.glEnableVertexAttribArray(1);
-
-		gl.glBindBuffer(GL_ARRAY_BUFFER, go.getShape().getNormalBuffer());
-		gl.glVertexAttribPointer(2, 3, GL_FLOAT, false, 0, 0);
-		gl.glEnableVertexAttribArray(2);
-
-		gl.glBindBuffer(GL_ARRAY_BUFFER, go.getShape().getBoneIndicesBuffer());
-		gl.glVertexAttribPointer(3, 3, GL_FLOAT, false, 0, 0);
-		gl.glEnableVertexAttribArray(3);
-
-		gl.glBindBuffer(GL_ARRAY_BUFFER, go.getShape().getBoneWeightBuffer());
-		gl.glVertexAttribPointer(4, 3, GL_FLOAT, false, 0, 0);
-		gl.glEnableVertexAttribArray(4);
-
-		if (hasTex==1)
-			thisTexture = go.getTextureImage().getTexture();
-		else
-			thisTexture = engine.getRenderSystem().getDefaultTexture();
-	
-		gl.glActiveTexture(GL_TEXTURE0);
-		gl.glBindTexture(GL_TEXTURE_2D, thisTexture);
-		tiling = (go.getRenderStates()).getTiling();
-		if (tiling != 0)
-		{	if (tiling == 1) { tilingOption = GL_REPEAT; }
-			else if (tiling == 2) { tilingOption = GL_MIRRORED_REPEAT; }
-			else if (tiling == 3) { tilingOption = GL_CLAMP_TO_EDGE; }
-			gl.glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, tilingOption);
-			gl.glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, tilingOption);
+		{	skinVals.put(skinMats[i].toFloatArray());
+			skinValsIT.put(skinMatsIT[i].toFloatArray());
 		}
-
-		activeSkyBoxTexture = (engine.getSceneGraph()).getActiveSkyBoxTexture();
-		gl.glActiveTexture(GL_TEXTURE1);
-		gl.glBindTexture(GL_TEXTURE_CUBE_MAP, activeSkyBoxTexture);
-
-		if ((go.getRenderStates()).isWireframe())
-			gl.glPolygonMode(GL_FRONT_AND_BACK, GL_LINE);
-		else
-			gl.glPolygonMode(GL_FRONT_AND_BACK, GL_FILL);
-
-		gl.glFrontFace(GL_CCW);
-		gl.glEnable(GL_DEPTH_TEST);
-		gl.glDepthFunc(GL_LEQUAL);
+		skinVals.flip();
+		skinValsIT.flip();
+		gl.glUniformMatrix4fv(skinMatLoc, boneCount, false, skinVals);
+		gl.glUniformMatrix3fv(skinMatITLoc, boneCount, false, skinValsIT);
 
 		gl.glDrawArrays(GL_TRIANGLES, 0, go.getShape().getNumVertices());
 	}
-	
-	private FloatBuffer directFloatBuffer(float[] values)
-	{	return (FloatBuffer) directFloatBuffer(values.length).put(values).rewind();
-	}
-	private FloatBuffer directFloatBuffer(int capacity)
-	{	return directByteBuffer(capacity * Float.BYTES).asFloatBuffer();
-	}
-	private ByteBuffer directByteBuffer(int capacity)
-	{	return (ByteBuffer) ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+
+	// the view, projection, and light uniforms are set once per viewport by the RenderSystem
+	private void loadUniformLocations(ShaderProgram program)
+	{	currentProgram = program;
+		mLoc = program.getUniformLocation("m_matrix");
+		nLoc = program.getUniformLocation("norm_matrix");
+		tLoc = program.getUniformLocation("has_texture");
+		eLoc = program.getUniformLocation("envMapped");
+		sLoc = program.getUniformLocation("solidColor");
+		cLoc = program.getUniformLocation("color");
+		opLoc = program.getUniformLocation("opacity");
+		mambLoc = program.getUniformLocation("material.ambient");
+		mdiffLoc = program.getUniformLocation("material.diffuse");
+		mspecLoc = program.getUniformLocation("material.specular");
+		mshiLoc = program.getUniformLocation("material.shininess");
+		skinMatLoc = program.getUniformLocation("skin_matrices");
+		skinMatITLoc = program.getUniformLocation("skin_matrices_IT");
 	}
 }
\ No newline at end of file
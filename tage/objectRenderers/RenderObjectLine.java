@@ -22,7 +22,8 @@ public class RenderObjectLine
 	private Matrix4f pMat = new Matrix4f();  // perspective matrix
 	private Matrix4f vMat = new Matrix4f();  // view matrix
 	private Matrix4f mMat = new Matrix4f();  // model matrix
-	private int mLoc, vLoc, pLoc, cLoc;
+	private ShaderProgram currentProgram;
+	private int mLoc, cLoc;
 
 	/** for engine use only. */
 	public RenderObjectLine(Engine e)
@@ -30,29 +31,25 @@ public class RenderObjectLine
 	}
 
 	/** for engine use only. */
-	public void render(GameObject go, int lineProgram, Matrix4f pMat, Matrix4f vMat)
+	public void render(GameObject go, ShaderProgram lineProgram, Matrix4f pMat, Matrix4f vMat)
 	{	GL4 gl = (GL4) GLContext.getCurrentGL();
 
-		gl.glUseProgram(lineProgram);
-
-		mLoc = gl.glGetUniformLocation(lineProgram, "m_matrix");
-		vLoc = gl.glGetUniformLocation(lineProgram, "v_matrix");
-		pLoc = gl.glGetUniformLocation(lineProgram, "p_matrix");
-		cLoc = gl.glGetUniformLocation(lineProgram, "lineColor");
+		// the view and projection matrices are set once per viewport by the RenderSystem
+		if (lineProgram != currentProgram)
+		{	currentProgram = lineProgram;
+			mLoc = lineProgram.getUniformLocation("m_matrix");
+			cLoc = lineProgram.getUniformLocation("lineColor");
+		}
+		gl.glUseProgram(lineProgram.getID());
 		
-		mMat.identity();
-		mMat.mul(go.getWorldTranslation());
-		mMat.mul(go.getWorldRotation());
-		mMat.mul(go.getWorldScale());
+		mMat.set(go.getWorldTranslationView());
+		mMat.mul(go.getWorldRotationView());
+		mMat.mul(go.getWorldScaleView());
 		
 		gl.glUniformMatrix4fv(mLoc, 1, false, mMat.get(vals));
-		gl.glUniformMatrix4fv(vLoc, 1, false, vMat.get(vals));
-		gl.glUniformMatrix4fv(pLoc, 1, false, pMat.get(vals));
 		gl.glUniform3fv(cLoc, 1, ((go.getRenderStates()).getColor()).get(vals));
 
-		gl.glBindBuffer(GL_ARRAY_BUFFER, go.getShape().getVertexBuffer());
-		gl.glVertexAttribPointer(0, 3, GL_FLOAT, false, 0, 0);
-		gl.glEnableVertexAttribArray(0);
+		gl.glBindVertexArray(go.getShape().getVAO());
 	
 		gl.glEnable(GL_DEPTH_TEST);
 		gl.glDepthFunc(GL_LEQUAL);
@@ -29,7 +29,7 @@ public class RenderObjectSkyBox
 	private Matrix4f pMat = new Matrix4f();  // perspective matrix
 	private Matrix4f vMat = new Matrix4f();  // view matrix
 	private Matrix4f mMat = new Matrix4f();  // model matrix
-	private int mLoc, vLoc, pLoc;
+	private int mLoc;
 	private int activeSkyBoxTexture;
 
 	/** for engine use only. */
@@ -38,19 +38,13 @@ public class RenderObjectSkyBox
 	}
 
 	/** for engine use only. */
-	public void render(GameObject go, int skyboxProgram, Matrix4f pMat, Matrix4f vMat)
+	public void render(GameObject go, ShaderProgram skyboxProgram, Matrix4f pMat, Matrix4f vMat)
 	{	GL4 gl = (GL4) GLContext.getCurrentGL();
 
-		gl.glUseProgram(skyboxProgram);
+		// the view and projection matrices are set once per viewport by the RenderSystem
+		gl.glUseProgram(skyboxProgram.getID());
 
-		vLoc = gl.glGetUniformLocation(skyboxProgram, "v_matrix");
-		pLoc = gl.glGetUniformLocation(skyboxProgram, "p_matrix");
-		gl.glUniformMatrix4fv(vLoc, 1, false, vMat.get(vals));
-		gl.glUniformMatrix4fv(pLoc, 1, false, pMat.get(vals));
-
-		gl.glBindBuffer(GL_ARRAY_BUFFER, go.getShape().getVertexBuffer());
-		gl.glVertexAttribPointer(0, 3, GL_FLOAT, false, 0, 0);
-		gl.glEnableVertexAttribArray(0);
+		gl.glBindVertexArray(go.getShape().getVAO());
 
 		activeSkyBoxTexture = (engine.getSceneGraph()).getActiveSkyBoxTexture();
 		gl.glActiveTexture(GL_TEXTURE0);
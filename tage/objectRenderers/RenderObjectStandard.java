@@ -1,5 +1,6 @@
 package tage.objectRenderers;
 import java.nio.*;
+import java.util.*;
 import static com.jogamp.opengl.GL4.*;
 import com.jogamp.opengl.*;
 import com.jogamp.opengl.util.*;
@@ -29,54 +30,160 @@ public class RenderObjectStandard
 	private Matrix4f vMat = new Matrix4f();  // view matrix
 	private Matrix4f mMat = new Matrix4f();  // model matrix
 	private Matrix4f invTrMat = new Matrix4f(); // inverse-transpose
-	private int mLoc, vLoc, pLoc, nLoc, tLoc, lLoc, eLoc, fLoc, sLoc, cLoc, hLoc, oLoc;
-	private int globalAmbLoc,mambLoc,mdiffLoc,mspecLoc,mshiLoc;
+	private ShaderProgram currentProgram;
+	private int renderingProgram;
+	private int mLoc, nLoc, tLoc, eLoc, sLoc, cLoc, hLoc, oLoc, opLoc, instLoc;
+	private int mambLoc,mdiffLoc,mspecLoc,mshiLoc;
 	private int hasSolidColor, hasTex, thisTexture, defaultTexture, tiling, tilingOption, heightMapped;
 	private int isEnvMapped, hasLighting, activeSkyBoxTexture, heightMapTexture;
 
+	// per-instance model and normal matrices (32 floats per instance), sent as a shader storage buffer
+	private int[] instanceBuffer = new int[1];
+	private FloatBuffer instanceVals = Buffers.newDirectFloatBuffer(32 * 64);
+
 	/** for engine use only. */
 	public RenderObjectStandard(Engine e)
 	{	engine = e;
 	}
 
-	/** for engine use only. */
-	public void render(GameObject go, int renderingProgram, Matrix4f pMat, Matrix4f vMat)
+	/** for engine use only - draws a single object, setting all of the state it needs. */
+	public void render(GameObject go, ShaderProgram program, Matrix4f pMat, Matrix4f vMat)
 	{	GL4 gl = (GL4) GLContext.getCurrentGL();
 
+		useProgram(program);
+		bindShape(go.getShape());
+
+		if (go.getTextureImage() != null)
+			thisTexture = go.getTextureImage().getTexture();
+		else
+			thisTexture = engine.getRenderSystem().getDefaultTexture();
+		bindTexture(thisTexture, (go.getRenderStates()).getTiling());
+
+		activeSkyBoxTexture = (engine.getSceneGraph()).getActiveSkyBoxTexture();
+		gl.glActiveTexture(GL_TEXTURE1);
+		gl.glBindTexture(GL_TEXTURE_CUBE_MAP, activeSkyBoxTexture);
+
+		bindHeightMap(go.getHeightMap().getTexture());
+
+		if (go.getShape().isWindingOrderCCW())
+			gl.glFrontFace(GL_CCW);
+		else
+			gl.glFrontFace(GL_CW);
+
+		if ((go.getRenderStates()).isWireframe())
+			gl.glPolygonMode(GL_FRONT_AND_BACK, GL_LINE);
+		else
+			gl.glPolygonMode(GL_FRONT_AND_BACK, GL_FILL);
+
+		gl.glEnable(GL_DEPTH_TEST);
+		gl.glDepthFunc(GL_LEQUAL);
+
+		draw(go);
+	}
+
+	/** for engine use only - makes the program current. */
+	public void useProgram(ShaderProgram program)
+	{	GL4 gl = (GL4) GLContext.getCurrentGL();
+		if (program != currentProgram) loadUniformLocations(program);
+		renderingProgram = program.getID();
 		gl.glUseProgram(renderingProgram);
+	}
 
-		mLoc = gl.glGetUniformLocation(renderingProgram, "m_matrix");
-		vLoc = gl.glGetUniformLocation(renderingProgram, "v_matrix");
-		pLoc = gl.glGetUniformLocation(renderingProgram, "p_matrix");
-		nLoc = gl.glGetUniformLocation(renderingProgram, "norm_matrix");
-		tLoc = gl.glGetUniformLocation(renderingProgram, "has_texture");
-		eLoc = gl.glGetUniformLocation(renderingProgram, "envMapped");
-		oLoc = gl.glGetUniformLocation(renderingProgram, "hasLighting");
-		sLoc = gl.glGetUniformLocation(renderingProgram, "solidColor");
-		cLoc = gl.glGetUniformLocation(renderingProgram, "color");
-		hLoc = gl.glGetUniformLocation(renderingProgram, "heightMapped");
-		lLoc = gl.glGetUniformLocation(renderingProgram, "num_lights");
-		fLoc = gl.glGetUniformLocation(renderingProgram, "fields_per_light");
-		globalAmbLoc = gl.glGetUniformLocation(renderingProgram, "globalAmbient");
-		mambLoc = gl.glGetUniformLocation(renderingProgram, "material.ambient");
-		mdiffLoc = gl.glGetUniformLocation(renderingProgram, "material.diffuse");
-		mspecLoc = gl.glGetUniformLocation(renderingProgram, "material.specular");
-		mshiLoc = gl.glGetUniformLocation(renderingProgram, "material.shininess");
-		
-		mMat.identity();
-		mMat.mul(go.getWorldTranslation());
-		mMat.mul(go.getWorldRotation());
-		mMat.mul(go.getRenderStates().getModelOrientationCorrection());
-		mMat.mul(go.getWorldScale());
+	/** for engine use only - binds the shape's VAO, which holds its vertex attributes and indices. */
+	public void bindShape(ObjShape shape)
+	{	GL4 gl = (GL4) GLContext.getCurrentGL();
+		gl.glBindVertexArray(shape.getVAO());
+	}
 
-		if ((go.getRenderStates()).hasSolidColor())
-		{	hasSolidColor = 1;
-			hasTex = 0;
+	/** for engine use only - binds the texture to unit 0 and applies the tiling (0 leaves it as is). */
+	public void bindTexture(int texture, int tiling)
+	{	GL4 gl = (GL4) GLContext.getCurrentGL();
+
+		gl.glActiveTexture(GL_TEXTURE0);
+		gl.glBindTexture(GL_TEXTURE_2D, texture);
+		if (tiling != 0)
+		{	if (tiling == 1) { tilingOption = GL_REPEAT; }
+			else if (tiling == 2) { tilingOption = GL_MIRRORED_REPEAT; }
+			else if (tiling == 3) { tilingOption = GL_CLAMP_TO_EDGE; }
+			gl.glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, tilingOption);
+			gl.glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, tilingOption);
 		}
+	}
+
+	/** for engine use only - binds the height map texture to unit 2. */
+	public void bindHeightMap(int heightMapTexture)
+	{	GL4 gl = (GL4) GLContext.getCurrentGL();
+		gl.glActiveTexture(GL_TEXTURE2);
+		gl.glBindTexture(GL_TEXTURE_2D, heightMapTexture);
+	}
+
+	/**
+	* for engine use only - sets the object's own uniforms and draws it.
+	* The program, shape, textures, and render states must already have been set.
+	*/
+	public void draw(GameObject go)
+	{	GL4 gl = (GL4) GLContext.getCurrentGL();
+
+		computeMatrices(go);
+		gl.glUniformMatrix4fv(mLoc, 1, false, mMat.get(vals));
+		gl.glUniformMatrix4fv(nLoc, 1, false, invTrMat.get(vals));
+		setObjectUniforms(go);
+
+		if (go.getShape().isIndexed())
+			gl.glDrawElements(GL_TRIANGLES, go.getShape().getIndexCount(), GL_UNSIGNED_INT, 0);
 		else
-		{	hasSolidColor = 0;
-			hasTex = 1;
+			gl.glDrawArrays(GL_TRIANGLES, 0, go.getShape().getNumVertices());
+	}
+
+	/**
+	* for engine use only - draws several objects with a single instanced draw call.
+	* The objects must share the same shape, textures, and render states, as only their
+	* model and normal matrices are sent per instance.  The rest is taken from the first object.
+	*/
+	public void drawInstanced(ArrayList<GameObject> gos)
+	{	GL4 gl = (GL4) GLContext.getCurrentGL();
+		int count = gos.size();
+
+		if (instanceVals.capacity() < count * 32)
+			instanceVals = Buffers.newDirectFloatBuffer(java.lang.Math.max(count, instanceVals.capacity() / 16) * 32);
+		instanceVals.clear();
+		for (int i = 0; i < count; i++)
+		{	computeMatrices(gos.get(i));
+			mMat.get(i * 32, instanceVals);
+			invTrMat.get(i * 32 + 16, instanceVals);
 		}
+		instanceVals.limit(count * 32);
+
+		if (instanceBuffer[0] == 0) gl.glGenBuffers(1, instanceBuffer, 0);
+		gl.glBindBuffer(GL_SHADER_STORAGE_BUFFER, instanceBuffer[0]);
+		gl.glBufferData(GL_SHADER_STORAGE_BUFFER, count * 32 * 4, instanceVals, GL_STREAM_DRAW);
+		gl.glBindBufferBase(GL_SHADER_STORAGE_BUFFER, 1, instanceBuffer[0]);
+
+		setObjectUniforms(gos.get(0));
+		gl.glUniform1i(instLoc, 1);
+		ObjShape shape = gos.get(0).getShape();
+		if (shape.isIndexed())
+			gl.glDrawElementsInstanced(GL_TRIANGLES, shape.getIndexCount(), GL_UNSIGNED_INT, 0, count);
+		else
+			gl.glDrawArraysInstanced(GL_TRIANGLES, 0, shape.getNumVertices(), count);
+		gl.glUniform1i(instLoc, 0);
+	}
+
+	private void computeMatrices(GameObject go)
+	{	mMat.set(go.getWorldModelMatrix());
+
+		mMat.invert(invTrMat);
+		invTrMat.transpose(invTrMat);
+	}
+
+	// the uniforms, other than the matrices, that depend on the object being drawn
+	private void setObjectUniforms(GameObject go)
+	{	GL4 gl = (GL4) GLContext.getCurrentGL();
+
+		if ((go.getRenderStates()).hasSolidColor())
+			hasSolidColor = 1;
+		else
+			hasSolidColor = 0;
 
 		if ((go.getRenderStates()).isEnvironmentMapped())
 			isEnvMapped=1;
@@ -93,15 +200,6 @@ public class RenderObjectStandard
 		else
 			hasLighting = 0;
 		
-		gl.glBindBufferBase(GL_SHADER_STORAGE_BUFFER, 0, (engine.getLightManager()).getLightSSBO());
-
-		mMat.invert(invTrMat);
-		invTrMat.transpose(invTrMat);
-
-		gl.glUniformMatrix4fv(mLoc, 1, false, mMat.get(vals));
-		gl.glUniformMatrix4fv(vLoc, 1, false, vMat.get(vals));
-		gl.glUniformMatrix4fv(pLoc, 1, false, pMat.get(vals));
-		gl.glUniformMatrix4fv(nLoc, 1, false, invTrMat.get(vals));
 		if (go.getTextureImage() != null) hasTex=1; else hasTex=0;
 		gl.glUniform1i(tLoc, hasTex);
 		gl.glUniform1i(eLoc, isEnvMapped);
@@ -109,63 +207,29 @@ public class RenderObjectStandard
 		gl.glUniform1i(sLoc, hasSolidColor);
 		gl.glUniform3fv(cLoc, 1, ((go.getRenderStates()).getColor()).get(vals));
 		gl.glUniform1i(hLoc, heightMapped);
-		gl.glUniform1i(lLoc, (engine.getLightManager()).getNumLights());
-		gl.glUniform1i(fLoc, (engine.getLightManager()).getFieldsPerLight());
-		gl.glProgramUniform4fv(renderingProgram, globalAmbLoc, 1, Light.getGlobalAmbient(), 0);
+		gl.glUniform1f(opLoc, (go.getRenderStates()).getOpacity());
 		gl.glProgramUniform4fv(renderingProgram, mambLoc, 1, go.getShape().getMatAmb(), 0);
 		gl.glProgramUniform4fv(renderingProgram, mdiffLoc, 1, go.getShape().getMatDif(), 0);
 		gl.glProgramUniform4fv(renderingProgram, mspecLoc, 1, go.getShape().getMatSpe(), 0);
 		gl.glProgramUniform1f(renderingProgram, mshiLoc, go.getShape().getMatShi());
+	}
 
-		gl.glBindBuffer(GL_ARRAY_BUFFER, go.getShape().getVertexBuffer());
-		gl.glVertexAttribPointer(0, 3, GL_FLOAT, false, 0, 0);
-		gl.glEnableVertexAttribArray(0);
-	
-		gl.glBindBuffer(GL_ARRAY_BUFFER, go.getShape().getTexCoordBuffer());
-		gl.glVertexAttribPointer(1, 2, GL_FLOAT, false, 0, 0);
-		gl.glEnableVertexAttribArray(1);
-
-		gl.glBindBuffer(GL_ARRAY_BUFFER, go.getShape().getNormalBuffer());
-		gl.glVertexAttribPointer(2, 3, GL_FLOAT, false, 0, 0);
-		gl.glEnableVertexAttribArray(2);
-
-		if (hasTex==1)
-			thisTexture = go.getTextureImage().getTexture();
-		else
-			thisTexture = engine.getRenderSystem().getDefaultTexture();
-	
-		gl.glActiveTexture(GL_TEXTURE0);
-		gl.glBindTexture(GL_TEXTURE_2D, thisTexture);
-		tiling = (go.getRenderStates()).getTiling();
-		if (tiling != 0)
-		{	if (tiling == 1) { tilingOption = GL_REPEAT; }
-			else if (tiling == 2) { tilingOption = GL_MIRRORED_REPEAT; }
-			else if (tiling == 3) { tilingOption = GL_CLAMP_TO_EDGE; }
-			gl.glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, tilingOption);
-			gl.glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, tilingOption);
-		}
-
-		activeSkyBoxTexture = (engine.getSceneGraph()).getActiveSkyBoxTexture();
-		gl.glActiveTexture(GL_TEXTURE1);
-		gl.glBindTexture(GL_TEXTURE_CUBE_MAP, activeSkyBoxTexture);
-
-		heightMapTexture = go.getHeightMap().getTexture();
-		gl.glActiveTexture(GL_TEXTURE2);
-		gl.glBindTexture(GL_TEXTURE_2D, heightMapTexture);
-
-		if (go.getShape().isWindingOrderCCW())
-			gl.glFrontFace(GL_CCW);
-		else
-			gl.glFrontFace(GL_CW);
-
-		if ((go.getRenderStates()).isWireframe())
-			gl.glPolygonMode(GL_FRONT_AND_BACK, GL_LINE);
-		else
-			gl.glPolygonMode(GL_FRONT_AND_BACK, GL_FILL);
-
-		gl.glEnable(GL_DEPTH_TEST);
-		gl.glDepthFunc(GL_LEQUAL);
-
-		gl.glDrawArrays(GL_TRIANGLES, 0, go.getShape().getNumVertices());
+	// the view, projection, and light uniforms are set once per viewport by the RenderSystem
+	private void loadUniformLocations(ShaderProgram program)
+	{	currentProgram = program;
+		mLoc = program.getUniformLocation("m_matrix");
+		nLoc = program.getUniformLocation("norm_matrix");
+		tLoc = program.getUniformLocation("has_texture");
+		eLoc = program.getUniformLocation("envMapped");
+		oLoc = program.getUniformLocation("hasLighting");
+		sLoc = program.getUniformLocation("solidColor");
+		cLoc = program.getUniformLocation("color");
+		hLoc = program.getUniformLocation("heightMapped");
+		opLoc = program.getUniformLocation("opacity");
+		instLoc = program.getUniformLocation("instanced");
+		mambLoc = program.getUniformLocation("material.ambient");
+		mdiffLoc = program.getUniformLocation("material.diffuse");
+		mspecLoc = program.getUniformLocation("material.specular");
+		mshiLoc = program.getUniformLocation("material.shininess");
 	}
 }
\ No newline at end of file
@@ -47,6 +47,12 @@ public abstract class ManualObject extends ObjShape
 
 	// ------------- PUBLIC SETTERS FOR INDEXED MODELS -----------------
 
+	/** Sets the indices for an indexed model, which is then drawn with its vertices kept indexed.
+	* The vertices, texture coordinates, and normals are loaded with the non-indexed setters, one per unique vertex,
+	* and the number of vertices is the number of unique vertices.
+	*/
+	public void setIndices(int[] indices) { super.setIndices(indices); }
+
 	/** Loads vertex data for indexed models, where data is provided in an array of Vector3f.
 	* Data is then converted and stored as non-indexed.
 	*/
@@ -91,10 +91,10 @@ public class Sphere extends ObjShape
 	}	}	}
 
 	private void loadVertexArrays()
-	{	setNumVertices(this.getNumIndices());
-		setVerticesIndexed(this.getIndices(), this.getVerticesVector());
-		setTexCoordsIndexed(this.getIndices(), this.getTexCoordsVector());
-		setNormalsIndexed(this.getIndices(), this.getNormalsVector());
+	{	setVertices(this.getVerticesVector());
+		setTexCoords(this.getTexCoordsVector());
+		setNormals(this.getNormalsVector());
+		setIndices(this.getIndices());
 		setWindingOrderCCW(true);
 	}
 
@@ -78,10 +78,10 @@ public class TerrainPlane extends ObjShape
 	}	}	}
 
 	private void loadVertexArrays()
-	{	setNumVertices(this.getNumIndices());
-		setVerticesIndexed(this.getIndices(), this.getVerticesVector());
-		setTexCoordsIndexed(this.getIndices(), this.getTexCoordsVector());
-		setNormalsIndexed(this.getIndices(), this.getNormalsVector());
+	{	setVertices(this.getVerticesVector());
+		setTexCoords(this.getTexCoordsVector());
+		setNormals(this.getNormalsVector());
+		setIndices(this.getIndices());
 		setWindingOrderCCW(true);
 	}
 
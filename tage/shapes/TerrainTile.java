@@ -0,0 +1,109 @@
+package tage.shapes;
+
+import tage.*;
+import org.joml.*;
+
+/**
+* TerrainTile is one square piece of a terrain plane, intended for height mapping as part of a ChunkedTerrain.
+* <p>
+* The whole terrain plane spans -1 to 1 on the X and Z axes, as a TerrainPlane does, and is divided
+* into tilesPerSide by tilesPerSide tiles.  A tile covers only its own part of the plane, but its texture
+* coordinates are those of the whole plane, so that the height map and texture line up across the tiles.
+* The resolution is the number of squares along each side of the tile.
+* <p>
+* Each edge has a skirt: a strip that hangs down by skirtDepth below the surface.  Where a tile
+* meets a neighbor of a different resolution, their edges don't quite match, and the skirts fill the gap.
+* The skirts are double-sided, and the winding order of the surface is CCW.
+* <p>
+* The indices depend only on the resolution, so tiles of the same resolution can share them,
+* which the renderer then loads into a single element buffer.
+*/
+public class TerrainTile extends ObjShape
+{
+	private int res;
+
+	/** creates the tile at column tileX and row tileZ of a terrain plane divided into tilesPerSide tiles on each side. */
+	public TerrainTile(int tileX, int tileZ, int tilesPerSide, int resolution, float skirtDepth)
+	{	this(tileX, tileZ, tilesPerSide, resolution, skirtDepth, null);
+	}
+
+	/**
+	* creates the tile at column tileX and row tileZ, sharing the indices of another tile,
+	* which must have the same resolution.  If the other tile is null, the tile has its own indices.
+	*/
+	public TerrainTile(int tileX, int tileZ, int tilesPerSide, int resolution, float skirtDepth, TerrainTile shareIndicesWith)
+	{	super();
+		if (shareIndicesWith != null && shareIndicesWith.getResolution() != resolution)
+			throw new IllegalArgumentException("can only share indices with a tile of the same resolution");
+		res = resolution;
+		int rowLength = res + 1;
+		int surfaceVertices = rowLength * rowLength;
+		int numVertices = surfaceVertices + 4 * rowLength;
+		Vector3f[] vertices = new Vector3f[numVertices];
+		Vector2f[] texCoords = new Vector2f[numVertices];
+		Vector3f[] normals = new Vector3f[numVertices];
+
+		// the surface, as in TerrainPlane: i steps along X, j along Z
+		float size = 2.0f / tilesPerSide;
+		float x0 = -1.0f + tileX * size;
+		float z0 = -1.0f + tileZ * size;
+		float spacing = size / res;
+		for (int i = 0; i <= res; i++)
+		{	for (int j = 0; j <= res; j++)
+			{	float x = x0 + i * spacing;
+				float z = z0 + j * spacing;
+				vertices[i*rowLength+j] = new Vector3f(x, 0f, z);
+				texCoords[i*rowLength+j] = new Vector2f((x + 1.0f) / 2.0f, 1.0f - (z + 1.0f) / 2.0f);
+				normals[i*rowLength+j] = new Vector3f(0f, 1f, 0f);
+		}	}
+
+		// the skirts: a lowered copy of each edge's vertices, with the same texture coordinates,
+		// so the height mapping lowers them along with the edge
+		int[] edges = new int[4 * rowLength];
+		for (int k = 0; k <= res; k++)
+		{	edges[k] = k;                                  // i = 0
+			edges[rowLength + k] = res*rowLength + k;       // i = res
+			edges[2*rowLength + k] = k*rowLength;          // j = 0
+			edges[3*rowLength + k] = k*rowLength + res;    // j = res
+		}
+		for (int k = 0; k < edges.length; k++)
+		{	Vector3f top = vertices[edges[k]];
+			vertices[surfaceVertices + k] = new Vector3f(top.x, -skirtDepth, top.z);
+			texCoords[surfaceVertices + k] = new Vector2f(texCoords[edges[k]]);
+			normals[surfaceVertices + k] = new Vector3f(0f, 1f, 0f);
+		}
+
+		setNumVertices(numVertices);
+		setVertices(vertices);
+		setTexCoords(texCoords);
+		setNormals(normals);
+		setWindingOrderCCW(true);
+		if (shareIndicesWith != null) { shareIndices(shareIndicesWith); return; }
+
+		int[] indices = new int[res * res * 6 + 4 * res * 12];
+		int n = 0;
+		for (int i = 0; i < res; i++)
+		{	for (int j = 0; j < res; j++)
+			{	indices[n++] = i*rowLength+j;
+				indices[n++] = i*rowLength+j+1;
+				indices[n++] = (i+1)*rowLength+j;
+				indices[n++] = i*rowLength+j+1;
+				indices[n++] = (i+1)*rowLength+j+1;
+				indices[n++] = (i+1)*rowLength+j;
+		}	}
+		for (int e = 0; e < 4; e++)
+		{	for (int k = 0; k < res; k++)
+			{	int a = edges[e*rowLength + k], b = edges[e*rowLength + k + 1];
+				int a2 = surfaceVertices + e*rowLength + k, b2 = a2 + 1;
+				indices[n++] = a;  indices[n++] = b;  indices[n++] = a2;
+				indices[n++] = b;  indices[n++] = b2; indices[n++] = a2;
+				indices[n++] = a;  indices[n++] = a2; indices[n++] = b;
+				indices[n++] = b;  indices[n++] = a2; indices[n++] = b2;
+		}	}
+
+		setIndices(indices);
+	}
+
+	/** returns the number of squares along each side of the tile */
+	public int getResolution() { return res; }
+}
@@ -124,10 +124,10 @@ public class Torus extends ObjShape
 	protected Vector3f[] getTtangentsVector() { return tTangents; }
 
 	private void loadVertexArrays()
-	{	setNumVertices(this.getNumIndices());
-		setVerticesIndexed(this.getIndices(), this.getVerticesVector());
-		setTexCoordsIndexed(this.getIndices(), this.getTexCoordsVector());
-		setNormalsIndexed(this.getIndices(), this.getNormalsVector());
+	{	setVertices(this.getVerticesVector());
+		setTexCoords(this.getTexCoordsVector());
+		setNormals(this.getNormalsVector());
+		setIndices(this.getIndices());
 		setMatAmb(Utils.goldAmbient());
 		setMatDif(Utils.goldDiffuse());
 		setMatSpe(Utils.goldSpecular());